@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+import com.vsct.dt.strowgr.admin.core.configuration.IncomingEntryPointBackendServer;
+import com.vsct.dt.strowgr.admin.core.event.in.CommitCompletedEvent;
+import com.vsct.dt.strowgr.admin.core.event.in.RegisterServerEvent;
+import com.vsct.dt.strowgr.admin.nsq.consumer.EntryPointKeyVsctImpl;
+import com.vsct.dt.strowgr.admin.nsq.consumer.NSQPayloadDecoder;
+import com.vsct.dt.strowgr.admin.nsq.payload.CommitCompleted;
+import com.vsct.dt.strowgr.admin.nsq.payload.RegisterServer;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.Header;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.Server;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the decoding of the NSQ messages sent by the sidekicks into core events: the streaming
+ * {@link NSQPayloadDecoder} against the binding of the payload objects by an {@link ObjectMapper}, then copied into the
+ * events.
+ * <p>
+ * register_server messages are parameterized by the number of context entries of their server. Run with '-prof gc'
+ * for the allocation rate:
+ * <pre>
+ * java -jar admin/admin-benchmark/target/benchmarks.jar NSQPayloadDecoderBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NSQPayloadDecoderBenchmark {
+
+    @Param({"0", "5", "50"})
+    public int contextSize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final NSQPayloadDecoder decoder = new NSQPayloadDecoder(objectMapper.getFactory());
+
+    private byte[] registerServer;
+    private byte[] commitCompleted;
+
+    @Setup
+    public void setUp() throws IOException {
+        Map<String, String> context = new HashMap<>();
+        for (int i = 0; i < contextSize; i++) {
+            context.put("server_key_" + i, "server_value_" + i);
+        }
+        Header header = new Header("16f484b9-3935-415b-bd8e-aaeaaf1020ac", "OCE", "REC1", 1467824168749L, "sidekick-hapocer1-master");
+        registerServer = objectMapper.writeValueAsBytes(new RegisterServer(header, new Server("server_1", "WS", "10.98.0.1", "8080", context)));
+        commitCompleted = objectMapper.writeValueAsBytes(new CommitCompleted(header));
+    }
+
+    @Benchmark
+    public RegisterServerEvent registerServerObjectMapper() throws IOException {
+        RegisterServer payload = objectMapper.readValue(registerServer, RegisterServer.class);
+        return new RegisterServerEvent(payload.getHeader().getCorrelationId(),
+                new EntryPointKeyVsctImpl(payload.getHeader().getApplication(), payload.getHeader().getPlatform()),
+                payload.getServer().getBackendId(),
+                Sets.newHashSet(new IncomingEntryPointBackendServer(
+                        payload.getServer().getId(),
+                        payload.getServer().getIp(),
+                        payload.getServer().getPort(),
+                        payload.getServer().getContext()
+                )));
+    }
+
+    @Benchmark
+    public RegisterServerEvent registerServerStreaming() throws IOException {
+        return decoder.decodeRegisterServer(registerServer);
+    }
+
+    @Benchmark
+    public CommitCompletedEvent commitCompletedObjectMapper() throws IOException {
+        CommitCompleted payload = objectMapper.readValue(commitCompleted, CommitCompleted.class);
+        return new CommitCompletedEvent(payload.getHeader().getCorrelationId(),
+                new EntryPointKeyVsctImpl(payload.getHeader().getApplication(), payload.getHeader().getPlatform()));
+    }
+
+    @Benchmark
+    public CommitCompletedEvent commitCompletedStreaming() throws IOException {
+        return decoder.decodeCommitCompleted(commitCompleted);
+    }
+}
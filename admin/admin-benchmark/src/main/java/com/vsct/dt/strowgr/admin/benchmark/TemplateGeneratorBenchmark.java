@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.benchmark;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.Resources;
+import com.vsct.dt.strowgr.admin.core.IncompleteConfigurationException;
+import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackend;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackendServer;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPointFrontend;
+import com.vsct.dt.strowgr.admin.template.generator.MustacheTemplateGenerator;
+import com.vsct.dt.strowgr.admin.template.generator.StrowgrMustacheScope;
+import com.vsct.dt.strowgr.admin.template.generator.TreeTemplateGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the generation of haproxy configurations: template compilation, scope build, rendering and syslog
+ * fragment.
+ * <p>
+ * Workloads are parameterized by the shape of the entrypoint, 'frontends x backends x servers per backend' up to 5000
+ * servers, by the number of context keys of the entrypoint and of each of its elements, and by the template of the
+ * 'static' directory. The templates read the frontend and the backend named 'WS', the other ones are rendered by
+ * templates iterating over all frontends or backends only. Both template engines are measured.
+ * <p>
+ * Throughput and sampled latency are measured; run with '-prof gc' for the allocation rate:
+ * <pre>
+ * java -jar admin/admin-benchmark/target/benchmarks.jar TemplateGeneratorBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateGeneratorBenchmark {
+
+    @Param({"1x1x10", "10x10x50", "10x50x100"})
+    public String shape;
+
+    @Param({"2", "100"})
+    public int contextSize;
+
+    @Param({"template_haproxy.conf", "template_haproxy_extended.conf"})
+    public String template;
+
+    /* 0 disables the cache of rendered sections of the mustache engine */
+    @Param({"0", "33554432"})
+    public long fragmentCacheSize;
+
+    @Param({"mustache", "tree"})
+    public String engine;
+
+    private String templateContent;
+    private EntryPoint entryPoint;
+    private Map<String, Integer> portsMapping;
+    private TemplateGenerator generator;
+
+    @Setup
+    public void setUp() throws IOException, IncompleteConfigurationException {
+        templateContent = Resources.toString(Resources.getResource(template), StandardCharsets.UTF_8);
+
+        String[] dimensions = shape.split("x");
+        int frontends = Integer.parseInt(dimensions[0]);
+        int backends = Integer.parseInt(dimensions[1]);
+        int servers = Integer.parseInt(dimensions[2]);
+
+        portsMapping = new HashMap<>();
+        portsMapping.put(EntryPoint.SYSLOG_PORT_ID, 54250);
+        Set<EntryPointFrontend> frontendSet = new HashSet<>();
+        for (int f = 0; f < frontends; f++) {
+            String id = f == 0 ? "WS" : "WS" + f;
+            Map<String, String> frontendContext = context("frontend", contextSize);
+            frontendContext.put("default_backend", "WS");
+            frontendSet.add(new EntryPointFrontend(id, frontendContext));
+            portsMapping.put(id, 50000 + f);
+        }
+        Set<EntryPointBackend> backendSet = new HashSet<>();
+        for (int b = 0; b < backends; b++) {
+            Set<EntryPointBackendServer> serverSet = new HashSet<>();
+            for (int s = 0; s < servers; s++) {
+                serverSet.add(new EntryPointBackendServer("server_" + b + "_" + s, "10.98." + b + "." + (s % 250), String.valueOf(8000 + s), context("server", contextSize), new HashMap<>()));
+            }
+            backendSet.add(new EntryPointBackend(b == 0 ? "WS" : "WS" + b, serverSet, context("backend", contextSize)));
+        }
+        Map<String, String> entryPointContext = context("entrypoint", contextSize);
+        entryPointContext.put("application", "OCE");
+        entryPointContext.put("platform", "REC1");
+        entryPoint = new EntryPoint("default-name", "hapocer1", "1.4.22", 0, frontendSet, backendSet, entryPointContext);
+
+        generator = newGenerator(100);
+        // fail fast on an incomplete workload
+        generator.generate(templateContent, entryPoint, portsMapping);
+    }
+
+    private TemplateGenerator newGenerator(int cacheSize) {
+        if ("tree".equals(engine)) {
+            return new TreeTemplateGenerator(cacheSize, new MetricRegistry());
+        }
+        return new MustacheTemplateGenerator(cacheSize, fragmentCacheSize, new MetricRegistry());
+    }
+
+    private static Map<String, String> context(String prefix, int size) {
+        Map<String, String> context = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            context.put(prefix + "_key_" + i, prefix + "_value_" + i);
+        }
+        return context;
+    }
+
+    /**
+     * Compiles the template with a new generator, so without any cache.
+     */
+    @Benchmark
+    public Object compile() {
+        return newGenerator(1).dependencies(templateContent);
+    }
+
+    /**
+     * Builds the scope and walks all its frontends, backends and servers, as a template iterating over them does.
+     */
+    @Benchmark
+    public void scope(Blackhole blackhole) {
+        StrowgrMustacheScope scope = new StrowgrMustacheScope(entryPoint, portsMapping);
+        for (Object frontend : (Iterable<?>) scope.get("frontends")) {
+            blackhole.consume(((Map<?, ?>) frontend).get("port"));
+        }
+        for (Object backend : (Iterable<?>) scope.get("backends")) {
+            for (Object server : (Iterable<?>) ((Map<?, ?>) backend).get("servers")) {
+                blackhole.consume(((Map<?, ?>) server).get("ip"));
+            }
+        }
+    }
+
+    @Benchmark
+    public String render() throws IncompleteConfigurationException {
+        return generator.generate(templateContent, entryPoint, portsMapping);
+    }
+
+    @Benchmark
+    public byte[] renderBytes() throws IncompleteConfigurationException {
+        return generator.generateBytes(templateContent, entryPoint, portsMapping);
+    }
+
+    @Benchmark
+    public String syslogFragment() {
+        return generator.generateSyslogFragment(entryPoint, portsMapping);
+    }
+}
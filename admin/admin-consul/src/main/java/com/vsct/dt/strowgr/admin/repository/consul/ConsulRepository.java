@@ -198,6 +198,31 @@ public class ConsulRepository implements EntryPointRepository, PortRepository, H
         return result;
     }
 
+    @Override
+    public Map<String, EntryPoint> getCurrentConfigurations() {
+        Map<String, EntryPoint> result = new HashMap<>();
+        try {
+            HttpGet getAllURI = new HttpGet("http://" + host + ":" + port + "/v1/kv/admin?recurse");
+            List<ConsulItem<String>> consulItems = client.execute(getAllURI, httpResponse ->
+                    consulReader.parseHttpResponseAccepting404(httpResponse, consulReader::parseConsulItemsFromHttpEntity)
+                            .orElseGet(ArrayList::new));
+            for (ConsulItem<String> consulItem : consulItems) {
+                String key = consulItem.getKey();
+                if (consulItem.getValue() != null && key.startsWith("admin/") && key.endsWith("/current")) {
+                    String id = key.substring("admin/".length(), key.length() - "/current".length());
+                    try {
+                        result.put(id, mapper.readValue(Base64.getDecoder().decode(consulItem.getValue()), EntryPointMappingJson.class));
+                    } catch (IOException | IllegalArgumentException e) {
+                        LOGGER.error("can't read current configuration of entrypoint {}", id, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("error in consul repository", e);
+        }
+        return result;
+    }
+
     @Override
     public Set<String> getEntryPointsId() {
         try {
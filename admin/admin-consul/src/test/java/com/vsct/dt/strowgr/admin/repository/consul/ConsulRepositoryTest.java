@@ -15,7 +15,9 @@
  */
 package com.vsct.dt.strowgr.admin.repository.consul;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vsct.dt.strowgr.admin.core.EntryPointKeyDefaultImpl;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
@@ -27,6 +29,9 @@ import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
 import java.util.Optional;
 
 import static java.lang.Boolean.FALSE;
@@ -170,6 +175,27 @@ public class ConsulRepositoryTest {
         verify(closeableHttpClient, times(1)).execute(argThat(httpPutAdmin), any(ResponseHandler.class));
     }
 
+    @Test
+    public void should_read_current_configurations_of_all_entrypoints_in_one_request() throws IOException {
+        // given
+        ConsulReader consulReader = mock(ConsulReader.class);
+        CloseableHttpClient closeableHttpClient = mock(CloseableHttpClient.class);
+        ConsulRepository consulRepository = new ConsulRepository("localhost", 50080, 32_000, 64_000, new ObjectMapper(), consulReader, closeableHttpClient);
+        String current = Base64.getEncoder().encodeToString("{\"haproxy\":\"default-name\",\"hapUser\":\"hapadm\",\"hapVersion\":\"1.6\",\"bindingId\":0,\"frontends\":[],\"backends\":[],\"context\":{}}".getBytes());
+        when(closeableHttpClient.execute(argThat(new HttpMatcher("http://localhost:50080/v1/kv/admin?recurse", "GET")), any(ResponseHandler.class))).thenReturn(Arrays.asList(
+                new ConsulItem<>(0, "admin/APP/PLATFORM/current", 0L, current, 1L, 1L),
+                new ConsulItem<>(0, "admin/APP/PLATFORM/pending", 0L, current, 1L, 1L),
+                new ConsulItem<>(0, "admin/APP/PLATFORM/autoreload", 0L, "dHJ1ZQ==", 1L, 1L)));
+
+        // test
+        Map<String, EntryPoint> configurations = consulRepository.getCurrentConfigurations();
+
+        // check
+        assertThat(configurations).hasSize(1);
+        assertThat(configurations.get("APP/PLATFORM").getHaproxy()).isEqualTo("default-name");
+        verify(closeableHttpClient, times(1)).execute(any(HttpRequestBase.class), any(ResponseHandler.class));
+    }
+
     private class HttpMatcher extends ArgumentMatcher<HttpRequestBase> {
 
         private final String uri;
@@ -15,6 +15,7 @@
  */
 package com.vsct.dt.strowgr.admin.core;
 
+import com.google.common.hash.Hashing;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPointFrontend;
 import com.vsct.dt.strowgr.admin.core.configuration.IncomingEntryPointBackendServer;
@@ -22,12 +23,16 @@ import com.vsct.dt.strowgr.admin.core.event.in.*;
 import com.vsct.dt.strowgr.admin.core.event.out.CommitRequestedEvent;
 import com.vsct.dt.strowgr.admin.core.repository.HaproxyRepository;
 import com.vsct.dt.strowgr.admin.core.repository.PortRepository;
+import com.vsct.dt.strowgr.admin.core.tracking.CommitLatencyTracker;
 import org.reactivestreams.Subscriber;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
 public class EntryPointEventHandler {
@@ -39,24 +44,29 @@ public class EntryPointEventHandler {
     private final TemplateGenerator templateGenerator;
     private final TemplateLocator templateLocator;
     private final PortRepository portRepository;
+    private final CommitLatencyTracker commitLatencyTracker;
 
     private final Subscriber<CommitRequestedEvent> commitRequestedSubscriber;
 
     public EntryPointEventHandler(EntryPointStateManager stateManager, PortRepository portRepository,
                                   HaproxyRepository haproxyRepository, TemplateLocator templateLocator,
                                   TemplateGenerator templateGenerator,
-                                  Subscriber<CommitRequestedEvent> commitRequestedSubscriber) {
+                                  Subscriber<CommitRequestedEvent> commitRequestedSubscriber,
+                                  CommitLatencyTracker commitLatencyTracker) {
         this.stateManager = stateManager;
         this.portRepository = portRepository;
         this.haproxyRepository = haproxyRepository;
         this.templateLocator = templateLocator;
         this.templateGenerator = templateGenerator;
         this.commitRequestedSubscriber = commitRequestedSubscriber;
+        this.commitLatencyTracker = commitLatencyTracker;
     }
 
     public void handle(RegisterServerEvent event) {
         LOGGER.info("handles {}", event);
         EntryPointKey key = event.getKey();
+        commitLatencyTracker.received(event.getCorrelationId(), key);
+        boolean prepared = false;
         try {
 
             if (this.stateManager.lock(key)) {
@@ -70,25 +80,34 @@ public class EntryPointEventHandler {
                                                 })))
                 );
 
-                existingConfiguration.map(c -> c.registerServers(event.getBackend(), event.getServers())).ifPresent(c -> {
-                    Optional<EntryPoint> preparedConfiguration = stateManager.prepare(key, c);
-
-                    if (preparedConfiguration.isPresent()) {
-                        LOGGER.info("new servers registered for EntryPoint {}", event.getKey().getID());
-                        if (LOGGER.isDebugEnabled()) {
-                            for (IncomingEntryPointBackendServer server : event.getServers()) {
-                                LOGGER.debug("- registered server {}", server);
+                Optional<EntryPoint> preparedConfiguration = existingConfiguration
+                        .map(c -> c.registerServers(event.getBackend(), event.getServers()))
+                        .flatMap(c -> {
+                            Optional<EntryPoint> configuration = stateManager.prepare(key, c);
+                            if (!configuration.isPresent()) {
+                                LOGGER.warn("can't prepare configuration on key {}", key);
                             }
+                            return configuration;
+                        });
+
+                if (preparedConfiguration.isPresent()) {
+                    prepared = true;
+                    commitLatencyTracker.prepared(event.getCorrelationId(), key);
+                    LOGGER.info("new servers registered for EntryPoint {}", event.getKey().getID());
+                    if (LOGGER.isDebugEnabled()) {
+                        for (IncomingEntryPointBackendServer server : event.getServers()) {
+                            LOGGER.debug("- registered server {}", server);
                         }
-                    } else {
-                        LOGGER.warn("can't prepare configuration on key {}", key);
                     }
-                });
+                }
             }
 
         } catch (Exception e) {
             LOGGER.error("Following error occurred while registering server {} for entry point {}", event, key, e);
         } finally {
+            if (!prepared) {
+                commitLatencyTracker.discarded(event.getCorrelationId(), key);
+            }
             this.stateManager.release(key);
         }
     }
@@ -105,7 +124,19 @@ public class EntryPointEventHandler {
                         stateManager.cancelCommit(entryPointKey);
                         LOGGER.debug("skip tryCommitCurrent for event {} because haproxy {} or entrypoint {} is not in autoreload mode", event, configuration.getHaproxy(), entryPointKey);
                     } else {
-                        CommitRequestedEvent commitRequestedEvent = getCommitRequestedEvent(event.getCorrelationId(), entryPointKey, configuration);
+                        String template;
+                        CommitRequestedEvent commitRequestedEvent;
+                        try {
+                            template = readTemplate(entryPointKey, configuration);
+                            commitRequestedEvent = getCommitRequestedEvent(event.getCorrelationId(), entryPointKey, configuration, template);
+                        } catch (RuntimeException | IncompleteConfigurationException e) {
+                            // no committing configuration left to block the next commits until its timeout
+                            stateManager.cancelCommit(entryPointKey);
+                            throw e;
+                        }
+                        stateManager.setCommittingTemplate(entryPointKey, fingerprint(template));
+                        // tracked once rendered, a failed rendering leaving no trace waiting for a completion
+                        commitLatencyTracker.committing(event.getCorrelationId(), entryPointKey);
                         LOGGER.trace("from handle -> post to event bus event {}", commitRequestedEvent);
                         commitRequestedSubscriber.onNext(commitRequestedEvent);
                     }
@@ -131,9 +162,31 @@ public class EntryPointEventHandler {
                         stateManager.prepare(entryPointKey, configuration);
                         LOGGER.debug("skip tryCommitPending for event {} because haproxy {}  or entrypoint {} is not in autoreload mode", event, configuration.getHaproxy(), entryPointKey);
                     } else {
-                        CommitRequestedEvent commitRequestedEvent = getCommitRequestedEvent(event.getCorrelationId(), entryPointKey, configuration);
-                        LOGGER.trace("from handle -> post to event bus event {}", commitRequestedEvent);
-                        commitRequestedSubscriber.onNext(commitRequestedEvent);
+                        String templateFingerprint;
+                        CommitRequestedEvent commitRequestedEvent;
+                        try {
+                            String template = readTemplate(entryPointKey, configuration);
+                            templateFingerprint = fingerprint(template);
+                            commitRequestedEvent = rendersAsCurrent(entryPointKey, configuration, template, templateFingerprint)
+                                    ? null
+                                    : getCommitRequestedEvent(event.getCorrelationId(), entryPointKey, configuration, template);
+                        } catch (RuntimeException | IncompleteConfigurationException e) {
+                            // pending again, the change is committed on a next try instead of being lost
+                            stateManager.cancelCommit(entryPointKey);
+                            stateManager.prepare(entryPointKey, configuration);
+                            throw e;
+                        }
+                        stateManager.setCommittingTemplate(entryPointKey, templateFingerprint);
+                        if (commitRequestedEvent == null) {
+                            // haproxy would receive its current configuration again
+                            stateManager.commit(entryPointKey);
+                            commitLatencyTracker.skipped(event.getCorrelationId(), entryPointKey);
+                            LOGGER.debug("pending configuration of {} only changes keys its template does not read, it is committed without haproxy", entryPointKey);
+                        } else {
+                            commitLatencyTracker.committing(event.getCorrelationId(), entryPointKey);
+                            LOGGER.trace("from handle -> post to event bus event {}", commitRequestedEvent);
+                            commitRequestedSubscriber.onNext(commitRequestedEvent);
+                        }
                     }
                 }
             }
@@ -144,9 +197,40 @@ public class EntryPointEventHandler {
         }
     }
 
-    private CommitRequestedEvent getCommitRequestedEvent(String correlationId, EntryPointKey entryPointKey, EntryPoint configuration) throws IncompleteConfigurationException {
+    /**
+     * A configuration renders as the current one if haproxy received the current configuration with the same template,
+     * if this template does not read anything which differs between both configurations, and if both configurations
+     * render the same syslog fragment.
+     */
+    private boolean rendersAsCurrent(EntryPointKey entryPointKey, EntryPoint configuration, String template, String templateFingerprint) {
+        TemplateDependencies dependencies = templateGenerator.dependencies(template);
+        if (dependencies == null || !stateManager.getCurrentTemplate(entryPointKey).map(templateFingerprint::equals).orElse(false)) {
+            return false;
+        }
+        return stateManager.getCurrentConfiguration(entryPointKey)
+                .map(current -> dependencies.rendersEqually(current, configuration) && rendersSameSyslogFragment(current, configuration))
+                .orElse(false);
+    }
+
+    /**
+     * The syslog fragment is sent with each commit and reads the context of the entrypoint, like its application and
+     * platform, on its own. Both fragments are rendered with a same syslog port, the port of an entrypoint being the
+     * same for all its configurations.
+     */
+    private boolean rendersSameSyslogFragment(EntryPoint current, EntryPoint configuration) {
+        Map<String, Integer> portsMapping = Collections.singletonMap(configuration.syslogPortId(), 0);
+        return Objects.equals(templateGenerator.generateSyslogFragment(current, portsMapping), templateGenerator.generateSyslogFragment(configuration, portsMapping));
+    }
+
+    private static String fingerprint(String template) {
+        return Hashing.sha256().hashString(template, StandardCharsets.UTF_8).toString();
+    }
+
+    private String readTemplate(EntryPointKey entryPointKey, EntryPoint configuration) {
+        return templateLocator.readTemplate(configuration).orElseThrow(() -> new RuntimeException("Could not find any template for configuration " + entryPointKey));
+    }
 
-        String template = templateLocator.readTemplate(configuration).orElseThrow(() -> new RuntimeException("Could not find any template for configuration " + entryPointKey));
+    private CommitRequestedEvent getCommitRequestedEvent(String correlationId, EntryPointKey entryPointKey, EntryPoint configuration, String template) throws IncompleteConfigurationException {
 
         Map<String, Integer> portsMapping = new HashMap<>();
 
@@ -158,8 +242,8 @@ public class EntryPointEventHandler {
             portsMapping.put(frontend.portId(), frontendPort);
         }
 
-        String conf = templateGenerator.generate(template, configuration, portsMapping);
-        String syslogConf = templateGenerator.generateSyslogFragment(configuration, portsMapping);
+        byte[] conf = templateGenerator.generateBytes(template, configuration, portsMapping);
+        byte[] syslogConf = templateGenerator.generateSyslogFragment(configuration, portsMapping).getBytes(StandardCharsets.UTF_8);
         String bind = haproxyRepository.getHaproxyProperty(configuration.getHaproxy(), "binding/" + configuration.getBindingId()).orElseThrow(() -> new IllegalStateException("Could not find binding " + configuration.getBindingId() + " for haproxy " + configuration.getHaproxy()));
         return new CommitRequestedEvent(correlationId, entryPointKey, configuration, conf, syslogConf, bind);
     }
@@ -167,6 +251,7 @@ public class EntryPointEventHandler {
     public void handle(CommitCompletedEvent event) {
         LOGGER.debug("handles {}", event);
         EntryPointKey key = event.getKey();
+        commitLatencyTracker.completed(event.getCorrelationId());
         try {
             if (this.stateManager.lock(key)) {
                 Optional<String> optionalCorrelationId = stateManager.getCommitCorrelationId(key);
@@ -189,6 +274,7 @@ public class EntryPointEventHandler {
     public void handle(CommitFailedEvent event) {
         LOGGER.debug("handles CommitFailedEvent");
         EntryPointKey key = event.getKey();
+        commitLatencyTracker.failed(event.getCorrelationId());
         try {
             if (this.stateManager.lock(key)) {
                 Optional<String> commitCorrelationId = stateManager.getCommitCorrelationId(key);
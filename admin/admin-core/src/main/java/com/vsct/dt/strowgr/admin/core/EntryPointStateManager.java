@@ -21,6 +21,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -33,6 +35,13 @@ public class EntryPointStateManager {
     private final int commitTimeout;
     private final EntryPointRepository repository;
 
+    /**
+     * Fingerprints of the templates the committing and current configurations were rendered with, by entrypoint id.
+     * They are only kept in memory: after a restart, the current template is unknown until the next commit.
+     */
+    private final ConcurrentMap<String, String> committingTemplates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> currentTemplates = new ConcurrentHashMap<>();
+
     public EntryPointStateManager(int commitTimeout, EntryPointRepository repository) {
         this.repository = checkNotNull(repository);
         this.commitTimeout = commitTimeout;
@@ -126,6 +135,7 @@ public class EntryPointStateManager {
                 LOGGER.debug("can't committing a new pending configuration, there is already one in commit phase.");
             } else {
                 if (repository.setCommittingConfiguration(correlationId, key, pendingConfiguration.get(), commitTimeout)) {
+                    committingTemplates.remove(key.getID());
                     repository.removePendingConfiguration(key);
                     return pendingConfiguration;
                 } else {
@@ -152,6 +162,7 @@ public class EntryPointStateManager {
         if (currentConfiguration.isPresent()) {
             if (!repository.getCommittingConfiguration(key).isPresent()) {
                 if (repository.setCommittingConfiguration(correlationId, key, currentConfiguration.get(), commitTimeout)) {
+                    committingTemplates.remove(key.getID());
                     return currentConfiguration;
                 } else {
                     LOGGER.error("can't set new committing configuration, aborting commit current process");
@@ -177,6 +188,12 @@ public class EntryPointStateManager {
         if (committingConfiguration.isPresent()) {
             repository.setCurrentConfiguration(key, committingConfiguration.get());
             repository.removeCommittingConfiguration(key);
+            String template = committingTemplates.remove(key.getID());
+            if (template == null) {
+                currentTemplates.remove(key.getID());
+            } else {
+                currentTemplates.put(key.getID(), template);
+            }
             return committingConfiguration;
         }
         return Optional.empty();
@@ -190,9 +207,29 @@ public class EntryPointStateManager {
      */
     public Optional<EntryPoint> cancelCommit(EntryPointKey key) {
         repository.removeCommittingConfiguration(key);
+        committingTemplates.remove(key.getID());
         return this.getCommittingConfiguration(key);
     }
 
+    /**
+     * Records the template the committing configuration is rendered with. It becomes the template of the current
+     * configuration when the commit succeeds.
+     *
+     * @param key                 of the entrypoint
+     * @param templateFingerprint of the rendered template
+     */
+    void setCommittingTemplate(EntryPointKey key, String templateFingerprint) {
+        committingTemplates.put(key.getID(), templateFingerprint);
+    }
+
+    /**
+     * @param key of the entrypoint
+     * @return the fingerprint of the template haproxy received the current configuration with, if it is known
+     */
+    Optional<String> getCurrentTemplate(EntryPointKey key) {
+        return Optional.ofNullable(currentTemplates.get(key.getID()));
+    }
+
     /**
      * Returns the correlation id that led to a commit action
      *
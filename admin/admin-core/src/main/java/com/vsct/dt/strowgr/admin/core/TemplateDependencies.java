@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.core;
+
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackend;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackendServer;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPointFrontend;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Variables read by a template, computed once when the template is compiled.
+ * <p>
+ * A context key (of the entrypoint, a frontend, a backend or a server) which is not one of these names can't change
+ * the rendering, so two configurations differing only on such keys render the same haproxy configuration. Names are
+ * taken segment by segment, so 'backend.WS.port' makes 'backend', 'WS' and 'port' relevant: the analysis is
+ * conservative and never ignores a key the template may look up.
+ */
+public final class TemplateDependencies {
+
+    private final Set<String> names;
+    private final Set<String> frontends;
+    private final Set<String> backends;
+
+    /**
+     * @param names     every name segment read by the template, in any section
+     * @param frontends ids of the frontends the template refers to explicitly
+     * @param backends  ids of the backends the template refers to explicitly
+     */
+    public TemplateDependencies(Set<String> names, Set<String> frontends, Set<String> backends) {
+        this.names = Collections.unmodifiableSet(checkNotNull(names));
+        this.frontends = Collections.unmodifiableSet(checkNotNull(frontends));
+        this.backends = Collections.unmodifiableSet(checkNotNull(backends));
+    }
+
+    public Set<String> getNames() {
+        return names;
+    }
+
+    public Set<String> getFrontends() {
+        return frontends;
+    }
+
+    public Set<String> getBackends() {
+        return backends;
+    }
+
+    /**
+     * @return true if both configurations render the same haproxy configuration with this template: they have the same
+     * haproxy, user, version, binding, frontends, backends and servers, and differ at most on context keys the template
+     * does not read.
+     */
+    public boolean rendersEqually(EntryPoint a, EntryPoint b) {
+        if (a.equals(b)) {
+            return true;
+        }
+        if (!a.getHaproxy().equals(b.getHaproxy()) || !a.getHapUser().equals(b.getHapUser())
+                || !Objects.equals(a.getHapVersion(), b.getHapVersion()) || a.getBindingId() != b.getBindingId()
+                || !sameContext(a.contextView(), b.contextView())) {
+            return false;
+        }
+
+        List<EntryPointFrontend> frontendsA = a.sortedFrontends();
+        List<EntryPointFrontend> frontendsB = b.sortedFrontends();
+        if (frontendsA.size() != frontendsB.size()) {
+            return false;
+        }
+        for (int i = 0; i < frontendsA.size(); i++) {
+            if (!frontendsA.get(i).getId().equals(frontendsB.get(i).getId()) || !sameContext(frontendsA.get(i).contextView(), frontendsB.get(i).contextView())) {
+                return false;
+            }
+        }
+
+        List<EntryPointBackend> backendsA = a.sortedBackends();
+        List<EntryPointBackend> backendsB = b.sortedBackends();
+        if (backendsA.size() != backendsB.size()) {
+            return false;
+        }
+        for (int i = 0; i < backendsA.size(); i++) {
+            if (!backendsA.get(i).getId().equals(backendsB.get(i).getId()) || !sameContext(backendsA.get(i).contextView(), backendsB.get(i).contextView())
+                    || !sameServers(backendsA.get(i).sortedServers(), backendsB.get(i).sortedServers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameServers(List<EntryPointBackendServer> serversA, List<EntryPointBackendServer> serversB) {
+        if (serversA.size() != serversB.size()) {
+            return false;
+        }
+        for (int i = 0; i < serversA.size(); i++) {
+            EntryPointBackendServer serverA = serversA.get(i);
+            EntryPointBackendServer serverB = serversB.get(i);
+            if (!serverA.getId().equals(serverB.getId()) || !serverA.getHostname().equals(serverB.getHostname())
+                    || !serverA.getIp().equals(serverB.getIp()) || !serverA.getPort().equals(serverB.getPort())
+                    || !sameContext(serverA.contextView(), serverB.contextView())
+                    || !sameContext(serverA.contextOverrideView(), serverB.contextOverrideView())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameContext(Map<String, String> contextA, Map<String, String> contextB) {
+        for (String name : names) {
+            if (contextA.containsKey(name) != contextB.containsKey(name) || !Objects.equals(contextA.get(name), contextB.get(name))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
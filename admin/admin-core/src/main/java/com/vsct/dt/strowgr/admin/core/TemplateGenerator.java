@@ -17,14 +17,29 @@ package com.vsct.dt.strowgr.admin.core;
 
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
 
 public interface TemplateGenerator {
     String generate(String template, EntryPoint configuration, Map<String, Integer> portsMapping) throws IncompleteConfigurationException;
 
+    /**
+     * Generates the configuration encoded in UTF-8, as sent to haproxy. Implementations may render straight into bytes
+     * to avoid intermediate copies of large configurations.
+     */
+    default byte[] generateBytes(String template, EntryPoint configuration, Map<String, Integer> portsMapping) throws IncompleteConfigurationException {
+        return generate(template, configuration, portsMapping).getBytes(StandardCharsets.UTF_8);
+    }
+
     String generateSyslogFragment(EntryPoint configuration, Map<String, Integer> portsMapping);
 
     Map<String, Set<String>> generateFrontAndBackends(String template);
 
+    /**
+     * @param template content
+     * @return the variables read by the template
+     */
+    TemplateDependencies dependencies(String template);
+
 }
\ No newline at end of file
@@ -40,6 +40,10 @@ public class EntryPoint {
     private final HashMap<String, EntryPointFrontend> frontends;
     private final HashMap<String, EntryPointBackend> backends;
 
+    /* lazily sorted views, an entrypoint being immutable */
+    private volatile List<EntryPointFrontend> sortedFrontends;
+    private volatile List<EntryPointBackend> sortedBackends;
+
     public EntryPoint(String haproxy, String hapUser, String hapVersion, int bindingId,
                       Set<EntryPointFrontend> frontends, Set<EntryPointBackend> backends, Map<String, String> context) {
         this.haproxy = checkStringNotEmpty(haproxy, "EntryPointConfiguration should have an haproxy id");
@@ -84,6 +88,10 @@ public class EntryPoint {
         return new EntryPoint(this.haproxy, this.hapUser, this.hapVersion, this.bindingId, this.frontends, newBackends, this.context);
     }
 
+    public Optional<EntryPointFrontend> getFrontend(String id) {
+        return Optional.ofNullable(frontends.get(id));
+    }
+
     public Optional<EntryPointBackend> getBackend(String id) {
         return Optional.ofNullable(backends.get(id));
     }
@@ -149,6 +157,37 @@ public class EntryPoint {
         return new HashMap<>(context);
     }
 
+    /**
+     * @return read-only view of the context, without the copy of {@link #getContext()}
+     */
+    public Map<String, String> contextView() {
+        return Collections.unmodifiableMap(context);
+    }
+
+    /**
+     * @return frontends ordered by id, computed once per entrypoint
+     */
+    public List<EntryPointFrontend> sortedFrontends() {
+        List<EntryPointFrontend> sorted = sortedFrontends;
+        if (sorted == null) {
+            sorted = frontends.values().stream().sorted(Comparator.comparing(EntryPointFrontend::getId)).collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+            sortedFrontends = sorted;
+        }
+        return sorted;
+    }
+
+    /**
+     * @return backends ordered by id, computed once per entrypoint
+     */
+    public List<EntryPointBackend> sortedBackends() {
+        List<EntryPointBackend> sorted = sortedBackends;
+        if (sorted == null) {
+            sorted = backends.values().stream().sorted(Comparator.comparing(EntryPointBackend::getId)).collect(Collectors.collectingAndThen(Collectors.toList(), Collections::unmodifiableList));
+            sortedBackends = sorted;
+        }
+        return sorted;
+    }
+
     public Set<EntryPointFrontend> getFrontends() {
         return new HashSet<>(frontends.values());
     }
@@ -26,6 +26,9 @@ public class EntryPointBackend {
     private final HashMap<String, EntryPointBackendServer> servers;
     private final HashMap<String, String> context;
 
+    /* lazily sorted view, a backend being immutable */
+    private volatile List<EntryPointBackendServer> sortedServers;
+
     public EntryPointBackend(String id) {
         this(id, new HashSet<>(), new HashMap<>());
     }
@@ -61,6 +64,27 @@ public class EntryPointBackend {
         return new HashMap<>(context);
     }
 
+    /**
+     * @return read-only view of the context, without the copy of {@link #getContext()}
+     */
+    public Map<String, String> contextView() {
+        return Collections.unmodifiableMap(context);
+    }
+
+    /**
+     * @return servers ordered by id, computed once per backend
+     */
+    public List<EntryPointBackendServer> sortedServers() {
+        List<EntryPointBackendServer> sorted = sortedServers;
+        if (sorted == null) {
+            List<EntryPointBackendServer> servers = new ArrayList<>(this.servers.values());
+            servers.sort(Comparator.comparing(EntryPointBackendServer::getId));
+            sorted = Collections.unmodifiableList(servers);
+            sortedServers = sorted;
+        }
+        return sorted;
+    }
+
     public Optional<EntryPointBackendServer> getServer(String name) {
         return Optional.ofNullable(servers.get(name));
     }
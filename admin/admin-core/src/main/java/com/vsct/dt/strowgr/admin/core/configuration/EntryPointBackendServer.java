@@ -17,6 +17,7 @@ package com.vsct.dt.strowgr.admin.core.configuration;
 
 import com.google.common.collect.ImmutableMap;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -67,6 +68,20 @@ public class EntryPointBackendServer {
         return new HashMap<>(contextOverride);
     }
 
+    /**
+     * @return read-only view of the context, without the copy of {@link #getContext()}
+     */
+    public Map<String, String> contextView() {
+        return Collections.unmodifiableMap(context);
+    }
+
+    /**
+     * @return read-only view of the context override, without the copy of {@link #getContextOverride()}
+     */
+    public Map<String, String> contextOverrideView() {
+        return Collections.unmodifiableMap(contextOverride);
+    }
+
     public EntryPointBackendServer put(String key, String value) {
         ImmutableMap<String, String> context = ImmutableMap.<String, String>builder().put(key, value).putAll(this.context).build();
         return new EntryPointBackendServer(this.id, this.ip, this.port, context, contextOverride);
@@ -15,6 +15,7 @@
  */
 package com.vsct.dt.strowgr.admin.core.configuration;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -39,6 +40,13 @@ public class EntryPointFrontend {
         return new HashMap<>(context);
     }
 
+    /**
+     * @return read-only view of the context, without the copy of {@link #getContext()}
+     */
+    public Map<String, String> contextView() {
+        return Collections.unmodifiableMap(context);
+    }
+
     public String portId() {
         return this.id;
     }
@@ -18,6 +18,7 @@ package com.vsct.dt.strowgr.admin.core.entrypoint;
 import com.vsct.dt.strowgr.admin.core.EntryPointKey;
 import com.vsct.dt.strowgr.admin.core.EntryPointStateManager;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.core.tracking.CommitLatencyTracker;
 import io.reactivex.functions.Consumer;
 
 import java.util.Optional;
@@ -26,14 +27,19 @@ public class UpdateEntryPointSubscriber implements Consumer<UpdateEntryPointEven
 
     private final EntryPointStateManager stateManager;
 
-    public UpdateEntryPointSubscriber(EntryPointStateManager stateManager) {
+    private final CommitLatencyTracker commitLatencyTracker;
+
+    public UpdateEntryPointSubscriber(EntryPointStateManager stateManager, CommitLatencyTracker commitLatencyTracker) {
         this.stateManager = stateManager;
+        this.commitLatencyTracker = commitLatencyTracker;
     }
 
     @Override
     public void accept(UpdateEntryPointEvent updateEntryPointEvent) {
 
         EntryPointKey entryPointKey = updateEntryPointEvent.getKey();
+        commitLatencyTracker.received(updateEntryPointEvent.getCorrelationId(), entryPointKey);
+        boolean prepared = false;
 
         try {
 
@@ -53,12 +59,17 @@ public class UpdateEntryPointSubscriber implements Consumer<UpdateEntryPointEven
             if (!preparedEntryPoint.isPresent()) {
                 throw new IllegalStateException("Unable to prepare entry point update for key " + entryPointKey);
             }
+            commitLatencyTracker.prepared(updateEntryPointEvent.getCorrelationId(), entryPointKey);
+            prepared = true;
 
             updateEntryPointEvent.onSuccess(new UpdateEntryPointResponse(updateEntryPointEvent.getCorrelationId(), entryPointKey, preparedEntryPoint.get()));
 
         } catch (Exception exception) {
             updateEntryPointEvent.onError(exception);
         } finally {
+            if (!prepared) {
+                commitLatencyTracker.discarded(updateEntryPointEvent.getCorrelationId(), entryPointKey);
+            }
             this.stateManager.release(entryPointKey);
         }
 
@@ -19,17 +19,27 @@ import com.vsct.dt.strowgr.admin.core.EntryPointKey;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
 import com.vsct.dt.strowgr.admin.core.event.in.EntryPointEvent;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Objects;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class CommitRequestedEvent extends EntryPointEvent {
     private final EntryPoint configuration;
-    private final String conf;
-    private final String syslogConf;
+    private final byte[] conf;
+    private final byte[] syslogConf;
     private final String bind;
 
     public CommitRequestedEvent(String correlationId, EntryPointKey key, EntryPoint configuration, String conf, String syslogConf, String bind) {
+        this(correlationId, key, configuration, conf.getBytes(StandardCharsets.UTF_8), syslogConf.getBytes(StandardCharsets.UTF_8), bind);
+    }
+
+    /**
+     * @param conf       haproxy configuration encoded in UTF-8
+     * @param syslogConf syslog configuration encoded in UTF-8
+     */
+    public CommitRequestedEvent(String correlationId, EntryPointKey key, EntryPoint configuration, byte[] conf, byte[] syslogConf, String bind) {
         super(correlationId, key);
         this.configuration = checkNotNull(configuration);
         this.conf = checkNotNull(conf);
@@ -42,10 +52,24 @@ public class CommitRequestedEvent extends EntryPointEvent {
     }
 
     public String getConf() {
-        return conf;
+        return new String(conf, StandardCharsets.UTF_8);
     }
 
     public String getSyslogConf() {
+        return new String(syslogConf, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return haproxy configuration encoded in UTF-8, not to be modified
+     */
+    public byte[] getConfBytes() {
+        return conf;
+    }
+
+    /**
+     * @return syslog configuration encoded in UTF-8, not to be modified
+     */
+    public byte[] getSyslogConfBytes() {
         return syslogConf;
     }
 
@@ -59,22 +83,22 @@ public class CommitRequestedEvent extends EntryPointEvent {
         if (o == null || getClass() != o.getClass()) return false;
         CommitRequestedEvent that = (CommitRequestedEvent) o;
         return Objects.equals(configuration, that.configuration) &&
-                Objects.equals(conf, that.conf) &&
-                Objects.equals(syslogConf, that.syslogConf) &&
+                Arrays.equals(conf, that.conf) &&
+                Arrays.equals(syslogConf, that.syslogConf) &&
                 Objects.equals(bind, that.bind);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(configuration, conf, syslogConf, bind);
+        return Objects.hash(configuration, Arrays.hashCode(conf), Arrays.hashCode(syslogConf), bind);
     }
 
     @Override
     public String toString() {
         return "CommitRequestedEvent{" +
                 "configuration=" + configuration +
-                ", conf='" + conf + '\'' +
-                ", syslogConf='" + syslogConf + '\'' +
+                ", conf='" + getConf() + '\'' +
+                ", syslogConf='" + getSyslogConf() + '\'' +
                 ", bind='" + bind + '\'' +
                 '}';
     }
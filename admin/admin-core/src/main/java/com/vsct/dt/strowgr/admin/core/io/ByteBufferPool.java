@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.core.io;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Pool of growable byte buffers, one per thread, for the multi-megabytes payloads of the commit path.
+ * <p>
+ * A buffer is reused by its thread across commits instead of growing a new array each time. A buffer grown above the
+ * retained capacity is dropped on release, not to keep a huge array per thread.
+ */
+public class ByteBufferPool {
+
+    private final int initialCapacity;
+    private final int maxRetainedCapacity;
+
+    private final ThreadLocal<Buffer> buffers = new ThreadLocal<>();
+
+    /**
+     * @param initialCapacity     in bytes of a new buffer
+     * @param maxRetainedCapacity in bytes above which a buffer is dropped on release
+     */
+    public ByteBufferPool(int initialCapacity, int maxRetainedCapacity) {
+        this.initialCapacity = initialCapacity;
+        this.maxRetainedCapacity = maxRetainedCapacity;
+    }
+
+    /**
+     * Takes the buffer of the current thread, or a new one if it is already taken. The buffer is empty.
+     *
+     * @return the buffer, to release once its content is copied
+     */
+    public Buffer acquire() {
+        Buffer buffer = buffers.get();
+        if (buffer == null) {
+            return new Buffer(initialCapacity);
+        }
+        buffers.remove();
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Gives the buffer back to the current thread.
+     *
+     * @param buffer acquired from this pool
+     */
+    public void release(Buffer buffer) {
+        if (buffer.capacity() <= maxRetainedCapacity) {
+            buffers.set(buffer);
+        }
+    }
+
+    public static class Buffer extends ByteArrayOutputStream {
+
+        private Buffer(int initialCapacity) {
+            super(initialCapacity);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.vsct.dt.strowgr.admin.core.repository;
 import com.vsct.dt.strowgr.admin.core.EntryPointKey;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
 
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -34,6 +35,13 @@ public interface EntryPointRepository {
      */
     Optional<EntryPoint> getCurrentConfiguration(EntryPointKey key);
 
+    /**
+     * Get current configurations of all the entrypoints in a single read of the repository.
+     *
+     * @return current configurations by entrypoint id, empty if the query has failed
+     */
+    Map<String, EntryPoint> getCurrentConfigurations();
+
     Optional<EntryPoint> getPendingConfiguration(EntryPointKey key);
 
     Optional<EntryPoint> getCommittingConfiguration(EntryPointKey key);
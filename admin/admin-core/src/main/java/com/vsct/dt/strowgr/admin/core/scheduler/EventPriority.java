@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.core.scheduler;
+
+/**
+ * Classes of events handled by the {@link PriorityEventDispatcher}.
+ */
+public enum EventPriority {
+
+    /**
+     * Events triggered by a user through the REST api: add, update, autoreload swap.
+     */
+    INTERACTIVE,
+
+    /**
+     * Events consumed from NSQ: register server, commit completed, commit failed.
+     */
+    NSQ,
+
+    /**
+     * Events emitted by the periodic sweeps over all entrypoints: try commit current and pending.
+     */
+    PERIODIC
+
+}
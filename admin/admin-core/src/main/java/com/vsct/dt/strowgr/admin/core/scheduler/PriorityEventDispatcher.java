@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.core.scheduler;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.reactivex.functions.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Dispatches the handling of events to a fixed pool of workers, with one queue per {@link EventPriority}.
+ * <p>
+ * When several queues hold events, workers pick them with a smooth weighted round robin: a class with weight 8 is
+ * served 8 times more often than a class with weight 1, but no class starves. A queue may be bounded, events submitted
+ * to a full queue are rejected, which suits periodic events since the next sweep emits them again.
+ * <p>
+ * For each class, the time from submission to the end of the handling is exported in a 'latency' timer, rejected events
+ * in a 'rejected' meter and the number of waiting events in a 'queued' gauge.
+ * <p>
+ * When stopped, the dispatcher rejects new events and its workers handle the waiting ones before they exit. Events still
+ * waiting after the drain timeout are discarded, counted in a 'discarded' meter of their class and logged.
+ */
+public class PriorityEventDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PriorityEventDispatcher.class);
+
+    private static final EventPriority[] PRIORITIES = EventPriority.values();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final ArrayDeque<Task>[] queues;
+    private final int[] capacities;
+    private final int[] weights;
+    private final int[] currentWeights;
+
+    private final Timer[] latencies;
+    private final Meter[] rejections;
+    private final Meter[] discards;
+
+    private final Thread[] workers;
+    private volatile boolean running = false;
+    private boolean stopping = false;
+
+    /**
+     * @param threads        number of workers
+     * @param weights        weight of each class, classes without weight have a weight of 1
+     * @param capacities     maximum number of waiting events of each class, classes without capacity are unbounded
+     * @param metricRegistry where latency metrics are registered
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityEventDispatcher(int threads, Map<EventPriority, Integer> weights, Map<EventPriority, Integer> capacities, MetricRegistry metricRegistry) {
+        checkArgument(threads > 0, "dispatcher needs at least one thread");
+        checkNotNull(metricRegistry);
+        this.queues = new ArrayDeque[PRIORITIES.length];
+        this.capacities = new int[PRIORITIES.length];
+        this.weights = new int[PRIORITIES.length];
+        this.currentWeights = new int[PRIORITIES.length];
+        this.latencies = new Timer[PRIORITIES.length];
+        this.rejections = new Meter[PRIORITIES.length];
+        this.discards = new Meter[PRIORITIES.length];
+        for (EventPriority priority : PRIORITIES) {
+            int i = priority.ordinal();
+            ArrayDeque<Task> queue = new ArrayDeque<>();
+            queues[i] = queue;
+            this.weights[i] = weights.getOrDefault(priority, 1);
+            checkArgument(this.weights[i] > 0, "weight of %s should be positive", priority);
+            this.capacities[i] = capacities.getOrDefault(priority, Integer.MAX_VALUE);
+            String name = priority.name().toLowerCase();
+            latencies[i] = metricRegistry.timer(MetricRegistry.name(PriorityEventDispatcher.class, name, "latency"));
+            rejections[i] = metricRegistry.meter(MetricRegistry.name(PriorityEventDispatcher.class, name, "rejected"));
+            discards[i] = metricRegistry.meter(MetricRegistry.name(PriorityEventDispatcher.class, name, "discarded"));
+            metricRegistry.register(MetricRegistry.name(PriorityEventDispatcher.class, name, "queued"), (Gauge<Integer>) () -> queuedSize(queue));
+        }
+        this.workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, "event-dispatcher-" + i);
+            workers[i].setDaemon(true);
+        }
+    }
+
+    public void start() {
+        checkState(!running, "dispatcher is already started");
+        running = true;
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops the workers once the waiting events are handled, waiting at most 10 seconds.
+     */
+    public void stop() throws InterruptedException {
+        stop(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Rejects new events and stops the workers once the waiting events are handled. Events still waiting after the
+     * timeout are discarded.
+     *
+     * @param drainTimeout in milliseconds to handle the waiting events
+     */
+    public void stop(long drainTimeout) throws InterruptedException {
+        lock.lock();
+        try {
+            stopping = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        long deadline = System.currentTimeMillis() + drainTimeout;
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        lock.lock();
+        try {
+            running = false;
+            for (EventPriority priority : PRIORITIES) {
+                int discarded = queues[priority.ordinal()].size();
+                if (discarded > 0) {
+                    discards[priority.ordinal()].mark(discarded);
+                    LOGGER.warn("{} waiting {} events are discarded at shutdown", discarded, priority);
+                }
+                queues[priority.ordinal()].clear();
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    /**
+     * Queues the handling of an event.
+     *
+     * @param priority of the event
+     * @param handling of the event
+     * @return false if the event has been rejected because the queue of its class is full or the dispatcher is stopping
+     */
+    public boolean submit(EventPriority priority, Action handling) {
+        int i = priority.ordinal();
+        lock.lock();
+        try {
+            if (stopping || queues[i].size() >= capacities[i]) {
+                rejections[i].mark();
+                return false;
+            }
+            queues[i].add(new Task(priority, handling, System.nanoTime()));
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            Task task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (task == null) {
+                return;
+            }
+            try {
+                task.handling.run();
+            } catch (Exception e) {
+                LOGGER.error("Following error occurred while handling a {} event", task.priority, e);
+            } finally {
+                latencies[task.priority.ordinal()].update(System.nanoTime() - task.submittedAt, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Waits for an event and picks it with smooth weighted round robin among non empty queues.
+     *
+     * @return the next event to handle or null if the dispatcher is stopped or drained
+     */
+    private Task take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (!running) {
+                    return null;
+                }
+                int selected = -1;
+                int totalWeight = 0;
+                for (int i = 0; i < queues.length; i++) {
+                    if (!queues[i].isEmpty()) {
+                        currentWeights[i] += weights[i];
+                        totalWeight += weights[i];
+                        if (selected < 0 || currentWeights[i] > currentWeights[selected]) {
+                            selected = i;
+                        }
+                    } else {
+                        currentWeights[i] = 0;
+                    }
+                }
+                if (selected >= 0) {
+                    currentWeights[selected] -= totalWeight;
+                    return queues[selected].poll();
+                }
+                if (stopping) {
+                    // drained
+                    return null;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int queuedSize(ArrayDeque<Task> queue) {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Task {
+        private final EventPriority priority;
+        private final Action handling;
+        private final long submittedAt;
+
+        private Task(EventPriority priority, Action handling, long submittedAt) {
+            this.priority = priority;
+            this.handling = handling;
+            this.submittedAt = submittedAt;
+        }
+    }
+}
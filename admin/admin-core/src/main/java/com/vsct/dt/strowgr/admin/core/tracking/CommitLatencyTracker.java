@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.core.tracking;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.vsct.dt.strowgr.admin.core.EntryPointKey;
+
+import java.util.*;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * In-memory tracker of the latency of configuration changes, from the reception of a register server or update event
+ * to the acknowledgement of the commit by the haproxy.
+ * <p>
+ * Changes received for an entrypoint are correlated with the next commit of this entrypoint: the commit correlation
+ * id is then used to follow the dispatch and the acknowledgement.
+ * <p>
+ * Traces are kept in a preallocated ring buffer, oldest traces are overwritten once the capacity is reached.
+ * Latencies between consecutive stages, in milliseconds, are exported as histograms named after the reached stage,
+ * the whole latency of a commit is exported in the 'end-to-end' histogram.
+ */
+public class CommitLatencyTracker {
+
+    private static final long UNSET = -1L;
+
+    private static final CommitStage[] STAGES = CommitStage.values();
+
+    private final Trace[] ring;
+    private long sequence = 0;
+
+    private final Map<String, Trace> byCorrelationId = new HashMap<>();
+    private final Map<String, Trace> openByEntryPoint = new HashMap<>();
+
+    private final Histogram[] stageLatencies = new Histogram[STAGES.length];
+    private final Histogram endToEndLatency;
+
+    private final LongSupplier clock;
+
+    public CommitLatencyTracker(int capacity, MetricRegistry metricRegistry) {
+        this(capacity, metricRegistry, System::currentTimeMillis);
+    }
+
+    CommitLatencyTracker(int capacity, MetricRegistry metricRegistry, LongSupplier clock) {
+        checkArgument(capacity > 0, "capacity of the commit latency tracker should be positive");
+        checkNotNull(metricRegistry);
+        this.clock = checkNotNull(clock);
+        this.ring = new Trace[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Trace();
+        }
+        for (CommitStage stage : STAGES) {
+            stageLatencies[stage.ordinal()] = metricRegistry.histogram(MetricRegistry.name(CommitLatencyTracker.class, stage.name().toLowerCase()));
+        }
+        this.endToEndLatency = metricRegistry.histogram(MetricRegistry.name(CommitLatencyTracker.class, "end-to-end"));
+    }
+
+    /**
+     * A register server or update event has been received for an entrypoint.
+     *
+     * @param correlationId of the event
+     * @param key           of the entrypoint
+     */
+    public synchronized void received(String correlationId, EntryPointKey key) {
+        mark(openTrace(correlationId, key), CommitStage.RECEIVED);
+    }
+
+    /**
+     * A new pending configuration has been prepared for an entrypoint.
+     *
+     * @param correlationId of the event
+     * @param key           of the entrypoint
+     */
+    public synchronized void prepared(String correlationId, EntryPointKey key) {
+        mark(openTrace(correlationId, key), CommitStage.PREPARED);
+    }
+
+    /**
+     * An event received for an entrypoint did not prepare a new configuration, like a duplicate registration: the trace
+     * it opened is dropped so that it is not correlated with a later commit. A trace already prepared by another event
+     * is kept.
+     *
+     * @param correlationId of the event
+     * @param key           of the entrypoint
+     */
+    public synchronized void discarded(String correlationId, EntryPointKey key) {
+        Trace trace = openByEntryPoint.get(key.getID());
+        if (trace != null && correlationId.equals(trace.originCorrelationId) && trace.timestamps[CommitStage.PREPARED.ordinal()] == UNSET) {
+            openByEntryPoint.remove(key.getID());
+        }
+    }
+
+    /**
+     * A configuration has been put in committing state. Changes previously received for this entrypoint are
+     * from now followed with the commit correlation id.
+     *
+     * @param correlationId of the commit
+     * @param key           of the entrypoint
+     */
+    public synchronized void committing(String correlationId, EntryPointKey key) {
+        Trace trace = openByEntryPoint.remove(key.getID());
+        if (trace == null) {
+            trace = allocate(correlationId, key.getID());
+        } else {
+            trace.correlationId = correlationId;
+        }
+        byCorrelationId.put(correlationId, trace);
+        mark(trace, CommitStage.COMMITTING);
+    }
+
+    /**
+     * A pending configuration has been committed without being sent to the haproxy, since it renders the configuration
+     * the haproxy already has. The changes received for this entrypoint are closed with the commit correlation id,
+     * committed and completed at once, without being counted in the latency histograms.
+     *
+     * @param correlationId of the commit
+     * @param key           of the entrypoint
+     */
+    public synchronized void skipped(String correlationId, EntryPointKey key) {
+        Trace trace = openByEntryPoint.remove(key.getID());
+        if (trace != null) {
+            long now = clock.getAsLong();
+            trace.correlationId = correlationId;
+            trace.timestamps[CommitStage.COMMITTING.ordinal()] = now;
+            trace.timestamps[CommitStage.COMPLETED.ordinal()] = now;
+        }
+    }
+
+    /**
+     * @param correlationId of the commit which has been published to NSQ
+     */
+    public synchronized void dispatched(String correlationId) {
+        Trace trace = byCorrelationId.get(correlationId);
+        if (trace != null) {
+            mark(trace, CommitStage.DISPATCHED);
+        }
+    }
+
+    /**
+     * @param correlationId of the commit acknowledged by the haproxy
+     */
+    public synchronized void completed(String correlationId) {
+        close(correlationId, CommitStage.COMPLETED);
+    }
+
+    /**
+     * @param correlationId of the commit refused by the haproxy
+     */
+    public synchronized void failed(String correlationId) {
+        close(correlationId, CommitStage.FAILED);
+    }
+
+    /**
+     * @param limit maximum number of traces to return
+     * @return the most recent traces, newest first
+     */
+    public synchronized List<CommitTrace> recent(int limit) {
+        int size = (int) Math.min(Math.min(limit, ring.length), sequence);
+        List<CommitTrace> traces = new ArrayList<>(Math.max(size, 0));
+        for (int i = 0; i < size; i++) {
+            Trace trace = ring[(int) ((sequence - 1 - i) % ring.length)];
+            EnumMap<CommitStage, Long> stages = new EnumMap<>(CommitStage.class);
+            for (CommitStage stage : STAGES) {
+                if (trace.timestamps[stage.ordinal()] != UNSET) {
+                    stages.put(stage, trace.timestamps[stage.ordinal()]);
+                }
+            }
+            traces.add(new CommitTrace(trace.correlationId, trace.originCorrelationId, trace.entryPoint, stages));
+        }
+        return traces;
+    }
+
+    private void close(String correlationId, CommitStage stage) {
+        Trace trace = byCorrelationId.remove(correlationId);
+        if (trace != null && mark(trace, stage)) {
+            endToEndLatency.update(trace.timestamps[stage.ordinal()] - trace.first());
+        }
+    }
+
+    private Trace openTrace(String correlationId, EntryPointKey key) {
+        Trace trace = openByEntryPoint.get(key.getID());
+        if (trace == null) {
+            trace = allocate(correlationId, key.getID());
+            openByEntryPoint.put(key.getID(), trace);
+        }
+        return trace;
+    }
+
+    /**
+     * Reuses the oldest slot of the ring buffer, forgetting the trace it held.
+     */
+    private Trace allocate(String correlationId, String entryPoint) {
+        Trace trace = ring[(int) (sequence++ % ring.length)];
+        byCorrelationId.remove(trace.correlationId, trace);
+        openByEntryPoint.remove(trace.entryPoint, trace);
+        trace.correlationId = correlationId;
+        trace.originCorrelationId = correlationId;
+        trace.entryPoint = entryPoint;
+        Arrays.fill(trace.timestamps, UNSET);
+        return trace;
+    }
+
+    /**
+     * Timestamps the stage if not already reached and records the latency since the previous reached stage.
+     *
+     * @return true if the stage has been timestamped
+     */
+    private boolean mark(Trace trace, CommitStage stage) {
+        if (trace.timestamps[stage.ordinal()] != UNSET) {
+            return false;
+        }
+        long now = clock.getAsLong();
+        trace.timestamps[stage.ordinal()] = now;
+        for (int i = stage.ordinal() - 1; i >= 0; i--) {
+            if (trace.timestamps[i] != UNSET) {
+                stageLatencies[stage.ordinal()].update(now - trace.timestamps[i]);
+                break;
+            }
+        }
+        return true;
+    }
+
+    private static class Trace {
+        private String correlationId;
+        private String originCorrelationId;
+        private String entryPoint;
+        private final long[] timestamps = new long[STAGES.length];
+
+        private long first() {
+            for (long timestamp : timestamps) {
+                if (timestamp != UNSET) {
+                    return timestamp;
+                }
+            }
+            return UNSET;
+        }
+    }
+}
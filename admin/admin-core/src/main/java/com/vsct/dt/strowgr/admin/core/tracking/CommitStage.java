@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.core.tracking;
+
+/**
+ * Stages of the life of a configuration change, from its reception to the haproxy reload.
+ * Declaration order is the chronological order of the stages.
+ */
+public enum CommitStage {
+
+    /**
+     * A register server or an update event has been received for the entrypoint.
+     */
+    RECEIVED,
+
+    /**
+     * The new configuration has been stored as pending.
+     */
+    PREPARED,
+
+    /**
+     * The configuration has been put in committing state.
+     */
+    COMMITTING,
+
+    /**
+     * The commit requested message has been published to NSQ.
+     */
+    DISPATCHED,
+
+    /**
+     * The haproxy acknowledged the commit.
+     */
+    COMPLETED,
+
+    /**
+     * The haproxy refused the commit.
+     */
+    FAILED
+
+}
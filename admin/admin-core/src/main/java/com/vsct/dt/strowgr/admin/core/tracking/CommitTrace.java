@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.core.tracking;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the stages reached by a commit, as seen by the {@link CommitLatencyTracker}.
+ */
+public class CommitTrace {
+
+    private final String correlationId;
+    private final String originCorrelationId;
+    private final String entryPoint;
+    private final Map<CommitStage, Long> stages;
+
+    CommitTrace(String correlationId, String originCorrelationId, String entryPoint, EnumMap<CommitStage, Long> stages) {
+        this.correlationId = correlationId;
+        this.originCorrelationId = originCorrelationId;
+        this.entryPoint = entryPoint;
+        this.stages = Collections.unmodifiableMap(stages);
+    }
+
+    /**
+     * @return correlation id of the commit, or of the originating event if the change is not committing yet
+     */
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @return correlation id of the first event which led to this commit
+     */
+    public String getOriginCorrelationId() {
+        return originCorrelationId;
+    }
+
+    public String getEntryPoint() {
+        return entryPoint;
+    }
+
+    /**
+     * @return timestamps in epoch milliseconds of each stage reached, in chronological order
+     */
+    public Map<CommitStage, Long> getStages() {
+        return stages;
+    }
+
+    @Override
+    public String toString() {
+        return "CommitTrace{" +
+                "correlationId='" + correlationId + '\'' +
+                ", originCorrelationId='" + originCorrelationId + '\'' +
+                ", entryPoint='" + entryPoint + '\'' +
+                ", stages=" + stages +
+                '}';
+    }
+}
@@ -24,11 +24,14 @@ import com.vsct.dt.strowgr.admin.core.configuration.IncomingEntryPointBackendSer
 import com.vsct.dt.strowgr.admin.core.event.CorrelationId;
 import com.vsct.dt.strowgr.admin.core.event.in.*;
 import com.vsct.dt.strowgr.admin.core.event.out.CommitRequestedEvent;
+import com.vsct.dt.strowgr.admin.core.repository.EntryPointRepository;
 import com.vsct.dt.strowgr.admin.core.repository.HaproxyRepository;
 import com.vsct.dt.strowgr.admin.core.repository.PortRepository;
+import com.vsct.dt.strowgr.admin.core.tracking.CommitLatencyTracker;
 import org.junit.Test;
 import org.reactivestreams.Subscriber;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -36,6 +39,8 @@ import java.util.Optional;
 
 import static com.google.common.collect.Sets.newHashSet;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 
 public class EntryPointEventHandlerTest {
@@ -53,7 +58,9 @@ public class EntryPointEventHandlerTest {
     @SuppressWarnings("unchecked")
     private final Subscriber<CommitRequestedEvent> commitRequestedSubscriber = mock(Subscriber.class);
 
-    private final EntryPointEventHandler handler = new EntryPointEventHandler(stateManager, portRepository, haproxyRepository, templateLocator, templateGenerator, commitRequestedSubscriber);
+    private final CommitLatencyTracker commitLatencyTracker = mock(CommitLatencyTracker.class);
+
+    private final EntryPointEventHandler handler = new EntryPointEventHandler(stateManager, portRepository, haproxyRepository, templateLocator, templateGenerator, commitRequestedSubscriber, commitLatencyTracker);
 
     @Test
     public void try_commit_current_applies_with_right_key() throws IncompleteConfigurationException {
@@ -74,7 +81,7 @@ public class EntryPointEventHandlerTest {
         when(stateManager.tryCommitCurrent(correlationId, key)).thenReturn(Optional.of(entryPoint));
         when(portRepository.getPort(key, EntryPoint.SYSLOG_PORT_ID)).thenReturn(Optional.of(666));
         when(templateLocator.readTemplate(entryPoint)).thenReturn(Optional.of("some template"));
-        when(templateGenerator.generate(eq("some template"), eq(entryPoint), any())).thenReturn("some template");
+        when(templateGenerator.generateBytes(eq("some template"), eq(entryPoint), any())).thenReturn("some template".getBytes(StandardCharsets.UTF_8));
         when(templateGenerator.generateSyslogFragment(eq(entryPoint), any())).thenReturn("some syslog conf");
         when(haproxyRepository.getHaproxyProperty("haproxy", "binding/1")).thenReturn(Optional.of("127.0.0.1"));
         when(haproxyRepository.isAutoreload("haproxy")).thenReturn(true);
@@ -109,7 +116,7 @@ public class EntryPointEventHandlerTest {
         when(stateManager.tryCommitCurrent(correlationId, key)).thenReturn(Optional.of(entryPoint));
         when(portRepository.getPort(key, EntryPoint.SYSLOG_PORT_ID)).thenReturn(Optional.of(666));
         when(templateLocator.readTemplate(entryPoint)).thenReturn(Optional.of("some template"));
-        when(templateGenerator.generate(eq("some template"), eq(entryPoint), any())).thenReturn("some template");
+        when(templateGenerator.generateBytes(eq("some template"), eq(entryPoint), any())).thenReturn("some template".getBytes(StandardCharsets.UTF_8));
         when(templateGenerator.generateSyslogFragment(eq(entryPoint), any())).thenReturn("some syslog conf");
         when(haproxyRepository.getHaproxyProperty("haproxy", "binding/1")).thenReturn(Optional.of("127.0.0.1"));
         when(haproxyRepository.isAutoreload("haproxy")).thenReturn(false);
@@ -143,7 +150,7 @@ public class EntryPointEventHandlerTest {
         when(stateManager.tryCommitPending(correlationId, key)).thenReturn(Optional.of(entryPoint));
         when(portRepository.getPort(key, EntryPoint.SYSLOG_PORT_ID)).thenReturn(Optional.of(666));
         when(templateLocator.readTemplate(entryPoint)).thenReturn(Optional.of("some template"));
-        when(templateGenerator.generate(eq("some template"), eq(entryPoint), any())).thenReturn("some template");
+        when(templateGenerator.generateBytes(eq("some template"), eq(entryPoint), any())).thenReturn("some template".getBytes(StandardCharsets.UTF_8));
         when(templateGenerator.generateSyslogFragment(eq(entryPoint), any())).thenReturn("some syslog conf");
         when(haproxyRepository.getHaproxyProperty("haproxy", "binding/1")).thenReturn(Optional.of("127.0.0.1"));
         when(stateManager.isAutoreloaded(key)).thenReturn(true);
@@ -177,7 +184,7 @@ public class EntryPointEventHandlerTest {
         when(stateManager.tryCommitPending(correlationId, key)).thenReturn(Optional.of(entryPoint));
         when(portRepository.getPort(key, EntryPoint.SYSLOG_PORT_ID)).thenReturn(Optional.of(666));
         when(templateLocator.readTemplate(entryPoint)).thenReturn(Optional.of("some template"));
-        when(templateGenerator.generate(eq("some template"), eq(entryPoint), any())).thenReturn("some template");
+        when(templateGenerator.generateBytes(eq("some template"), eq(entryPoint), any())).thenReturn("some template".getBytes(StandardCharsets.UTF_8));
         when(templateGenerator.generateSyslogFragment(eq(entryPoint), any())).thenReturn("some syslog conf");
         when(haproxyRepository.getHaproxyProperty("haproxy", "binding/1")).thenReturn(Optional.of("127.0.0.1"));
         when(haproxyRepository.isAutoreload("haproxy")).thenReturn(false);
@@ -191,6 +198,27 @@ public class EntryPointEventHandlerTest {
         verify(commitRequestedSubscriber, never()).onNext(any(CommitRequestedEvent.class));
     }
 
+    @Test
+    public void try_commit_pending_keeps_configuration_pending_when_its_template_is_not_available() throws IncompleteConfigurationException {
+        // Given
+        EntryPointKey key = new EntryPointKeyDefaultImpl("some_key");
+        String correlationId = CorrelationId.newCorrelationId();
+        EntryPoint entryPoint = entryPointOwnedBy("team1");
+        when(stateManager.lock(key)).thenReturn(true);
+        when(stateManager.tryCommitPending(correlationId, key)).thenReturn(Optional.of(entryPoint));
+        when(stateManager.isAutoreloaded(key)).thenReturn(true);
+        when(haproxyRepository.isAutoreload("haproxy")).thenReturn(true);
+        when(templateLocator.readTemplate(entryPoint)).thenThrow(new IllegalStateException("template has not been fetched yet"));
+
+        // Test
+        handler.handle(new TryCommitPendingConfigurationEvent(correlationId, key));
+
+        // Check
+        verify(stateManager).cancelCommit(key);
+        verify(stateManager).prepare(key, entryPoint);
+        verify(commitRequestedSubscriber, never()).onNext(any(CommitRequestedEvent.class));
+    }
+
     @Test
     public void commit_success_event_does_nothing_if_commit_correlationid_does_not_exists() {
         EntryPointKey key = new EntryPointKeyDefaultImpl("some_key");
@@ -286,6 +314,7 @@ public class EntryPointEventHandlerTest {
         handler.handle(event);
 
         verify(stateManager, never()).prepare(any(), any());
+        verify(commitLatencyTracker).discarded(event.getCorrelationId(), key);
     }
 
     @Test
@@ -668,5 +697,100 @@ public class EntryPointEventHandlerTest {
         verify(stateManager).prepare(eq(key), eq(expectedConfig));
     }
 
+    @Test
+    public void try_commit_pending_commits_without_haproxy_when_current_template_does_not_read_changes() throws IncompleteConfigurationException {
+        // Given
+        EntryPointKey key = new EntryPointKeyDefaultImpl("some_key");
+        EntryPointRepository repository = mock(EntryPointRepository.class);
+        EntryPointEventHandler handler = handlerWithCommittedTemplate(repository, key, "some template");
+        EntryPoint pending = entryPointOwnedBy("team2");
+        when(templateLocator.readTemplate(pending)).thenReturn(Optional.of("some template"));
+
+        // Test
+        handler.handle(new TryCommitPendingConfigurationEvent("pending", key));
+
+        // Check
+        verify(repository).setCurrentConfiguration(key, pending);
+        verify(commitRequestedSubscriber, times(1)).onNext(any(CommitRequestedEvent.class));
+        verify(commitLatencyTracker).skipped("pending", key);
+    }
+
+    @Test
+    public void try_commit_pending_sends_configuration_to_haproxy_when_syslog_fragment_changed() throws IncompleteConfigurationException {
+        // Given
+        EntryPointKey key = new EntryPointKeyDefaultImpl("some_key");
+        EntryPointRepository repository = mock(EntryPointRepository.class);
+        EntryPointEventHandler handler = handlerWithCommittedTemplate(repository, key, "some template");
+        EntryPoint pending = entryPointOwnedBy("team2");
+        when(templateLocator.readTemplate(pending)).thenReturn(Optional.of("some template"));
+        when(templateGenerator.generateSyslogFragment(eq(pending), any())).thenReturn("other syslog conf");
+
+        // Test
+        handler.handle(new TryCommitPendingConfigurationEvent("pending", key));
+
+        // Check
+        verify(repository, never()).setCurrentConfiguration(key, pending);
+        verify(commitRequestedSubscriber, times(2)).onNext(any(CommitRequestedEvent.class));
+        verify(commitLatencyTracker).committing("pending", key);
+    }
+
+    @Test
+    public void try_commit_pending_sends_configuration_to_haproxy_when_template_changed() throws IncompleteConfigurationException {
+        // Given
+        EntryPointKey key = new EntryPointKeyDefaultImpl("some_key");
+        EntryPointRepository repository = mock(EntryPointRepository.class);
+        EntryPointEventHandler handler = handlerWithCommittedTemplate(repository, key, "some template");
+        EntryPoint pending = entryPointOwnedBy("team2");
+        // same uri, another content
+        when(templateLocator.readTemplate(pending)).thenReturn(Optional.of("some changed template"));
 
+        // Test
+        handler.handle(new TryCommitPendingConfigurationEvent("pending", key));
+
+        // Check
+        verify(repository, never()).setCurrentConfiguration(key, pending);
+        verify(commitRequestedSubscriber, times(2)).onNext(any(CommitRequestedEvent.class));
+    }
+
+    /**
+     * @return a handler on a state manager whose current configuration, owned by "team1", was committed with the given template
+     */
+    private EntryPointEventHandler handlerWithCommittedTemplate(EntryPointRepository repository, EntryPointKey key, String template) throws IncompleteConfigurationException {
+        EntryPointStateManager stateManager = new EntryPointStateManager(10, repository);
+        EntryPointEventHandler handler = new EntryPointEventHandler(stateManager, portRepository, haproxyRepository, templateLocator, templateGenerator, commitRequestedSubscriber, commitLatencyTracker);
+        EntryPoint current = entryPointOwnedBy("team1");
+        when(repository.lock(key)).thenReturn(true);
+        when(repository.isAutoreloaded(key)).thenReturn(true);
+        when(repository.setCommittingConfiguration(anyString(), eq(key), any(EntryPoint.class), anyInt())).thenReturn(true);
+        when(repository.getCurrentConfiguration(key)).thenReturn(Optional.of(current));
+        when(haproxyRepository.isAutoreload("haproxy")).thenReturn(true);
+        when(haproxyRepository.getHaproxyProperty("haproxy", "binding/1")).thenReturn(Optional.of("127.0.0.1"));
+        when(portRepository.getPort(eq(key), anyString())).thenReturn(Optional.of(666));
+        when(templateGenerator.generateBytes(anyString(), any(EntryPoint.class), any())).thenReturn(template.getBytes(StandardCharsets.UTF_8));
+        when(templateGenerator.generateSyslogFragment(any(EntryPoint.class), any())).thenReturn("some syslog conf");
+        when(templateGenerator.dependencies(anyString())).thenReturn(new TemplateDependencies(ImmutableSet.of("application"), ImmutableSet.of(), ImmutableSet.of()));
+        when(templateLocator.readTemplate(current)).thenReturn(Optional.of(template));
+
+        when(repository.getCommittingConfiguration(key)).thenReturn(Optional.empty());
+        handler.handle(new TryCommitCurrentConfigurationEvent("current", key));
+        when(repository.getCommittingConfiguration(key)).thenReturn(Optional.of(current));
+        when(repository.getCommitCorrelationId(key)).thenReturn(Optional.of("current"));
+        handler.handle(new CommitCompletedEvent("current", key));
+
+        when(repository.getPendingConfiguration(key)).thenReturn(Optional.of(entryPointOwnedBy("team2")));
+        // nothing committing when the pending configuration is tried, then the pending one
+        when(repository.getCommittingConfiguration(key)).thenReturn(Optional.empty(), Optional.of(entryPointOwnedBy("team2")));
+        return handler;
+    }
+
+    private EntryPoint entryPointOwnedBy(String owner) {
+        return EntryPoint
+                .onHaproxy("haproxy", 1)
+                .withUser("hapuser")
+                .withVersion("hapversion")
+                .definesFrontends(ImmutableSet.of())
+                .definesBackends(ImmutableSet.of())
+                .withGlobalContext(ImmutableMap.of("application", "OCE", "owner", owner))
+                .build();
+    }
 }
@@ -27,6 +27,7 @@ import org.junit.Test;
 
 import java.util.Optional;
 
+import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 public class EntryPointStateManagerTest {
@@ -390,4 +391,28 @@ public class EntryPointStateManagerTest {
         verify(repositoryMock, never()).removePendingConfiguration(key);
     }
 
+    @Test
+    public void commit_should_keep_template_of_committing_configuration_as_current_one() {
+        EntryPointKey key = new EntryPointKeyDefaultImpl("some_key");
+        when(repositoryMock.getCommittingConfiguration(key)).thenReturn(Optional.of(mock(EntryPoint.class)));
+
+        entryPointStateManager.setCommittingTemplate(key, "template");
+        entryPointStateManager.commit(key);
+
+        assertThat(entryPointStateManager.getCurrentTemplate(key)).isEqualTo(Optional.of("template"));
+    }
+
+    @Test
+    public void commit_should_forget_current_template_if_committing_one_is_unknown() {
+        EntryPointKey key = new EntryPointKeyDefaultImpl("some_key");
+        when(repositoryMock.getCommittingConfiguration(key)).thenReturn(Optional.of(mock(EntryPoint.class)));
+        entryPointStateManager.setCommittingTemplate(key, "template");
+        entryPointStateManager.commit(key);
+
+        entryPointStateManager.setCommittingTemplate(key, "failed template");
+        entryPointStateManager.cancelCommit(key);
+        entryPointStateManager.commit(key);
+
+        assertThat(entryPointStateManager.getCurrentTemplate(key)).isEqualTo(Optional.empty());
+    }
 }
@@ -19,6 +19,7 @@ import com.vsct.dt.strowgr.admin.core.EntryPointKey;
 import com.vsct.dt.strowgr.admin.core.EntryPointStateManager;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
 import com.vsct.dt.strowgr.admin.core.event.in.UpdatedEntryPoint;
+import com.vsct.dt.strowgr.admin.core.tracking.CommitLatencyTracker;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -32,7 +33,7 @@ public class UpdateEntryPointSubscriberTest {
 
     private final EntryPointStateManager stateManager = mock(EntryPointStateManager.class);
 
-    private final UpdateEntryPointSubscriber updateEntryPointSubscriber = new UpdateEntryPointSubscriber(stateManager);
+    private final UpdateEntryPointSubscriber updateEntryPointSubscriber = new UpdateEntryPointSubscriber(stateManager, mock(CommitLatencyTracker.class));
 
     private final EntryPointKey entryPointKey = mock(EntryPointKey.class);
 
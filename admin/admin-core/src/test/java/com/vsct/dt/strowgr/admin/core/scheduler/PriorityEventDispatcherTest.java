@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.core.scheduler;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PriorityEventDispatcherTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test
+    public void should_serve_classes_according_to_their_weight() throws InterruptedException {
+        // given
+        PriorityEventDispatcher dispatcher = new PriorityEventDispatcher(1,
+                ImmutableMap.of(EventPriority.INTERACTIVE, 3, EventPriority.NSQ, 1, EventPriority.PERIODIC, 1),
+                ImmutableMap.of(), metricRegistry);
+        List<EventPriority> handled = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(8);
+        for (int i = 0; i < 4; i++) {
+            dispatcher.submit(EventPriority.PERIODIC, () -> { handled.add(EventPriority.PERIODIC); latch.countDown(); });
+        }
+        for (int i = 0; i < 4; i++) {
+            dispatcher.submit(EventPriority.INTERACTIVE, () -> { handled.add(EventPriority.INTERACTIVE); latch.countDown(); });
+        }
+
+        // when
+        dispatcher.start();
+        latch.await(5, TimeUnit.SECONDS);
+        dispatcher.stop();
+
+        // then
+        assertThat(handled).containsExactly(
+                EventPriority.INTERACTIVE, EventPriority.INTERACTIVE, EventPriority.PERIODIC, EventPriority.INTERACTIVE,
+                EventPriority.INTERACTIVE, EventPriority.PERIODIC, EventPriority.PERIODIC, EventPriority.PERIODIC);
+        assertThat(metricRegistry.timer(MetricRegistry.name(PriorityEventDispatcher.class, "interactive", "latency")).getCount()).isEqualTo(4L);
+    }
+
+    @Test
+    public void should_reject_events_when_queue_is_full() {
+        // given
+        PriorityEventDispatcher dispatcher = new PriorityEventDispatcher(1, ImmutableMap.of(), ImmutableMap.of(EventPriority.PERIODIC, 1), metricRegistry);
+
+        // when
+        boolean first = dispatcher.submit(EventPriority.PERIODIC, () -> {});
+        boolean second = dispatcher.submit(EventPriority.PERIODIC, () -> {});
+        boolean interactive = dispatcher.submit(EventPriority.INTERACTIVE, () -> {});
+
+        // then
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+        assertThat(interactive).isTrue();
+        assertThat(metricRegistry.meter(MetricRegistry.name(PriorityEventDispatcher.class, "periodic", "rejected")).getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void should_keep_handling_events_after_a_failure() throws InterruptedException {
+        // given
+        PriorityEventDispatcher dispatcher = new PriorityEventDispatcher(1, ImmutableMap.of(), ImmutableMap.of(), metricRegistry);
+        CountDownLatch latch = new CountDownLatch(1);
+        dispatcher.start();
+
+        // when
+        dispatcher.submit(EventPriority.NSQ, () -> { throw new IllegalStateException("failure"); });
+        dispatcher.submit(EventPriority.NSQ, latch::countDown);
+
+        // then
+        assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        dispatcher.stop();
+    }
+
+    @Test
+    public void should_handle_waiting_events_before_stopping() throws InterruptedException {
+        // given
+        PriorityEventDispatcher dispatcher = new PriorityEventDispatcher(1, ImmutableMap.of(), ImmutableMap.of(), metricRegistry);
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 3; i++) {
+            int event = i;
+            dispatcher.submit(EventPriority.NSQ, () -> handled.add(event));
+        }
+        dispatcher.start();
+
+        // when
+        dispatcher.stop();
+        boolean afterStop = dispatcher.submit(EventPriority.NSQ, () -> handled.add(3));
+
+        // then
+        assertThat(handled).containsExactly(0, 1, 2);
+        assertThat(afterStop).isFalse();
+    }
+
+    @Test
+    public void should_count_events_discarded_after_drain_timeout() throws InterruptedException {
+        // given
+        PriorityEventDispatcher dispatcher = new PriorityEventDispatcher(1, ImmutableMap.of(), ImmutableMap.of(), metricRegistry);
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        dispatcher.submit(EventPriority.NSQ, () -> { started.countDown(); blocking.await(); });
+        dispatcher.submit(EventPriority.PERIODIC, () -> {});
+        dispatcher.start();
+        started.await(5, TimeUnit.SECONDS);
+
+        // when
+        Thread unblocker = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            blocking.countDown();
+        });
+        unblocker.start();
+        dispatcher.stop(50);
+
+        // then
+        assertThat(metricRegistry.meter(MetricRegistry.name(PriorityEventDispatcher.class, "periodic", "discarded")).getCount()).isEqualTo(1L);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.core.tracking;
+
+import com.codahale.metrics.MetricRegistry;
+import com.vsct.dt.strowgr.admin.core.EntryPointKey;
+import com.vsct.dt.strowgr.admin.core.EntryPointKeyDefaultImpl;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CommitLatencyTrackerTest {
+
+    private final AtomicLong clock = new AtomicLong(1000);
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final EntryPointKey key = new EntryPointKeyDefaultImpl("APP/PLATFORM");
+
+    @Test
+    public void should_follow_changes_until_the_commit_completes_with_the_commit_correlation_id() {
+        // given
+        CommitLatencyTracker tracker = new CommitLatencyTracker(10, metricRegistry, clock::get);
+
+        // when
+        tracker.received("register", key);
+        clock.addAndGet(10);
+        tracker.prepared("register", key);
+        clock.addAndGet(20);
+        tracker.committing("commit", key);
+        clock.addAndGet(30);
+        tracker.dispatched("commit");
+        clock.addAndGet(40);
+        tracker.completed("commit");
+
+        // then
+        List<CommitTrace> traces = tracker.recent(10);
+        assertThat(traces).hasSize(1);
+        CommitTrace trace = traces.get(0);
+        assertThat(trace.getCorrelationId()).isEqualTo("commit");
+        assertThat(trace.getOriginCorrelationId()).isEqualTo("register");
+        assertThat(trace.getEntryPoint()).isEqualTo("APP/PLATFORM");
+        assertThat(trace.getStages().get(CommitStage.RECEIVED)).isEqualTo(1000L);
+        assertThat(trace.getStages().get(CommitStage.COMPLETED)).isEqualTo(1100L);
+        assertThat(metricRegistry.histogram(MetricRegistry.name(CommitLatencyTracker.class, "dispatched")).getSnapshot().getMax()).isEqualTo(30L);
+        assertThat(metricRegistry.histogram(MetricRegistry.name(CommitLatencyTracker.class, "end-to-end")).getSnapshot().getMax()).isEqualTo(100L);
+    }
+
+    @Test
+    public void should_keep_first_reception_when_several_changes_are_received_before_commit() {
+        // given
+        CommitLatencyTracker tracker = new CommitLatencyTracker(10, metricRegistry, clock::get);
+
+        // when
+        tracker.received("first", key);
+        clock.addAndGet(10);
+        tracker.received("second", key);
+        tracker.committing("commit", key);
+
+        // then
+        List<CommitTrace> traces = tracker.recent(10);
+        assertThat(traces).hasSize(1);
+        assertThat(traces.get(0).getOriginCorrelationId()).isEqualTo("first");
+        assertThat(traces.get(0).getStages().get(CommitStage.RECEIVED)).isEqualTo(1000L);
+    }
+
+    @Test
+    public void should_not_correlate_discarded_change_with_a_later_commit() {
+        // given
+        CommitLatencyTracker tracker = new CommitLatencyTracker(10, metricRegistry, clock::get);
+        tracker.received("duplicate", key);
+        tracker.discarded("duplicate", key);
+        clock.addAndGet(10);
+
+        // when
+        tracker.received("register", key);
+        tracker.prepared("register", key);
+        tracker.committing("commit", key);
+
+        // then
+        List<CommitTrace> traces = tracker.recent(1);
+        assertThat(traces.get(0).getOriginCorrelationId()).isEqualTo("register");
+        assertThat(traces.get(0).getStages().get(CommitStage.RECEIVED)).isEqualTo(1010L);
+    }
+
+    @Test
+    public void should_keep_prepared_change_when_a_following_one_is_discarded() {
+        // given
+        CommitLatencyTracker tracker = new CommitLatencyTracker(10, metricRegistry, clock::get);
+        tracker.received("register", key);
+        tracker.prepared("register", key);
+
+        // when
+        tracker.received("duplicate", key);
+        tracker.discarded("duplicate", key);
+        tracker.committing("commit", key);
+
+        // then
+        List<CommitTrace> traces = tracker.recent(1);
+        assertThat(traces.get(0).getOriginCorrelationId()).isEqualTo("register");
+        assertThat(traces.get(0).getStages().get(CommitStage.PREPARED)).isNotNull();
+    }
+
+    @Test
+    public void should_close_skipped_commit_without_latencies() {
+        // given
+        CommitLatencyTracker tracker = new CommitLatencyTracker(10, metricRegistry, clock::get);
+        tracker.received("register", key);
+        tracker.prepared("register", key);
+        clock.addAndGet(10);
+
+        // when
+        tracker.skipped("commit", key);
+        tracker.committing("next", key);
+
+        // then
+        List<CommitTrace> traces = tracker.recent(10);
+        assertThat(traces).hasSize(2);
+        assertThat(traces.get(0).getOriginCorrelationId()).isEqualTo("next");
+        assertThat(traces.get(1).getCorrelationId()).isEqualTo("commit");
+        assertThat(traces.get(1).getStages().get(CommitStage.COMPLETED)).isEqualTo(1010L);
+        assertThat(metricRegistry.histogram(MetricRegistry.name(CommitLatencyTracker.class, "completed")).getCount()).isEqualTo(0L);
+        assertThat(metricRegistry.histogram(MetricRegistry.name(CommitLatencyTracker.class, "end-to-end")).getCount()).isEqualTo(0L);
+    }
+
+    @Test
+    public void should_overwrite_oldest_traces_when_capacity_is_reached() {
+        // given
+        CommitLatencyTracker tracker = new CommitLatencyTracker(2, metricRegistry, clock::get);
+
+        // when
+        tracker.committing("commit1", new EntryPointKeyDefaultImpl("1"));
+        tracker.committing("commit2", new EntryPointKeyDefaultImpl("2"));
+        tracker.committing("commit3", new EntryPointKeyDefaultImpl("3"));
+        tracker.completed("commit1");
+
+        // then
+        List<CommitTrace> traces = tracker.recent(10);
+        assertThat(traces).hasSize(2);
+        assertThat(traces.get(0).getCorrelationId()).isEqualTo("commit3");
+        assertThat(traces.get(1).getCorrelationId()).isEqualTo("commit2");
+        assertThat(traces.get(1).getStages().containsKey(CommitStage.COMPLETED)).isFalse();
+        assertThat(metricRegistry.histogram(MetricRegistry.name(CommitLatencyTracker.class, "end-to-end")).getCount()).isEqualTo(0L);
+    }
+
+    @Test
+    public void should_ignore_unknown_correlation_ids() {
+        // given
+        CommitLatencyTracker tracker = new CommitLatencyTracker(2, metricRegistry, clock::get);
+
+        // when
+        tracker.dispatched("unknown");
+        tracker.failed("unknown");
+
+        // then
+        assertThat(tracker.recent(10)).isEmpty();
+    }
+}
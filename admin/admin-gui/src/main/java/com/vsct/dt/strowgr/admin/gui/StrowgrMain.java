@@ -23,27 +23,47 @@ import com.vsct.dt.strowgr.admin.core.event.in.*;
 import com.vsct.dt.strowgr.admin.core.event.out.CommitRequestedEvent;
 import com.vsct.dt.strowgr.admin.core.event.out.DeleteEntryPointEvent;
 import com.vsct.dt.strowgr.admin.core.repository.EntryPointRepository;
+import com.vsct.dt.strowgr.admin.core.rx.EventObserver;
+import com.vsct.dt.strowgr.admin.core.scheduler.EventPriority;
+import com.vsct.dt.strowgr.admin.core.scheduler.PriorityEventDispatcher;
+import com.vsct.dt.strowgr.admin.core.tracking.CommitLatencyTracker;
 import com.vsct.dt.strowgr.admin.gui.cli.ConfigurationCommand;
 import com.vsct.dt.strowgr.admin.gui.cli.InitializationCommand;
+import com.vsct.dt.strowgr.admin.gui.configuration.NSQConfigFactory;
 import com.vsct.dt.strowgr.admin.gui.configuration.StrowgrConfiguration;
 import com.vsct.dt.strowgr.admin.gui.factory.NSQConsumersFactory;
 import com.vsct.dt.strowgr.admin.gui.healthcheck.ConsulHealthcheck;
 import com.vsct.dt.strowgr.admin.gui.healthcheck.NsqHealthcheck;
+import com.vsct.dt.strowgr.admin.gui.healthcheck.WarmupHealthcheck;
 import com.vsct.dt.strowgr.admin.gui.observable.EntryPointPublisher;
+import com.vsct.dt.strowgr.admin.gui.managed.ManagedAsyncNSQProducer;
+import com.vsct.dt.strowgr.admin.gui.managed.ManagedEventDispatcher;
+import com.vsct.dt.strowgr.admin.gui.managed.ManagedEventJournal;
+import com.vsct.dt.strowgr.admin.gui.managed.ManagedWarmup;
 import com.vsct.dt.strowgr.admin.gui.managed.ManagedNSQConsumer;
 import com.vsct.dt.strowgr.admin.gui.managed.ManagedScheduledFlowable;
+import com.vsct.dt.strowgr.admin.gui.managed.ManagedNSQBatchPublisher;
 import com.vsct.dt.strowgr.admin.gui.managed.ManagedNSQProducer;
 import com.vsct.dt.strowgr.admin.gui.observable.HAProxyPublisher;
 import com.vsct.dt.strowgr.admin.gui.observable.HAProxySubscriber;
 import com.vsct.dt.strowgr.admin.gui.resource.api.*;
 import com.vsct.dt.strowgr.admin.nsq.NSQ;
+import com.vsct.dt.strowgr.admin.nsq.consumer.DuplicateEventFilter;
 import com.vsct.dt.strowgr.admin.nsq.consumer.FlowableNSQConsumer;
+import com.vsct.dt.strowgr.admin.nsq.consumer.InFlightMessages;
+import com.vsct.dt.strowgr.admin.nsq.journal.EventJournal;
 import com.vsct.dt.strowgr.admin.nsq.producer.CommitRequestedSubscriber;
 import com.vsct.dt.strowgr.admin.nsq.producer.DeleteEntryPointSubscriber;
+import com.vsct.dt.strowgr.admin.nsq.producer.AsyncNSQProducer;
+import com.vsct.dt.strowgr.admin.nsq.producer.ConfDeltaTracker;
+import com.vsct.dt.strowgr.admin.nsq.producer.NSQBatchPublisher;
 import com.vsct.dt.strowgr.admin.nsq.producer.NSQDispatcher;
 import com.vsct.dt.strowgr.admin.nsq.producer.NSQHttpClient;
 import com.vsct.dt.strowgr.admin.repository.consul.ConsulRepository;
 import com.vsct.dt.strowgr.admin.template.generator.MustacheTemplateGenerator;
+import com.vsct.dt.strowgr.admin.template.generator.RenderBudget;
+import com.vsct.dt.strowgr.admin.template.generator.TreeTemplateGenerator;
+import com.vsct.dt.strowgr.admin.template.locator.PrefetchedTemplateLocator;
 import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
 import fr.vsct.dt.nsq.NSQConfig;
 import fr.vsct.dt.nsq.NSQProducer;
@@ -54,19 +74,26 @@ import io.dropwizard.client.HttpClientBuilder;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.reactivex.Flowable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
 import io.reactivex.processors.FlowableProcessor;
 import io.reactivex.processors.PublishProcessor;
 import io.reactivex.processors.UnicastProcessor;
 import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.DefaultSubscriber;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ExceptionMapper;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class StrowgrMain extends Application<StrowgrConfiguration> {
@@ -103,57 +130,92 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
         }
 
         /* Templates */
-        TemplateGenerator templateGenerator = new MustacheTemplateGenerator();
-        UriTemplateLocator templateLocator = new UriTemplateLocator();
+        RenderBudget renderBudget = new RenderBudget(configuration.getTemplateRenderTimeout(), configuration.getTemplateMaxOutputSize());
+        TemplateGenerator templateGenerator;
+        if ("tree".equals(configuration.getTemplateEngine())) {
+            templateGenerator = new TreeTemplateGenerator(configuration.getTemplateCacheSize(), renderBudget, environment.metrics());
+        } else {
+            templateGenerator = new MustacheTemplateGenerator(configuration.getTemplateCacheSize(), configuration.getTemplateFragmentCacheSize(), renderBudget, environment.metrics());
+        }
+        UriTemplateLocator templateLocator = configuration.getTemplateLocatorFactory().build(environment);
 
         /* Repository */
         ConsulRepository repository = configuration.getConsulRepositoryFactory().buildAndManageBy(environment);
         repository.init();
 
+        /* Warmup, started before the schedulers */
+        ManagedWarmup warmup = configuration.getWarmupFactory().build(repository, repository, templateLocator, templateGenerator);
+        environment.lifecycle().manage(warmup);
+
+        /* Templates of the commit path, fetched ahead of time so that no fetch happens while an entrypoint is locked */
+        Optional<PrefetchedTemplateLocator> prefetchedTemplateLocator = configuration.getTemplateLocatorFactory().buildPrefetched(environment, templateLocator, templateGenerator, repository);
+        TemplateLocator commitTemplateLocator = prefetchedTemplateLocator.<TemplateLocator>map(locator -> locator).orElse(templateLocator);
+
         // Object mapper used for NSQ messages
         ObjectMapper objectMapper = new ObjectMapper();
 
+        /* Journal of NSQ messages, replayed by the consumers after a restart */
+        Optional<EventJournal> eventJournal = configuration.getEventJournalFactory().build();
+        eventJournal.ifPresent(journal -> environment.lifecycle().manage(new ManagedEventJournal(journal)));
+
         /* NSQ Consumers */
         NSQLookup nsqLookup = configuration.getNsqLookupfactory().build();
-        NSQConfig nsqConfig = configuration.getNsqConsumerConfigFactory().build();
-        NSQConsumersFactory nsqConsumersFactory = new NSQConsumersFactory(nsqLookup, nsqConfig, objectMapper);
+        NSQConfigFactory nsqConsumerConfigFactory = configuration.getNsqConsumerConfigFactory();
+        NSQConfig nsqConfig = nsqConsumerConfigFactory.build();
+        DuplicateEventFilter duplicateEventFilter = configuration.getDuplicateEventFilterFactory().build(environment.metrics());
+        Optional<InFlightMessages> inFlightMessages = nsqConsumerConfigFactory.buildInFlightMessages(eventJournal, duplicateEventFilter, environment.metrics());
+        NSQConsumersFactory nsqConsumersFactory = new NSQConsumersFactory(nsqLookup, nsqConfig, objectMapper, eventJournal, duplicateEventFilter,
+                inFlightMessages, nsqConsumerConfigFactory::getMaxInFlight);
+
+        /* Commit latency tracking */
+        CommitLatencyTracker commitLatencyTracker = new CommitLatencyTracker(configuration.getCommitTrackingCapacity(), environment.metrics());
 
         /* NSQ Producers */
         NSQProducer nsqProducer = configuration.getNsqProducerFactory().build();
         environment.lifecycle().manage(new ManagedNSQProducer(nsqProducer));
-        NSQDispatcher nsqDispatcher = new NSQDispatcher(nsqProducer);
+        AsyncNSQProducer asyncNSQProducer = configuration.getNsqProducerFactory().buildAsyncProducer(nsqProducer, environment.metrics());
+        environment.lifecycle().manage(new ManagedAsyncNSQProducer(asyncNSQProducer));
+        Optional<NSQBatchPublisher> nsqBatchPublisher = configuration.getNsqProducerFactory().buildBatchPublisher(asyncNSQProducer, environment.metrics());
+        nsqBatchPublisher.ifPresent(batchPublisher -> environment.lifecycle().manage(new ManagedNSQBatchPublisher(batchPublisher)));
+        Optional<ConfDeltaTracker> confDeltaTracker = configuration.getNsqProducerFactory().buildConfDeltaTracker(environment.metrics());
+        NSQDispatcher nsqDispatcher = new NSQDispatcher(asyncNSQProducer, commitLatencyTracker, nsqBatchPublisher.orElse(null),
+                configuration.getNsqProducerFactory().buildConfEncodings(), confDeltaTracker.orElse(null));
 
         Subscriber<CommitRequestedEvent> commitRequestedEventProcessor = commitRequestedSubscriber(nsqDispatcher);
 
+        /* Events on the state of the entrypoints are handled by priority: interactive, then NSQ, then periodic */
+        PriorityEventDispatcher eventDispatcher = configuration.getEventDispatcherFactory().build(environment.metrics());
+        environment.lifecycle().manage(new ManagedEventDispatcher(eventDispatcher));
+
         /* EntryPoint State Machine */
         EntryPointStateManager entryPointStateManager = new EntryPointStateManager(configuration.getCommitTimeout(), repository);
 
         EntryPointEventHandler eventHandler = new EntryPointEventHandler(
                 entryPointStateManager, repository, repository,
-                templateLocator, templateGenerator,
-                commitRequestedEventProcessor);
+                commitTemplateLocator, templateGenerator,
+                commitRequestedEventProcessor, commitLatencyTracker);
 
         /* Publishers */
         Publisher<HAProxyPublisher.HAProxyAction> haProxyActionProcessor = haProxyActionPublisher(configuration, environment, repository);
 
         /* Subscribers */
-        Subscriber<AutoReloadConfigEvent> autoReloadConfigProcessor = autoReloadConfigSubscriber(entryPointStateManager);
+        Subscriber<AutoReloadConfigEvent> autoReloadConfigProcessor = autoReloadConfigSubscriber(entryPointStateManager, eventDispatcher);
 
-        Subscriber<AddEntryPointEvent> addEntryPointProcessor = addEntryPointSubscriber(repository, entryPointStateManager);
+        Subscriber<AddEntryPointEvent> addEntryPointProcessor = addEntryPointSubscriber(repository, entryPointStateManager, eventDispatcher);
 
-        Subscriber<UpdateEntryPointEvent> updateEntryPointProcessor = updateEntryPointEventSubscriber(entryPointStateManager);
+        Subscriber<UpdateEntryPointEvent> updateEntryPointProcessor = updateEntryPointEventSubscriber(entryPointStateManager, commitLatencyTracker, eventDispatcher);
 
         Subscriber<DeleteEntryPointEvent> deleteEntryPointProcessor = deleteEntryPointSubscriber(nsqDispatcher);
 
-        Subscriber<RegisterServerEvent> registerServerSubscriber = registerServerSubscriber(environment, nsqConsumersFactory, eventHandler);
+        Subscriber<RegisterServerEvent> registerServerSubscriber = registerServerSubscriber(environment, nsqConsumersFactory, eventHandler, eventDispatcher, eventJournal, inFlightMessages);
 
-        Subscriber<CommitCompletedEvent> commitCompletedSubscriber = commitCompletedSubscriber(environment, nsqConsumersFactory, haProxyActionProcessor, eventHandler);
+        Subscriber<CommitCompletedEvent> commitCompletedSubscriber = commitCompletedSubscriber(environment, nsqConsumersFactory, haProxyActionProcessor, eventHandler, eventDispatcher, eventJournal, inFlightMessages, confDeltaTracker);
 
-        Subscriber<CommitFailedEvent> commitFailedSubscriber = commitFailedSubscriber(environment, nsqConsumersFactory, haProxyActionProcessor, eventHandler);
+        Subscriber<CommitFailedEvent> commitFailedSubscriber = commitFailedSubscriber(environment, nsqConsumersFactory, haProxyActionProcessor, eventHandler, eventDispatcher, eventJournal, inFlightMessages, confDeltaTracker);
 
-        Subscriber<TryCommitPendingConfigurationEvent> tryCommitPendingSubscriber = tryCommitPendingConfigurationSubscriber(configuration, environment, repository, eventHandler);
+        Subscriber<TryCommitPendingConfigurationEvent> tryCommitPendingSubscriber = tryCommitPendingConfigurationSubscriber(configuration, environment, repository, eventHandler, eventDispatcher);
 
-        Subscriber<TryCommitCurrentConfigurationEvent> tryCommitCurrentSubscriber = tryCommitCurrentConfigurationSubscriber(configuration, environment, repository, eventHandler);
+        Subscriber<TryCommitCurrentConfigurationEvent> tryCommitCurrentSubscriber = tryCommitCurrentConfigurationSubscriber(configuration, environment, repository, eventHandler, eventDispatcher);
 
         /* REST Resources */
         EntryPointResources restApiResource = new EntryPointResources(
@@ -170,7 +232,13 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
         );
         environment.jersey().register(restApiResource);
 
-        HaproxyResources haproxyResources = new HaproxyResources(repository, templateLocator, templateGenerator);
+        int valorisationThreads = configuration.getValorisationThreads();
+        ExecutorService valorisationExecutor = environment.lifecycle().executorService("valorisation-%d")
+                .minThreads(valorisationThreads)
+                .maxThreads(valorisationThreads)
+                .build();
+        HaproxyResources haproxyResources = new HaproxyResources(repository, templateLocator, templateGenerator,
+                environment.getObjectMapper(), valorisationExecutor, valorisationThreads, environment.getValidator());
         environment.jersey().register(haproxyResources);
 
         PortResources portResources = new PortResources(repository);
@@ -182,6 +250,9 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
         AdminResources adminResources = new AdminResources(nsqLookup);
         environment.jersey().register(adminResources);
 
+        CommitResources commitResources = new CommitResources(commitLatencyTracker);
+        environment.jersey().register(commitResources);
+
         /* Http Client */
         CloseableHttpClient httpClient = new HttpClientBuilder(environment)
                 .using(configuration.getHttpClientConfiguration())
@@ -193,6 +264,7 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
         environment.healthChecks().register("version", new NsqHealthcheck(nsqLookupdHttpClient));
         environment.healthChecks().register("nsqproducer", new NsqHealthcheck(nsqdHttpClient));
         environment.healthChecks().register("consul", new ConsulHealthcheck(configuration.getConsulRepositoryFactory().getHost(), configuration.getConsulRepositoryFactory().getPort()));
+        environment.healthChecks().register("warmup", new WarmupHealthcheck(warmup));
 
         /* Exception mappers */
         environment.jersey().register(new IncompleteConfigurationExceptionMapper());
@@ -227,41 +299,41 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
         return deleteEntryPointProcessor;
     }
 
-    private Subscriber<UpdateEntryPointEvent> updateEntryPointEventSubscriber(EntryPointStateManager entryPointStateManager) {
+    private Subscriber<UpdateEntryPointEvent> updateEntryPointEventSubscriber(EntryPointStateManager entryPointStateManager, CommitLatencyTracker commitLatencyTracker, PriorityEventDispatcher eventDispatcher) {
 
         FlowableProcessor<UpdateEntryPointEvent> updateEntryPointProcessor = UnicastProcessor
                 .<UpdateEntryPointEvent>create()
                 .toSerialized();
 
+        UpdateEntryPointSubscriber updateEntryPointSubscriber = new UpdateEntryPointSubscriber(entryPointStateManager, commitLatencyTracker);
         updateEntryPointProcessor
-                .observeOn(Schedulers.io())
-                .subscribe(new UpdateEntryPointSubscriber(entryPointStateManager));
+                .subscribe(event -> submit(eventDispatcher, EventPriority.INTERACTIVE, event, () -> updateEntryPointSubscriber.accept(event)));
 
         return updateEntryPointProcessor;
     }
 
-    private Subscriber<AddEntryPointEvent> addEntryPointSubscriber(ConsulRepository repository, EntryPointStateManager entryPointStateManager) {
+    private Subscriber<AddEntryPointEvent> addEntryPointSubscriber(ConsulRepository repository, EntryPointStateManager entryPointStateManager, PriorityEventDispatcher eventDispatcher) {
 
         FlowableProcessor<AddEntryPointEvent> addEntryPointProcessor = UnicastProcessor
                 .<AddEntryPointEvent>create()
                 .toSerialized();
 
+        AddEntryPointSubscriber addEntryPointSubscriber = new AddEntryPointSubscriber(entryPointStateManager, repository);
         addEntryPointProcessor
-                .observeOn(Schedulers.io())
-                .subscribe(new AddEntryPointSubscriber(entryPointStateManager, repository));
+                .subscribe(event -> submit(eventDispatcher, EventPriority.INTERACTIVE, event, () -> addEntryPointSubscriber.accept(event)));
 
         return addEntryPointProcessor;
     }
 
-    private Subscriber<AutoReloadConfigEvent> autoReloadConfigSubscriber(EntryPointStateManager entryPointStateManager) {
+    private Subscriber<AutoReloadConfigEvent> autoReloadConfigSubscriber(EntryPointStateManager entryPointStateManager, PriorityEventDispatcher eventDispatcher) {
 
         FlowableProcessor<AutoReloadConfigEvent> autoReloadConfigProcessor = UnicastProcessor
                 .<AutoReloadConfigEvent>create()
                 .toSerialized();
 
+        AutoReloadConfigSubscriber autoReloadConfigSubscriber = new AutoReloadConfigSubscriber(entryPointStateManager);
         autoReloadConfigProcessor
-                .observeOn(Schedulers.io())
-                .subscribe(new AutoReloadConfigSubscriber(entryPointStateManager));
+                .subscribe(event -> submit(eventDispatcher, EventPriority.INTERACTIVE, event, () -> autoReloadConfigSubscriber.accept(event)));
 
         return autoReloadConfigProcessor;
     }
@@ -279,7 +351,7 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
         return commitRequestedEventProcessor;
     }
 
-    private Subscriber<RegisterServerEvent> registerServerSubscriber(Environment environment, NSQConsumersFactory nsqConsumersFactory, EntryPointEventHandler eventHandler) {
+    private Subscriber<RegisterServerEvent> registerServerSubscriber(Environment environment, NSQConsumersFactory nsqConsumersFactory, EntryPointEventHandler eventHandler, PriorityEventDispatcher eventDispatcher, Optional<EventJournal> eventJournal, Optional<InFlightMessages> inFlightMessages) {
 
         FlowableNSQConsumer<RegisterServerEvent> registerServerConsumer = nsqConsumersFactory.buildRegisterServerConsumer();
         environment.lifecycle().manage(new ManagedNSQConsumer(registerServerConsumer));
@@ -288,20 +360,18 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
                 .<RegisterServerEvent>create()
                 .toSerialized();
 
-        registerServerProcessor
-                .mergeWith(registerServerConsumer.flowable())
-                .observeOn(Schedulers.io())
-                .subscribe(eventHandler::handle);
+        int maxInFlight = nsqConsumersFactory.getRegisterServerMaxInFlight();
+        Flowable.merge(Arrays.asList(registerServerProcessor, registerServerConsumer.flowable()), 2, maxInFlight)
+                .subscribe(nsqEventHandling(eventDispatcher, eventJournal, inFlightMessages, maxInFlight, eventHandler::handle));
 
         return registerServerProcessor;
     }
 
-    private Subscriber<CommitFailedEvent> commitFailedSubscriber(Environment environment, NSQConsumersFactory nsqConsumersFactory, Publisher<HAProxyPublisher.HAProxyAction> haProxyActionProcessor, EntryPointEventHandler eventHandler) {
-
-        FlowableProcessor<CommitFailedEvent> commitFailedEventProcessor = UnicastProcessor.<CommitFailedEvent>create().toSerialized();
+    private Subscriber<CommitFailedEvent> commitFailedSubscriber(Environment environment, NSQConsumersFactory nsqConsumersFactory, Publisher<HAProxyPublisher.HAProxyAction> haProxyActionProcessor, EntryPointEventHandler eventHandler, PriorityEventDispatcher eventDispatcher, Optional<EventJournal> eventJournal, Optional<InFlightMessages> inFlightMessages, Optional<ConfDeltaTracker> confDeltaTracker) {
 
         /* HAProxySubscriber: Creates a dedicated NSQConsumer for each HAProxy CommitFailed topic */
-        HAProxySubscriber<CommitFailedEvent> commitFailedHAProxySubscriber = new HAProxySubscriber<>(nsqConsumersFactory::buildCommitFailedConsumer, commitFailedEventProcessor);
+        int maxInFlight = nsqConsumersFactory.getCommitFailedMaxInFlight();
+        HAProxySubscriber<CommitFailedEvent> commitFailedHAProxySubscriber = new HAProxySubscriber<>(nsqConsumersFactory::buildCommitFailedConsumer, maxInFlight);
         haProxyActionProcessor.subscribe(commitFailedHAProxySubscriber);
         environment.lifecycle().manage(commitFailedHAProxySubscriber);
 
@@ -309,20 +379,20 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
                 .<CommitFailedEvent>create()
                 .toSerialized();
 
-        commitFailedProcessor
-                .mergeWith(commitFailedEventProcessor)
-                .observeOn(Schedulers.io())
-                .subscribe(eventHandler::handle);
+        Flowable.merge(Arrays.asList(commitFailedProcessor, commitFailedHAProxySubscriber.flowable()), 2, maxInFlight)
+                .subscribe(nsqEventHandling(eventDispatcher, eventJournal, inFlightMessages, maxInFlight, event -> {
+                    confDeltaTracker.ifPresent(tracker -> tracker.failed(event.getCorrelationId()));
+                    eventHandler.handle(event);
+                }));
 
         return commitFailedProcessor;
     }
 
-    private Subscriber<CommitCompletedEvent> commitCompletedSubscriber(Environment environment, NSQConsumersFactory nsqConsumersFactory, Publisher<HAProxyPublisher.HAProxyAction> haProxyActionProcessor, EntryPointEventHandler eventHandler) {
-
-        FlowableProcessor<CommitCompletedEvent> commitCompletedEventProcessor = UnicastProcessor.<CommitCompletedEvent>create().toSerialized();
+    private Subscriber<CommitCompletedEvent> commitCompletedSubscriber(Environment environment, NSQConsumersFactory nsqConsumersFactory, Publisher<HAProxyPublisher.HAProxyAction> haProxyActionProcessor, EntryPointEventHandler eventHandler, PriorityEventDispatcher eventDispatcher, Optional<EventJournal> eventJournal, Optional<InFlightMessages> inFlightMessages, Optional<ConfDeltaTracker> confDeltaTracker) {
 
         /* HAProxySubscriber: Creates a dedicated NSQConsumer for each HAProxy CommitCompleted topic */
-        HAProxySubscriber<CommitCompletedEvent> commitCompletedHAProxySubscriber = new HAProxySubscriber<>(nsqConsumersFactory::buildCommitCompletedConsumer, commitCompletedEventProcessor);
+        int maxInFlight = nsqConsumersFactory.getCommitCompletedMaxInFlight();
+        HAProxySubscriber<CommitCompletedEvent> commitCompletedHAProxySubscriber = new HAProxySubscriber<>(nsqConsumersFactory::buildCommitCompletedConsumer, maxInFlight);
         haProxyActionProcessor.subscribe(commitCompletedHAProxySubscriber);
         environment.lifecycle().manage(commitCompletedHAProxySubscriber);
 
@@ -330,17 +400,95 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
                 .<CommitCompletedEvent>create()
                 .toSerialized();
 
-        commitCompletedProcessor
-                .mergeWith(commitCompletedEventProcessor)
-                .observeOn(Schedulers.io())
-                .subscribe(eventHandler::handle);
+        Flowable.merge(Arrays.asList(commitCompletedProcessor, commitCompletedHAProxySubscriber.flowable()), 2, maxInFlight)
+                .subscribe(nsqEventHandling(eventDispatcher, eventJournal, inFlightMessages, maxInFlight, event -> {
+                    confDeltaTracker.ifPresent(tracker -> tracker.completed(event.getCorrelationId()));
+                    eventHandler.handle(event);
+                }));
 
         return commitCompletedProcessor;
     }
 
+    /**
+     * Submits the handling of events received from NSQ. Once an event is handled, its message is acknowledged in the
+     * journal, or finished without journal. An event whose handling fails or is rejected by the dispatcher is left in
+     * the journal, to be replayed at the next start, or its message is requeued without journal.
+     * <p>
+     * At most max in flight events are requested ahead, a next event being requested once an event is handled or
+     * rejected: the NSQ consumers take messages from nsqd as the events are handled.
+     */
+    private static <T> Subscriber<T> nsqEventHandling(PriorityEventDispatcher eventDispatcher, Optional<EventJournal> eventJournal, Optional<InFlightMessages> inFlightMessages, int maxInFlight, Consumer<T> handling) {
+        return new DefaultSubscriber<T>() {
+            @Override
+            protected void onStart() {
+                request(maxInFlight);
+            }
+
+            @Override
+            public void onNext(T event) {
+                boolean submitted = eventDispatcher.submit(EventPriority.NSQ, () -> {
+                    try {
+                        try {
+                            handling.accept(event);
+                        } catch (Exception e) {
+                            retryNsqEvent(event, "handling failed", eventJournal, inFlightMessages);
+                            throw e;
+                        }
+                        eventJournal.ifPresent(journal -> journal.acknowledge(event));
+                        inFlightMessages.ifPresent(messages -> messages.finish(event));
+                    } finally {
+                        request(1);
+                    }
+                });
+                if (!submitted) {
+                    retryNsqEvent(event, "is rejected by the event dispatcher", eventJournal, inFlightMessages);
+                    request(1);
+                }
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                LOGGER.error("NSQ events are no more handled", e);
+            }
+
+            @Override
+            public void onComplete() {
+                // consumers are only stopped with the application
+            }
+        };
+    }
+
+    private static void retryNsqEvent(Object event, String reason, Optional<EventJournal> eventJournal, Optional<InFlightMessages> inFlightMessages) {
+        if (eventJournal.isPresent()) {
+            LOGGER.warn("NSQ {} {}, it is kept in the journal and replayed at the next start", event, reason);
+            eventJournal.get().release(event);
+        } else if (inFlightMessages.isPresent()) {
+            LOGGER.warn("NSQ {} {}, its message is requeued", event, reason);
+            inFlightMessages.get().requeue(event);
+        } else {
+            LOGGER.error("NSQ {} {}, its message was already finished, it is lost", event, reason);
+        }
+    }
+
+    /**
+     * Submits the handling of an event, logging it if it is rejected. A rejected event waiting for a response fails with
+     * a 503 error, a rejected periodic event is emitted again by the next sweep.
+     */
+    private static void submit(PriorityEventDispatcher eventDispatcher, EventPriority priority, EntryPointEvent event, Action handling) {
+        if (eventDispatcher.submit(priority, handling)) {
+            return;
+        }
+        if (event instanceof EventObserver) {
+            LOGGER.warn("{} {} is rejected by the event dispatcher", priority, event);
+            ((EventObserver<?>) event).onError(new ServiceUnavailableException("too many " + priority + " events are waiting, retry later"));
+        } else {
+            LOGGER.debug("{} {} is rejected by the event dispatcher", priority, event);
+        }
+    }
+
     private Subscriber<TryCommitPendingConfigurationEvent> tryCommitPendingConfigurationSubscriber(
             StrowgrConfiguration configuration, Environment environment,
-            EntryPointRepository repository, EntryPointEventHandler eventHandler) {
+            EntryPointRepository repository, EntryPointEventHandler eventHandler, PriorityEventDispatcher eventDispatcher) {
 
         long periodMilliPendingCurrentScheduler = configuration
                 .getPeriodicSchedulerFactory()
@@ -352,8 +500,7 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
                 .toSerialized();
 
         tryCommitPendingConfigurationProcessor
-                .observeOn(Schedulers.io())
-                .subscribe(eventHandler::handle);
+                .subscribe(event -> submit(eventDispatcher, EventPriority.PERIODIC, event, () -> eventHandler.handle(event)));
 
         ManagedScheduledFlowable commitPendingFlowable = new ManagedScheduledFlowable("Commit Pending", periodMilliPendingCurrentScheduler, TimeUnit.MILLISECONDS, Schedulers.newThread());
         environment.lifecycle().manage(commitPendingFlowable);
@@ -367,7 +514,7 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
 
     private Subscriber<TryCommitCurrentConfigurationEvent> tryCommitCurrentConfigurationSubscriber(
             StrowgrConfiguration configuration, Environment environment,
-            EntryPointRepository repository, EntryPointEventHandler eventHandler) {
+            EntryPointRepository repository, EntryPointEventHandler eventHandler, PriorityEventDispatcher eventDispatcher) {
 
         long periodMilliCommitCurrentScheduler = configuration
                 .getPeriodicSchedulerFactory()
@@ -379,8 +526,7 @@ public class StrowgrMain extends Application<StrowgrConfiguration> {
                 .toSerialized();
 
         tryCommitCurrentConfigurationProcessor
-                .observeOn(Schedulers.io())
-                .subscribe(eventHandler::handle);
+                .subscribe(event -> submit(eventDispatcher, EventPriority.PERIODIC, event, () -> eventHandler.handle(event)));
 
         ManagedScheduledFlowable commitCurrentFlowable = new ManagedScheduledFlowable("Commit Current", periodMilliCommitCurrentScheduler, TimeUnit.MILLISECONDS, Schedulers.newThread());
         environment.lifecycle().manage(commitCurrentFlowable);
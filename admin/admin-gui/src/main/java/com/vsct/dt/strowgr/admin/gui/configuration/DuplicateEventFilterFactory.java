@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.configuration;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.vsct.dt.strowgr.admin.nsq.consumer.DuplicateEventFilter;
+
+import javax.validation.constraints.Min;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration of the {@link DuplicateEventFilter} which drops events redelivered by NSQ.
+ */
+public class DuplicateEventFilterFactory {
+
+    @Min(1)
+    private int capacity = 10000;
+
+    @Min(1)
+    private long windowSeconds = 300;
+
+    @JsonProperty("capacity")
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @JsonProperty("capacity")
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @JsonProperty("windowSeconds")
+    public long getWindowSeconds() {
+        return windowSeconds;
+    }
+
+    @JsonProperty("windowSeconds")
+    public void setWindowSeconds(long windowSeconds) {
+        this.windowSeconds = windowSeconds;
+    }
+
+    public DuplicateEventFilter build(MetricRegistry metricRegistry) {
+        return new DuplicateEventFilter(capacity, TimeUnit.SECONDS.toMillis(windowSeconds), metricRegistry);
+    }
+}
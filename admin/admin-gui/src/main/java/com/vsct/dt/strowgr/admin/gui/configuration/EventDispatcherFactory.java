@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.configuration;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.vsct.dt.strowgr.admin.core.scheduler.EventPriority;
+import com.vsct.dt.strowgr.admin.core.scheduler.PriorityEventDispatcher;
+
+import javax.validation.constraints.Min;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Configuration of the {@link PriorityEventDispatcher} which handles events on the state of the entrypoints.
+ */
+public class EventDispatcherFactory {
+
+    @Min(1)
+    private int threads = 8;
+
+    @Min(1)
+    private int interactiveWeight = 8;
+
+    @Min(1)
+    private int nsqWeight = 4;
+
+    @Min(1)
+    private int periodicWeight = 1;
+
+    @Min(1)
+    private int periodicQueueCapacity = 10000;
+
+    @JsonProperty("threads")
+    public int getThreads() {
+        return threads;
+    }
+
+    @JsonProperty("threads")
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @JsonProperty("interactiveWeight")
+    public int getInteractiveWeight() {
+        return interactiveWeight;
+    }
+
+    @JsonProperty("interactiveWeight")
+    public void setInteractiveWeight(int interactiveWeight) {
+        this.interactiveWeight = interactiveWeight;
+    }
+
+    @JsonProperty("nsqWeight")
+    public int getNsqWeight() {
+        return nsqWeight;
+    }
+
+    @JsonProperty("nsqWeight")
+    public void setNsqWeight(int nsqWeight) {
+        this.nsqWeight = nsqWeight;
+    }
+
+    @JsonProperty("periodicWeight")
+    public int getPeriodicWeight() {
+        return periodicWeight;
+    }
+
+    @JsonProperty("periodicWeight")
+    public void setPeriodicWeight(int periodicWeight) {
+        this.periodicWeight = periodicWeight;
+    }
+
+    @JsonProperty("periodicQueueCapacity")
+    public int getPeriodicQueueCapacity() {
+        return periodicQueueCapacity;
+    }
+
+    @JsonProperty("periodicQueueCapacity")
+    public void setPeriodicQueueCapacity(int periodicQueueCapacity) {
+        this.periodicQueueCapacity = periodicQueueCapacity;
+    }
+
+    public PriorityEventDispatcher build(MetricRegistry metricRegistry) {
+        Map<EventPriority, Integer> weights = new EnumMap<>(EventPriority.class);
+        weights.put(EventPriority.INTERACTIVE, interactiveWeight);
+        weights.put(EventPriority.NSQ, nsqWeight);
+        weights.put(EventPriority.PERIODIC, periodicWeight);
+
+        Map<EventPriority, Integer> capacities = new EnumMap<>(EventPriority.class);
+        capacities.put(EventPriority.PERIODIC, periodicQueueCapacity);
+
+        return new PriorityEventDispatcher(threads, weights, capacities, metricRegistry);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.configuration;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.vsct.dt.strowgr.admin.nsq.journal.EventJournal;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration of the {@link EventJournal} of NSQ messages. The journal is disabled if no directory is given. The
+ * events posted by the REST api are not journaled, they are lost if the admin stops before handling them.
+ */
+public class EventJournalFactory {
+
+    @Nullable
+    private String directory;
+
+    @Min(1024)
+    private int segmentSize = 16 * 1024 * 1024;
+
+    @Min(1)
+    private long maxAgeMinutes = 60;
+
+    @JsonProperty("directory")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getDirectory() {
+        return directory;
+    }
+
+    @JsonProperty("directory")
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    @JsonProperty("segmentSize")
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    @JsonProperty("segmentSize")
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @JsonProperty("maxAgeMinutes")
+    public long getMaxAgeMinutes() {
+        return maxAgeMinutes;
+    }
+
+    @JsonProperty("maxAgeMinutes")
+    public void setMaxAgeMinutes(long maxAgeMinutes) {
+        this.maxAgeMinutes = maxAgeMinutes;
+    }
+
+    public Optional<EventJournal> build() throws IOException {
+        if (directory == null) {
+            return Optional.empty();
+        }
+        return Optional.of(EventJournal.open(Paths.get(directory), segmentSize, TimeUnit.MINUTES.toMillis(maxAgeMinutes)));
+    }
+}
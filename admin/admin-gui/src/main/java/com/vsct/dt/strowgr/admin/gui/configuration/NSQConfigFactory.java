@@ -15,7 +15,11 @@
  */
 package com.vsct.dt.strowgr.admin.gui.configuration;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.vsct.dt.strowgr.admin.nsq.consumer.DuplicateEventFilter;
+import com.vsct.dt.strowgr.admin.nsq.consumer.InFlightMessages;
+import com.vsct.dt.strowgr.admin.nsq.journal.EventJournal;
 import fr.vsct.dt.nsq.NSQConfig;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -27,6 +31,11 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import javax.net.ssl.SSLException;
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 
 public class NSQConfigFactory {
 
@@ -55,6 +64,16 @@ public class NSQConfigFactory {
     @Nullable
     private Integer           eventLoopThreads;
     private NioEventLoopGroup eventLoopGroup;
+    /* RDY count of the consumers and number of events handled at once, messages being kept in flight until handled */
+    @Min(1)
+    private int maxInFlight = 10;
+    /* overrides of the RDY count by topic, a key being a topic or the prefix of topics like 'commit_completed_' */
+    @NotNull
+    private Map<String, Integer> maxInFlightByTopic = new HashMap<>();
+    @Min(1)
+    private int maxAttempts = 5;
+    @Min(0)
+    private int requeueDelayMillis = 1000;
 
     public NSQConfig build() throws SSLException {
         NSQConfig config = new NSQConfig();
@@ -186,6 +205,79 @@ public class NSQConfigFactory {
         this.eventLoopThreads = eventLoopThreads;
     }
 
+    @JsonProperty("maxInFlight")
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @JsonProperty("maxInFlight")
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    @JsonProperty("maxInFlightByTopic")
+    public Map<String, Integer> getMaxInFlightByTopic() {
+        return maxInFlightByTopic;
+    }
+
+    @JsonProperty("maxInFlightByTopic")
+    public void setMaxInFlightByTopic(Map<String, Integer> maxInFlightByTopic) {
+        this.maxInFlightByTopic = maxInFlightByTopic;
+    }
+
+    @JsonProperty("maxAttempts")
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    @JsonProperty("maxAttempts")
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    @JsonProperty("requeueDelayMillis")
+    public int getRequeueDelayMillis() {
+        return requeueDelayMillis;
+    }
+
+    @JsonProperty("requeueDelayMillis")
+    public void setRequeueDelayMillis(int requeueDelayMillis) {
+        this.requeueDelayMillis = requeueDelayMillis;
+    }
+
+    /**
+     * @param topic consumed
+     * @return the RDY count of the consumers of the topic, overridden by the longest matching key of
+     * {@link #maxInFlightByTopic}
+     */
+    public int getMaxInFlight(String topic) {
+        String matching = null;
+        for (String key : maxInFlightByTopic.keySet()) {
+            if (topic.startsWith(key) && (matching == null || key.length() > matching.length())) {
+                matching = key;
+            }
+        }
+        return matching == null ? maxInFlight : maxInFlightByTopic.get(matching);
+    }
+
+    /**
+     * Messages are kept in flight until their events are handled, their handling should fit in the message timeout. With
+     * a journal, messages are finished once journaled: in both cases, messages are taken from nsqd as events are handled.
+     *
+     * @param eventJournal         of the NSQ messages, finished as soon as they are journaled when present
+     * @param duplicateEventFilter forgetting the requeued events
+     * @param metricRegistry       where the metrics of the messages are registered
+     * @return the messages kept in flight until their events are handled, or empty if the messages are journaled
+     */
+    public Optional<InFlightMessages> buildInFlightMessages(Optional<EventJournal> eventJournal, DuplicateEventFilter duplicateEventFilter, MetricRegistry metricRegistry) {
+        if (eventJournal.isPresent()) {
+            return Optional.empty();
+        }
+        LOGGER.info("keep at most {} NSQ messages in flight by connection, overridden for topics {}, with a message timeout of {}",
+                maxInFlight, maxInFlightByTopic, msgTimeout == null ? "nsqd default" : msgTimeout + " ms");
+        return Optional.of(new InFlightMessages(maxAttempts, requeueDelayMillis, duplicateEventFilter, metricRegistry));
+    }
+
     public NSQConfig.Compression getCompression() {
         if (nsqCompressionFactory == null) {
             return NSQConfig.Compression.NO_COMPRESSION;
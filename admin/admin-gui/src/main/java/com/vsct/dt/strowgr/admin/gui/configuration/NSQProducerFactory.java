@@ -15,8 +15,14 @@
  */
 package com.vsct.dt.strowgr.admin.gui.configuration;
 
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.ConfEncoding;
+import com.vsct.dt.strowgr.admin.nsq.producer.AsyncNSQProducer;
+import com.vsct.dt.strowgr.admin.nsq.producer.ConfDeltaTracker;
+import com.vsct.dt.strowgr.admin.nsq.producer.NSQBatchPublisher;
 import fr.vsct.dt.nsq.NSQProducer;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.hibernate.validator.constraints.NotEmpty;
@@ -25,6 +31,13 @@ import org.slf4j.LoggerFactory;
 
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
 /**
  * NSQProducerFactory for reading NSQProducer configuration from dropwizard yaml.
@@ -48,6 +61,37 @@ public class NSQProducerFactory {
     @Max(65535)
     private int httpPort = 4151;
 
+    /* commands awaiting the response of nsqd, each one on its own pooled connection */
+    @Min(1)
+    private int maxInFlight = 8;
+
+    /* 1 publishes each message on its own, a failed batch failing the commits of all its messages */
+    @Min(1)
+    private int batchSize = 1;
+
+    /* below the 5MB default of nsqd '--max-body-size' */
+    @Min(1)
+    private int batchMaxBytes = 4 * 1024 * 1024;
+
+    @Min(0)
+    private long batchLingerMillis = 5;
+
+    /* encoding of the configurations of commit requests, base64 being understood by all the sidekicks */
+    @NotNull
+    private ConfEncoding confEncoding = ConfEncoding.BASE64;
+
+    /* encodings overriding the default one for some haproxy names, to roll out an encoding haproxy by haproxy */
+    @NotNull
+    private Map<String, ConfEncoding> confEncodingByHaproxy = new HashMap<>();
+
+    /* haproxies whose sidekicks apply configuration deltas, none by default */
+    @NotNull
+    private Set<String> confDeltaHaproxies = new HashSet<>();
+
+    /* bytes of the configurations kept to compute deltas */
+    @Min(1)
+    private long confDeltaCacheBytes = 256L * 1024 * 1024;
+
     @JsonProperty
     public String getHost() {
         return host;
@@ -75,9 +119,141 @@ public class NSQProducerFactory {
         this.httpPort = httpPort;
     }
 
+    @JsonProperty
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @JsonProperty
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    @JsonProperty
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @JsonProperty
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @JsonProperty
+    public int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    @JsonProperty
+    public void setBatchMaxBytes(int batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    @JsonProperty
+    public long getBatchLingerMillis() {
+        return batchLingerMillis;
+    }
+
+    @JsonProperty
+    public void setBatchLingerMillis(long batchLingerMillis) {
+        this.batchLingerMillis = batchLingerMillis;
+    }
+
+    @JsonProperty
+    public ConfEncoding getConfEncoding() {
+        return confEncoding;
+    }
+
+    @JsonProperty
+    public void setConfEncoding(ConfEncoding confEncoding) {
+        this.confEncoding = confEncoding;
+    }
+
+    @JsonProperty
+    public Map<String, ConfEncoding> getConfEncodingByHaproxy() {
+        return confEncodingByHaproxy;
+    }
+
+    @JsonProperty
+    public void setConfEncodingByHaproxy(Map<String, ConfEncoding> confEncodingByHaproxy) {
+        this.confEncodingByHaproxy = confEncodingByHaproxy;
+    }
+
+    @JsonProperty
+    public Set<String> getConfDeltaHaproxies() {
+        return confDeltaHaproxies;
+    }
+
+    @JsonProperty
+    public void setConfDeltaHaproxies(Set<String> confDeltaHaproxies) {
+        this.confDeltaHaproxies = confDeltaHaproxies;
+    }
+
+    @JsonProperty
+    public long getConfDeltaCacheBytes() {
+        return confDeltaCacheBytes;
+    }
+
+    @JsonProperty
+    public void setConfDeltaCacheBytes(long confDeltaCacheBytes) {
+        this.confDeltaCacheBytes = confDeltaCacheBytes;
+    }
+
+    /**
+     * @param metricRegistry where delta metrics are registered
+     * @return the tracker of configuration deltas, empty if no haproxy applies deltas
+     */
+    public Optional<ConfDeltaTracker> buildConfDeltaTracker(MetricRegistry metricRegistry) {
+        if (confDeltaHaproxies.isEmpty()) {
+            return Optional.empty();
+        }
+        LOGGER.info("send configuration deltas to haproxies {}, keeping {} bytes of configurations", confDeltaHaproxies, confDeltaCacheBytes);
+        return Optional.of(new ConfDeltaTracker(confDeltaHaproxies, confDeltaCacheBytes, metricRegistry));
+    }
+
+    /**
+     * @return the encoding of the configurations sent to a haproxy, given its name
+     */
+    public Function<String, ConfEncoding> buildConfEncodings() {
+        LOGGER.info("encode NSQ configurations with {}, overridden for haproxies {}", confEncoding.getName(), confEncodingByHaproxy);
+        Map<String, ConfEncoding> overrides = new HashMap<>(confEncodingByHaproxy);
+        ConfEncoding defaultEncoding = confEncoding;
+        return haproxyName -> overrides.getOrDefault(haproxyName, defaultEncoding);
+    }
+
+    /**
+     * @param nsqProducer    to publish with, built by {@link #build()}
+     * @param metricRegistry where producer metrics are registered
+     * @return the asynchronous producer, with {@link #maxInFlight} commands in flight at most
+     */
+    public AsyncNSQProducer buildAsyncProducer(NSQProducer nsqProducer, MetricRegistry metricRegistry) {
+        LOGGER.info("publish NSQ messages asynchronously with {} commands in flight at most", maxInFlight);
+        return new AsyncNSQProducer(nsqProducer, maxInFlight, metricRegistry);
+    }
+
+    /**
+     * @param asyncProducer  to publish with
+     * @param metricRegistry where batch metrics are registered
+     * @return the batch publisher, empty if messages are published on their own
+     */
+    public Optional<NSQBatchPublisher> buildBatchPublisher(AsyncNSQProducer asyncProducer, MetricRegistry metricRegistry) {
+        if (batchSize <= 1) {
+            return Optional.empty();
+        }
+        LOGGER.info("publish NSQ messages by batches of {} messages or {} bytes, lingering {} ms", batchSize, batchMaxBytes, batchLingerMillis);
+        return Optional.of(new NSQBatchPublisher(asyncProducer, batchSize, batchMaxBytes, batchLingerMillis, metricRegistry));
+    }
+
     public NSQProducer build() {
         NSQProducer nsqProducer = new NSQProducer();
         nsqProducer.addAddress(getHost(), getTcpPort());
+        // one connection for each command in flight, keeping the defaults of the client
+        GenericKeyedObjectPoolConfig poolConfig = new GenericKeyedObjectPoolConfig();
+        poolConfig.setTestOnBorrow(true);
+        poolConfig.setJmxEnabled(false);
+        poolConfig.setMaxTotalPerKey(maxInFlight);
+        poolConfig.setMaxIdlePerKey(maxInFlight);
+        nsqProducer.setPoolConfig(poolConfig);
 
         LogManager.getRootLogger().setLevel(Level.ERROR);
         LOGGER.info("read NSQ Producer configuration with host:{}, port: {}", getHost(), getTcpPort());
@@ -24,6 +24,7 @@ import javax.annotation.Nullable;
 import javax.validation.Valid;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
 
 public class StrowgrConfiguration extends Configuration {
 
@@ -53,9 +54,51 @@ public class StrowgrConfiguration extends Configuration {
     @Min(1)
     private int threads = 200;
 
+    @Valid
+    @NotNull
+    private EventDispatcherFactory eventDispatcherFactory = new EventDispatcherFactory();
+
+    @Valid
+    @NotNull
+    private EventJournalFactory eventJournalFactory = new EventJournalFactory();
+
+    @Valid
+    @NotNull
+    private DuplicateEventFilterFactory duplicateEventFilterFactory = new DuplicateEventFilterFactory();
+
+    @Valid
+    @NotNull
+    private WarmupFactory warmupFactory = new WarmupFactory();
+
+    @Valid
+    @NotNull
+    private TemplateLocatorFactory templateLocatorFactory = new TemplateLocatorFactory();
+
     @Min(10)
     private int commitTimeout = 13;
 
+    @Min(1)
+    private int commitTrackingCapacity = 1000;
+
+    @Min(1)
+    private int templateCacheSize = 100;
+
+    @Min(1)
+    private long templateFragmentCacheSize = 32 * 1024 * 1024;
+
+    @NotNull
+    @Pattern(regexp = "mustache|tree")
+    private String templateEngine = "mustache";
+
+    @Min(1)
+    private long templateRenderTimeout = 2000;
+
+    @Min(1)
+    private long templateMaxOutputSize = 16 * 1024 * 1024;
+
+    @Min(1)
+    private int valorisationThreads = 8;
+
     @Valid
     @NotNull
     private HttpClientConfiguration httpClient = new HttpClientConfiguration();
@@ -157,6 +200,56 @@ public class StrowgrConfiguration extends Configuration {
         this.threads = threads;
     }
 
+    @JsonProperty("eventDispatcher")
+    public EventDispatcherFactory getEventDispatcherFactory() {
+        return eventDispatcherFactory;
+    }
+
+    @JsonProperty("eventDispatcher")
+    public void setEventDispatcherFactory(EventDispatcherFactory eventDispatcherFactory) {
+        this.eventDispatcherFactory = eventDispatcherFactory;
+    }
+
+    @JsonProperty("journal")
+    public EventJournalFactory getEventJournalFactory() {
+        return eventJournalFactory;
+    }
+
+    @JsonProperty("journal")
+    public void setEventJournalFactory(EventJournalFactory eventJournalFactory) {
+        this.eventJournalFactory = eventJournalFactory;
+    }
+
+    @JsonProperty("duplicateEventFilter")
+    public DuplicateEventFilterFactory getDuplicateEventFilterFactory() {
+        return duplicateEventFilterFactory;
+    }
+
+    @JsonProperty("duplicateEventFilter")
+    public void setDuplicateEventFilterFactory(DuplicateEventFilterFactory duplicateEventFilterFactory) {
+        this.duplicateEventFilterFactory = duplicateEventFilterFactory;
+    }
+
+    @JsonProperty("warmup")
+    public WarmupFactory getWarmupFactory() {
+        return warmupFactory;
+    }
+
+    @JsonProperty("warmup")
+    public void setWarmupFactory(WarmupFactory warmupFactory) {
+        this.warmupFactory = warmupFactory;
+    }
+
+    @JsonProperty("templateLocator")
+    public TemplateLocatorFactory getTemplateLocatorFactory() {
+        return templateLocatorFactory;
+    }
+
+    @JsonProperty("templateLocator")
+    public void setTemplateLocatorFactory(TemplateLocatorFactory templateLocatorFactory) {
+        this.templateLocatorFactory = templateLocatorFactory;
+    }
+
     @JsonProperty("commitTimeout")
     public int getCommitTimeout() {
         return commitTimeout;
@@ -168,6 +261,76 @@ public class StrowgrConfiguration extends Configuration {
     }
 
 
+    @JsonProperty("commitTrackingCapacity")
+    public int getCommitTrackingCapacity() {
+        return commitTrackingCapacity;
+    }
+
+    @JsonProperty("commitTrackingCapacity")
+    public void setCommitTrackingCapacity(int commitTrackingCapacity) {
+        this.commitTrackingCapacity = commitTrackingCapacity;
+    }
+
+    @JsonProperty("templateCacheSize")
+    public int getTemplateCacheSize() {
+        return templateCacheSize;
+    }
+
+    @JsonProperty("templateCacheSize")
+    public void setTemplateCacheSize(int templateCacheSize) {
+        this.templateCacheSize = templateCacheSize;
+    }
+
+    @JsonProperty("templateFragmentCacheSize")
+    public long getTemplateFragmentCacheSize() {
+        return templateFragmentCacheSize;
+    }
+
+    @JsonProperty("templateFragmentCacheSize")
+    public void setTemplateFragmentCacheSize(long templateFragmentCacheSize) {
+        this.templateFragmentCacheSize = templateFragmentCacheSize;
+    }
+
+    @JsonProperty("templateEngine")
+    public String getTemplateEngine() {
+        return templateEngine;
+    }
+
+    @JsonProperty("templateEngine")
+    public void setTemplateEngine(String templateEngine) {
+        this.templateEngine = templateEngine;
+    }
+
+    @JsonProperty("templateRenderTimeout")
+    public long getTemplateRenderTimeout() {
+        return templateRenderTimeout;
+    }
+
+    @JsonProperty("templateRenderTimeout")
+    public void setTemplateRenderTimeout(long templateRenderTimeout) {
+        this.templateRenderTimeout = templateRenderTimeout;
+    }
+
+    @JsonProperty("templateMaxOutputSize")
+    public long getTemplateMaxOutputSize() {
+        return templateMaxOutputSize;
+    }
+
+    @JsonProperty("templateMaxOutputSize")
+    public void setTemplateMaxOutputSize(long templateMaxOutputSize) {
+        this.templateMaxOutputSize = templateMaxOutputSize;
+    }
+
+    @JsonProperty("valorisationThreads")
+    public int getValorisationThreads() {
+        return valorisationThreads;
+    }
+
+    @JsonProperty("valorisationThreads")
+    public void setValorisationThreads(int valorisationThreads) {
+        this.valorisationThreads = valorisationThreads;
+    }
+
     @JsonProperty("httpClient")
     public HttpClientConfiguration getHttpClientConfiguration() {
         return httpClient;
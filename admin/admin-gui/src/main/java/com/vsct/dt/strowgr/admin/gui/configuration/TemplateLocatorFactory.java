@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
+import com.vsct.dt.strowgr.admin.core.repository.EntryPointRepository;
+import com.vsct.dt.strowgr.admin.gui.managed.ManagedLocalTemplateLocator;
+import com.vsct.dt.strowgr.admin.gui.managed.ManagedTemplateRefresher;
+import com.vsct.dt.strowgr.admin.template.locator.LocalTemplateLocator;
+import com.vsct.dt.strowgr.admin.template.locator.PrefetchedTemplateLocator;
+import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
+import io.dropwizard.setup.Environment;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.HttpClients;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Configuration of the {@link UriTemplateLocator}: timeouts and limits of the template requests, cache periods, and
+ * whether templates can be read from 'file:' and 'classpath:' uris by a {@link LocalTemplateLocator}.
+ * Local templates are disabled by default. Once enabled, only the files under {@code templateDirectories} and the
+ * resources under {@code templateResourcePrefixes} can be read.
+ * <p>
+ * Also configures the {@link PrefetchedTemplateLocator} of the commit path and the period of its refresh.
+ */
+public class TemplateLocatorFactory {
+
+    @Min(1)
+    private int connectTimeoutMillis = 2000;
+
+    @Min(1)
+    private int socketTimeoutMillis = 5000;
+
+    @Min(0)
+    private long ttlSeconds = 30;
+
+    @Min(0)
+    private long staleWhileRevalidateSeconds = 300;
+
+    @Min(0)
+    private long staleIfErrorSeconds = 3600;
+
+    @Min(1)
+    private int revalidationThreads = 2;
+
+    @Min(1)
+    private long fetchTimeoutMillis = 10000;
+
+    @Min(1)
+    private int maxConcurrentFetchesPerHost = 4;
+
+    private boolean localTemplates = false;
+
+    @NotNull
+    private List<String> templateDirectories = new ArrayList<>();
+
+    @NotNull
+    private List<String> templateResourcePrefixes = new ArrayList<>();
+
+    @Min(1)
+    private int maxWatchedDirectories = 64;
+
+    private boolean prefetch = true;
+
+    @Min(1)
+    private long refreshPeriodSeconds = 30;
+
+    @JsonProperty("connectTimeoutMillis")
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    @JsonProperty("connectTimeoutMillis")
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    @JsonProperty("socketTimeoutMillis")
+    public int getSocketTimeoutMillis() {
+        return socketTimeoutMillis;
+    }
+
+    @JsonProperty("socketTimeoutMillis")
+    public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    @JsonProperty("ttlSeconds")
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    @JsonProperty("ttlSeconds")
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    @JsonProperty("staleWhileRevalidateSeconds")
+    public long getStaleWhileRevalidateSeconds() {
+        return staleWhileRevalidateSeconds;
+    }
+
+    @JsonProperty("staleWhileRevalidateSeconds")
+    public void setStaleWhileRevalidateSeconds(long staleWhileRevalidateSeconds) {
+        this.staleWhileRevalidateSeconds = staleWhileRevalidateSeconds;
+    }
+
+    @JsonProperty("staleIfErrorSeconds")
+    public long getStaleIfErrorSeconds() {
+        return staleIfErrorSeconds;
+    }
+
+    @JsonProperty("staleIfErrorSeconds")
+    public void setStaleIfErrorSeconds(long staleIfErrorSeconds) {
+        this.staleIfErrorSeconds = staleIfErrorSeconds;
+    }
+
+    @JsonProperty("revalidationThreads")
+    public int getRevalidationThreads() {
+        return revalidationThreads;
+    }
+
+    @JsonProperty("revalidationThreads")
+    public void setRevalidationThreads(int revalidationThreads) {
+        this.revalidationThreads = revalidationThreads;
+    }
+
+    @JsonProperty("fetchTimeoutMillis")
+    public long getFetchTimeoutMillis() {
+        return fetchTimeoutMillis;
+    }
+
+    @JsonProperty("fetchTimeoutMillis")
+    public void setFetchTimeoutMillis(long fetchTimeoutMillis) {
+        this.fetchTimeoutMillis = fetchTimeoutMillis;
+    }
+
+    @JsonProperty("maxConcurrentFetchesPerHost")
+    public int getMaxConcurrentFetchesPerHost() {
+        return maxConcurrentFetchesPerHost;
+    }
+
+    @JsonProperty("maxConcurrentFetchesPerHost")
+    public void setMaxConcurrentFetchesPerHost(int maxConcurrentFetchesPerHost) {
+        this.maxConcurrentFetchesPerHost = maxConcurrentFetchesPerHost;
+    }
+
+    @JsonProperty("localTemplates")
+    public boolean isLocalTemplates() {
+        return localTemplates;
+    }
+
+    @JsonProperty("localTemplates")
+    public void setLocalTemplates(boolean localTemplates) {
+        this.localTemplates = localTemplates;
+    }
+
+    @JsonProperty("templateDirectories")
+    public List<String> getTemplateDirectories() {
+        return templateDirectories;
+    }
+
+    @JsonProperty("templateDirectories")
+    public void setTemplateDirectories(List<String> templateDirectories) {
+        this.templateDirectories = templateDirectories;
+    }
+
+    @JsonProperty("templateResourcePrefixes")
+    public List<String> getTemplateResourcePrefixes() {
+        return templateResourcePrefixes;
+    }
+
+    @JsonProperty("templateResourcePrefixes")
+    public void setTemplateResourcePrefixes(List<String> templateResourcePrefixes) {
+        this.templateResourcePrefixes = templateResourcePrefixes;
+    }
+
+    @JsonProperty("maxWatchedDirectories")
+    public int getMaxWatchedDirectories() {
+        return maxWatchedDirectories;
+    }
+
+    @JsonProperty("maxWatchedDirectories")
+    public void setMaxWatchedDirectories(int maxWatchedDirectories) {
+        this.maxWatchedDirectories = maxWatchedDirectories;
+    }
+
+    @JsonProperty("prefetch")
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    @JsonProperty("prefetch")
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    @JsonProperty("refreshPeriodSeconds")
+    public long getRefreshPeriodSeconds() {
+        return refreshPeriodSeconds;
+    }
+
+    @JsonProperty("refreshPeriodSeconds")
+    public void setRefreshPeriodSeconds(long refreshPeriodSeconds) {
+        this.refreshPeriodSeconds = refreshPeriodSeconds;
+    }
+
+    /**
+     * Builds the locator of the commit path, with its refresh managed by the environment.
+     *
+     * @return the prefetched locator, or empty if templates are not prefetched
+     */
+    public Optional<PrefetchedTemplateLocator> buildPrefetched(Environment environment, UriTemplateLocator templateLocator,
+                                                               TemplateGenerator templateGenerator, EntryPointRepository repository) {
+        if (!prefetch) {
+            return Optional.empty();
+        }
+        ScheduledExecutorService scheduler = environment.lifecycle().scheduledExecutorService("template-refresh-%d").threads(1).build();
+        PrefetchedTemplateLocator prefetchedTemplateLocator = new PrefetchedTemplateLocator(templateLocator, templateGenerator, scheduler);
+        environment.lifecycle().manage(new ManagedTemplateRefresher(repository, prefetchedTemplateLocator, scheduler, TimeUnit.SECONDS.toMillis(refreshPeriodSeconds)));
+        return Optional.of(prefetchedTemplateLocator);
+    }
+
+    public UriTemplateLocator build(Environment environment) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSocketTimeout(socketTimeoutMillis)
+                .build();
+        ExecutorService revalidationExecutor = environment.lifecycle().executorService("template-revalidation-%d")
+                .minThreads(revalidationThreads)
+                .maxThreads(revalidationThreads)
+                .build();
+        Optional<LocalTemplateLocator> localTemplateLocator = Optional.empty();
+        if (localTemplates) {
+            localTemplateLocator = Optional.of(new LocalTemplateLocator(
+                    templateDirectories.stream().map(Paths::get).collect(Collectors.toList()),
+                    templateResourcePrefixes, maxWatchedDirectories));
+            environment.lifecycle().manage(new ManagedLocalTemplateLocator(localTemplateLocator.get()));
+        }
+        return new UriTemplateLocator(HttpClients.custom().setDefaultRequestConfig(requestConfig).build(),
+                TimeUnit.SECONDS.toMillis(ttlSeconds),
+                TimeUnit.SECONDS.toMillis(staleWhileRevalidateSeconds),
+                TimeUnit.SECONDS.toMillis(staleIfErrorSeconds),
+                revalidationExecutor,
+                fetchTimeoutMillis,
+                maxConcurrentFetchesPerHost,
+                localTemplateLocator,
+                environment.metrics());
+    }
+}
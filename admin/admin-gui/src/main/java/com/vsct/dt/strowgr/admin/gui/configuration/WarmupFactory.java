@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
+import com.vsct.dt.strowgr.admin.core.TemplateLocator;
+import com.vsct.dt.strowgr.admin.core.repository.EntryPointRepository;
+import com.vsct.dt.strowgr.admin.core.repository.PortRepository;
+import com.vsct.dt.strowgr.admin.gui.managed.ManagedWarmup;
+
+import javax.validation.constraints.Min;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration of the {@link ManagedWarmup} run at startup.
+ */
+public class WarmupFactory {
+
+    @Min(1)
+    private int threads = 8;
+
+    @Min(1)
+    private long timeoutSeconds = 60;
+
+    @JsonProperty("threads")
+    public int getThreads() {
+        return threads;
+    }
+
+    @JsonProperty("threads")
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @JsonProperty("timeoutSeconds")
+    public long getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    @JsonProperty("timeoutSeconds")
+    public void setTimeoutSeconds(long timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    public ManagedWarmup build(EntryPointRepository repository, PortRepository portRepository, TemplateLocator templateLocator, TemplateGenerator templateGenerator) {
+        return new ManagedWarmup(repository, portRepository, templateLocator, templateGenerator, threads, TimeUnit.SECONDS.toMillis(timeoutSeconds));
+    }
+}
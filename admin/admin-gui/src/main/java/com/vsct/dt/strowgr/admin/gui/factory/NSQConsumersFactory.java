@@ -22,11 +22,17 @@ import com.vsct.dt.strowgr.admin.core.event.in.RegisterServerEvent;
 import com.vsct.dt.strowgr.admin.nsq.NSQ;
 import com.vsct.dt.strowgr.admin.nsq.consumer.CommitCompletedTransformer;
 import com.vsct.dt.strowgr.admin.nsq.consumer.CommitFailedTransformer;
+import com.vsct.dt.strowgr.admin.nsq.consumer.DuplicateEventFilter;
 import com.vsct.dt.strowgr.admin.nsq.consumer.FlowableNSQConsumer;
+import com.vsct.dt.strowgr.admin.nsq.consumer.InFlightMessages;
 import com.vsct.dt.strowgr.admin.nsq.consumer.RegisterServerTransformer;
+import com.vsct.dt.strowgr.admin.nsq.journal.EventJournal;
 import fr.vsct.dt.nsq.NSQConfig;
 import fr.vsct.dt.nsq.lookup.NSQLookup;
 
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+
 public class NSQConsumersFactory {
 
     private static final String COMMIT_COMPLETED_TOPIC_PREFIX = "commit_completed_";
@@ -41,24 +47,67 @@ public class NSQConsumersFactory {
 
     private final ObjectMapper objectMapper;
 
-    public NSQConsumersFactory(NSQLookup lookup, NSQConfig nsqConfig, ObjectMapper objectMapper) {
+    private final Optional<EventJournal> eventJournal;
+
+    private final DuplicateEventFilter duplicateEventFilter;
+
+    private final Optional<InFlightMessages> inFlightMessages;
+
+    private final ToIntFunction<String> maxInFlight;
+
+    /**
+     * @param inFlightMessages keeping the messages in flight until their events are handled, when there is no journal
+     * @param maxInFlight      RDY count of the consumers of a topic
+     */
+    public NSQConsumersFactory(NSQLookup lookup, NSQConfig nsqConfig, ObjectMapper objectMapper, Optional<EventJournal> eventJournal, DuplicateEventFilter duplicateEventFilter,
+                               Optional<InFlightMessages> inFlightMessages, ToIntFunction<String> maxInFlight) {
         this.lookup = lookup;
         this.nsqConfig = nsqConfig;
         this.objectMapper = objectMapper;
+        this.eventJournal = eventJournal;
+        this.duplicateEventFilter = duplicateEventFilter;
+        this.inFlightMessages = inFlightMessages;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return the number of register server events requested ahead of their handling
+     */
+    public int getRegisterServerMaxInFlight() {
+        return maxInFlight.applyAsInt(REGISTER_SERVER_TOPIC);
+    }
+
+    /**
+     * @return the number of commit completed events requested ahead of their handling, from each haproxy
+     */
+    public int getCommitCompletedMaxInFlight() {
+        return maxInFlight.applyAsInt(COMMIT_COMPLETED_TOPIC_PREFIX);
+    }
+
+    /**
+     * @return the number of commit failed events requested ahead of their handling, from each haproxy
+     */
+    public int getCommitFailedMaxInFlight() {
+        return maxInFlight.applyAsInt(COMMIT_FAILED_TOPIC_PREFIX);
     }
 
     public FlowableNSQConsumer<CommitCompletedEvent> buildCommitCompletedConsumer(String id) {
         CommitCompletedTransformer commitCompletedTransformer = new CommitCompletedTransformer(objectMapper);
-        return new FlowableNSQConsumer<>(lookup, COMMIT_COMPLETED_TOPIC_PREFIX + id, NSQ.CHANNEL, nsqConfig, commitCompletedTransformer);
+        String topic = COMMIT_COMPLETED_TOPIC_PREFIX + id;
+        return new FlowableNSQConsumer<>(lookup, topic, NSQ.CHANNEL, nsqConfig, commitCompletedTransformer, eventJournal, duplicateEventFilter,
+                inFlightMessages, maxInFlight.applyAsInt(topic));
     }
 
     public FlowableNSQConsumer<CommitFailedEvent> buildCommitFailedConsumer(String id) {
         CommitFailedTransformer commitFailedTransformer = new CommitFailedTransformer(objectMapper);
-        return new FlowableNSQConsumer<>(lookup, COMMIT_FAILED_TOPIC_PREFIX + id, NSQ.CHANNEL, nsqConfig, commitFailedTransformer);
+        String topic = COMMIT_FAILED_TOPIC_PREFIX + id;
+        return new FlowableNSQConsumer<>(lookup, topic, NSQ.CHANNEL, nsqConfig, commitFailedTransformer, eventJournal, duplicateEventFilter,
+                inFlightMessages, maxInFlight.applyAsInt(topic));
     }
 
     public FlowableNSQConsumer<RegisterServerEvent> buildRegisterServerConsumer() {
         RegisterServerTransformer registerServerTransformer = new RegisterServerTransformer(objectMapper);
-        return new FlowableNSQConsumer<>(lookup, REGISTER_SERVER_TOPIC, NSQ.CHANNEL, nsqConfig, registerServerTransformer);
+        return new FlowableNSQConsumer<>(lookup, REGISTER_SERVER_TOPIC, NSQ.CHANNEL, nsqConfig, registerServerTransformer, eventJournal, duplicateEventFilter,
+                inFlightMessages, maxInFlight.applyAsInt(REGISTER_SERVER_TOPIC));
     }
 }
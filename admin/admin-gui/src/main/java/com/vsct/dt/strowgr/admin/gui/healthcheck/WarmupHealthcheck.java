@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.healthcheck;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.vsct.dt.strowgr.admin.gui.managed.ManagedWarmup;
+
+/**
+ * Readiness of the admin: healthy once the startup warmup has run.
+ */
+public class WarmupHealthcheck extends HealthCheck {
+
+    private final ManagedWarmup warmup;
+
+    public WarmupHealthcheck(ManagedWarmup warmup) {
+        this.warmup = warmup;
+    }
+
+    @Override
+    protected Result check() throws Exception {
+        if (warmup.isDone()) {
+            return Result.healthy(warmup.getStatus());
+        }
+        return Result.unhealthy(warmup.getStatus());
+    }
+}
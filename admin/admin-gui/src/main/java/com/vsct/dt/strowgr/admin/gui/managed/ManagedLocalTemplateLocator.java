@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.managed;
+
+import com.vsct.dt.strowgr.admin.template.locator.LocalTemplateLocator;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local template locator managed by DropWizard. Its template files are watched once built, the watch is only stopped by
+ * this object.
+ */
+public class ManagedLocalTemplateLocator implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManagedLocalTemplateLocator.class);
+
+    private final LocalTemplateLocator localTemplateLocator;
+
+    public ManagedLocalTemplateLocator(LocalTemplateLocator localTemplateLocator) {
+        this.localTemplateLocator = localTemplateLocator;
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        LOGGER.info("stop watching local templates");
+        this.localTemplateLocator.close();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.managed;
+
+import com.vsct.dt.strowgr.admin.nsq.producer.NSQBatchPublisher;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * NSQ batch publisher managed by DropWizard. It should be managed after its asynchronous NSQ producer, so that its pending
+ * batches are published before the producer is shut down.
+ */
+public class ManagedNSQBatchPublisher implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManagedNSQBatchPublisher.class);
+
+    private final NSQBatchPublisher batchPublisher;
+
+    public ManagedNSQBatchPublisher(NSQBatchPublisher batchPublisher) {
+        this.batchPublisher = batchPublisher;
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        LOGGER.info("publish pending NSQ batches");
+        this.batchPublisher.close();
+    }
+}
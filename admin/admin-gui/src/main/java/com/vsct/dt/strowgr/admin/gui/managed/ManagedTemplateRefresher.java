@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.managed;
+
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.core.repository.EntryPointRepository;
+import com.vsct.dt.strowgr.admin.template.locator.PrefetchedTemplateLocator;
+import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Refreshes periodically the templates of the {@link PrefetchedTemplateLocator}: all the distinct template uris of the
+ * current configurations, and the ones read since the previous refresh, are fetched and compiled. The first refresh is
+ * done at startup, after the warmup.
+ */
+public class ManagedTemplateRefresher implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManagedTemplateRefresher.class);
+
+    private final EntryPointRepository repository;
+    private final PrefetchedTemplateLocator templateLocator;
+    private final ScheduledExecutorService scheduler;
+    private final long periodMillis;
+
+    public ManagedTemplateRefresher(EntryPointRepository repository, PrefetchedTemplateLocator templateLocator, ScheduledExecutorService scheduler, long periodMillis) {
+        this.repository = repository;
+        this.templateLocator = templateLocator;
+        this.scheduler = scheduler;
+        this.periodMillis = periodMillis;
+    }
+
+    @Override
+    public void start() throws Exception {
+        refresh();
+        scheduler.scheduleWithFixedDelay(this::refresh, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+    }
+
+    private void refresh() {
+        try {
+            Set<String> uris = repository.getCurrentConfigurations().values().stream()
+                    .map(EntryPoint::getContext)
+                    .map(context -> context.get(UriTemplateLocator.URI_FIELD))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toSet());
+            int stored = templateLocator.refresh(uris);
+            LOGGER.debug("{} template uris refreshed, {} templates stored", uris.size(), stored);
+        } catch (Exception e) {
+            LOGGER.warn("can't refresh templates", e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.managed;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vsct.dt.strowgr.admin.core.EntryPointKey;
+import com.vsct.dt.strowgr.admin.core.EntryPointKeyDefaultImpl;
+import com.vsct.dt.strowgr.admin.core.IncompleteConfigurationException;
+import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
+import com.vsct.dt.strowgr.admin.core.TemplateLocator;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.core.repository.EntryPointRepository;
+import com.vsct.dt.strowgr.admin.core.repository.PortRepository;
+import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Startup phase run before the schedulers start: reads the current configuration of all the entrypoints and all the
+ * ports in two reads of the repository, then fetches and compiles every template they reference, in parallel, and
+ * renders each current configuration with its template, so that the first commits hit the caches of compiled templates
+ * and rendered sections.
+ * <p>
+ * The repository itself keeps no cache to fill: the states of the entrypoints and the haproxy properties are still read
+ * from it on demand.
+ * <p>
+ * Failures are logged and do not prevent the startup, the warmup status is reported by {@link #getStatus()}.
+ */
+public class ManagedWarmup implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManagedWarmup.class);
+
+    private final EntryPointRepository repository;
+    private final PortRepository portRepository;
+    private final TemplateLocator templateLocator;
+    private final TemplateGenerator templateGenerator;
+    private final int threads;
+    private final long timeoutMillis;
+
+    private volatile boolean done = false;
+    private volatile String status = "warmup has not started";
+
+    public ManagedWarmup(EntryPointRepository repository, PortRepository portRepository, TemplateLocator templateLocator, TemplateGenerator templateGenerator, int threads, long timeoutMillis) {
+        this.repository = repository;
+        this.portRepository = portRepository;
+        this.templateLocator = templateLocator;
+        this.templateGenerator = templateGenerator;
+        this.threads = threads;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void start() throws Exception {
+        LOGGER.info("start warmup");
+        status = "warmup in progress";
+        long start = System.currentTimeMillis();
+        try {
+            Map<String, EntryPoint> configurations = repository.getCurrentConfigurations();
+            Map<String, Integer> ports = portRepository.getPorts().orElseGet(HashMap::new);
+
+            // a template shared by many entrypoints is located and compiled once
+            Map<String, Map<String, EntryPoint>> entryPointsByTemplateUri = new HashMap<>();
+            for (Map.Entry<String, EntryPoint> entry : configurations.entrySet()) {
+                String templateUri = entry.getValue().getContext().get(UriTemplateLocator.URI_FIELD);
+                if (templateUri != null) {
+                    entryPointsByTemplateUri.computeIfAbsent(templateUri, uri -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            AtomicInteger compiled = new AtomicInteger();
+            AtomicInteger rendered = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("warmup-%d").setDaemon(true).build());
+            for (Map.Entry<String, Map<String, EntryPoint>> entry : entryPointsByTemplateUri.entrySet()) {
+                executor.execute(() -> {
+                    try {
+                        templateLocator.readTemplate(entry.getValue().values().iterator().next()).ifPresent(template -> {
+                            templateGenerator.generateFrontAndBackends(template);
+                            compiled.incrementAndGet();
+                            entry.getValue().forEach((id, configuration) -> {
+                                if (render(template, new EntryPointKeyDefaultImpl(id), configuration, ports)) {
+                                    rendered.incrementAndGet();
+                                }
+                            });
+                        });
+                    } catch (Exception e) {
+                        LOGGER.warn("can't warm up template {}", entry.getKey(), e);
+                    }
+                });
+            }
+            executor.shutdown();
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+                LOGGER.warn("warmup has not completed within {} ms", timeoutMillis);
+            }
+
+            status = String.format("%d entrypoints, %d/%d templates compiled, %d entrypoints rendered in %d ms",
+                    configurations.size(), compiled.get(), entryPointsByTemplateUri.size(), rendered.get(), System.currentTimeMillis() - start);
+            LOGGER.info("warmup done: {}", status);
+        } catch (Exception e) {
+            status = "warmup failed: " + e.getMessage();
+            LOGGER.warn("warmup failed, entrypoints will be loaded on demand", e);
+        } finally {
+            done = true;
+        }
+    }
+
+    /**
+     * Renders the current configuration of an entrypoint with the ports it has been given, as a commit would.
+     *
+     * @return false if a port of the entrypoint has not been given yet or the configuration can't be rendered
+     */
+    private boolean render(String template, EntryPointKey entryPointKey, EntryPoint configuration, Map<String, Integer> ports) {
+        Map<String, Integer> portsMapping = new HashMap<>();
+        List<String> portIds = new ArrayList<>();
+        portIds.add(configuration.syslogPortId());
+        configuration.getFrontends().forEach(frontend -> portIds.add(frontend.portId()));
+        for (String portId : portIds) {
+            Integer port = ports.get(PortRepository.getPortKey(entryPointKey, portId));
+            if (port == null) {
+                return false;
+            }
+            portsMapping.put(portId, port);
+        }
+        try {
+            templateGenerator.generate(template, configuration, portsMapping);
+            return true;
+        } catch (IncompleteConfigurationException | RuntimeException e) {
+            LOGGER.debug("can't warm up configuration of entrypoint {}", entryPointKey, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+    }
+
+    /**
+     * @return true once the warmup has run, successfully or not
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+}
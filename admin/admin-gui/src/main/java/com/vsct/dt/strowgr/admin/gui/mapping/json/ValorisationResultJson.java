@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.mapping.json;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Set;
+
+/**
+ * Json representation of the valorisation of one entrypoint of a batch: the configuration or the error, with the
+ * missing entries of the template if any.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ValorisationResultJson {
+
+    private final int index;
+    private final String haproxy;
+    private final String configuration;
+    private final String error;
+    private final Set<String> missingEntries;
+
+    private ValorisationResultJson(int index, String haproxy, String configuration, String error, Set<String> missingEntries) {
+        this.index = index;
+        this.haproxy = haproxy;
+        this.configuration = configuration;
+        this.error = error;
+        this.missingEntries = missingEntries;
+    }
+
+    public static ValorisationResultJson success(int index, String haproxy, String configuration) {
+        return new ValorisationResultJson(index, haproxy, configuration, null, null);
+    }
+
+    public static ValorisationResultJson failure(int index, String haproxy, String error) {
+        return new ValorisationResultJson(index, haproxy, null, error, null);
+    }
+
+    public static ValorisationResultJson incomplete(int index, String haproxy, String error, Set<String> missingEntries) {
+        return new ValorisationResultJson(index, haproxy, null, error, missingEntries);
+    }
+
+    @JsonProperty("index")
+    public int getIndex() {
+        return index;
+    }
+
+    @JsonProperty("haproxy")
+    public String getHaproxy() {
+        return haproxy;
+    }
+
+    @JsonProperty("configuration")
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    @JsonProperty("error")
+    public String getError() {
+        return error;
+    }
+
+    @JsonProperty("missingEntries")
+    public Set<String> getMissingEntries() {
+        return missingEntries;
+    }
+}
@@ -17,9 +17,11 @@ package com.vsct.dt.strowgr.admin.gui.observable;
 
 import com.vsct.dt.strowgr.admin.nsq.consumer.FlowableNSQConsumer;
 import io.dropwizard.lifecycle.Managed;
+import io.reactivex.Flowable;
 import io.reactivex.exceptions.Exceptions;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.UnicastProcessor;
 import io.reactivex.subscribers.DefaultSubscriber;
-import org.reactivestreams.Subscriber;
 
 import java.util.HashMap;
 import java.util.Iterator;
@@ -29,7 +31,8 @@ import java.util.function.Function;
 
 /**
  * This class subscribes to HAProxyActions: creation or deletion and respectively creates or removes a dedicated NSQConsumer.
- * Events from each NSQConsumers are then forwarded to a given subscriber.
+ * Events from each NSQConsumers are then merged in a single flowable, which requests events from each consumer as they
+ * are requested by its subscriber.
  *
  * @param <U> The type of the commit event to create subscription for
  */
@@ -39,17 +42,29 @@ public class HAProxySubscriber<U> extends DefaultSubscriber<HAProxyPublisher.HAP
 
     private final Function<String, FlowableNSQConsumer<U>> nsqConsumerBuilder;
 
-    private final Subscriber<U> subscriber;
+    private final FlowableProcessor<Flowable<U>> consumerFlowables = UnicastProcessor.<Flowable<U>>create().toSerialized();
 
-    public HAProxySubscriber(Function<String, FlowableNSQConsumer<U>> nsqConsumerBuilder, Subscriber<U> subscriber) {
+    private final Flowable<U> flowable;
+
+    /**
+     * @param prefetch number of events requested ahead from each consumer
+     */
+    public HAProxySubscriber(Function<String, FlowableNSQConsumer<U>> nsqConsumerBuilder, int prefetch) {
         this.nsqConsumerBuilder = nsqConsumerBuilder;
-        this.subscriber = subscriber;
+        this.flowable = consumerFlowables.flatMap(consumerFlowable -> consumerFlowable, false, Integer.MAX_VALUE, prefetch);
+    }
+
+    /**
+     * @return the events of all the consumers, which can be subscribed once
+     */
+    public Flowable<U> flowable() {
+        return flowable;
     }
 
     private void createNSQConsumer(String id) {
         FlowableNSQConsumer<U> flowableNSQConsumer = nsqConsumerBuilder.apply(id);
         nsqConsumers.put(id, flowableNSQConsumer);
-        flowableNSQConsumer.flowable().subscribe(subscriber);
+        consumerFlowables.onNext(flowableNSQConsumer.flowable());
     }
 
     private void deleteNSQConsumer(String id) {
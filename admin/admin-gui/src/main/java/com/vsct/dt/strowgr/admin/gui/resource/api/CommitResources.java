@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.resource.api;
+
+import com.vsct.dt.strowgr.admin.core.tracking.CommitLatencyTracker;
+import com.vsct.dt.strowgr.admin.core.tracking.CommitTrace;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+
+/**
+ * Resources about the commits latency.
+ */
+@Path("/commits")
+public class CommitResources {
+
+    private final CommitLatencyTracker commitLatencyTracker;
+
+    public CommitResources(CommitLatencyTracker commitLatencyTracker) {
+        this.commitLatencyTracker = commitLatencyTracker;
+    }
+
+    @GET
+    @Path("/recent")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<CommitTrace> recent(@QueryParam("limit") @DefaultValue("100") int limit) {
+        return commitLatencyTracker.recent(limit);
+    }
+
+}
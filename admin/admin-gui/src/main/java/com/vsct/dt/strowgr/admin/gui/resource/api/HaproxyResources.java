@@ -15,35 +15,83 @@
  */
 package com.vsct.dt.strowgr.admin.gui.resource.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.vsct.dt.strowgr.admin.core.IncompleteConfigurationException;
 import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
 import com.vsct.dt.strowgr.admin.core.TemplateLocator;
 import com.vsct.dt.strowgr.admin.core.repository.HaproxyRepository;
 import com.vsct.dt.strowgr.admin.gui.mapping.json.EntryPointWithPortsMappingJson;
 import com.vsct.dt.strowgr.admin.gui.mapping.json.HaproxyMappingJson;
+import com.vsct.dt.strowgr.admin.gui.mapping.json.ValorisationResultJson;
+import com.vsct.dt.strowgr.admin.template.generator.RenderBudgetExceededException;
+import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.validation.BaseValidator;
+import io.dropwizard.validation.ConstraintViolations;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static javax.ws.rs.core.Response.*;
 
 @Path("/haproxy")
 public class HaproxyResources {
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private final ObjectMapper      mapper;
+    private final ObjectReader      entryPointReader;
     private final TemplateLocator   templateLocator;
     private final HaproxyRepository repository;
     private final TemplateGenerator templateGenerator;
+    private final ExecutorService   valorisationExecutor;
+    private final int               valorisationParallelism;
+    private final Validator         validator;
 
     public HaproxyResources(HaproxyRepository repository, TemplateLocator templateLocator, TemplateGenerator templateGenerator) {
+        this(repository, templateLocator, templateGenerator, Jackson.newObjectMapper(), MoreExecutors.newDirectExecutorService(), 1, BaseValidator.newValidator());
+    }
+
+    /**
+     * @param mapper                  of the application, reading and writing the entrypoints of a batch valorisation
+     * @param valorisationExecutor    renders the entrypoints of a batch valorisation
+     * @param valorisationParallelism number of entrypoints of a batch rendered at the same time
+     * @param validator               of the application, validating each entrypoint of a batch valorisation
+     */
+    public HaproxyResources(HaproxyRepository repository, TemplateLocator templateLocator, TemplateGenerator templateGenerator,
+                            ObjectMapper mapper, ExecutorService valorisationExecutor, int valorisationParallelism, Validator validator) {
+        this.mapper = mapper;
+        this.validator = validator;
+        this.entryPointReader = mapper.readerFor(EntryPointWithPortsMappingJson.class);
         this.repository = repository;
         this.templateLocator = templateLocator;
         this.templateGenerator = templateGenerator;
+        this.valorisationExecutor = valorisationExecutor;
+        this.valorisationParallelism = valorisationParallelism;
     }
 
     @PUT
@@ -105,11 +153,123 @@ public class HaproxyResources {
         try {
             String template = templateLocator.readTemplate(configuration).orElseThrow(() -> new NotFoundException("Could not find any template for entrypoint " + configuration));
             return templateGenerator.generate(template, configuration, configuration.generatePortMapping());
-        } catch (IncompleteConfigurationException e) {
+        } catch (IncompleteConfigurationException | RenderBudgetExceededException e) {
             throw new BadRequestException(e.getMessage());
         }
     }
 
+    /**
+     * Valorises a stream of entrypoints, one json {@link EntryPointWithPortsMappingJson} per line.
+     * <p>
+     * Entrypoints are parsed and rendered in parallel, a template being read once for all the entrypoints of the batch
+     * sharing its uri. Results are streamed back as soon as they are rendered, one json {@link ValorisationResultJson}
+     * per line, in the order of the request. Each entrypoint is validated as the one of a single valorisation is. A
+     * malformed, invalid or incomplete entrypoint only fails its own result.
+     */
+    @POST
+    @Path("/template/valorise/batch")
+    @Consumes(APPLICATION_NDJSON)
+    @Produces(APPLICATION_NDJSON)
+    public StreamingOutput getHaproxyConfigurations(InputStream entryPoints) {
+        return output -> {
+            ConcurrentMap<String, CompletableFuture<Optional<String>>> templates = new ConcurrentHashMap<>();
+            Deque<Future<ValorisationResultJson>> pending = new ArrayDeque<>();
+            // keep a result ready to write while the others are rendered
+            int window = 2 * valorisationParallelism;
+            BufferedReader reader = new BufferedReader(new InputStreamReader(entryPoints, StandardCharsets.UTF_8));
+            JsonGenerator generator = mapper.getFactory().createGenerator(output).setRootValueSeparator(null);
+            try {
+                int index = 0;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    if (pending.size() >= window) {
+                        writeResult(generator, pending.poll());
+                    }
+                    int itemIndex = index++;
+                    String item = line;
+                    pending.add(valorisationExecutor.submit(() -> valorise(itemIndex, item, templates)));
+                }
+                while (!pending.isEmpty()) {
+                    writeResult(generator, pending.poll());
+                }
+            } finally {
+                pending.forEach(future -> future.cancel(true));
+                generator.close();
+            }
+        };
+    }
+
+    private ValorisationResultJson valorise(int index, String item, ConcurrentMap<String, CompletableFuture<Optional<String>>> templates) {
+        EntryPointWithPortsMappingJson configuration;
+        try {
+            configuration = entryPointReader.readValue(item);
+        } catch (IOException e) {
+            return ValorisationResultJson.failure(index, null, "malformed entrypoint: " + e.getMessage());
+        }
+        if (configuration == null) {
+            return ValorisationResultJson.failure(index, null, "invalid entrypoint: may not be null");
+        }
+        Set<ConstraintViolation<EntryPointWithPortsMappingJson>> violations = validator.validate(configuration);
+        if (!violations.isEmpty()) {
+            return ValorisationResultJson.failure(index, configuration.getHaproxy(), "invalid entrypoint: " + String.join(", ", ConstraintViolations.format(violations)));
+        }
+        try {
+            String templateUri = configuration.getContext().get(UriTemplateLocator.URI_FIELD);
+            Optional<String> template = templateUri == null
+                    ? templateLocator.readTemplate(configuration)
+                    : readTemplate(templateUri, configuration, templates);
+            if (!template.isPresent()) {
+                return ValorisationResultJson.failure(index, configuration.getHaproxy(), "Could not find any template for entrypoint " + configuration);
+            }
+            return ValorisationResultJson.success(index, configuration.getHaproxy(), templateGenerator.generate(template.get(), configuration, configuration.generatePortMapping()));
+        } catch (IncompleteConfigurationException e) {
+            return ValorisationResultJson.incomplete(index, configuration.getHaproxy(), e.getMessage(), e.getMissingEntries());
+        } catch (RuntimeException e) {
+            return ValorisationResultJson.failure(index, configuration.getHaproxy(), String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Reads the template of the given uri once for the batch. The first entrypoint referring to it reads it, outside of
+     * the map so that other uris are not blocked, and the following ones wait for its result.
+     */
+    private Optional<String> readTemplate(String templateUri, EntryPointWithPortsMappingJson configuration,
+                                          ConcurrentMap<String, CompletableFuture<Optional<String>>> templates) {
+        CompletableFuture<Optional<String>> read = new CompletableFuture<>();
+        CompletableFuture<Optional<String>> existing = templates.putIfAbsent(templateUri, read);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            Optional<String> template = templateLocator.readTemplate(configuration);
+            read.complete(template);
+            return template;
+        } catch (RuntimeException e) {
+            read.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static void writeResult(JsonGenerator generator, Future<ValorisationResultJson> result) throws IOException {
+        try {
+            generator.writeObject(result.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("batch valorisation has been interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
     @GET
     @Path("/versions")
     @Produces(MediaType.APPLICATION_JSON)
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.gui.managed;
+
+import com.google.common.collect.ImmutableMap;
+import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
+import com.vsct.dt.strowgr.admin.core.TemplateLocator;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.core.repository.EntryPointRepository;
+import com.vsct.dt.strowgr.admin.core.repository.PortRepository;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Optional;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class ManagedWarmupTest {
+
+    private final EntryPointRepository repository = mock(EntryPointRepository.class);
+
+    private final PortRepository portRepository = mock(PortRepository.class);
+
+    private final TemplateLocator templateLocator = mock(TemplateLocator.class);
+
+    private final TemplateGenerator templateGenerator = mock(TemplateGenerator.class);
+
+    private final ManagedWarmup warmup = new ManagedWarmup(repository, portRepository, templateLocator, templateGenerator, 2, 5000);
+
+    @Test
+    public void should_compile_each_referenced_template_once() throws Exception {
+        // given
+        when(repository.getCurrentConfigurations()).thenReturn(ImmutableMap.of(
+                "APP/PLATFORM1", entryPoint("http://templates/a"),
+                "APP/PLATFORM2", entryPoint("http://templates/a"),
+                "APP/PLATFORM3", entryPoint("http://templates/b")));
+        when(portRepository.getPorts()).thenReturn(Optional.empty());
+        when(templateLocator.readTemplate(any(EntryPoint.class))).thenReturn(Optional.of("template"));
+
+        // when
+        assertThat(warmup.isDone()).isFalse();
+        warmup.start();
+
+        // then
+        assertThat(warmup.isDone()).isTrue();
+        assertThat(warmup.getStatus()).startsWith("3 entrypoints, 2/2 templates compiled, 0 entrypoints rendered");
+        verify(repository, never()).getCurrentConfiguration(any());
+        verify(templateLocator, times(2)).readTemplate(any(EntryPoint.class));
+        verify(templateGenerator, times(2)).generateFrontAndBackends("template");
+    }
+
+    @Test
+    public void should_render_current_configurations_with_their_ports() throws Exception {
+        // given
+        EntryPoint withPorts = entryPoint("http://templates/a");
+        EntryPoint withoutPorts = entryPoint("http://templates/a");
+        when(repository.getCurrentConfigurations()).thenReturn(ImmutableMap.of("APP/PLATFORM1", withPorts, "APP/PLATFORM2", withoutPorts));
+        when(portRepository.getPorts()).thenReturn(Optional.of(ImmutableMap.of("APP/PLATFORM1-" + withPorts.syslogPortId(), 54250)));
+        when(templateLocator.readTemplate(any(EntryPoint.class))).thenReturn(Optional.of("template"));
+
+        // when
+        warmup.start();
+
+        // then
+        assertThat(warmup.getStatus()).startsWith("2 entrypoints, 1/1 templates compiled, 1 entrypoints rendered");
+        verify(portRepository).getPorts();
+        verify(portRepository, never()).getPort(any(String.class));
+        verify(templateGenerator).generate("template", withPorts, ImmutableMap.of(withPorts.syslogPortId(), 54250));
+    }
+
+    @Test
+    public void should_be_done_even_when_repository_fails() throws Exception {
+        // given
+        when(repository.getCurrentConfigurations()).thenThrow(new IllegalStateException("consul is down"));
+
+        // when
+        warmup.start();
+
+        // then
+        assertThat(warmup.isDone()).isTrue();
+        assertThat(warmup.getStatus()).isEqualTo("warmup failed: consul is down");
+    }
+
+    private EntryPoint entryPoint(String templateUri) {
+        return new EntryPoint("default-name", "hapadm", "hapVersion", 0, new HashSet<>(), new HashSet<>(), ImmutableMap.of("templateUri", templateUri));
+    }
+}
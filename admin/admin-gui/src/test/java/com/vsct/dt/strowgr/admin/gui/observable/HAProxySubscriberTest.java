@@ -19,12 +19,15 @@ import com.vsct.dt.strowgr.admin.gui.observable.HAProxyPublisher.HAProxyAction;
 import com.vsct.dt.strowgr.admin.nsq.consumer.FlowableNSQConsumer;
 import io.reactivex.Flowable;
 import io.reactivex.subscribers.TestSubscriber;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 public class HAProxySubscriberTest {
@@ -34,7 +37,12 @@ public class HAProxySubscriberTest {
 
     private TestSubscriber<Integer> subscriber = new TestSubscriber<>();
 
-    private final HAProxySubscriber<Integer> actionToCommitEventConsumer = new HAProxySubscriber<>(nsqConsumerBuilder, subscriber);
+    private final HAProxySubscriber<Integer> actionToCommitEventConsumer = new HAProxySubscriber<>(nsqConsumerBuilder, 4);
+
+    @Before
+    public void setUp() {
+        actionToCommitEventConsumer.flowable().subscribe(subscriber);
+    }
 
     @Test
     public void should_create_nsq_consumer_on_ha_proxy_register_action_and_forward_nsq_consumers_messages_to_subscriber() throws Exception {
@@ -58,6 +66,26 @@ public class HAProxySubscriberTest {
         subscriber.assertValueSet(IntStream.range(0, 20).mapToObj(Integer::valueOf).collect(Collectors.toSet()));
     }
 
+    @Test
+    public void should_request_events_of_nsq_consumers_as_they_are_requested() throws Exception {
+        // given
+        TestSubscriber<Integer> boundedSubscriber = new TestSubscriber<>(3);
+        HAProxySubscriber<Integer> haProxySubscriber = new HAProxySubscriber<>(nsqConsumerBuilder, 2);
+        haProxySubscriber.flowable().subscribe(boundedSubscriber);
+        AtomicLong requested = new AtomicLong();
+        @SuppressWarnings("unchecked")
+        FlowableNSQConsumer<Integer> nsqConsumer = mock(FlowableNSQConsumer.class);
+        when(nsqConsumer.flowable()).thenReturn(Flowable.range(0, 100).doOnRequest(requested::addAndGet));
+        when(nsqConsumerBuilder.apply("haProxy1")).thenReturn(nsqConsumer);
+
+        // when
+        haProxySubscriber.onNext(HAProxyAction.register("haProxy1"));
+
+        // then
+        boundedSubscriber.assertValues(0, 1, 2);
+        assertThat(requested.get()).isLessThanOrEqualTo(5L);
+    }
+
     @Test
     public void should_shutdown_nsq_consumer_on_unregister_action() throws Exception {
         // given
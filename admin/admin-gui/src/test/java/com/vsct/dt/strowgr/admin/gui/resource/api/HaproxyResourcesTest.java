@@ -15,24 +15,37 @@
  */
 package com.vsct.dt.strowgr.admin.gui.resource.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.vsct.dt.strowgr.admin.core.IncompleteConfigurationException;
 import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
 import com.vsct.dt.strowgr.admin.core.repository.HaproxyRepository;
 import com.vsct.dt.strowgr.admin.gui.mapping.json.EntryPointWithPortsMappingJson;
 import com.vsct.dt.strowgr.admin.gui.mapping.json.HaproxyMappingJson;
 import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
+import io.dropwizard.jackson.Jackson;
 import io.dropwizard.testing.junit.ResourceTestRule;
+import org.hibernate.validator.internal.engine.path.PathImpl;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import javax.validation.metadata.ConstraintDescriptor;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 public class HaproxyResourcesTest {
@@ -191,4 +204,86 @@ public class HaproxyResourcesTest {
         assertThat(res.getStatus(), is(400));
     }
 
+    @Test
+    public void should_valorise_batch_of_entrypoints_in_order_with_errors_per_entrypoint() throws Exception {
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        Map<String, String> context = new HashMap<>();
+        context.put("templateUri", "http://templates/haproxy.conf");
+        EntryPointWithPortsMappingJson complete = new EntryPointWithPortsMappingJson("complete", "user", "haproxyVersion", 0, null, new HashSet<>(), new HashSet<>(), context);
+        EntryPointWithPortsMappingJson incomplete = new EntryPointWithPortsMappingJson("incomplete", "user", "haproxyVersion", 0, null, new HashSet<>(), new HashSet<>(), context);
+        when(templateLocator.readTemplate(any(EntryPoint.class))).thenReturn(Optional.of("A template"));
+        when(templateGenerator.generate(eq("A template"), any(EntryPoint.class), any(Map.class))).thenAnswer(invocation -> {
+            EntryPoint entryPoint = (EntryPoint) invocation.getArguments()[1];
+            if (entryPoint.getHaproxy().equals("incomplete")) {
+                throw new IncompleteConfigurationException(Collections.singleton("frontend.WS.port"));
+            }
+            return "A valorized template";
+        });
+        String batch = mapper.writeValueAsString(complete) + "\n" + "{ not an entrypoint\n" + mapper.writeValueAsString(incomplete) + "\n";
+
+        String result = resources.client().target("/haproxy/template/valorise/batch").request(HaproxyResources.APPLICATION_NDJSON)
+                .post(Entity.entity(batch, HaproxyResources.APPLICATION_NDJSON), String.class);
+
+        String[] lines = result.split("\n");
+        assertThat(lines.length, is(3));
+        Map<?, ?> first = mapper.readValue(lines[0], Map.class);
+        assertThat(first.get("index"), is(0));
+        assertThat(first.get("configuration"), is("A valorized template"));
+        Map<?, ?> second = mapper.readValue(lines[1], Map.class);
+        assertThat(second.get("index"), is(1));
+        assertThat(second.containsKey("error"), is(true));
+        Map<?, ?> third = mapper.readValue(lines[2], Map.class);
+        assertThat(third.get("index"), is(2));
+        assertThat(third.get("haproxy"), is("incomplete"));
+        assertThat(third.get("missingEntries"), is(Collections.singletonList("frontend.WS.port")));
+        // the template is read once for the whole batch
+        verify(templateLocator, times(1)).readTemplate(any(EntryPoint.class));
+    }
+
+    @Test
+    public void should_fail_only_null_entrypoint_of_batch() throws Exception {
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        Map<String, String> context = new HashMap<>();
+        context.put("templateUri", "http://templates/haproxy.conf");
+        EntryPointWithPortsMappingJson complete = new EntryPointWithPortsMappingJson("complete", "user", "haproxyVersion", 0, null, new HashSet<>(), new HashSet<>(), context);
+        when(templateLocator.readTemplate(any(EntryPoint.class))).thenReturn(Optional.of("A template"));
+        when(templateGenerator.generate(eq("A template"), any(EntryPoint.class), any(Map.class))).thenReturn("A valorized template");
+        String batch = "null\n" + mapper.writeValueAsString(complete) + "\n";
+
+        String result = resources.client().target("/haproxy/template/valorise/batch").request(HaproxyResources.APPLICATION_NDJSON)
+                .post(Entity.entity(batch, HaproxyResources.APPLICATION_NDJSON), String.class);
+
+        String[] lines = result.split("\n");
+        assertThat(lines.length, is(2));
+        Map<?, ?> first = mapper.readValue(lines[0], Map.class);
+        assertThat(first.get("index"), is(0));
+        assertThat(first.get("error"), is("invalid entrypoint: may not be null"));
+        Map<?, ?> second = mapper.readValue(lines[1], Map.class);
+        assertThat(second.get("configuration"), is("A valorized template"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void should_report_constraint_violations_of_each_entrypoint_of_batch() throws Exception {
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        Validator validator = mock(Validator.class);
+        ConstraintViolation<EntryPointWithPortsMappingJson> violation = mock(ConstraintViolation.class);
+        doReturn(mock(ConstraintDescriptor.class)).when(violation).getConstraintDescriptor();
+        when(violation.getPropertyPath()).thenReturn(PathImpl.createPathFromString("hapUser"));
+        when(violation.getMessage()).thenReturn("may not be empty");
+        when(validator.validate(any(EntryPointWithPortsMappingJson.class))).thenReturn(Collections.singleton(violation));
+        HaproxyResources validatingResources = new HaproxyResources(haproxyRepository, templateLocator, templateGenerator,
+                mapper, MoreExecutors.newDirectExecutorService(), 1, validator);
+        EntryPointWithPortsMappingJson entryPoint = new EntryPointWithPortsMappingJson("invalid", "user", "haproxyVersion", 0, null, new HashSet<>(), new HashSet<>(), new HashMap<>());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        validatingResources.getHaproxyConfigurations(new ByteArrayInputStream((mapper.writeValueAsString(entryPoint) + "\n").getBytes(StandardCharsets.UTF_8)))
+                .write(output);
+
+        Map<?, ?> result = mapper.readValue(output.toString("UTF-8").trim(), Map.class);
+        assertThat(result.get("haproxy"), is("invalid"));
+        assertThat(result.get("error"), is("invalid entrypoint: hapUser may not be empty"));
+        verify(templateGenerator, never()).generate(any(String.class), any(EntryPoint.class), any(Map.class));
+    }
+
 }
@@ -17,7 +17,6 @@ package com.vsct.dt.strowgr.admin.nsq.consumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vsct.dt.strowgr.admin.core.event.in.CommitCompletedEvent;
-import com.vsct.dt.strowgr.admin.nsq.payload.CommitCompleted;
 import fr.vsct.dt.nsq.NSQMessage;
 import io.reactivex.functions.Function;
 import org.slf4j.Logger;
@@ -27,25 +26,18 @@ public class CommitCompletedTransformer implements Function<NSQMessage, CommitCo
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CommitCompletedTransformer.class);
 
-    private final ObjectMapper objectMapper;
+    private final NSQPayloadDecoder decoder;
 
     public CommitCompletedTransformer(ObjectMapper objectMapper) {
-        this.objectMapper = objectMapper;
+        this.decoder = new NSQPayloadDecoder(objectMapper.getFactory());
     }
 
     @Override
     public CommitCompletedEvent apply(NSQMessage nsqMessage) throws Exception {
-        CommitCompleted payload = objectMapper.readValue(nsqMessage.getMessage(), CommitCompleted.class);
+        CommitCompletedEvent event = decoder.decodeCommitCompleted(nsqMessage.getMessage());
 
-        LOGGER.debug("received an new CommitSuccesEvent with cid {}", payload.getHeader().getCorrelationId());
+        LOGGER.debug("received an new CommitSuccesEvent with cid {}", event.getCorrelationId());
 
-        return new CommitCompletedEvent(
-                payload.getHeader().getCorrelationId(),
-                new EntryPointKeyVsctImpl(
-                        payload.getHeader().getApplication(),
-                        payload.getHeader().getPlatform()
-                )
-        );
+        return event;
     }
-
 }
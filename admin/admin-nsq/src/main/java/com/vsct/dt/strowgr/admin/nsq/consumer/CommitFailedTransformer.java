@@ -17,7 +17,6 @@ package com.vsct.dt.strowgr.admin.nsq.consumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vsct.dt.strowgr.admin.core.event.in.CommitFailedEvent;
-import com.vsct.dt.strowgr.admin.nsq.payload.CommitFailed;
 import fr.vsct.dt.nsq.NSQMessage;
 import io.reactivex.functions.Function;
 import org.slf4j.Logger;
@@ -27,23 +26,18 @@ public class CommitFailedTransformer implements Function<NSQMessage, CommitFaile
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CommitCompletedTransformer.class);
 
-    private final ObjectMapper objectMapper;
+    private final NSQPayloadDecoder decoder;
 
     public CommitFailedTransformer(ObjectMapper objectMapper) {
-        this.objectMapper = objectMapper;
+        this.decoder = new NSQPayloadDecoder(objectMapper.getFactory());
     }
 
     @Override
     public CommitFailedEvent apply(NSQMessage nsqMessage) throws Exception {
-        CommitFailed payload = objectMapper.readValue(nsqMessage.getMessage(), CommitFailed.class);
+        CommitFailedEvent event = decoder.decodeCommitFailed(nsqMessage.getMessage());
 
-        LOGGER.debug("received an new CommitFailedEvent with cid {}", payload.getHeader().getCorrelationId());
+        LOGGER.debug("received an new CommitFailedEvent with cid {}", event.getCorrelationId());
 
-        return new CommitFailedEvent(
-                payload.getHeader().getCorrelationId(),
-                new EntryPointKeyVsctImpl(
-                        payload.getHeader().getApplication(),
-                        payload.getHeader().getPlatform())
-        );
+        return event;
     }
 }
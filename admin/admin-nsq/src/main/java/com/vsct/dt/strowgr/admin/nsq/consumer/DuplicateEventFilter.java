@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.consumer;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.vsct.dt.strowgr.admin.core.event.in.EntryPointEvent;
+import com.vsct.dt.strowgr.admin.core.event.in.RegisterServerEvent;
+import io.reactivex.functions.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Drops events redelivered by NSQ, which delivers messages at least once.
+ * <p>
+ * Two events are duplicates if they have the same type, correlation id and entrypoint key, and for a server
+ * registration the same backend and servers. Seen events are kept in two generations of bounded sets: the current
+ * generation becomes the previous one, and the previous one is forgotten, when it is full or when the window has
+ * elapsed. An event is thus remembered for at least the window unless more than capacity events are received meanwhile.
+ * <p>
+ * Dropped events are counted in a 'duplicates' meter.
+ */
+public class DuplicateEventFilter implements Predicate<EntryPointEvent> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DuplicateEventFilter.class);
+
+    private final int capacity;
+    private final long window;
+    private final LongSupplier clock;
+    private final Meter duplicates;
+
+    private Set<Object> current = new HashSet<>();
+    private Set<Object> previous = new HashSet<>();
+    private long rotatedAt;
+
+    /**
+     * @param capacity       maximum number of events in a generation
+     * @param window         in milliseconds of a generation
+     * @param metricRegistry where the duplicates meter is registered
+     */
+    public DuplicateEventFilter(int capacity, long window, MetricRegistry metricRegistry) {
+        this(capacity, window, metricRegistry, System::currentTimeMillis);
+    }
+
+    DuplicateEventFilter(int capacity, long window, MetricRegistry metricRegistry, LongSupplier clock) {
+        checkArgument(capacity > 0, "capacity should be positive");
+        this.capacity = capacity;
+        this.window = window;
+        this.clock = clock;
+        this.duplicates = metricRegistry.meter(MetricRegistry.name(DuplicateEventFilter.class, "duplicates"));
+        this.rotatedAt = clock.getAsLong();
+    }
+
+    /**
+     * @param event received from NSQ
+     * @return false if the same event has already been received
+     */
+    @Override
+    public synchronized boolean test(EntryPointEvent event) {
+        Object key = idempotencyKey(event);
+        if (current.contains(key) || previous.contains(key)) {
+            duplicates.mark();
+            LOGGER.debug("drop duplicate {} with cid {}", event.getClass().getSimpleName(), event.getCorrelationId());
+            return false;
+        }
+        long now = clock.getAsLong();
+        if (current.size() >= capacity || now - rotatedAt >= window) {
+            previous = current;
+            current = new HashSet<>();
+            rotatedAt = now;
+        }
+        current.add(key);
+        return true;
+    }
+
+    /**
+     * Forgets an event, so that it is accepted again when NSQ redelivers its requeued message.
+     *
+     * @param event received from NSQ
+     */
+    public synchronized void forget(EntryPointEvent event) {
+        Object key = idempotencyKey(event);
+        current.remove(key);
+        previous.remove(key);
+    }
+
+    private static Object idempotencyKey(EntryPointEvent event) {
+        if (event instanceof RegisterServerEvent) {
+            RegisterServerEvent registerServerEvent = (RegisterServerEvent) event;
+            return Arrays.asList(event.getClass(), event.getCorrelationId(), event.getKey().getID(),
+                    registerServerEvent.getBackend(), registerServerEvent.getServers());
+        }
+        return Arrays.asList(event.getClass(), event.getCorrelationId(), event.getKey().getID());
+    }
+}
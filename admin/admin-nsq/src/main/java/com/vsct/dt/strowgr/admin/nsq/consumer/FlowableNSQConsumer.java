@@ -15,6 +15,7 @@
  */
 package com.vsct.dt.strowgr.admin.nsq.consumer;
 
+import com.vsct.dt.strowgr.admin.nsq.journal.EventJournal;
 import fr.vsct.dt.nsq.NSQConfig;
 import fr.vsct.dt.nsq.NSQConsumer;
 import fr.vsct.dt.nsq.NSQMessage;
@@ -25,6 +26,7 @@ import io.reactivex.BackpressureStrategy;
 import io.reactivex.Flowable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +44,21 @@ public class FlowableNSQConsumer<T> {
 
     private final Function<NSQMessage, T> transformer;
 
+    /**
+     * Journal in which messages are recorded before being finished, if any
+     */
+    private final Optional<EventJournal> journal;
+
+    /**
+     * Events rejected by this filter are dropped, like redelivered messages
+     */
+    private final Predicate<? super T> filter;
+
+    /**
+     * Messages kept in flight until their events are handled, if any and without journal
+     */
+    private final Optional<InFlightMessages> inFlightMessages;
+
     /**
      * The flowable created by this consumer
      */
@@ -53,16 +70,44 @@ public class FlowableNSQConsumer<T> {
     private final List<Disposable> disposables = new ArrayList<>();
 
     public FlowableNSQConsumer(NSQLookup lookup, String topic, String channel, NSQConfig config, Function<NSQMessage, T> transformer) {
+        this(lookup, topic, channel, config, transformer, Optional.empty(), event -> true);
+    }
+
+    /**
+     * When a journal is given, messages of the topic which were not acknowledged before a restart are emitted first,
+     * then each received message is finished as soon as it is recorded in the journal. Events are tracked by the
+     * journal and must be acknowledged once handled. Events rejected by the filter are acknowledged right away.
+     */
+    public FlowableNSQConsumer(NSQLookup lookup, String topic, String channel, NSQConfig config, Function<NSQMessage, T> transformer, Optional<EventJournal> journal, Predicate<? super T> filter) {
+        this(lookup, topic, channel, config, transformer, journal, filter, Optional.empty(), 10);
+    }
+
+    /**
+     * Received messages are buffered un-finished until they are requested by the subscribers, at most max in flight
+     * messages being requested ahead: nsqd delivers at most max in flight un-finished messages on each connection, so
+     * that the consumption is paced by the demand of the subscribers. Without journal, when in flight messages are
+     * given, each requested message is then tracked until its event is finished or requeued once handled. Otherwise
+     * messages are finished once requested.
+     *
+     * @param maxInFlight RDY count of the connections of the consumer, and number of messages requested ahead
+     */
+    public FlowableNSQConsumer(NSQLookup lookup, String topic, String channel, NSQConfig config, Function<NSQMessage, T> transformer, Optional<EventJournal> journal, Predicate<? super T> filter,
+                               Optional<InFlightMessages> inFlightMessages, int maxInFlight) {
         this.topic = topic;
         this.channel = channel;
         this.transformer = transformer;
+        this.journal = journal;
+        this.filter = filter;
+        this.inFlightMessages = journal.isPresent() ? Optional.empty() : inFlightMessages;
 
         this.flowable = Flowable
                 .<NSQMessage>create(emitter -> {
 
+                    journal.ifPresent(j -> j.replay(topic).forEach(entry -> emitter.onNext(new ReplayedNSQMessage(entry))));
+
                     NSQConsumer consumer = new NSQConsumer(lookup, topic, channel, emitter::onNext, config, this::onError);
                     consumer.setLookupPeriod(10 * 1000);
-                    consumer.setMessagesPerBatch(10);
+                    consumer.setMessagesPerBatch(maxInFlight);
 
                     //We tell the NSQConsumer to use its own eventloop as the executor for message handling
                     //This prevent the use of the default cachedThreadPool, which spawns a huge amount of threads when a lot of messages arrives
@@ -87,11 +132,12 @@ public class FlowableNSQConsumer<T> {
                         }
                     });
 
+                    // buffered messages are not finished yet, so they are bound by the RDY count
                 }, BackpressureStrategy.BUFFER)
                 .map(this::transformSafe)
                 .filter(Optional::isPresent) // Keep elements which passed transformation
                 .map(Optional::get)
-                .publish() // do not start flowable immediately
+                .publish(maxInFlight) // do not start flowable immediately, request at most max in flight messages ahead
                 .autoConnect(1, disposables::add); // start flowable on first subscription and keep subscription's disposable references
     }
 
@@ -100,13 +146,46 @@ public class FlowableNSQConsumer<T> {
     }
 
     private Optional<T> transformSafe(NSQMessage nsqMessage) {
+        Optional<Long> sequence = journal.map(j -> record(j, nsqMessage));
+        boolean tracked = false;
         try {
-            return Optional.ofNullable(transformer.apply(nsqMessage));
+            T transformed = transformer.apply(nsqMessage);
+            T event = transformed != null && filter.test(transformed) ? transformed : null;
+            if (event != null) {
+                sequence.ifPresent(s -> journal.get().track(event, s));
+                if (inFlightMessages.isPresent()) {
+                    inFlightMessages.get().track(event, nsqMessage);
+                    tracked = true;
+                }
+            } else {
+                sequence.ifPresent(s -> journal.get().acknowledge(s));
+            }
+            return Optional.ofNullable(event);
         } catch (Exception e) {
             LOGGER.error("can't deserialize the payload of message at {}, id={}, payload={}", nsqMessage.getTimestamp(), new String(nsqMessage.getId()), new String(nsqMessage.getMessage()), e);
+            sequence.ifPresent(s -> journal.get().acknowledge(s));
             return Optional.empty();
         } finally {
-            nsqMessage.finished();
+            if (!sequence.isPresent() && !tracked) {
+                nsqMessage.finished();
+            }
+        }
+    }
+
+    /**
+     * Records the message in the journal, the message is finished once the journal is synced.
+     *
+     * @return the sequence of the message in the journal, or null if it could not be recorded
+     */
+    private Long record(EventJournal journal, NSQMessage nsqMessage) {
+        if (nsqMessage instanceof ReplayedNSQMessage) {
+            return ((ReplayedNSQMessage) nsqMessage).getSequence();
+        }
+        try {
+            return journal.append(topic, nsqMessage.getMessage(), nsqMessage::finished);
+        } catch (RuntimeException e) {
+            LOGGER.error("can't record message id={} of topic {} in the journal", new String(nsqMessage.getId()), topic, e);
+            return null;
         }
     }
 
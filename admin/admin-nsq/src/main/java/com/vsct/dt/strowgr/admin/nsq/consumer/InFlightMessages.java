@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.consumer;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.vsct.dt.strowgr.admin.core.event.in.EntryPointEvent;
+import fr.vsct.dt.nsq.NSQMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * NSQ messages whose events are being handled, finished or requeued once their handling is over.
+ * <p>
+ * nsqd delivers no more un-finished messages on a connection than its RDY count: keeping the messages in flight until
+ * their events are handled makes the pace of the handling the demand of the consumers. A message whose handling lasts
+ * longer than the message timeout negotiated by the consumers is redelivered by nsqd, and dropped by the duplicate
+ * filter. A requeued event is forgotten by the duplicate filter, so that its redelivery is handled, until its message
+ * has been attempted the maximum number of times: it is then finished and dropped.
+ * <p>
+ * Messages are counted in 'finished', 'requeued' and 'given-up' meters, and an 'in-flight' gauge.
+ */
+public class InFlightMessages {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InFlightMessages.class);
+
+    private final int maxAttempts;
+    private final int requeueDelay;
+    private final DuplicateEventFilter duplicateEventFilter;
+
+    private final Map<Object, NSQMessage> tracked = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private final Meter finished;
+    private final Meter requeued;
+    private final Meter givenUp;
+
+    /**
+     * @param maxAttempts          number of deliveries of a message after which it is no more requeued
+     * @param requeueDelay         in milliseconds before nsqd redelivers a requeued message
+     * @param duplicateEventFilter forgetting the requeued events
+     * @param metricRegistry       where the metrics of the messages are registered
+     */
+    public InFlightMessages(int maxAttempts, int requeueDelay, DuplicateEventFilter duplicateEventFilter, MetricRegistry metricRegistry) {
+        checkArgument(maxAttempts > 0, "max attempts should be positive");
+        checkArgument(requeueDelay >= 0, "requeue delay should not be negative");
+        this.maxAttempts = maxAttempts;
+        this.requeueDelay = requeueDelay;
+        this.duplicateEventFilter = duplicateEventFilter;
+        this.finished = metricRegistry.meter(MetricRegistry.name(InFlightMessages.class, "finished"));
+        this.requeued = metricRegistry.meter(MetricRegistry.name(InFlightMessages.class, "requeued"));
+        this.givenUp = metricRegistry.meter(MetricRegistry.name(InFlightMessages.class, "given-up"));
+        metricRegistry.register(MetricRegistry.name(InFlightMessages.class, "in-flight"), (Gauge<Integer>) tracked::size);
+    }
+
+    /**
+     * Links an event to the NSQ message it has been built from, the message is kept in flight until the event is
+     * finished or requeued.
+     *
+     * @param event   built from the message
+     * @param message received from nsqd
+     */
+    void track(Object event, NSQMessage message) {
+        tracked.put(event, message);
+    }
+
+    /**
+     * Finishes the message an event has been built from. Does nothing if the event is not tracked.
+     *
+     * @param event which has been handled
+     */
+    public void finish(Object event) {
+        NSQMessage message = tracked.remove(event);
+        if (message != null) {
+            message.finished();
+            finished.mark();
+        }
+    }
+
+    /**
+     * Requeues the message an event has been built from, or finishes it if it has been attempted the maximum number of
+     * times. Does nothing if the event is not tracked.
+     *
+     * @param event whose handling failed
+     */
+    public void requeue(Object event) {
+        NSQMessage message = tracked.remove(event);
+        if (message == null) {
+            return;
+        }
+        if (message.getAttempts() >= maxAttempts) {
+            LOGGER.error("give up message id={} after {} attempts", new String(message.getId()), message.getAttempts());
+            message.finished();
+            givenUp.mark();
+            return;
+        }
+        if (event instanceof EntryPointEvent) {
+            duplicateEventFilter.forget((EntryPointEvent) event);
+        }
+        message.requeue(requeueDelay);
+        requeued.mark();
+    }
+}
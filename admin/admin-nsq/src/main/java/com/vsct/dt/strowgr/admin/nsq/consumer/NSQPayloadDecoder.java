@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.vsct.dt.strowgr.admin.core.configuration.IncomingEntryPointBackendServer;
+import com.vsct.dt.strowgr.admin.core.event.in.CommitCompletedEvent;
+import com.vsct.dt.strowgr.admin.core.event.in.CommitFailedEvent;
+import com.vsct.dt.strowgr.admin.core.event.in.RegisterServerEvent;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Decodes the payloads of the NSQ messages sent by the sidekicks straight into core events, streaming over the bytes
+ * of the message with a {@link JsonParser}.
+ * <p>
+ * No payload object nor tree is built: the fields are read in a single pass and the event is built from them. Field
+ * names are canonicalized by the symbol table of the factory, so matching them allocates nothing, and the buffers of
+ * the parsers are recycled by the factory from one message to the next. Unknown fields are skipped. The decoded events
+ * are the ones built from the {@link com.vsct.dt.strowgr.admin.nsq.payload.RegisterServer},
+ * {@link com.vsct.dt.strowgr.admin.nsq.payload.CommitCompleted} and
+ * {@link com.vsct.dt.strowgr.admin.nsq.payload.CommitFailed} payloads.
+ */
+public class NSQPayloadDecoder {
+
+    private final JsonFactory jsonFactory;
+
+    public NSQPayloadDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * @param payload of a register_server message
+     * @return the event
+     * @throws IOException if the payload is malformed or misses the header or the server
+     */
+    public RegisterServerEvent decodeRegisterServer(byte[] payload) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            startObject(parser);
+            DecodedHeader header = null;
+            DecodedServer server = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("header".equals(field)) {
+                    header = readHeader(parser);
+                } else if ("server".equals(field)) {
+                    server = readServer(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (header == null || server == null) {
+                throw new JsonParseException("register server payload without " + (header == null ? "header" : "server"), parser.getCurrentLocation());
+            }
+            return new RegisterServerEvent(header.correlationId, new EntryPointKeyVsctImpl(header.application, header.platform), server.backendId,
+                    Collections.singleton(new IncomingEntryPointBackendServer(server.id, server.ip, server.port, server.context)));
+        }
+    }
+
+    /**
+     * @param payload of a commit_completed message
+     * @return the event
+     * @throws IOException if the payload is malformed or misses the header
+     */
+    public CommitCompletedEvent decodeCommitCompleted(byte[] payload) throws IOException {
+        DecodedHeader header = decodeHeader(payload);
+        return new CommitCompletedEvent(header.correlationId, new EntryPointKeyVsctImpl(header.application, header.platform));
+    }
+
+    /**
+     * @param payload of a commit_failed message
+     * @return the event
+     * @throws IOException if the payload is malformed or misses the header
+     */
+    public CommitFailedEvent decodeCommitFailed(byte[] payload) throws IOException {
+        DecodedHeader header = decodeHeader(payload);
+        return new CommitFailedEvent(header.correlationId, new EntryPointKeyVsctImpl(header.application, header.platform));
+    }
+
+    private DecodedHeader decodeHeader(byte[] payload) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            startObject(parser);
+            DecodedHeader header = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("header".equals(field)) {
+                    header = readHeader(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (header == null) {
+                throw new JsonParseException("payload without header", parser.getCurrentLocation());
+            }
+            return header;
+        }
+    }
+
+    private static void startObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("payload is not a json object", parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Reads a header, with the defaults of {@link com.vsct.dt.strowgr.admin.nsq.payload.fragment.Header}.
+     */
+    private static DecodedHeader readHeader(JsonParser parser) throws IOException {
+        expectObject(parser, "header");
+        DecodedHeader header = new DecodedHeader();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "correlationId":
+                    header.correlationId = parser.getValueAsString();
+                    break;
+                case "application":
+                    header.application = parser.getValueAsString();
+                    break;
+                case "platform":
+                    header.platform = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (header.application == null || header.platform == null) {
+            throw new JsonParseException("header without " + (header.application == null ? "application" : "platform"), parser.getCurrentLocation());
+        }
+        if (header.correlationId == null) {
+            header.correlationId = UUID.randomUUID().toString();
+        }
+        return header;
+    }
+
+    private static DecodedServer readServer(JsonParser parser) throws IOException {
+        expectObject(parser, "server");
+        DecodedServer server = new DecodedServer();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                    server.id = parser.getValueAsString();
+                    break;
+                case "backendId":
+                    server.backendId = parser.getValueAsString();
+                    break;
+                case "ip":
+                    server.ip = parser.getValueAsString();
+                    break;
+                case "port":
+                    server.port = parser.getValueAsString();
+                    break;
+                case "context":
+                    server.context = readContext(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return server;
+    }
+
+    private static Map<String, String> readContext(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expectObject(parser, "context");
+        Map<String, String> context = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String key = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                throw new JsonParseException("context entry '" + key + "' is not a string", parser.getCurrentLocation());
+            }
+            context.put(key, value == JsonToken.VALUE_NULL ? null : parser.getText());
+        }
+        return context;
+    }
+
+    private static void expectObject(JsonParser parser, String field) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("'" + field + "' is not a json object", parser.getCurrentLocation());
+        }
+    }
+
+    private static final class DecodedHeader {
+        private String correlationId;
+        private String application;
+        private String platform;
+    }
+
+    private static final class DecodedServer {
+        private String id;
+        private String backendId;
+        private String ip;
+        private String port;
+        private Map<String, String> context;
+    }
+}
@@ -16,10 +16,7 @@
 package com.vsct.dt.strowgr.admin.nsq.consumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Sets;
-import com.vsct.dt.strowgr.admin.core.configuration.IncomingEntryPointBackendServer;
 import com.vsct.dt.strowgr.admin.core.event.in.RegisterServerEvent;
-import com.vsct.dt.strowgr.admin.nsq.payload.RegisterServer;
 import fr.vsct.dt.nsq.NSQMessage;
 import io.reactivex.functions.Function;
 import org.slf4j.Logger;
@@ -29,26 +26,18 @@ public class RegisterServerTransformer implements Function<NSQMessage, RegisterS
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RegisterServerTransformer.class);
 
-    private final ObjectMapper objectMapper;
+    private final NSQPayloadDecoder decoder;
 
     public RegisterServerTransformer(ObjectMapper objectMapper) {
-        this.objectMapper = objectMapper;
+        this.decoder = new NSQPayloadDecoder(objectMapper.getFactory());
     }
 
     @Override
     public RegisterServerEvent apply(NSQMessage nsqMessage) throws Exception {
-        RegisterServer payload = objectMapper.readValue(nsqMessage.getMessage(), RegisterServer.class);
-
-        LOGGER.debug("received an new RegisterServerEvent with cid {}", payload.getHeader().getCorrelationId());
-
-        return new RegisterServerEvent(payload.getHeader().getCorrelationId(),
-                new EntryPointKeyVsctImpl(payload.getHeader().getApplication(), payload.getHeader().getPlatform()),
-                payload.getServer().getBackendId(),
-                Sets.newHashSet(new IncomingEntryPointBackendServer(
-                        payload.getServer().getId(),
-                        payload.getServer().getIp(),
-                        payload.getServer().getPort(),
-                        payload.getServer().getContext()
-                )));
+        RegisterServerEvent event = decoder.decodeRegisterServer(nsqMessage.getMessage());
+
+        LOGGER.debug("received an new RegisterServerEvent with cid {}", event.getCorrelationId());
+
+        return event;
     }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.consumer;
+
+import com.vsct.dt.strowgr.admin.nsq.journal.JournalEntry;
+import fr.vsct.dt.nsq.NSQMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * A message read back from the journal. It has already been finished on NSQ, so finish and requeue do nothing.
+ */
+class ReplayedNSQMessage extends NSQMessage {
+
+    private final long sequence;
+
+    ReplayedNSQMessage(JournalEntry entry) {
+        this.sequence = entry.getSequence();
+        setId(("journal-" + entry.getSequence()).getBytes(StandardCharsets.UTF_8));
+        setTimestamp(new Date(entry.getTimestamp()));
+        setMessage(entry.getPayload());
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public void finished() {
+        // already finished before the restart
+    }
+
+    @Override
+    public void requeue() {
+        // already finished before the restart
+    }
+
+    @Override
+    public void requeue(int timeoutMillis) {
+        // already finished before the restart
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Append-only journal of the NSQ messages accepted by the admin, stored in memory-mapped segment files.
+ * <p>
+ * A message is appended to the journal when it is received, and the NSQ message is finished once the journal is
+ * synced on disk: a flusher thread syncs the segments for all the messages appended since its previous sync (group
+ * commit). The event built from the message is then tracked until its handling acknowledges it.
+ * <p>
+ * When the journal is opened, messages which were not acknowledged are kept for replay: each consumer claims the
+ * messages of its topic with {@link #replay(String)}. Segments are deleted, oldest first, once all their messages are
+ * acknowledged or older than the maximum age. A segment being synced by the flusher is deleted once synced.
+ * <p>
+ * If a segment can't be synced, the messages appended meanwhile are not notified: the sync is retried after a delay, and
+ * the NSQ messages are redelivered by nsqd if they time out before. Only NSQ messages are journaled: the events posted
+ * by the REST api are kept in memory, the caller of the api being told when they can't be handled.
+ */
+public class EventJournal implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventJournal.class);
+
+    private static final long SYNC_RETRY_DELAY = 1000;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxAge;
+
+    private final Deque<JournalSegment> segments = new ArrayDeque<>();
+    private final Map<Long, JournalSegment> unacknowledged = new HashMap<>();
+    private final Map<String, List<JournalEntry>> replayable = new HashMap<>();
+    private final Map<Object, Long> tracked = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private final Set<JournalSegment> dirtySegments = new HashSet<>();
+    private final Set<JournalSegment> syncingSegments = new HashSet<>();
+    private final List<JournalSegment> deletedWhileSyncing = new ArrayList<>();
+    private List<Runnable> durabilityCallbacks = new ArrayList<>();
+
+    private final Thread flusher;
+    private boolean running = true;
+
+    private long nextSequence;
+    private long nextSegment;
+
+    private EventJournal(Path directory, int segmentSize, long maxAge) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxAge = maxAge;
+        this.flusher = new Thread(this::flush, "event-journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Opens the journal stored in the given directory, reading back the messages which were not acknowledged.
+     *
+     * @param directory   of the segment files, created if missing
+     * @param segmentSize in bytes of a segment file
+     * @param maxAge      in milliseconds after which unacknowledged messages are given up
+     * @return the opened journal
+     * @throws IOException if segments can't be read or created
+     */
+    public static EventJournal open(Path directory, int segmentSize, long maxAge) throws IOException {
+        checkArgument(segmentSize > 0, "segment size should be positive");
+        Files.createDirectories(directory);
+        EventJournal journal = new EventJournal(directory, segmentSize, maxAge);
+        journal.recover();
+        journal.flusher.start();
+        return journal;
+    }
+
+    /**
+     * Appends a message to the journal.
+     *
+     * @param topic      of the message
+     * @param payload    of the message
+     * @param onDurable  called by the flusher thread once the message is synced on disk
+     * @return the sequence of the message in the journal
+     */
+    public synchronized long append(String topic, byte[] payload, Runnable onDurable) {
+        checkState(running, "journal is closed");
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        JournalSegment segment = writableSegment(JournalSegment.entrySize(topicBytes, payload));
+        long sequence = nextSequence++;
+        segment.writeEntry(sequence, System.currentTimeMillis(), topicBytes, payload);
+        unacknowledged.put(sequence, segment);
+        dirtySegments.add(segment);
+        durabilityCallbacks.add(onDurable);
+        notifyAll();
+        return sequence;
+    }
+
+    /**
+     * Links an event to the journal message it has been built from, so that it can be acknowledged.
+     *
+     * @param event    built from the message
+     * @param sequence of the message
+     */
+    public void track(Object event, long sequence) {
+        tracked.put(event, sequence);
+    }
+
+    /**
+     * Acknowledges the message an event has been built from. Does nothing if the event is not tracked.
+     *
+     * @param event which has been handled
+     */
+    public void acknowledge(Object event) {
+        Long sequence = tracked.remove(event);
+        if (sequence != null) {
+            acknowledge(sequence.longValue());
+        }
+    }
+
+    /**
+     * Stops tracking an event without acknowledging its message: the message is replayed the next time the journal is
+     * opened, unless it is older than the maximum age. Does nothing if the event is not tracked.
+     *
+     * @param event whose handling failed
+     */
+    public void release(Object event) {
+        tracked.remove(event);
+    }
+
+    /**
+     * Acknowledges a message, it won't be replayed.
+     *
+     * @param sequence of the message
+     */
+    public synchronized void acknowledge(long sequence) {
+        JournalSegment entrySegment = unacknowledged.remove(sequence);
+        if (entrySegment == null || !running) {
+            return;
+        }
+        JournalSegment segment = writableSegment(JournalSegment.ackSize());
+        segment.writeAck(sequence);
+        dirtySegments.add(segment);
+        entrySegment.acknowledged();
+        deleteObsoleteSegments();
+    }
+
+    /**
+     * Claims the messages of a topic which were not acknowledged when the journal was opened. They are still to be
+     * acknowledged once handled.
+     *
+     * @param topic of the messages
+     * @return the messages to replay, in the order they were appended
+     */
+    public synchronized List<JournalEntry> replay(String topic) {
+        List<JournalEntry> entries = replayable.remove(topic);
+        return entries == null ? Collections.emptyList() : entries;
+    }
+
+    /**
+     * @return the number of events waiting for their acknowledgement
+     */
+    int trackedEvents() {
+        return tracked.size();
+    }
+
+    @Override
+    public void close() throws InterruptedException, IOException {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        flusher.join();
+        synchronized (this) {
+            for (JournalSegment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, JournalSegment.PREFIX + "*" + JournalSegment.SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        Collections.sort(paths);
+
+        Set<Long> acknowledgedSequences = new HashSet<>();
+        List<JournalEntry> entries = new ArrayList<>();
+        Map<Long, JournalSegment> entrySegments = new HashMap<>();
+        for (Path path : paths) {
+            try {
+                nextSegment = Math.max(nextSegment, JournalSegment.number(path) + 1);
+            } catch (NumberFormatException e) {
+                LOGGER.warn("ignore {} which is not a journal segment", path);
+                continue;
+            }
+            JournalSegment segment = JournalSegment.open(path);
+            segment.read(entry -> {
+                entries.add(entry);
+                entrySegments.put(entry.getSequence(), segment);
+            }, acknowledgedSequences);
+            segments.add(segment);
+        }
+
+        long now = System.currentTimeMillis();
+        for (JournalEntry entry : entries) {
+            JournalSegment segment = entrySegments.get(entry.getSequence());
+            if (acknowledgedSequences.contains(entry.getSequence()) || now - entry.getTimestamp() > maxAge) {
+                segment.acknowledged();
+            } else {
+                unacknowledged.put(entry.getSequence(), segment);
+                replayable.computeIfAbsent(entry.getTopic(), topic -> new ArrayList<>()).add(entry);
+            }
+            nextSequence = Math.max(nextSequence, entry.getSequence() + 1);
+        }
+
+        // a new segment is written, the last one may be torn
+        segments.add(JournalSegment.create(directory, nextSegment++, segmentSize));
+        deleteObsoleteSegments();
+
+        LOGGER.info("journal opened in {} with {} messages to replay", directory,
+                replayable.values().stream().collect(Collectors.summingInt(List::size)));
+    }
+
+    private JournalSegment writableSegment(int recordSize) {
+        JournalSegment current = segments.peekLast();
+        if (!current.fits(recordSize)) {
+            try {
+                current = JournalSegment.create(directory, nextSegment++, Math.max(segmentSize, recordSize + 1));
+            } catch (IOException e) {
+                throw new UncheckedIOException("can't create a new journal segment in " + directory, e);
+            }
+            segments.addLast(current);
+            deleteObsoleteSegments();
+        }
+        return current;
+    }
+
+    /**
+     * Deletes segments from the oldest one, so that an acknowledgement is never deleted before the message it refers.
+     * The segment being written is always kept. Events built from messages given up are no more tracked.
+     */
+    private void deleteObsoleteSegments() {
+        long now = System.currentTimeMillis();
+        boolean givenUp = false;
+        while (segments.size() > 1 && segments.peekFirst().isObsolete(now, maxAge)) {
+            JournalSegment segment = segments.pollFirst();
+            givenUp |= unacknowledged.values().removeIf(s -> s == segment);
+            dirtySegments.remove(segment);
+            if (syncingSegments.contains(segment)) {
+                deletedWhileSyncing.add(segment);
+            } else {
+                delete(segment);
+            }
+        }
+        if (givenUp) {
+            synchronized (tracked) {
+                tracked.values().removeIf(sequence -> !unacknowledged.containsKey(sequence));
+            }
+        }
+    }
+
+    private void delete(JournalSegment segment) {
+        try {
+            segment.delete();
+        } catch (IOException e) {
+            LOGGER.warn("can't delete journal segment {}", segment.getPath(), e);
+        }
+    }
+
+    /**
+     * Loop of the flusher thread: syncs the dirty segments then notifies all the messages appended meanwhile. If a
+     * segment can't be synced, its sync and the notifications are retried after a delay, or dropped once the journal is
+     * closed.
+     */
+    private void flush() {
+        while (true) {
+            List<Runnable> callbacks;
+            List<JournalSegment> toSync;
+            synchronized (this) {
+                while (running && durabilityCallbacks.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (!running && durabilityCallbacks.isEmpty()) {
+                    return;
+                }
+                callbacks = durabilityCallbacks;
+                durabilityCallbacks = new ArrayList<>();
+                toSync = new ArrayList<>(dirtySegments);
+                dirtySegments.clear();
+                syncingSegments.addAll(toSync);
+            }
+
+            List<JournalSegment> failed = new ArrayList<>();
+            for (JournalSegment segment : toSync) {
+                try {
+                    segment.force();
+                } catch (RuntimeException e) {
+                    LOGGER.error("can't sync journal segment {}", segment.getPath(), e);
+                    failed.add(segment);
+                }
+            }
+
+            synchronized (this) {
+                syncingSegments.clear();
+                deletedWhileSyncing.forEach(this::delete);
+                // a deleted segment holds no message to sync anymore
+                failed.removeIf(deletedWhileSyncing::contains);
+                deletedWhileSyncing.clear();
+                if (!failed.isEmpty()) {
+                    if (!running) {
+                        LOGGER.error("journal closed before {} messages were synced, nsqd redelivers them", callbacks.size());
+                        return;
+                    }
+                    dirtySegments.addAll(failed);
+                    callbacks.addAll(durabilityCallbacks);
+                    durabilityCallbacks = callbacks;
+                    long retryAt = System.currentTimeMillis() + SYNC_RETRY_DELAY;
+                    for (long now = System.currentTimeMillis(); running && now < retryAt; now = System.currentTimeMillis()) {
+                        try {
+                            wait(retryAt - now);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    continue;
+                }
+            }
+
+            for (Runnable callback : callbacks) {
+                try {
+                    callback.run();
+                } catch (Exception e) {
+                    LOGGER.error("Following error occurred while notifying a journal message is durable", e);
+                }
+            }
+        }
+    }
+}
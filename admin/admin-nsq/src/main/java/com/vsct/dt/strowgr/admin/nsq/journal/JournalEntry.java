@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.journal;
+
+/**
+ * A message recorded in the {@link EventJournal}.
+ */
+public class JournalEntry {
+
+    private final long sequence;
+    private final long timestamp;
+    private final String topic;
+    private final byte[] payload;
+
+    JournalEntry(long sequence, long timestamp, String topic, byte[] payload) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.topic = topic;
+        this.payload = payload;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return epoch milliseconds at which the message has been recorded
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalEntry{" +
+                "sequence=" + sequence +
+                ", timestamp=" + timestamp +
+                ", topic='" + topic + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A memory-mapped file of the {@link EventJournal}.
+ * <p>
+ * Records are laid out one after the other, the first byte of a record being its type. The zeroed remaining of the
+ * file marks the end of the records. Each record ends with the CRC32 of its content so that a torn write is detected
+ * when the segment is read back.
+ * <pre>
+ * ENTRY: type(1) sequence(8) timestamp(8) topic length(2) topic payload length(4) payload crc(4)
+ * ACK:   type(1) sequence(8) crc(4)
+ * </pre>
+ * A segment is not thread safe, it is guarded by its journal.
+ */
+class JournalSegment {
+
+    private static final byte ENTRY = 1;
+    private static final byte ACK = 2;
+
+    private static final int ENTRY_OVERHEAD = 1 + 8 + 8 + 2 + 4 + 4;
+    private static final int ACK_SIZE = 1 + 8 + 4;
+
+    static final String PREFIX = "journal-";
+    static final String SUFFIX = ".log";
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    private int entries = 0;
+    private int acknowledged = 0;
+    private long lastWrite;
+
+    private JournalSegment(Path path, FileChannel channel, MappedByteBuffer buffer, long lastWrite) {
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.lastWrite = lastWrite;
+    }
+
+    /**
+     * @param number of the segment, segments being numbered in the order they are created
+     */
+    static JournalSegment create(Path directory, long number, int size) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", PREFIX, number, SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new JournalSegment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), System.currentTimeMillis());
+    }
+
+    static JournalSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new JournalSegment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()), Files.getLastModifiedTime(path).toMillis());
+    }
+
+    /**
+     * @return the number of the segment stored at the given path
+     * @throws NumberFormatException if the file name is not the one of a segment
+     */
+    static long number(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    static int entrySize(byte[] topic, byte[] payload) {
+        return ENTRY_OVERHEAD + topic.length + payload.length;
+    }
+
+    static int ackSize() {
+        return ACK_SIZE;
+    }
+
+    /**
+     * @return true if a record of the given size can be written, keeping a zeroed byte to mark the end of the records
+     */
+    boolean fits(int recordSize) {
+        return buffer.remaining() > recordSize;
+    }
+
+    void writeEntry(long sequence, long timestamp, byte[] topic, byte[] payload) {
+        int start = buffer.position();
+        buffer.put(ENTRY)
+                .putLong(sequence)
+                .putLong(timestamp)
+                .putShort((short) topic.length)
+                .put(topic)
+                .putInt(payload.length)
+                .put(payload);
+        buffer.putInt(crc(start, buffer.position()));
+        entries++;
+        lastWrite = timestamp;
+    }
+
+    void writeAck(long sequence) {
+        int start = buffer.position();
+        buffer.put(ACK).putLong(sequence);
+        buffer.putInt(crc(start, buffer.position()));
+    }
+
+    /**
+     * Reads the records until the end marker or a corrupted record. A segment is read back only when the journal is
+     * opened, it is never written afterwards.
+     *
+     * @param entryConsumer        receives the entries
+     * @param acknowledgedSequences receives the sequences of the acknowledged entries
+     */
+    void read(Consumer<JournalEntry> entryConsumer, Set<Long> acknowledgedSequences) {
+        buffer.position(0);
+        while (buffer.remaining() > 0) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            if (type == ENTRY && buffer.remaining() >= ENTRY_OVERHEAD - 1) {
+                long sequence = buffer.getLong();
+                long timestamp = buffer.getLong();
+                int topicLength = buffer.getShort() & 0xFFFF;
+                if (buffer.remaining() < topicLength + 4) {
+                    break;
+                }
+                byte[] topic = new byte[topicLength];
+                buffer.get(topic);
+                int payloadLength = buffer.getInt();
+                if (payloadLength < 0 || buffer.remaining() < payloadLength + 4) {
+                    break;
+                }
+                byte[] payload = new byte[payloadLength];
+                buffer.get(payload);
+                if (crc(start, buffer.position()) != buffer.getInt()) {
+                    break;
+                }
+                entries++;
+                entryConsumer.accept(new JournalEntry(sequence, timestamp, new String(topic, StandardCharsets.UTF_8), payload));
+            } else if (type == ACK && buffer.remaining() >= ACK_SIZE - 1) {
+                long sequence = buffer.getLong();
+                if (crc(start, buffer.position()) != buffer.getInt()) {
+                    break;
+                }
+                acknowledgedSequences.add(sequence);
+            } else {
+                break;
+            }
+        }
+    }
+
+    void acknowledged() {
+        acknowledged++;
+    }
+
+    /**
+     * @param now       epoch milliseconds
+     * @param maxAge    in milliseconds after which unacknowledged entries are given up
+     * @return true if all entries of this segment have been acknowledged or given up
+     */
+    boolean isObsolete(long now, long maxAge) {
+        return acknowledged >= entries || now - lastWrite > maxAge;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    private int crc(int from, int to) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(to).position(from);
+        CRC32 crc32 = new CRC32();
+        crc32.update(record);
+        return (int) crc32.getValue();
+    }
+}
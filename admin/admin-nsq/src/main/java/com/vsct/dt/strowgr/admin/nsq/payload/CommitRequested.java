@@ -17,11 +17,18 @@ package com.vsct.dt.strowgr.admin.nsq.payload;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.hash.Hashing;
 import com.vsct.dt.strowgr.admin.nsq.payload.fragment.Conf;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.ConfDelta;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.ConfEncoding;
 import com.vsct.dt.strowgr.admin.nsq.payload.fragment.Header;
 
+import java.util.Base64;
 import java.util.Objects;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
 public class CommitRequested {
 
     private final Header header;
@@ -45,6 +52,42 @@ public class CommitRequested {
         return conf;
     }
 
+    /**
+     * @return the haproxy configuration, decoded according to the encoding flagged in the conf
+     * @throws IllegalStateException if the configuration is a delta
+     */
+    public byte[] decodeHaproxyConf() {
+        checkState(conf.getHaproxyBase() == null, "haproxy configuration is a delta against %s", conf.getHaproxyBase());
+        return confEncoding().decode(Base64.getDecoder().decode(conf.getHaproxy()));
+    }
+
+    /**
+     * @param base haproxy configuration whose SHA-256 is the base of the delta, ignored if the configuration is whole
+     * @return the haproxy configuration, decoded according to the encoding flagged in the conf and applied to the
+     * base if it is a delta
+     * @throws IllegalArgumentException if the configuration rebuilt from the delta does not have the expected hash
+     */
+    public byte[] decodeHaproxyConf(byte[] base) {
+        if (conf.getHaproxyBase() == null) {
+            return decodeHaproxyConf();
+        }
+        byte[] haproxy = ConfDelta.apply(base, confEncoding().decode(Base64.getDecoder().decode(conf.getHaproxy())));
+        checkArgument(Hashing.sha256().hashBytes(haproxy).toString().equals(conf.getHaproxyHash()),
+                "haproxy configuration rebuilt from delta does not match %s", conf.getHaproxyHash());
+        return haproxy;
+    }
+
+    /**
+     * @return the syslog configuration, decoded according to the encoding flagged in the conf
+     */
+    public byte[] decodeSyslogConf() {
+        return confEncoding().decode(Base64.getDecoder().decode(conf.getSyslog()));
+    }
+
+    private ConfEncoding confEncoding() {
+        return conf.getEncoding() == null ? ConfEncoding.BASE64 : conf.getEncoding();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -16,6 +16,7 @@
 package com.vsct.dt.strowgr.admin.nsq.payload.fragment;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.Objects;
@@ -47,12 +48,42 @@ public class Conf {
      */
     private final String haproxyVersion;
 
+    /**
+     * SHA-256 hex of the haproxy configuration the {@link ConfDelta} in haproxy applies to, null if haproxy is the
+     * whole configuration.
+     */
+    private final String haproxyBase;
+
+    /**
+     * SHA-256 hex of the haproxy configuration rebuilt from the delta, null if haproxy is the whole configuration.
+     */
+    private final String haproxyHash;
+
+    /**
+     * Encoding of haproxy and syslog, null for the default {@link ConfEncoding#BASE64} which is not written so that
+     * sidekicks not knowing this flag still read the message.
+     */
+    private final ConfEncoding encoding;
+
     @JsonCreator
-    public Conf(@JsonProperty("haproxy") String haproxy, @JsonProperty("syslog") String syslog, @JsonProperty("haproxyVersion") String haproxyVersion, @JsonProperty("bind") String bind) {
+    public Conf(@JsonProperty("haproxy") String haproxy, @JsonProperty("syslog") String syslog, @JsonProperty("haproxyVersion") String haproxyVersion, @JsonProperty("bind") String bind,
+                @JsonProperty("haproxyBase") String haproxyBase, @JsonProperty("haproxyHash") String haproxyHash,
+                @JsonProperty("encoding") ConfEncoding encoding) {
         this.haproxy = checkNotNull(haproxy);
         this.syslog = checkNotNull(syslog);
         this.bind = checkNotNull(bind);
         this.haproxyVersion = checkNotNull(haproxyVersion);
+        this.haproxyBase = haproxyBase;
+        this.haproxyHash = haproxyHash;
+        this.encoding = encoding == ConfEncoding.BASE64 ? null : encoding;
+    }
+
+    public Conf(String haproxy, String syslog, String haproxyVersion, String bind, String haproxyBase, String haproxyHash) {
+        this(haproxy, syslog, haproxyVersion, bind, haproxyBase, haproxyHash, null);
+    }
+
+    public Conf(String haproxy, String syslog, String haproxyVersion, String bind) {
+        this(haproxy, syslog, haproxyVersion, bind, null, null);
     }
 
     public String getHaproxy() {
@@ -71,6 +102,21 @@ public class Conf {
         return haproxyVersion;
     }
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getHaproxyBase() {
+        return haproxyBase;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getHaproxyHash() {
+        return haproxyHash;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public ConfEncoding getEncoding() {
+        return encoding;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -79,11 +125,14 @@ public class Conf {
         return Objects.equals(haproxy, conf.haproxy) &&
                 Objects.equals(syslog, conf.syslog) &&
                 Objects.equals(bind, conf.bind) &&
-                Objects.equals(haproxyVersion, conf.haproxyVersion);
+                Objects.equals(haproxyVersion, conf.haproxyVersion) &&
+                Objects.equals(haproxyBase, conf.haproxyBase) &&
+                Objects.equals(haproxyHash, conf.haproxyHash) &&
+                encoding == conf.encoding;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(haproxy, syslog, bind, haproxyVersion);
+        return Objects.hash(haproxy, syslog, bind, haproxyVersion, haproxyBase, haproxyHash, encoding);
     }
 }
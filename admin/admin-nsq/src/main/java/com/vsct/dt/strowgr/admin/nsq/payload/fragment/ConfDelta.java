@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.payload.fragment;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary delta of a configuration against a base configuration, so that a commit only ships what changed since the
+ * configuration last applied by the sidekicks.
+ * <p>
+ * A delta is a version byte followed by instructions rebuilding the configuration from the base:
+ * <ul>
+ * <li>{@code 0x01 offset length}: copy length bytes of the base from offset</li>
+ * <li>{@code 0x02 length bytes}: insert the following length bytes</li>
+ * </ul>
+ * Offsets and lengths are unsigned LEB128 varints. Applying a delta only deals with bytes, matches are found line by
+ * line since a haproxy configuration changes by lines.
+ */
+public final class ConfDelta {
+
+    private static final byte VERSION = 1;
+    private static final byte COPY = 0x01;
+    private static final byte INSERT = 0x02;
+
+    /* a copy of a shorter line costs more than inserting it */
+    private static final int MIN_COPY_LENGTH = 8;
+
+    private ConfDelta() {
+    }
+
+    /**
+     * Computes the delta of a configuration against a base.
+     *
+     * @param base   configuration the delta applies to
+     * @param target configuration rebuilt by the delta
+     * @return the delta
+     */
+    public static byte[] diff(byte[] base, byte[] target) {
+        Map<Line, Integer> baseLines = new HashMap<>(base.length / 32 + 16);
+        int start = 0;
+        while (start < base.length) {
+            int end = endOfLine(base, start);
+            baseLines.putIfAbsent(new Line(base, start, end), start);
+            start = end;
+        }
+
+        Output output = new Output(target.length / 16 + 16);
+        output.write(VERSION);
+        int copyOffset = -1;
+        int copyLength = 0;
+        int insertStart = 0;
+        int insertLength = 0;
+        start = 0;
+        while (start < target.length) {
+            int end = endOfLine(target, start);
+            int length = end - start;
+            if (copyLength > 0 && regionMatches(base, copyOffset + copyLength, target, start, length)) {
+                // the line follows the previous one in the base too
+                copyLength += length;
+            } else {
+                Integer offset = length < MIN_COPY_LENGTH ? null : baseLines.get(new Line(target, start, end));
+                if (offset == null) {
+                    if (copyLength > 0) {
+                        output.copy(copyOffset, copyLength);
+                        copyLength = 0;
+                    }
+                    if (insertLength == 0) {
+                        insertStart = start;
+                    }
+                    insertLength += length;
+                } else {
+                    if (copyLength > 0) {
+                        output.copy(copyOffset, copyLength);
+                    }
+                    if (insertLength > 0) {
+                        output.insert(target, insertStart, insertLength);
+                        insertLength = 0;
+                    }
+                    copyOffset = offset;
+                    copyLength = length;
+                }
+            }
+            start = end;
+        }
+        if (copyLength > 0) {
+            output.copy(copyOffset, copyLength);
+        }
+        if (insertLength > 0) {
+            output.insert(target, insertStart, insertLength);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Rebuilds a configuration from its base and its delta.
+     *
+     * @param base  configuration the delta applies to
+     * @param delta computed by {@link #diff(byte[], byte[])}
+     * @return the configuration
+     * @throws IllegalArgumentException if the delta is malformed or does not apply to the base
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        if (delta.length == 0 || delta[0] != VERSION) {
+            throw new IllegalArgumentException("unsupported configuration delta version");
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(base.length + delta.length);
+        int[] position = {1};
+        while (position[0] < delta.length) {
+            byte instruction = delta[position[0]++];
+            if (instruction == COPY) {
+                int offset = readVarint(delta, position);
+                int length = readVarint(delta, position);
+                if (offset > base.length - length) {
+                    throw new IllegalArgumentException("configuration delta copies beyond its base");
+                }
+                output.write(base, offset, length);
+            } else if (instruction == INSERT) {
+                int length = readVarint(delta, position);
+                if (position[0] > delta.length - length) {
+                    throw new IllegalArgumentException("configuration delta is truncated");
+                }
+                output.write(delta, position[0], length);
+                position[0] += length;
+            } else {
+                throw new IllegalArgumentException("unknown configuration delta instruction " + instruction);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static int endOfLine(byte[] content, int start) {
+        for (int i = start; i < content.length; i++) {
+            if (content[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return content.length;
+    }
+
+    private static boolean regionMatches(byte[] base, int baseStart, byte[] target, int targetStart, int length) {
+        if (baseStart > base.length - length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (base[baseStart + i] != target[targetStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readVarint(byte[] delta, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= delta.length) {
+                throw new IllegalArgumentException("configuration delta is truncated");
+            }
+            byte b = delta[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("configuration delta has a negative length");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("configuration delta has a malformed varint");
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+
+        private Output(int size) {
+            super(size);
+        }
+
+        private void copy(int offset, int length) {
+            write(COPY);
+            writeVarint(offset);
+            writeVarint(length);
+        }
+
+        private void insert(byte[] content, int start, int length) {
+            write(INSERT);
+            writeVarint(length);
+            write(content, start, length);
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+    }
+
+    /**
+     * Line of a configuration, compared by content.
+     */
+    private static final class Line {
+
+        private final byte[] content;
+        private final int start;
+        private final int end;
+        private final int hash;
+
+        private Line(byte[] content, int start, int end) {
+            this.content = content;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + content[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Line line = (Line) o;
+            return hash == line.hash && end - start == line.end - line.start
+                    && regionMatches(content, start, line.content, line.start, end - start);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.payload.fragment;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encoding of the haproxy and syslog configurations of a {@link Conf}, flagged by its 'encoding' field. The
+ * configurations are always base64 encoded in the json payload, once encoded by this encoding.
+ * <p>
+ * A conf without flag means {@link #BASE64}, the format understood by all the sidekicks.
+ */
+public enum ConfEncoding {
+
+    /**
+     * Configurations are base64 encoded as is.
+     */
+    BASE64("base64") {
+        @Override
+        public void encode(byte[] conf, OutputStream output) throws IOException {
+            output.write(conf);
+        }
+
+        @Override
+        public byte[] decode(byte[] encoded) {
+            return encoded;
+        }
+    },
+
+    /**
+     * Configurations are gzipped, at the fastest level, then base64 encoded. Haproxy configurations are repetitive
+     * enough to be shrunk by 80 to 90%.
+     */
+    GZIP("gzip") {
+        @Override
+        public void encode(byte[] conf, OutputStream output) throws IOException {
+            try (GZIPOutputStream gzip = new FastGZIPOutputStream(output)) {
+                gzip.write(conf);
+            }
+        }
+
+        @Override
+        public byte[] decode(byte[] encoded) {
+            try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+                return ByteStreams.toByteArray(gzip);
+            } catch (IOException e) {
+                throw new UncheckedIOException("can't gunzip configuration", e);
+            }
+        }
+    };
+
+    private final String name;
+
+    ConfEncoding(String name) {
+        this.name = name;
+    }
+
+    @JsonValue
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Encodes a configuration.
+     *
+     * @param conf   content of the configuration
+     * @param output receiving the encoded configuration, it may be closed
+     */
+    public abstract void encode(byte[] conf, OutputStream output) throws IOException;
+
+    /**
+     * @param encoded configuration, once base64 decoded
+     * @return the content of the configuration
+     */
+    public abstract byte[] decode(byte[] encoded);
+
+    /**
+     * @param name of the encoding, null for the default one
+     * @return the encoding
+     * @throws IllegalArgumentException if the encoding is unknown
+     */
+    @JsonCreator
+    public static ConfEncoding fromName(String name) {
+        if (name == null) {
+            return BASE64;
+        }
+        for (ConfEncoding encoding : values()) {
+            if (encoding.name.equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+        throw new IllegalArgumentException("unknown configuration encoding '" + name + "'");
+    }
+
+    private static final class FastGZIPOutputStream extends GZIPOutputStream {
+
+        private FastGZIPOutputStream(OutputStream output) throws IOException {
+            super(output, 64 * 1024);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.producer;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import fr.vsct.dt.nsq.NSQProducer;
+import fr.vsct.dt.nsq.exceptions.NSQException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Asynchronous facade of a {@link NSQProducer}: messages are published by a bounded pool of threads and their
+ * completion is notified by futures.
+ * <p>
+ * The NSQ client waits for the response of nsqd to a command before sending another one on the same connection, so
+ * commands are pipelined over the pooled connections to nsqd: the window of in-flight commands should not exceed the
+ * number of connections of the producer pool. A caller publishing while the window is full waits for a command to
+ * complete, which applies backpressure to the pipeline it is called from. Publish latencies are measured by the
+ * 'produce' timer and the in-flight commands by the 'in-flight' gauge.
+ * <p>
+ * WARNING: the NSQProducer is not managed by this object, it should be shut down after this producer is closed.
+ */
+public class AsyncNSQProducer implements AutoCloseable {
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final NSQProducer nsqProducer;
+    private final int maxInFlight;
+    private final Semaphore window;
+    private final ExecutorService executor;
+    private final Timer produceTimer;
+
+    /**
+     * @param nsqProducer    to publish with
+     * @param maxInFlight    maximum number of commands waiting for the response of nsqd
+     * @param metricRegistry where the producer metrics are registered
+     */
+    public AsyncNSQProducer(NSQProducer nsqProducer, int maxInFlight, MetricRegistry metricRegistry) {
+        checkArgument(maxInFlight > 0, "in-flight window should be positive");
+        this.nsqProducer = nsqProducer;
+        this.maxInFlight = maxInFlight;
+        this.window = new Semaphore(maxInFlight);
+        this.executor = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, "nsq-async-producer-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.produceTimer = metricRegistry.timer(MetricRegistry.name(AsyncNSQProducer.class, "produce"));
+        metricRegistry.register(MetricRegistry.name(AsyncNSQProducer.class, "in-flight"), (Gauge<Integer>) () -> maxInFlight - window.availablePermits());
+    }
+
+    /**
+     * Publishes a message, waiting for room in the in-flight window.
+     *
+     * @param topic   of the message
+     * @param payload of the message
+     * @return completed once nsqd acknowledged the message, exceptionally with {@link NSQException} or
+     * {@link TimeoutException} if it failed
+     * @throws InterruptedException if interrupted while waiting for room in the window
+     */
+    public CompletableFuture<Void> produce(String topic, byte[] payload) throws InterruptedException {
+        return submit(() -> nsqProducer.produce(topic, payload));
+    }
+
+    /**
+     * Publishes messages with one MPUB command, waiting for room in the in-flight window.
+     *
+     * @param topic    of the messages
+     * @param payloads of the messages
+     * @return completed once nsqd acknowledged the messages, exceptionally with {@link NSQException} or
+     * {@link TimeoutException} if it failed
+     * @throws InterruptedException if interrupted while waiting for room in the window
+     */
+    public CompletableFuture<Void> produceMulti(String topic, List<byte[]> payloads) throws InterruptedException {
+        return submit(() -> nsqProducer.produceMulti(topic, payloads));
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Waits for the in-flight commands then stops the threads.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private CompletableFuture<Void> submit(Command command) throws InterruptedException {
+        window.acquire();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                Exception failure = null;
+                try (Timer.Context ignored = produceTimer.time()) {
+                    command.run();
+                } catch (Exception e) {
+                    failure = e;
+                } finally {
+                    // released before the callbacks run, they may publish again
+                    window.release();
+                }
+                if (failure == null) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            });
+        } catch (RuntimeException e) {
+            window.release();
+            throw e;
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface Command {
+
+        void run() throws NSQException, TimeoutException;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.producer;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.ConfDelta;
+
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the haproxy configurations acknowledged by the sidekicks, so that a commit only sends the {@link ConfDelta}
+ * of its configuration against the last acknowledged one.
+ * <p>
+ * The configuration of a commit is kept as pending until its commit completes, then it becomes the base of the next
+ * delta of its entrypoint. A failed commit forgets the base of its entrypoint since the configuration of the sidekicks
+ * is then unknown: a sidekick not having the base of a delta fails the commit, so the next commit sends the whole
+ * configuration. Deltas are only sent to the haproxies whose sidekicks apply them, and only if they are smaller than
+ * half of the configuration.
+ * <p>
+ * Configurations are kept up to a total number of bytes, an entrypoint whose base has been evicted gets its whole
+ * configuration.
+ */
+public class ConfDeltaTracker {
+
+    /* a commit still not completed after this delay has timed out */
+    private static final long PENDING_EXPIRATION_MINUTES = 10;
+
+    private final Set<String> haproxies;
+    private final Cache<String, TrackedConf> pending;
+    private final Cache<String, TrackedConf> acknowledged;
+
+    private final Counter deltas;
+    private final Counter wholes;
+    private final Histogram deltaSize;
+
+    /**
+     * @param haproxies      names of the haproxies whose sidekicks apply deltas
+     * @param maxBytes       maximum number of bytes of the configurations kept, pending ones and acknowledged ones each
+     * @param metricRegistry where delta metrics are registered
+     */
+    public ConfDeltaTracker(Set<String> haproxies, long maxBytes, MetricRegistry metricRegistry) {
+        this.haproxies = new HashSet<>(haproxies);
+        this.pending = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String correlationId, TrackedConf conf) -> conf.content.length)
+                .expireAfterWrite(PENDING_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+                .build();
+        this.acknowledged = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String entryPoint, TrackedConf conf) -> conf.content.length)
+                .build();
+        this.deltas = metricRegistry.counter(MetricRegistry.name(ConfDeltaTracker.class, "deltas"));
+        this.wholes = metricRegistry.counter(MetricRegistry.name(ConfDeltaTracker.class, "wholes"));
+        this.deltaSize = metricRegistry.histogram(MetricRegistry.name(ConfDeltaTracker.class, "delta-size"));
+    }
+
+    /**
+     * Tracks the configuration of a commit and computes its delta against the last acknowledged configuration of its
+     * entrypoint.
+     *
+     * @param correlationId of the commit
+     * @param haproxyName   targeted by the commit
+     * @param entryPoint    identifier of the entrypoint, unique across the haproxies
+     * @param conf          haproxy configuration of the commit, not to be modified
+     * @return the delta, empty if the whole configuration should be sent
+     */
+    public Optional<Delta> requested(String correlationId, String haproxyName, String entryPoint, byte[] conf) {
+        if (!haproxies.contains(haproxyName)) {
+            return Optional.empty();
+        }
+        HashCode hash = Hashing.sha256().hashBytes(conf);
+        pending.put(correlationId, new TrackedConf(entryPoint, conf, hash));
+        TrackedConf base = acknowledged.getIfPresent(entryPoint);
+        if (base == null) {
+            wholes.inc();
+            return Optional.empty();
+        }
+        byte[] delta = ConfDelta.diff(base.content, conf);
+        if (delta.length > conf.length / 2) {
+            wholes.inc();
+            return Optional.empty();
+        }
+        deltas.inc();
+        deltaSize.update(delta.length);
+        return Optional.of(new Delta(delta, base.hash.toString(), hash.toString()));
+    }
+
+    /**
+     * The configuration of the commit becomes the base of the next deltas of its entrypoint.
+     *
+     * @param correlationId of the commit
+     */
+    public void completed(String correlationId) {
+        TrackedConf conf = pending.getIfPresent(correlationId);
+        if (conf != null) {
+            pending.invalidate(correlationId);
+            acknowledged.put(conf.entryPoint, conf);
+        }
+    }
+
+    /**
+     * Forgets the base of the entrypoint of the commit, the next commit sends the whole configuration.
+     *
+     * @param correlationId of the commit
+     */
+    public void failed(String correlationId) {
+        TrackedConf conf = pending.getIfPresent(correlationId);
+        if (conf != null) {
+            pending.invalidate(correlationId);
+            acknowledged.invalidate(conf.entryPoint);
+        }
+    }
+
+    /**
+     * Delta of a configuration against its base.
+     */
+    public static final class Delta {
+
+        private final byte[] content;
+        private final String baseHash;
+        private final String hash;
+
+        private Delta(byte[] content, String baseHash, String hash) {
+            this.content = content;
+            this.baseHash = baseHash;
+            this.hash = hash;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * @return SHA-256 hex of the base configuration
+         */
+        public String getBaseHash() {
+            return baseHash;
+        }
+
+        /**
+         * @return SHA-256 hex of the configuration rebuilt from the delta
+         */
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    private static final class TrackedConf {
+
+        private final String entryPoint;
+        private final byte[] content;
+        private final HashCode hash;
+
+        private TrackedConf(String entryPoint, byte[] content, HashCode hash) {
+            this.entryPoint = entryPoint;
+            this.content = content;
+            this.hash = hash;
+        }
+    }
+}
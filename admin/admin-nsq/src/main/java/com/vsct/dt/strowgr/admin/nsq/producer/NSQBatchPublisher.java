@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.producer;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Publishes NSQ messages by batches, one MPUB per topic instead of one PUB per message.
+ * <p>
+ * Messages are accumulated per topic. A batch is handed to the {@link AsyncNSQProducer} by the publisher thread once it
+ * holds the maximum number of messages or bytes, or when the linger delay after its first message elapses. Batches of
+ * different topics are in flight at the same time, and messages published while a batch is in flight join the next
+ * one, so that the throughput of a topic is bound by the bandwidth rather than the round trip to nsqd. Sizes of the
+ * batches and the time their first message waited are measured per topic in 'batch-size' histograms and 'linger'
+ * timers.
+ * <p>
+ * Messages not yet acknowledged by nsqd are bounded to a full batch per in-flight command of the producer, plus one: a
+ * caller publishing beyond waits, which applies backpressure to the pipeline it is called from.
+ * <p>
+ * WARNING: the AsyncNSQProducer is not managed by this publisher, it should be closed after the publisher is.
+ */
+public class NSQBatchPublisher implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NSQBatchPublisher.class);
+
+    private final AsyncNSQProducer producer;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+    private final long linger;
+    private final MetricRegistry metricRegistry;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Semaphore pending;
+
+    private final Map<String, Batch> batches = new HashMap<>();
+    private final Map<String, TopicMetrics> topicMetrics = new ConcurrentHashMap<>();
+
+    private boolean running = true;
+
+    /**
+     * @param producer       to publish with
+     * @param maxBatchSize   maximum number of messages of a batch
+     * @param maxBatchBytes  maximum size of the messages of a batch, nsqd rejecting a MPUB larger than its
+     *                       '--max-body-size'. A larger message is published alone
+     * @param linger         in milliseconds a message waits for other messages of its topic
+     * @param metricRegistry where batch metrics are registered
+     */
+    public NSQBatchPublisher(AsyncNSQProducer producer, int maxBatchSize, int maxBatchBytes, long linger, MetricRegistry metricRegistry) {
+        checkArgument(maxBatchSize > 0, "batch size should be positive");
+        checkArgument(maxBatchBytes > 0, "batch bytes should be positive");
+        checkArgument(linger >= 0, "linger should not be negative");
+        this.producer = producer;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.linger = linger;
+        this.metricRegistry = metricRegistry;
+        this.pending = new Semaphore(maxBatchSize * (producer.getMaxInFlight() + 1));
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "nsq-batch-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Adds a message to the batch of its topic, waiting if too many messages are not acknowledged yet.
+     *
+     * @param topic   of the message
+     * @param payload of the message
+     * @return completed once nsqd acknowledged the batch of the message, exceptionally if the batch failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public CompletableFuture<Void> publish(String topic, byte[] payload) throws InterruptedException {
+        pending.acquire();
+        CompletableFuture<Void> published = new CompletableFuture<>();
+        List<Batch> toSend = new ArrayList<>(2);
+        synchronized (this) {
+            if (!running) {
+                pending.release();
+                throw new IllegalStateException("batch publisher is closed");
+            }
+            Batch batch = batches.get(topic);
+            if (batch != null && batch.bytes + payload.length > maxBatchBytes) {
+                batches.remove(topic);
+                toSend.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(topic);
+                batches.put(topic, batch);
+                Batch lingering = batch;
+                executor.schedule(() -> sendIfLingering(lingering), linger, TimeUnit.MILLISECONDS);
+            }
+            batch.add(payload, published);
+            if (batch.payloads.size() >= maxBatchSize || batch.bytes >= maxBatchBytes) {
+                batches.remove(topic);
+                toSend.add(batch);
+            }
+        }
+        for (Batch batch : toSend) {
+            executor.execute(() -> send(batch));
+        }
+        return published;
+    }
+
+    /**
+     * Hands the pending batches to the producer then stops the publisher thread.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        List<Batch> remaining;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            remaining = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        // sent after the full batches already handed to the publisher thread, the lingering tasks are then cancelled
+        try {
+            executor.submit(() -> remaining.forEach(this::send)).get(1, TimeUnit.MINUTES);
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.error("can't publish pending NSQ batches", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void sendIfLingering(Batch batch) {
+        synchronized (this) {
+            // a full batch has already been handed to the publisher thread
+            if (!batches.remove(batch.topic, batch)) {
+                return;
+            }
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        TopicMetrics metrics = topicMetrics.computeIfAbsent(batch.topic, TopicMetrics::new);
+        metrics.batchSize.update(batch.payloads.size());
+        metrics.linger.update(System.nanoTime() - batch.created, TimeUnit.NANOSECONDS);
+        CompletableFuture<Void> sent;
+        try {
+            sent = batch.payloads.size() == 1
+                    ? producer.produce(batch.topic, batch.payloads.get(0))
+                    : producer.produceMulti(batch.topic, batch.payloads);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            sent = new CompletableFuture<>();
+            sent.completeExceptionally(e);
+        }
+        sent.whenComplete((ignored, failure) -> {
+            pending.release(batch.payloads.size());
+            if (failure != null) {
+                LOGGER.error("can't produce {} NSQ messages to {}", batch.payloads.size(), batch.topic, failure);
+                batch.published.forEach(published -> published.completeExceptionally(failure));
+            } else {
+                batch.published.forEach(published -> published.complete(null));
+            }
+        });
+    }
+
+    private static final class Batch {
+
+        private final String topic;
+        private final long created = System.nanoTime();
+        private final List<byte[]> payloads = new ArrayList<>();
+        private final List<CompletableFuture<Void>> published = new ArrayList<>();
+        private int bytes = 0;
+
+        private Batch(String topic) {
+            this.topic = topic;
+        }
+
+        private void add(byte[] payload, CompletableFuture<Void> onPublished) {
+            payloads.add(payload);
+            published.add(onPublished);
+            bytes += payload.length;
+        }
+    }
+
+    private final class TopicMetrics {
+
+        private final Histogram batchSize;
+        private final Timer linger;
+
+        private TopicMetrics(String topic) {
+            this.batchSize = metricRegistry.histogram(MetricRegistry.name(NSQBatchPublisher.class, topic, "batch-size"));
+            this.linger = metricRegistry.timer(MetricRegistry.name(NSQBatchPublisher.class, topic, "linger"));
+        }
+    }
+}
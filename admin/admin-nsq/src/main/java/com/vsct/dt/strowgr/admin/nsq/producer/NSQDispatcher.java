@@ -15,23 +15,35 @@
  */
 package com.vsct.dt.strowgr.admin.nsq.producer;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vsct.dt.strowgr.admin.core.event.out.CommitRequestedEvent;
+import com.vsct.dt.strowgr.admin.core.io.ByteBufferPool;
+import com.vsct.dt.strowgr.admin.core.tracking.CommitLatencyTracker;
 import com.vsct.dt.strowgr.admin.nsq.payload.CommitRequested;
 import com.vsct.dt.strowgr.admin.nsq.payload.DeleteRequested;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.ConfEncoding;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.Header;
 import fr.vsct.dt.nsq.NSQProducer;
 import fr.vsct.dt.nsq.exceptions.NSQException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.UnsupportedEncodingException;
-import java.util.Base64;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 /**
  * Dispatcher of events to NSQ.
  * <p>
+ * Messages are published synchronously by a {@link NSQProducer}, or asynchronously by an {@link AsyncNSQProducer},
+ * by batches when a {@link NSQBatchPublisher} is given. The commit latency tracker is notified once nsqd acknowledged
+ * the message.
+ * <p>
  * WARNING: NSQProducer is not managed by this dispatcher. For instance the start/shutdown should be done outside this
  * object.
  */
@@ -39,37 +51,169 @@ public class NSQDispatcher {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NSQDispatcher.class);
 
+    private static final ByteBufferPool BUFFERS = new ByteBufferPool(64 * 1024, 16 * 1024 * 1024);
+
+    /* null when publishing asynchronously */
     private final NSQProducer nsqProducer;
 
+    /* null when publishing synchronously */
+    private final AsyncNSQProducer asyncProducer;
+
+    /* null to publish each message on its own */
+    private final NSQBatchPublisher batchPublisher;
+
+    private final CommitLatencyTracker commitLatencyTracker;
+
+    /* encoding of the configurations for a haproxy name */
+    private final Function<String, ConfEncoding> confEncodings;
+
+    /* null to always send whole configurations */
+    private final ConfDeltaTracker confDeltas;
+
     private final ObjectMapper mapper = new ObjectMapper();
 
-    public NSQDispatcher(NSQProducer nsqProducer) {
+    /**
+     * Publishes each message synchronously, the calling thread waiting for the response of nsqd.
+     *
+     * @param nsqProducer          to publish with
+     * @param commitLatencyTracker notified once a commit is published
+     */
+    public NSQDispatcher(NSQProducer nsqProducer, CommitLatencyTracker commitLatencyTracker) {
         this.nsqProducer = nsqProducer;
+        this.asyncProducer = null;
+        this.batchPublisher = null;
+        this.commitLatencyTracker = commitLatencyTracker;
+        this.confEncodings = haproxyName -> ConfEncoding.BASE64;
+        this.confDeltas = null;
+    }
+
+    /**
+     * Publishes messages asynchronously, the calling thread only waiting while the in-flight window of the producer is
+     * full.
+     *
+     * @param asyncProducer        to publish with
+     * @param commitLatencyTracker notified once a commit is published
+     * @param batchPublisher       publishing the messages by batches with the producer, null to publish each message on
+     *                             its own
+     */
+    public NSQDispatcher(AsyncNSQProducer asyncProducer, CommitLatencyTracker commitLatencyTracker, NSQBatchPublisher batchPublisher) {
+        this(asyncProducer, commitLatencyTracker, batchPublisher, haproxyName -> ConfEncoding.BASE64);
+    }
+
+    /**
+     * @param asyncProducer        to publish with
+     * @param commitLatencyTracker notified once a commit is published
+     * @param batchPublisher       publishing the messages by batches with the producer, null to publish each message on
+     *                             its own
+     * @param confEncodings        encoding of the configurations sent to a haproxy, given its name. Sidekicks of the
+     *                             haproxy must support the encoding
+     */
+    public NSQDispatcher(AsyncNSQProducer asyncProducer, CommitLatencyTracker commitLatencyTracker, NSQBatchPublisher batchPublisher,
+                         Function<String, ConfEncoding> confEncodings) {
+        this(asyncProducer, commitLatencyTracker, batchPublisher, confEncodings, null);
+    }
+
+    /**
+     * @param asyncProducer        to publish with
+     * @param commitLatencyTracker notified once a commit is published
+     * @param batchPublisher       publishing the messages by batches with the producer, null to publish each message on
+     *                             its own
+     * @param confEncodings        encoding of the configurations sent to a haproxy, given its name. Sidekicks of the
+     *                             haproxy must support the encoding
+     * @param confDeltas           giving the deltas of the haproxy configurations to send instead of the whole ones,
+     *                             null to always send whole configurations
+     */
+    public NSQDispatcher(AsyncNSQProducer asyncProducer, CommitLatencyTracker commitLatencyTracker, NSQBatchPublisher batchPublisher,
+                         Function<String, ConfEncoding> confEncodings, ConfDeltaTracker confDeltas) {
+        this.nsqProducer = null;
+        this.asyncProducer = asyncProducer;
+        this.batchPublisher = batchPublisher;
+        this.commitLatencyTracker = commitLatencyTracker;
+        this.confEncodings = confEncodings;
+        this.confDeltas = confDeltas;
     }
 
     /**
      * Send a {@link CommitRequested} message to commit_requested_[haproxyName] NSQ topic.
+     * <p>
+     * The message is serialized field by field into a pooled buffer, the configurations being base64 encoded by the
+     * generator straight from the bytes of the event, so that no intermediate String of the configurations is built.
+     * They are gzipped first if this is the {@link ConfEncoding} of the haproxy, the encoding being flagged in the
+     * conf. The haproxy configuration is replaced by its delta against the last acknowledged one when the
+     * {@link ConfDeltaTracker} has one, flagged by the hashes of its base and of its result.
      *
      * @param commitRequestedEvent in commit requested event
      * @param haproxyName          name of the targeted entrypoint
      * @param application          of the targeted entrypoint
      * @param platform             of the targeted entrypoint
      * @param bind
+     * @return completed once nsqd acknowledged the message, exceptionally if it could not be published. The commit is
+     * then tracked as failed
      * @throws JsonProcessingException      during a Json serialization with Jackson
      * @throws NSQException                 during any problem with NSQ
      * @throws TimeoutException             during a too long response from NSQ
-     * @throws UnsupportedEncodingException during the conversion to UTF-8
      */
-    public void sendCommitRequested(CommitRequestedEvent commitRequestedEvent, String haproxyName, String application, String platform, String bind) throws JsonProcessingException, NSQException, TimeoutException, UnsupportedEncodingException {
-        String confBase64 = new String(Base64.getEncoder().encode(commitRequestedEvent.getConf().getBytes("UTF-8")));
-        String syslogConfBase64 = new String(Base64.getEncoder().encode(commitRequestedEvent.getSyslogConf().getBytes("UTF-8")));
-        CommitRequested payload = new CommitRequested(commitRequestedEvent.getCorrelationId(), application, platform, confBase64, syslogConfBase64, commitRequestedEvent.getConfiguration().getHapVersion(), bind);
-
+    public CompletableFuture<Void> sendCommitRequested(CommitRequestedEvent commitRequestedEvent, String haproxyName, String application, String platform, String bind) throws JsonProcessingException, NSQException, TimeoutException {
+        CompletableFuture<Void> published;
         try {
-            nsqProducer.produce("commit_requested_" + haproxyName, mapper.writeValueAsBytes(payload));
-        } catch (NSQException | TimeoutException | JsonProcessingException e) {
+            ConfEncoding confEncoding = confEncodings.apply(haproxyName);
+            Optional<ConfDeltaTracker.Delta> delta = confDeltas == null ? Optional.empty()
+                    : confDeltas.requested(commitRequestedEvent.getCorrelationId(), haproxyName, haproxyName + "/" + application + "/" + platform,
+                    commitRequestedEvent.getConfBytes());
+            published = publish("commit_requested_" + haproxyName, commitRequestedPayload(commitRequestedEvent, application, platform, bind, confEncoding, delta),
+                    () -> commitLatencyTracker.dispatched(commitRequestedEvent.getCorrelationId()));
+        } catch (NSQException | TimeoutException | IOException e) {
             LOGGER.error("can't produce NSQ message to commit_requested_" + haproxyName, e);
+            published = new CompletableFuture<>();
+            published.completeExceptionally(e);
+        }
+        return published.whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                commitLatencyTracker.failed(commitRequestedEvent.getCorrelationId());
+            }
+        });
+    }
+
+    /**
+     * Serializes a {@link CommitRequested} payload.
+     */
+    private byte[] commitRequestedPayload(CommitRequestedEvent commitRequestedEvent, String application, String platform, String bind,
+                                          ConfEncoding confEncoding, Optional<ConfDeltaTracker.Delta> delta) throws IOException {
+        ByteBufferPool.Buffer buffer = BUFFERS.acquire();
+        try {
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(buffer)) {
+                generator.writeStartObject();
+                generator.writeObjectField("header", new Header(commitRequestedEvent.getCorrelationId(), application, platform));
+                generator.writeObjectFieldStart("conf");
+                generator.writeFieldName("haproxy");
+                generator.writeBinary(encode(delta.map(ConfDeltaTracker.Delta::getContent).orElse(commitRequestedEvent.getConfBytes()), confEncoding));
+                generator.writeFieldName("syslog");
+                generator.writeBinary(encode(commitRequestedEvent.getSyslogConfBytes(), confEncoding));
+                generator.writeStringField("bind", bind);
+                generator.writeStringField("haproxyVersion", commitRequestedEvent.getConfiguration().getHapVersion());
+                if (delta.isPresent()) {
+                    generator.writeStringField("haproxyBase", delta.get().getBaseHash());
+                    generator.writeStringField("haproxyHash", delta.get().getHash());
+                }
+                if (confEncoding != ConfEncoding.BASE64) {
+                    generator.writeStringField("encoding", confEncoding.getName());
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            return buffer.toByteArray();
+        } finally {
+            BUFFERS.release(buffer);
+        }
+    }
+
+    private static byte[] encode(byte[] conf, ConfEncoding confEncoding) throws IOException {
+        if (confEncoding == ConfEncoding.BASE64) {
+            return conf;
         }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(conf.length / 4 + 64);
+        confEncoding.encode(conf, encoded);
+        return encoded.toByteArray();
     }
 
     /**
@@ -79,12 +223,42 @@ public class NSQDispatcher {
      * @param haproxyName   name of the targeted entrypoint
      * @param application   of the targeted entrypoint
      * @param platform      of the targeted entrypoint
+     * @return completed once nsqd acknowledged the message, exceptionally if it could not be published
      * @throws JsonProcessingException during a Json serialization with Jackson
      * @throws NSQException            during any problem with NSQ
      * @throws TimeoutException        during a too long response from NSQ
      */
-    public void sendDeleteRequested(String correlationId, String haproxyName, String application, String platform) throws JsonProcessingException, NSQException, TimeoutException {
+    public CompletableFuture<Void> sendDeleteRequested(String correlationId, String haproxyName, String application, String platform) throws JsonProcessingException, NSQException, TimeoutException {
         DeleteRequested deleteRequestedPayload = new DeleteRequested(correlationId, application, platform);
-        nsqProducer.produce("delete_requested_" + haproxyName, mapper.writeValueAsBytes(deleteRequestedPayload));
+        return publish("delete_requested_" + haproxyName, mapper.writeValueAsBytes(deleteRequestedPayload),
+                () -> LOGGER.debug("delete requested {} is published for {}", correlationId, haproxyName));
+    }
+
+    /**
+     * Publishes a message synchronously, or hands it to the batch publisher or the asynchronous producer.
+     *
+     * @param onPublished called once nsqd acknowledged the message
+     * @return completed once nsqd acknowledged the message, exceptionally if it could not be published
+     */
+    private CompletableFuture<Void> publish(String topic, byte[] payload, Runnable onPublished) throws NSQException, TimeoutException {
+        if (nsqProducer != null) {
+            nsqProducer.produce(topic, payload);
+            onPublished.run();
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> published;
+        try {
+            published = batchPublisher != null ? batchPublisher.publish(topic, payload) : asyncProducer.produce(topic, payload);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NSQException("interrupted while publishing to " + topic, e);
+        }
+        return published.whenComplete((ignored, failure) -> {
+            if (failure == null) {
+                onPublished.run();
+            } else {
+                LOGGER.error("can't produce NSQ message to {}", topic, failure);
+            }
+        });
     }
 }
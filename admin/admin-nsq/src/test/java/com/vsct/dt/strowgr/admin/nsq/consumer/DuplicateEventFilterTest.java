@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.consumer;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Sets;
+import com.vsct.dt.strowgr.admin.core.EntryPointKeyDefaultImpl;
+import com.vsct.dt.strowgr.admin.core.configuration.IncomingEntryPointBackendServer;
+import com.vsct.dt.strowgr.admin.core.event.in.CommitCompletedEvent;
+import com.vsct.dt.strowgr.admin.core.event.in.CommitFailedEvent;
+import com.vsct.dt.strowgr.admin.core.event.in.RegisterServerEvent;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DuplicateEventFilterTest {
+
+    private final AtomicLong clock = new AtomicLong(1000);
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test
+    public void should_drop_same_event_received_twice() {
+        // given
+        DuplicateEventFilter filter = new DuplicateEventFilter(10, 1000, metricRegistry, clock::get);
+
+        // when
+        boolean first = filter.test(new CommitCompletedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM")));
+        boolean second = filter.test(new CommitCompletedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM")));
+        boolean otherType = filter.test(new CommitFailedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM")));
+
+        // then
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+        assertThat(otherType).isTrue();
+        assertThat(metricRegistry.meter(MetricRegistry.name(DuplicateEventFilter.class, "duplicates")).getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void should_accept_forgotten_event_again() {
+        // given
+        DuplicateEventFilter filter = new DuplicateEventFilter(10, 1000, metricRegistry, clock::get);
+        CommitCompletedEvent event = new CommitCompletedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM"));
+        filter.test(event);
+
+        // when
+        filter.forget(event);
+        boolean redelivered = filter.test(new CommitCompletedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM")));
+
+        // then
+        assertThat(redelivered).isTrue();
+    }
+
+    @Test
+    public void should_keep_registrations_of_different_servers_with_same_correlation_id() {
+        // given
+        DuplicateEventFilter filter = new DuplicateEventFilter(10, 1000, metricRegistry, clock::get);
+
+        // when
+        boolean first = filter.test(registerServer("cid", "server1"));
+        boolean second = filter.test(registerServer("cid", "server2"));
+        boolean duplicate = filter.test(registerServer("cid", "server1"));
+
+        // then
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+        assertThat(duplicate).isFalse();
+    }
+
+    @Test
+    public void should_forget_events_after_two_windows() {
+        // given
+        DuplicateEventFilter filter = new DuplicateEventFilter(10, 1000, metricRegistry, clock::get);
+        filter.test(new CommitCompletedEvent("old", new EntryPointKeyDefaultImpl("APP/PLATFORM")));
+
+        // when
+        clock.addAndGet(1000);
+        filter.test(new CommitCompletedEvent("rotate1", new EntryPointKeyDefaultImpl("APP/PLATFORM")));
+        boolean stillKnown = !filter.test(new CommitCompletedEvent("old", new EntryPointKeyDefaultImpl("APP/PLATFORM")));
+        clock.addAndGet(1000);
+        filter.test(new CommitCompletedEvent("rotate2", new EntryPointKeyDefaultImpl("APP/PLATFORM")));
+
+        // then
+        assertThat(stillKnown).isTrue();
+        assertThat(filter.test(new CommitCompletedEvent("old", new EntryPointKeyDefaultImpl("APP/PLATFORM")))).isTrue();
+    }
+
+    @Test
+    public void should_bound_memory_to_two_generations_of_capacity() {
+        // given
+        DuplicateEventFilter filter = new DuplicateEventFilter(2, 1000, metricRegistry, clock::get);
+
+        // when
+        for (int i = 0; i < 5; i++) {
+            filter.test(new CommitCompletedEvent("cid" + i, new EntryPointKeyDefaultImpl("APP/PLATFORM")));
+        }
+
+        // then
+        assertThat(filter.test(new CommitCompletedEvent("cid0", new EntryPointKeyDefaultImpl("APP/PLATFORM")))).isTrue();
+        assertThat(filter.test(new CommitCompletedEvent("cid4", new EntryPointKeyDefaultImpl("APP/PLATFORM")))).isFalse();
+    }
+
+    private RegisterServerEvent registerServer(String correlationId, String serverId) {
+        return new RegisterServerEvent(correlationId, new EntryPointKeyDefaultImpl("APP/PLATFORM"), "BACKEND",
+                Sets.newHashSet(new IncomingEntryPointBackendServer(serverId, "10.0.0.1", "80", new HashMap<>())));
+    }
+}
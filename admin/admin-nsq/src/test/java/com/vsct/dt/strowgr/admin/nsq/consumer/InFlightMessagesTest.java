@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.consumer;
+
+import com.codahale.metrics.MetricRegistry;
+import com.vsct.dt.strowgr.admin.core.EntryPointKeyDefaultImpl;
+import com.vsct.dt.strowgr.admin.core.event.in.CommitCompletedEvent;
+import fr.vsct.dt.nsq.Connection;
+import fr.vsct.dt.nsq.NSQCommand;
+import fr.vsct.dt.nsq.NSQMessage;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class InFlightMessagesTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final DuplicateEventFilter duplicateEventFilter = new DuplicateEventFilter(10, 60_000, metricRegistry);
+
+    private final Connection connection = mock(Connection.class);
+
+    private final InFlightMessages inFlightMessages = new InFlightMessages(3, 1000, duplicateEventFilter, metricRegistry);
+
+    @Test
+    public void should_finish_message_once_its_event_is_handled() {
+        // given
+        CommitCompletedEvent event = new CommitCompletedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM"));
+        inFlightMessages.track(event, message("id1", 1));
+        verifyZeroInteractions(connection);
+
+        // when
+        inFlightMessages.finish(event);
+        inFlightMessages.finish(event);
+
+        // then
+        assertThat(commandLines()).containsExactly("FIN id1");
+        assertThat(metricRegistry.meter(MetricRegistry.name(InFlightMessages.class, "finished")).getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void should_requeue_message_and_forget_its_event_when_handling_fails() {
+        // given
+        CommitCompletedEvent event = new CommitCompletedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM"));
+        duplicateEventFilter.test(event);
+        inFlightMessages.track(event, message("id1", 1));
+
+        // when
+        inFlightMessages.requeue(event);
+
+        // then
+        assertThat(commandLines()).containsExactly("REQ id1 1000");
+        assertThat(duplicateEventFilter.test(new CommitCompletedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM")))).isTrue();
+        assertThat(metricRegistry.meter(MetricRegistry.name(InFlightMessages.class, "requeued")).getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void should_give_up_message_attempted_the_maximum_number_of_times() {
+        // given
+        CommitCompletedEvent event = new CommitCompletedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM"));
+        duplicateEventFilter.test(event);
+        inFlightMessages.track(event, message("id1", 3));
+
+        // when
+        inFlightMessages.requeue(event);
+
+        // then
+        assertThat(commandLines()).containsExactly("FIN id1");
+        assertThat(duplicateEventFilter.test(new CommitCompletedEvent("cid", new EntryPointKeyDefaultImpl("APP/PLATFORM")))).isFalse();
+        assertThat(metricRegistry.meter(MetricRegistry.name(InFlightMessages.class, "given-up")).getCount()).isEqualTo(1L);
+    }
+
+    private NSQMessage message(String id, int attempts) {
+        NSQMessage message = new NSQMessage();
+        message.setId(id.getBytes(StandardCharsets.US_ASCII));
+        message.setAttempts(attempts);
+        message.setConnection(connection);
+        return message;
+    }
+
+    private List<String> commandLines() {
+        ArgumentCaptor<NSQCommand> command = ArgumentCaptor.forClass(NSQCommand.class);
+        verify(connection, atLeastOnce()).command(command.capture());
+        return command.getAllValues().stream().map(c -> c.getLine().trim()).collect(Collectors.toList());
+    }
+}
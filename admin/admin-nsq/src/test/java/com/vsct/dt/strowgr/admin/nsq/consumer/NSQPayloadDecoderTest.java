@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.consumer;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Resources;
+import com.vsct.dt.strowgr.admin.core.configuration.IncomingEntryPointBackendServer;
+import com.vsct.dt.strowgr.admin.core.event.in.CommitFailedEvent;
+import com.vsct.dt.strowgr.admin.core.event.in.RegisterServerEvent;
+import com.vsct.dt.strowgr.admin.nsq.payload.RegisterServer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NSQPayloadDecoderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final NSQPayloadDecoder decoder = new NSQPayloadDecoder(mapper.getFactory());
+
+    private static byte[] json(String json) {
+        return json.replaceAll("'", "\"").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void should_decode_register_server_as_payload_objects_do() throws Exception {
+        // given
+        byte[] payload = Resources.toByteArray(Resources.getResource("registerServer.expected.json"));
+        RegisterServer expected = mapper.readValue(payload, RegisterServer.class);
+
+        // when
+        RegisterServerEvent result = decoder.decodeRegisterServer(payload);
+
+        // then
+        assertThat(result.getCorrelationId()).isEqualTo(expected.getHeader().getCorrelationId());
+        assertThat(result.getKey().getID()).isEqualTo("TST/REL1");
+        assertThat(result.getBackend()).isEqualTo(expected.getServer().getBackendId());
+        assertThat(result.getServers()).containsExactly(new IncomingEntryPointBackendServer(expected.getServer().getId(),
+                expected.getServer().getIp(), expected.getServer().getPort(), expected.getServer().getContext()));
+    }
+
+    @Test
+    public void should_skip_unknown_fields_and_read_scalar_context_values_as_strings() throws Exception {
+        // when
+        RegisterServerEvent result = decoder.decodeRegisterServer(json("{" +
+                "'version':{'major':2,'tags':['a',{'b':null}]}," +
+                "'server':{'id':'id','ip':'ip','port':8080,'backendId':'backend','weight':[1,2],'context':{'maxconn':100,'check':true,'none':null}}," +
+                "'header':{'application':'app','platform':'ptf','timestamp':1,'source':'sidekick'}" +
+                "}"));
+
+        // then
+        assertThat(result.getCorrelationId()).isNotEmpty();
+        assertThat(result.getKey().getID()).isEqualTo("app/ptf");
+        IncomingEntryPointBackendServer server = result.getServers().iterator().next();
+        assertThat(server.getPort()).isEqualTo("8080");
+        assertThat(server.getContext()).containsEntry("maxconn", "100").containsEntry("check", "true").containsEntry("none", null);
+    }
+
+    @Test
+    public void should_decode_commit_failed() throws Exception {
+        // when
+        CommitFailedEvent result = decoder.decodeCommitFailed(json("{'header':{'correlationId':'cid','application':'app','platform':'ptf'},'reason':{}}"));
+
+        // then
+        assertThat(result.getCorrelationId()).isEqualTo("cid");
+        assertThat(result.getKey().getID()).isEqualTo("app/ptf");
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void should_reject_header_without_platform() throws Exception {
+        decoder.decodeCommitCompleted(json("{'header':{'correlationId':'cid','application':'app'}}"));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void should_reject_register_server_without_server() throws Exception {
+        decoder.decodeRegisterServer(json("{'header':{'correlationId':'cid','application':'app','platform':'ptf'}}"));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void should_reject_payload_not_being_an_object() throws Exception {
+        decoder.decodeCommitCompleted(json("['header']"));
+    }
+}
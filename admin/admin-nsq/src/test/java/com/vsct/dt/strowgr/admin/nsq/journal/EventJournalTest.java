@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class EventJournalTest {
+
+    private static final long ONE_HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void should_replay_messages_not_acknowledged_before_close() throws Exception {
+        // given
+        Path directory = folder.getRoot().toPath();
+        EventJournal journal = EventJournal.open(directory, 4096, ONE_HOUR);
+        long first = journal.append("register_server", bytes("first"), () -> {});
+        journal.append("register_server", bytes("second"), () -> {});
+        journal.append("commit_completed_default-name", bytes("third"), () -> {});
+        Object event = new Object();
+        journal.track(event, first);
+        journal.acknowledge(event);
+        journal.close();
+
+        // when
+        EventJournal reopened = EventJournal.open(directory, 4096, ONE_HOUR);
+        List<JournalEntry> registered = reopened.replay("register_server");
+        List<JournalEntry> replayedTwice = reopened.replay("register_server");
+        List<JournalEntry> completed = reopened.replay("commit_completed_default-name");
+        reopened.close();
+
+        // then
+        assertThat(registered).hasSize(1);
+        assertThat(new String(registered.get(0).getPayload(), StandardCharsets.UTF_8)).isEqualTo("second");
+        assertThat(replayedTwice).isEmpty();
+        assertThat(completed).hasSize(1);
+        assertThat(completed.get(0).getSequence()).isEqualTo(2L);
+    }
+
+    @Test
+    public void should_replay_message_of_released_event() throws Exception {
+        // given
+        Path directory = folder.getRoot().toPath();
+        EventJournal journal = EventJournal.open(directory, 4096, ONE_HOUR);
+        Object event = new Object();
+        journal.track(event, journal.append("topic", bytes("failed"), () -> {}));
+
+        // when
+        journal.release(event);
+        journal.acknowledge(event);
+        journal.close();
+
+        // then
+        EventJournal reopened = EventJournal.open(directory, 4096, ONE_HOUR);
+        assertThat(journal.trackedEvents()).isEqualTo(0);
+        assertThat(reopened.replay("topic")).hasSize(1);
+        reopened.close();
+    }
+
+    @Test
+    public void should_notify_when_message_is_durable() throws Exception {
+        // given
+        EventJournal journal = EventJournal.open(folder.getRoot().toPath(), 4096, ONE_HOUR);
+        CountDownLatch durable = new CountDownLatch(2);
+
+        // when
+        journal.append("topic", bytes("first"), durable::countDown);
+        journal.append("topic", bytes("second"), durable::countDown);
+
+        // then
+        assertThat(durable.await(5, TimeUnit.SECONDS)).isTrue();
+        journal.close();
+    }
+
+    @Test
+    public void should_delete_segments_when_all_their_messages_are_acknowledged() throws Exception {
+        // given
+        EventJournal journal = EventJournal.open(folder.getRoot().toPath(), 128, ONE_HOUR);
+        CountDownLatch durable = new CountDownLatch(3);
+        long first = journal.append("topic", new byte[64], durable::countDown);
+        long second = journal.append("topic", new byte[64], durable::countDown);
+        journal.append("topic", new byte[64], durable::countDown);
+        assertThat(folder.getRoot().list()).hasSize(3);
+        // segments being synced are only deleted once synced
+        assertThat(durable.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // when
+        journal.acknowledge(first);
+        journal.acknowledge(second);
+
+        // then
+        File[] files = folder.getRoot().listFiles();
+        assertThat(files).hasSize(1);
+        journal.close();
+        EventJournal reopened = EventJournal.open(folder.getRoot().toPath(), 128, ONE_HOUR);
+        assertThat(reopened.replay("topic")).hasSize(1);
+        reopened.close();
+    }
+
+    @Test
+    public void should_stop_reading_segment_at_corrupted_record() throws Exception {
+        // given
+        Path directory = folder.getRoot().toPath();
+        EventJournal journal = EventJournal.open(directory, 4096, ONE_HOUR);
+        journal.append("topic", bytes("first"), () -> {});
+        journal.append("topic", bytes("second"), () -> {});
+        journal.close();
+        File segment = directory.resolve("journal-00000000000000000000.log").toFile();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // flip a byte of the second payload
+            long secondPayload = 2L * (1 + 8 + 8 + 2 + "topic".length() + 4) + "first".length() + 4;
+            file.seek(secondPayload);
+            file.write('X');
+        }
+
+        // when
+        EventJournal reopened = EventJournal.open(directory, 4096, ONE_HOUR);
+        List<JournalEntry> entries = reopened.replay("topic");
+        reopened.close();
+
+        // then
+        assertThat(entries).hasSize(1);
+        assertThat(new String(entries.get(0).getPayload(), StandardCharsets.UTF_8)).isEqualTo("first");
+    }
+
+    @Test
+    public void should_reopen_journal_whose_last_segment_is_empty() throws Exception {
+        // given
+        Path directory = folder.getRoot().toPath();
+        EventJournal.open(directory, 4096, ONE_HOUR).close();
+        EventJournal journal = EventJournal.open(directory, 4096, ONE_HOUR);
+        journal.append("topic", bytes("first"), () -> {});
+        journal.close();
+
+        // when
+        EventJournal reopened = EventJournal.open(directory, 4096, ONE_HOUR);
+        List<JournalEntry> entries = reopened.replay("topic");
+        reopened.close();
+
+        // then
+        assertThat(entries).hasSize(1);
+    }
+
+    @Test
+    public void should_roll_segments_over_on_acknowledgements_only() throws Exception {
+        // given
+        Path directory = folder.getRoot().toPath();
+        EventJournal journal = EventJournal.open(directory, 4096, ONE_HOUR);
+        for (int i = 0; i < 10; i++) {
+            journal.append("topic", bytes("message"), () -> {});
+        }
+        journal.close();
+        // segments holding 3 acknowledgements
+        EventJournal reopened = EventJournal.open(directory, 40, ONE_HOUR);
+
+        // when
+        reopened.replay("topic").forEach(entry -> reopened.acknowledge(entry.getSequence()));
+        reopened.close();
+
+        // then
+        EventJournal acknowledged = EventJournal.open(directory, 40, ONE_HOUR);
+        assertThat(acknowledged.replay("topic")).isEmpty();
+        acknowledged.close();
+    }
+
+    @Test
+    public void should_forget_events_of_messages_given_up() throws Exception {
+        // given
+        EventJournal journal = EventJournal.open(folder.getRoot().toPath(), 128, 0);
+        Object event = new Object();
+        journal.track(event, journal.append("topic", new byte[64], () -> {}));
+        Thread.sleep(5);
+
+        // when
+        journal.append("topic", new byte[64], () -> {});
+
+        // then
+        assertThat(journal.trackedEvents()).isEqualTo(0);
+        journal.close();
+    }
+
+    @Test
+    public void should_keep_syncing_while_segments_are_deleted() throws Exception {
+        // given
+        EventJournal journal = EventJournal.open(folder.getRoot().toPath(), 128, ONE_HOUR);
+        int messages = 2000;
+        CountDownLatch durable = new CountDownLatch(messages);
+
+        // when
+        for (int i = 0; i < messages; i++) {
+            journal.acknowledge(journal.append("topic", new byte[64], durable::countDown));
+        }
+
+        // then
+        assertThat(durable.await(10, TimeUnit.SECONDS)).isTrue();
+        CountDownLatch last = new CountDownLatch(1);
+        journal.append("topic", bytes("last"), last::countDown);
+        assertThat(last.await(5, TimeUnit.SECONDS)).isTrue();
+        journal.close();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -18,6 +18,7 @@ package com.vsct.dt.strowgr.admin.nsq.payload;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vsct.dt.strowgr.admin.nsq.payload.fragment.Conf;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.ConfEncoding;
 import com.vsct.dt.strowgr.admin.nsq.payload.fragment.Header;
 import com.vsct.dt.strowgr.admin.nsq.payload.fragment.Server;
 import org.junit.Assert;
@@ -60,6 +61,22 @@ public class PayloadTest {
         assertSerialization(message, "commitRequested.expected.json");
     }
 
+    @Test
+    public void should_flag_gzipped_configurations_in_conf() throws IOException, URISyntaxException {
+        CommitRequested message = new CommitRequested(new Header("test-id", "TST", "REL1", 1L, "test"), new Conf("abcde", "fghij", "hapversion", "127.0.0.1", null, null, ConfEncoding.GZIP));
+        assertSerialization(message, "commitRequestedGzip.expected.json");
+    }
+
+    @Test
+    public void should_read_encoding_of_conf() throws IOException {
+        String payload = "{\"haproxy\":\"abcde\",\"syslog\":\"fghij\",\"haproxyVersion\":\"hapversion\",\"bind\":\"127.0.0.1\",\"encoding\":\"base64\"}";
+
+        Conf conf = new ObjectMapper().readValue(payload.getBytes(), Conf.class);
+
+        assertEquals(null, conf.getEncoding());
+        assertEquals(ConfEncoding.GZIP, new ObjectMapper().readValue(payload.replace("base64", "gzip").getBytes(), Conf.class).getEncoding());
+    }
+
     @Test
     public void testCommitCompleted() throws IOException, URISyntaxException {
         CommitCompleted message = new CommitCompleted(new Header("test-id", "TST", "REL1", 1L, "test"));
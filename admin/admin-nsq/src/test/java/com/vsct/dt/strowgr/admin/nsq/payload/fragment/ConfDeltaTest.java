@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.payload.fragment;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ConfDeltaTest {
+
+    private static byte[] configuration(int servers, String changedServer) {
+        StringBuilder conf = new StringBuilder("global\n    log 127.0.0.1:54250 local0\n\nbackend WS\n");
+        for (int i = 0; i < servers; i++) {
+            String server = "server_" + i;
+            conf.append("    server ").append(server).append(" 10.98.0.").append(i % 250)
+                    .append(server.equals(changedServer) ? ":9090" : ":8080").append(" check\n");
+        }
+        return conf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void should_rebuild_configuration_from_small_delta() {
+        // given
+        byte[] base = configuration(5000, null);
+        byte[] target = configuration(5000, "server_2500");
+
+        // when
+        byte[] delta = ConfDelta.diff(base, target);
+
+        // then
+        assertThat(ConfDelta.apply(base, delta)).isEqualTo(target);
+        assertThat(delta.length).isLessThan(100);
+    }
+
+    @Test
+    public void should_rebuild_added_and_removed_lines() {
+        // given
+        byte[] base = configuration(100, null);
+        String targetConf = new String(configuration(80, null), StandardCharsets.UTF_8).replace("backend WS\n", "backend WS\n    balance roundrobin\n") + "# end";
+        byte[] target = targetConf.getBytes(StandardCharsets.UTF_8);
+
+        // when
+        byte[] delta = ConfDelta.diff(base, target);
+
+        // then
+        assertThat(ConfDelta.apply(base, delta)).isEqualTo(target);
+    }
+
+    @Test
+    public void should_rebuild_random_configurations() {
+        Random random = new Random(42);
+        String[] lines = {"\n", "    server a 10.0.0.1:80 check\n", "    server b 10.0.0.2:80 check\n", "frontend WS\n", "x", "    option httplog\n"};
+        for (int i = 0; i < 500; i++) {
+            byte[] base = randomConfiguration(random, lines);
+            byte[] target = randomConfiguration(random, lines);
+            assertThat(ConfDelta.apply(base, ConfDelta.diff(base, target))).isEqualTo(target);
+        }
+    }
+
+    private static byte[] randomConfiguration(Random random, String[] lines) {
+        StringBuilder conf = new StringBuilder();
+        int count = random.nextInt(30);
+        for (int i = 0; i < count; i++) {
+            conf.append(lines[random.nextInt(lines.length)]);
+        }
+        return conf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_delta_copying_beyond_base() {
+        byte[] delta = ConfDelta.diff(configuration(100, null), configuration(100, "server_50"));
+        ConfDelta.apply(configuration(10, null), delta);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_unknown_version() {
+        ConfDelta.apply(new byte[0], new byte[]{2});
+    }
+}
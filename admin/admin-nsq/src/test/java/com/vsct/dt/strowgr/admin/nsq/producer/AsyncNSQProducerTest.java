@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.producer;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import fr.vsct.dt.nsq.NSQProducer;
+import fr.vsct.dt.nsq.exceptions.NSQException;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class AsyncNSQProducerTest {
+
+    private final NSQProducer nsqProducer = mock(NSQProducer.class);
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Test
+    public void should_complete_once_message_is_produced() throws Exception {
+        // given
+        AsyncNSQProducer asyncProducer = new AsyncNSQProducer(nsqProducer, 2, metricRegistry);
+
+        // when
+        asyncProducer.produce("commit_requested_hap", new byte[]{1}).get(5, TimeUnit.SECONDS);
+
+        // then
+        verify(nsqProducer).produce(eq("commit_requested_hap"), eq(new byte[]{1}));
+        assertThat(metricRegistry.timer(MetricRegistry.name(AsyncNSQProducer.class, "produce")).getCount()).isEqualTo(1L);
+        asyncProducer.close();
+    }
+
+    @Test
+    public void should_complete_exceptionally_when_produce_fails() throws Exception {
+        // given
+        doThrow(new NSQException("nsqd is down")).when(nsqProducer).produce(eq("commit_requested_hap"), eq(new byte[]{1}));
+        AsyncNSQProducer asyncProducer = new AsyncNSQProducer(nsqProducer, 2, metricRegistry);
+
+        // when
+        CompletableFuture<Void> produced = asyncProducer.produce("commit_requested_hap", new byte[]{1});
+
+        // then
+        try {
+            produced.get(5, TimeUnit.SECONDS);
+            fail("produce should have failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(NSQException.class);
+        }
+        asyncProducer.close();
+    }
+
+    @Test
+    public void should_wait_for_room_in_the_in_flight_window() throws Exception {
+        // given
+        CountDownLatch nsqdResponds = new CountDownLatch(1);
+        doAnswer(invocation -> nsqdResponds.await(5, TimeUnit.SECONDS)).when(nsqProducer).produce(eq("commit_requested_hap"), eq(new byte[]{1}));
+        AsyncNSQProducer asyncProducer = new AsyncNSQProducer(nsqProducer, 1, metricRegistry);
+        CompletableFuture<Void> first = asyncProducer.produce("commit_requested_hap", new byte[]{1});
+        CompletableFuture<CompletableFuture<Void>> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return asyncProducer.produce("commit_requested_hap", new byte[]{2});
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // when
+        Thread.sleep(100);
+        @SuppressWarnings("unchecked")
+        Gauge<Integer> inFlight = (Gauge<Integer>) metricRegistry.getGauges().get(MetricRegistry.name(AsyncNSQProducer.class, "in-flight"));
+        assertThat(inFlight.getValue()).isEqualTo(1);
+        assertThat(second.isDone()).isFalse();
+        nsqdResponds.countDown();
+
+        // then
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+        verify(nsqProducer).produce(eq("commit_requested_hap"), eq(new byte[]{2}));
+        asyncProducer.close();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.producer;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.ConfDelta;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ConfDeltaTrackerTest {
+
+    private static final byte[] BASE = ("global\n" + new String(new char[200]).replace("\0", "    server server_x 10.98.0.1:8080 check\n")).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEXT = (new String(BASE, StandardCharsets.UTF_8) + "    server server_y 10.98.0.2:8080 check\n").getBytes(StandardCharsets.UTF_8);
+
+    private final ConfDeltaTracker tracker = new ConfDeltaTracker(Sets.newHashSet("hap"), 1024 * 1024, new MetricRegistry());
+
+    @Test
+    public void should_send_whole_configuration_until_a_commit_completes() {
+        assertThat(tracker.requested("cid1", "hap", "hap/app/ptf", BASE).isPresent()).isFalse();
+        assertThat(tracker.requested("cid2", "hap", "hap/app/ptf", NEXT).isPresent()).isFalse();
+    }
+
+    @Test
+    public void should_send_delta_against_last_completed_configuration() {
+        // given
+        tracker.requested("cid1", "hap", "hap/app/ptf", BASE);
+        tracker.completed("cid1");
+
+        // when
+        Optional<ConfDeltaTracker.Delta> delta = tracker.requested("cid2", "hap", "hap/app/ptf", NEXT);
+
+        // then
+        assertThat(delta.isPresent()).isTrue();
+        assertThat(ConfDelta.apply(BASE, delta.get().getContent())).isEqualTo(NEXT);
+        assertThat(delta.get().getBaseHash()).isEqualTo(Hashing.sha256().hashBytes(BASE).toString());
+        assertThat(delta.get().getHash()).isEqualTo(Hashing.sha256().hashBytes(NEXT).toString());
+        assertThat(tracker.requested("cid3", "hap", "hap/other/ptf", NEXT).isPresent()).isFalse();
+    }
+
+    @Test
+    public void should_send_whole_configuration_after_a_failed_commit() {
+        // given
+        tracker.requested("cid1", "hap", "hap/app/ptf", BASE);
+        tracker.completed("cid1");
+        tracker.requested("cid2", "hap", "hap/app/ptf", NEXT);
+
+        // when
+        tracker.failed("cid2");
+
+        // then
+        assertThat(tracker.requested("cid3", "hap", "hap/app/ptf", NEXT).isPresent()).isFalse();
+    }
+
+    @Test
+    public void should_send_whole_configuration_to_haproxy_not_applying_deltas() {
+        tracker.requested("cid1", "other", "other/app/ptf", BASE);
+        tracker.completed("cid1");
+
+        assertThat(tracker.requested("cid2", "other", "other/app/ptf", NEXT).isPresent()).isFalse();
+    }
+}
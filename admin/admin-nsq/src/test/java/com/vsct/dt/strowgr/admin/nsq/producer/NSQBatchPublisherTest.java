@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.producer;
+
+import com.codahale.metrics.MetricRegistry;
+import fr.vsct.dt.nsq.NSQProducer;
+import fr.vsct.dt.nsq.exceptions.NSQException;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class NSQBatchPublisherTest {
+
+    private final NSQProducer nsqProducer = mock(NSQProducer.class);
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final AsyncNSQProducer asyncProducer = new AsyncNSQProducer(nsqProducer, 2, metricRegistry);
+
+    @Test
+    public void should_publish_full_batch_with_one_mpub() throws Exception {
+        // given
+        NSQBatchPublisher batchPublisher = new NSQBatchPublisher(asyncProducer, 3, 1024, 60_000, metricRegistry);
+        CompletableFuture<?>[] published = new CompletableFuture<?>[3];
+
+        // when
+        for (int i = 0; i < 3; i++) {
+            published[i] = batchPublisher.publish("commit_requested_hap", new byte[]{(byte) i});
+        }
+
+        // then
+        CompletableFuture.allOf(published).get(5, TimeUnit.SECONDS);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<byte[]>> payloads = ArgumentCaptor.forClass((Class) List.class);
+        verify(nsqProducer).produceMulti(eq("commit_requested_hap"), payloads.capture());
+        assertThat(payloads.getValue()).hasSize(3);
+        assertThat(payloads.getValue().get(2)).isEqualTo(new byte[]{2});
+        assertThat(metricRegistry.histogram(MetricRegistry.name(NSQBatchPublisher.class, "commit_requested_hap", "batch-size")).getSnapshot().getMax()).isEqualTo(3L);
+        batchPublisher.close();
+    }
+
+    @Test
+    public void should_publish_batch_of_each_topic_once_linger_elapsed() throws Exception {
+        // given
+        NSQBatchPublisher batchPublisher = new NSQBatchPublisher(asyncProducer, 100, 1024, 10, metricRegistry);
+
+        // when
+        CompletableFuture.allOf(
+                batchPublisher.publish("commit_requested_hap1", new byte[]{1}),
+                batchPublisher.publish("commit_requested_hap1", new byte[]{2}),
+                batchPublisher.publish("commit_requested_hap2", new byte[]{3})
+        ).get(5, TimeUnit.SECONDS);
+
+        // then
+        verify(nsqProducer).produceMulti(eq("commit_requested_hap1"), anyListOf(byte[].class));
+        verify(nsqProducer).produce(eq("commit_requested_hap2"), eq(new byte[]{3}));
+        assertThat(metricRegistry.timer(MetricRegistry.name(NSQBatchPublisher.class, "commit_requested_hap1", "linger")).getSnapshot().getMin())
+                .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+        batchPublisher.close();
+    }
+
+    @Test
+    public void should_not_exceed_max_batch_bytes() throws Exception {
+        // given
+        NSQBatchPublisher batchPublisher = new NSQBatchPublisher(asyncProducer, 100, 10, 60_000, metricRegistry);
+
+        // when
+        batchPublisher.publish("commit_requested_hap", new byte[6]);
+        batchPublisher.publish("commit_requested_hap", new byte[6]);
+
+        // then
+        verify(nsqProducer, timeout(5000)).produce(eq("commit_requested_hap"), any(byte[].class));
+        batchPublisher.close();
+        asyncProducer.close();
+        verify(nsqProducer, times(2)).produce(eq("commit_requested_hap"), any(byte[].class));
+    }
+
+    @Test
+    public void should_publish_pending_batches_when_closed() throws Exception {
+        // given
+        NSQBatchPublisher batchPublisher = new NSQBatchPublisher(asyncProducer, 100, 1024, 60_000, metricRegistry);
+        batchPublisher.publish("delete_requested_hap", new byte[]{1});
+        batchPublisher.publish("delete_requested_hap", new byte[]{2});
+
+        // when
+        batchPublisher.close();
+        asyncProducer.close();
+
+        // then
+        verify(nsqProducer).produceMulti(eq("delete_requested_hap"), anyListOf(byte[].class));
+    }
+
+    @Test
+    public void should_complete_exceptionally_when_batch_fails() throws Exception {
+        // given
+        doThrow(new NSQException("nsqd is down")).when(nsqProducer).produceMulti(eq("commit_requested_hap"), anyListOf(byte[].class));
+        NSQBatchPublisher batchPublisher = new NSQBatchPublisher(asyncProducer, 2, 1024, 60_000, metricRegistry);
+
+        // when
+        CompletableFuture<Void> first = batchPublisher.publish("commit_requested_hap", new byte[]{1});
+        CompletableFuture<Void> second = batchPublisher.publish("commit_requested_hap", new byte[]{2});
+
+        // then
+        try {
+            second.get(5, TimeUnit.SECONDS);
+            fail("batch should have failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(NSQException.class);
+        }
+        assertThat(first.isCompletedExceptionally()).isTrue();
+        batchPublisher.close();
+    }
+}
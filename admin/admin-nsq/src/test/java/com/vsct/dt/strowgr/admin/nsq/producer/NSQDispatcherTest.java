@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.nsq.producer;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.vsct.dt.strowgr.admin.core.EntryPointKeyDefaultImpl;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.core.event.out.CommitRequestedEvent;
+import com.vsct.dt.strowgr.admin.core.tracking.CommitLatencyTracker;
+import com.vsct.dt.strowgr.admin.nsq.payload.CommitRequested;
+import com.vsct.dt.strowgr.admin.nsq.payload.fragment.ConfEncoding;
+import fr.vsct.dt.nsq.NSQProducer;
+import fr.vsct.dt.nsq.exceptions.NSQException;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class NSQDispatcherTest {
+
+    private final NSQProducer nsqProducer = mock(NSQProducer.class);
+
+    private final CommitLatencyTracker commitLatencyTracker = mock(CommitLatencyTracker.class);
+
+    private final NSQDispatcher nsqDispatcher = new NSQDispatcher(nsqProducer, commitLatencyTracker);
+
+    @Test
+    public void should_send_base64_encoded_configurations() throws Exception {
+        // given
+        String conf = "global\n        log 127.0.0.1:54250 local0 # réseau\n";
+        EntryPoint configuration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(), new HashMap<>());
+        CommitRequestedEvent event = new CommitRequestedEvent("cid", new EntryPointKeyDefaultImpl("key"), configuration, conf.getBytes(StandardCharsets.UTF_8), "syslog".getBytes(StandardCharsets.UTF_8), "bind");
+
+        // when
+        nsqDispatcher.sendCommitRequested(event, "hap", "app", "ptf", "bind");
+
+        // then
+        ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(nsqProducer).produce(eq("commit_requested_hap"), payload.capture());
+        CommitRequested commitRequested = new ObjectMapper().readValue(payload.getValue(), CommitRequested.class);
+        assertThat(commitRequested.getHeader().getCorrelationId()).isEqualTo("cid");
+        assertThat(commitRequested.getConf().getHaproxy()).isEqualTo(Base64.getEncoder().encodeToString(conf.getBytes(StandardCharsets.UTF_8)));
+        assertThat(commitRequested.getConf().getSyslog()).isEqualTo(Base64.getEncoder().encodeToString("syslog".getBytes(StandardCharsets.UTF_8)));
+        assertThat(commitRequested.getConf().getBind()).isEqualTo("bind");
+        assertThat(commitRequested.getConf().getHaproxyVersion()).isEqualTo("hapVersion");
+        assertThat(commitRequested.getConf().getEncoding()).isNull();
+        verify(commitLatencyTracker).dispatched("cid");
+    }
+
+    @Test
+    public void should_send_gzipped_configurations_to_haproxy_supporting_it() throws Exception {
+        // given
+        StringBuilder conf = new StringBuilder("global\n");
+        for (int i = 0; i < 1000; i++) {
+            conf.append("    server server_").append(i).append(" 10.98.0.").append(i % 250).append(":8080 check\n");
+        }
+        byte[] confBytes = conf.toString().getBytes(StandardCharsets.UTF_8);
+        EntryPoint configuration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(), new HashMap<>());
+        CommitRequestedEvent event = new CommitRequestedEvent("cid", new EntryPointKeyDefaultImpl("key"), configuration, confBytes, "syslog".getBytes(StandardCharsets.UTF_8), "bind");
+        AsyncNSQProducer asyncProducer = new AsyncNSQProducer(nsqProducer, 1, new MetricRegistry());
+        NSQDispatcher gzipDispatcher = new NSQDispatcher(asyncProducer, commitLatencyTracker, null,
+                haproxyName -> haproxyName.equals("hap") ? ConfEncoding.GZIP : ConfEncoding.BASE64);
+
+        // when
+        gzipDispatcher.sendCommitRequested(event, "hap", "app", "ptf", "bind");
+        asyncProducer.close();
+
+        // then
+        ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(nsqProducer).produce(eq("commit_requested_hap"), payload.capture());
+        assertThat(new String(payload.getValue(), StandardCharsets.UTF_8)).contains("\"encoding\":\"gzip\"");
+        assertThat(payload.getValue().length).isLessThan(confBytes.length / 5);
+        CommitRequested commitRequested = new ObjectMapper().readValue(payload.getValue(), CommitRequested.class);
+        assertThat(commitRequested.getConf().getEncoding()).isEqualTo(ConfEncoding.GZIP);
+        assertThat(commitRequested.decodeHaproxyConf()).isEqualTo(confBytes);
+        assertThat(commitRequested.decodeSyslogConf()).isEqualTo("syslog".getBytes(StandardCharsets.UTF_8));
+        verify(commitLatencyTracker).dispatched("cid");
+    }
+
+    @Test
+    public void should_send_delta_of_configuration_once_previous_commit_completed() throws Exception {
+        // given
+        StringBuilder conf = new StringBuilder("global\n");
+        for (int i = 0; i < 1000; i++) {
+            conf.append("    server server_").append(i).append(" 10.98.0.").append(i % 250).append(":8080 check\n");
+        }
+        byte[] base = conf.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] next = conf.append("    server server_new 10.98.1.1:8080 check\n").toString().getBytes(StandardCharsets.UTF_8);
+        EntryPoint configuration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(), new HashMap<>());
+        AsyncNSQProducer asyncProducer = new AsyncNSQProducer(nsqProducer, 1, new MetricRegistry());
+        ConfDeltaTracker confDeltas = new ConfDeltaTracker(Sets.newHashSet("hap"), 1024 * 1024, new MetricRegistry());
+        NSQDispatcher deltaDispatcher = new NSQDispatcher(asyncProducer, commitLatencyTracker, null, haproxyName -> ConfEncoding.BASE64, confDeltas);
+        deltaDispatcher.sendCommitRequested(new CommitRequestedEvent("cid1", new EntryPointKeyDefaultImpl("key"), configuration, base, new byte[0], "bind"), "hap", "app", "ptf", "bind");
+        confDeltas.completed("cid1");
+
+        // when
+        deltaDispatcher.sendCommitRequested(new CommitRequestedEvent("cid2", new EntryPointKeyDefaultImpl("key"), configuration, next, new byte[0], "bind"), "hap", "app", "ptf", "bind");
+        asyncProducer.close();
+
+        // then
+        ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(nsqProducer, times(2)).produce(eq("commit_requested_hap"), payload.capture());
+        CommitRequested whole = new ObjectMapper().readValue(payload.getAllValues().get(0), CommitRequested.class);
+        assertThat(whole.getConf().getHaproxyBase()).isNull();
+        assertThat(whole.decodeHaproxyConf()).isEqualTo(base);
+        assertThat(payload.getAllValues().get(1).length).isLessThan(500);
+        CommitRequested delta = new ObjectMapper().readValue(payload.getAllValues().get(1), CommitRequested.class);
+        assertThat(delta.getConf().getHaproxyBase()).isEqualTo(Hashing.sha256().hashBytes(base).toString());
+        assertThat(delta.decodeHaproxyConf(base)).isEqualTo(next);
+    }
+
+    @Test
+    public void should_notify_dispatch_once_batch_is_published() throws Exception {
+        // given
+        MetricRegistry metricRegistry = new MetricRegistry();
+        AsyncNSQProducer asyncProducer = new AsyncNSQProducer(nsqProducer, 2, metricRegistry);
+        NSQBatchPublisher batchPublisher = new NSQBatchPublisher(asyncProducer, 2, 1024 * 1024, 60_000, metricRegistry);
+        NSQDispatcher batchingDispatcher = new NSQDispatcher(asyncProducer, commitLatencyTracker, batchPublisher);
+        EntryPoint configuration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(), new HashMap<>());
+
+        // when
+        batchingDispatcher.sendCommitRequested(new CommitRequestedEvent("cid1", new EntryPointKeyDefaultImpl("key1"), configuration, new byte[0], new byte[0], "bind"), "hap", "app", "ptf", "bind");
+        verify(commitLatencyTracker, never()).dispatched("cid1");
+        batchingDispatcher.sendCommitRequested(new CommitRequestedEvent("cid2", new EntryPointKeyDefaultImpl("key2"), configuration, new byte[0], new byte[0], "bind"), "hap", "app", "ptf", "bind");
+        batchPublisher.close();
+        asyncProducer.close();
+
+        // then
+        verify(nsqProducer).produceMulti(eq("commit_requested_hap"), anyListOf(byte[].class));
+        verify(commitLatencyTracker).dispatched("cid1");
+        verify(commitLatencyTracker).dispatched("cid2");
+    }
+
+    @Test
+    public void should_report_commit_whose_batch_failed() throws Exception {
+        // given
+        MetricRegistry metricRegistry = new MetricRegistry();
+        AsyncNSQProducer asyncProducer = new AsyncNSQProducer(nsqProducer, 1, metricRegistry);
+        NSQBatchPublisher batchPublisher = new NSQBatchPublisher(asyncProducer, 2, 1024 * 1024, 60_000, metricRegistry);
+        NSQDispatcher batchingDispatcher = new NSQDispatcher(asyncProducer, commitLatencyTracker, batchPublisher);
+        EntryPoint configuration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(), new HashMap<>());
+        doThrow(new NSQException("nsqd is down")).when(nsqProducer).produce(eq("commit_requested_hap"), any(byte[].class));
+
+        // when
+        CompletableFuture<Void> published = batchingDispatcher.sendCommitRequested(new CommitRequestedEvent("cid", new EntryPointKeyDefaultImpl("key"), configuration, new byte[0], new byte[0], "bind"), "hap", "app", "ptf", "bind");
+        batchPublisher.close();
+        asyncProducer.close();
+
+        // then
+        assertThat(published.isCompletedExceptionally()).isTrue();
+        verify(commitLatencyTracker).failed("cid");
+        verify(commitLatencyTracker, never()).dispatched("cid");
+    }
+}
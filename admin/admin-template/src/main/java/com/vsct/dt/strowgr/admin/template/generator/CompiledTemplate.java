@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.generator;
+
+import com.github.mustachejava.Code;
+import com.github.mustachejava.Mustache;
+import com.github.mustachejava.codes.IterableCode;
+import com.github.mustachejava.codes.NotIterableCode;
+import com.google.common.hash.HashCode;
+import com.vsct.dt.strowgr.admin.core.TemplateDependencies;
+import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
+
+import java.util.*;
+
+/**
+ * A compiled template, with the names each of its top-level sections may look up in the root scope.
+ * <p>
+ * Within a section, a name which is not found in the iterated element is looked up in the enclosing scopes. An
+ * iteration of a top-level section thus only depends on the iterated element and on the root values of these names.
+ * <p>
+ * The {@link TemplateDependencies} of the whole template are computed at the same time. The uri of the template is
+ * always a dependency, since changing it changes the template.
+ */
+final class CompiledTemplate {
+
+    private final HashCode hash;
+    private final Mustache mustache;
+    private final Map<Code, Integer> sectionIndexes = new IdentityHashMap<>();
+    private final List<Set<String>> rootNamesBySection = new ArrayList<>();
+    private final TemplateDependencies dependencies;
+
+    CompiledTemplate(HashCode hash, Mustache mustache) {
+        this.hash = hash;
+        this.mustache = mustache;
+        for (Code code : mustache.getCodes()) {
+            if (code instanceof IterableCode && !(code instanceof NotIterableCode)) {
+                Set<String> names = new HashSet<>();
+                collectNames(code.getCodes(), names);
+                sectionIndexes.put(code, rootNamesBySection.size());
+                rootNamesBySection.add(Collections.unmodifiableSet(names));
+            }
+        }
+
+        Set<String> names = new HashSet<>();
+        Set<String> frontends = new HashSet<>();
+        Set<String> backends = new HashSet<>();
+        collectDependencies(mustache.getCodes(), names, frontends, backends);
+        names.add(UriTemplateLocator.URI_FIELD);
+        this.dependencies = new TemplateDependencies(names, frontends, backends);
+    }
+
+    HashCode getHash() {
+        return hash;
+    }
+
+    Mustache getMustache() {
+        return mustache;
+    }
+
+    Code[] getCodes() {
+        return mustache.getCodes();
+    }
+
+    TemplateDependencies getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @param iteration being executed
+     * @return index of the top-level section, or -1 if the iteration is not a top-level section of this template
+     */
+    int sectionIndex(Object iteration) {
+        return sectionIndexes.getOrDefault(iteration, -1);
+    }
+
+    /**
+     * @param index of a top-level section
+     * @return names the section may look up in the root scope
+     */
+    Set<String> rootNames(int index) {
+        return rootNamesBySection.get(index);
+    }
+
+    private static void collectDependencies(Code[] codes, Set<String> names, Set<String> frontends, Set<String> backends) {
+        if (codes == null) {
+            return;
+        }
+        for (Code code : codes) {
+            String name = code.getName();
+            if (name != null && !name.equals(".")) {
+                String[] segments = name.split("\\.");
+                names.addAll(Arrays.asList(segments));
+                if (segments.length > 1 && segments[0].equals("frontend")) {
+                    frontends.add(segments[1]);
+                } else if (segments.length > 1 && segments[0].equals("backend")) {
+                    backends.add(segments[1]);
+                }
+            }
+            collectDependencies(code.getCodes(), names, frontends, backends);
+        }
+    }
+
+    private static void collectNames(Code[] codes, Set<String> names) {
+        if (codes == null) {
+            return;
+        }
+        for (Code code : codes) {
+            String name = code.getName();
+            if (name != null && !name.equals(".")) {
+                names.add(name.split("\\.", 2)[0]);
+            }
+            collectNames(code.getCodes(), names);
+        }
+    }
+}
@@ -15,90 +15,277 @@
  */
 package com.vsct.dt.strowgr.admin.template.generator;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
 import com.github.mustachejava.*;
 import com.github.mustachejava.reflect.MissingWrapper;
 import com.github.mustachejava.reflect.ReflectionObjectHandler;
+import com.github.mustachejava.util.GuardException;
 import com.github.mustachejava.util.Wrapper;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.vsct.dt.strowgr.admin.core.IncompleteConfigurationException;
+import com.vsct.dt.strowgr.admin.core.TemplateDependencies;
 import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.core.io.ByteBufferPool;
 import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
 import com.vsct.dt.strowgr.admin.template.template.DefaultTemplates;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 
+/**
+ * Generates haproxy configurations from mustache templates.
+ * <p>
+ * Compiled templates are kept in a bounded cache keyed by the SHA-256 of the template content, so that a template shared
+ * by many entrypoints is parsed once. Hits and misses are counted in 'cache.hits' and 'cache.misses' counters.
+ * <p>
+ * The output of each iteration of a top-level section is cached too, keyed by the iterated element and the root values
+ * the section may look up (see {@link CompiledTemplate}). When a single backend changes, only its iterations are
+ * executed again and the other ones are copied from the cache, along with the missing entries they reported. The cache
+ * is bounded by the total length of the outputs and its hits and misses are counted in 'fragments.hits' and
+ * 'fragments.misses' counters.
+ * <p>
+ * Each execution is bounded by a {@link RenderBudget}, checked on each write and each iteration of a section. Executions
+ * exceeding it are counted in 'budget.render-time.exceeded' and 'budget.output-size.exceeded' counters.
+ * <p>
+ * Compiled templates are immutable once cached and the state of an execution is held by its own {@link RenderContext},
+ * so the generator can be called concurrently.
+ */
 public class MustacheTemplateGenerator implements TemplateGenerator {
 
+    private static final int DEFAULT_CACHE_SIZE = 100;
+
+    private static final long DEFAULT_FRAGMENT_CACHE_WEIGHT = 32 * 1024 * 1024;
+
+    private static final ByteBufferPool BUFFERS = new ByteBufferPool(64 * 1024, 16 * 1024 * 1024);
+
     private final NoHTMLEscapingMustacheFactory mf = new NoHTMLEscapingMustacheFactory();
 
+    private final Cache<HashCode, CompiledTemplate> compiledTemplates;
+
+    private final Cache<FragmentKey, RenderedFragment> renderedFragments;
+
+    private final Mustache syslogTemplate;
+
+    private final RenderBudget renderBudget;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter fragmentHits;
+    private final Counter fragmentMisses;
+    private final Counter renderTimeExceeded;
+    private final Counter outputSizeExceeded;
+
+    public MustacheTemplateGenerator() {
+        this(DEFAULT_CACHE_SIZE, new MetricRegistry());
+    }
+
+    public MustacheTemplateGenerator(int cacheSize, MetricRegistry metricRegistry) {
+        this(cacheSize, DEFAULT_FRAGMENT_CACHE_WEIGHT, metricRegistry);
+    }
+
+    /**
+     * @param cacheSize           maximum number of compiled templates kept
+     * @param fragmentCacheWeight maximum number of characters of the rendered sections kept
+     * @param metricRegistry      where cache metrics are registered
+     */
+    public MustacheTemplateGenerator(int cacheSize, long fragmentCacheWeight, MetricRegistry metricRegistry) {
+        this(cacheSize, fragmentCacheWeight, RenderBudget.UNLIMITED, metricRegistry);
+    }
+
+    /**
+     * @param cacheSize           maximum number of compiled templates kept
+     * @param fragmentCacheWeight maximum number of characters of the rendered sections kept
+     * @param renderBudget        of each execution of a template
+     * @param metricRegistry      where cache and budget metrics are registered
+     */
+    public MustacheTemplateGenerator(int cacheSize, long fragmentCacheWeight, RenderBudget renderBudget, MetricRegistry metricRegistry) {
+        this.renderBudget = renderBudget;
+        mf.setObjectHandler(new RecordMissingEntriesObjectHandler());
+        this.compiledTemplates = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        this.renderedFragments = CacheBuilder.newBuilder()
+                .maximumWeight(fragmentCacheWeight)
+                .weigher((FragmentKey key, RenderedFragment fragment) -> fragment.output.length())
+                .build();
+        this.syslogTemplate = mf.compile(new StringReader(DefaultTemplates.SYSLOG_DEFAULT_TEMPLATE), "syslog");
+        this.hits = metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "cache", "hits"));
+        this.misses = metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "cache", "misses"));
+        this.fragmentHits = metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "fragments", "hits"));
+        this.fragmentMisses = metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "fragments", "misses"));
+        this.renderTimeExceeded = metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "budget", "render-time", "exceeded"));
+        this.outputSizeExceeded = metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "budget", "output-size", "exceeded"));
+    }
+
     @Override
     public String generate(String template, EntryPoint configuration, Map<String, Integer> portsMapping) throws IncompleteConfigurationException {
-        Preconditions.checkNotNull(template, "template should not be null. Check uriTemplate %s is correct.", configuration.getContext().get(UriTemplateLocator.URI_FIELD));
         Writer writer = new StringWriter();
+        render(template, configuration, portsMapping, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Renders straight into a pooled byte buffer through an UTF-8 encoder, without building the configuration as a
+     * String first.
+     */
+    @Override
+    public byte[] generateBytes(String template, EntryPoint configuration, Map<String, Integer> portsMapping) throws IncompleteConfigurationException {
+        ByteBufferPool.Buffer buffer = BUFFERS.acquire();
+        try {
+            Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+            render(template, configuration, portsMapping, writer);
+            writer.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new MustacheException("can't encode configuration", e);
+        } finally {
+            BUFFERS.release(buffer);
+        }
+    }
 
-        RecordMissingEntriesObjectHandler objectHandler = new RecordMissingEntriesObjectHandler();
-        mf.setObjectHandler(objectHandler);
+    private void render(String template, EntryPoint configuration, Map<String, Integer> portsMapping, Writer writer) throws IncompleteConfigurationException {
+        Preconditions.checkNotNull(template, "template should not be null. Check uriTemplate %s is correct.", configuration.getContext().get(UriTemplateLocator.URI_FIELD));
 
-        Mustache mustache = mf.compile(new StringReader(template), "no_cache");
+        CompiledTemplate compiled = compile(template);
 
         StrowgrMustacheScope scope = new StrowgrMustacheScope(configuration, portsMapping);
 
-        mustache.execute(writer, scope);
-
-        if (objectHandler.hasMissingEntries()) {
-            throw new IncompleteConfigurationException(objectHandler.getMissingEntries());
+        RenderGuard guard = renderBudget.isUnlimited() ? null : new RenderGuard(renderBudget);
+        RenderContext context = new RenderContext(compiled, guard);
+        try {
+            compiled.getMustache().execute(guard == null ? writer : guard.writer(writer), new Object[]{context, scope});
+        } catch (RuntimeException e) {
+            // mustache.java wraps the exceptions thrown while executing a template
+            for (Throwable cause : Throwables.getCausalChain(e)) {
+                if (cause instanceof RenderBudgetExceededException) {
+                    RenderBudgetExceededException exceeded = (RenderBudgetExceededException) cause;
+                    (exceeded.getLimit() == RenderBudgetExceededException.Limit.RENDER_TIME ? renderTimeExceeded : outputSizeExceeded).inc();
+                    throw exceeded;
+                }
+            }
+            throw e;
         }
 
-        return writer.toString();
+        if (!context.missingEntries.isEmpty()) {
+            throw new IncompleteConfigurationException(context.missingEntries);
+        }
     }
 
     @Override
     public String generateSyslogFragment(EntryPoint configuration, Map<String, Integer> portsMapping) {
         Writer writer = new StringWriter();
-        RecordMissingEntriesObjectHandler objectHandler = new RecordMissingEntriesObjectHandler();
-        mf.setObjectHandler(objectHandler);
-        Mustache mustache = mf.compile(new StringReader(DefaultTemplates.SYSLOG_DEFAULT_TEMPLATE), "no_cache");
-        mustache.execute(writer, new StrowgrMustacheScope(configuration, portsMapping));
+        syslogTemplate.execute(writer, new StrowgrMustacheScope(configuration, portsMapping));
         return writer.toString();
     }
 
+    /**
+     * Answers from the dependencies computed when the template was compiled, so from the cache for a known template.
+     */
     @Override
     public Map<String, Set<String>> generateFrontAndBackends(String template) {
+        TemplateDependencies dependencies = dependencies(template);
         HashMap<String, Set<String>> result = new HashMap<>();
-        result.put("frontends", new HashSet<>());
-        result.put("backends", new HashSet<>());
-        Mustache mustache = mf.compile(new StringReader(template), "no_cache");
-        for (Code code : mustache.getCodes()) {
-            if (code != null && code.getName() != null) {
-                if (code.getName().startsWith("backend") && code.getName().split("\\.").length > 1) {
-                    result.get("backends").add(code.getName().split("\\.")[1]);
-                } else if (code.getName().startsWith("frontend") && code.getName().split("\\.").length > 1) {
-                    result.get("frontends").add(code.getName().split("\\.")[1]);
-                }
+        result.put("frontends", new HashSet<>(dependencies.getFrontends()));
+        result.put("backends", new HashSet<>(dependencies.getBackends()));
+        return result;
+    }
+
+    @Override
+    public TemplateDependencies dependencies(String template) {
+        return compile(template).getDependencies();
+    }
+
+    /**
+     * Compiles a template or gets it from the cache.
+     *
+     * @param template content
+     * @return the compiled template
+     */
+    private CompiledTemplate compile(String template) {
+        HashCode hash = Hashing.sha256().hashString(template, StandardCharsets.UTF_8);
+        CompiledTemplate compiled = compiledTemplates.getIfPresent(hash);
+        if (compiled != null) {
+            hits.inc();
+            return compiled;
+        }
+        try {
+            return compiledTemplates.get(hash, () -> {
+                misses.inc();
+                return new CompiledTemplate(hash, mf.compile(new StringReader(template), hash.toString()));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw new MustacheException("can't compile template", e.getCause());
         }
-        return result;
     }
 
     /**
-     * Mustache ObjectHandler that records when an entry is missing
-     * Implementation suppose a monothreaded template generation by mustache
+     * State of a single execution of a template, given as the first scope of the execution. Its members are private so
+     * that they can't be looked up by the template.
      */
-    private static class RecordMissingEntriesObjectHandler extends ReflectionObjectHandler {
+    private static final class RenderContext {
+
+        /* null when rendering a cached fragment */
+        private final CompiledTemplate template;
+
+        /* null when the budget is unlimited */
+        private final RenderGuard guard;
+
+        private final Set<String> missingEntries = new HashSet<>();
 
-        private Set<String> missingEntries = new HashSet<>();
+        private final Set<String> defaultedEntries = new HashSet<>();
+
+        private RenderContext(CompiledTemplate template, RenderGuard guard) {
+            this.template = template;
+            this.guard = guard;
+        }
+
+        /**
+         * Merges the entries reported by a fragment. Default behaviors of the fragment apply to the entries missing
+         * before it.
+         */
+        private void merge(RenderedFragment fragment) {
+            missingEntries.removeAll(fragment.defaultedEntries);
+            missingEntries.addAll(fragment.missingEntries);
+        }
+
+        private static Optional<RenderContext> of(List<Object> scopes) {
+            if (!scopes.isEmpty() && scopes.get(0) instanceof RenderContext) {
+                return Optional.of((RenderContext) scopes.get(0));
+            }
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Mustache ObjectHandler that records missing entries in the {@link RenderContext} of the execution and caches the
+     * iterations of top-level sections.
+     * <p>
+     * Lookups found by {@link #find(String, List)} are cached by the compiled template and shared by all its executions,
+     * so missing entries are recorded when the lookup is called. The handler holds no state of an execution, so that
+     * compiled templates can be executed concurrently.
+     */
+    private class RecordMissingEntriesObjectHandler extends ReflectionObjectHandler {
 
         @Override
         public Wrapper find(final String name, List<Object> scopes) {
             Wrapper wrapper = super.find(name, scopes);
             if (wrapper instanceof MissingWrapper) {
-                //return new RecordingMissingFieldWrapper(name, (MissingWrapper) wrapper);
-                missingEntries.add(name);
+                return new RecordingMissingWrapper(name, wrapper);
             }
             return wrapper;
         }
@@ -107,17 +294,147 @@ public class MustacheTemplateGenerator implements TemplateGenerator {
         public Writer falsey(Iteration iteration, Writer writer, Object object, List<Object> scopes) {
             if (iteration instanceof Code) {
                 //There is a default behavior associated with the missing value, we should not raise an error
-                missingEntries.remove(((Code) iteration).getName());
+                String name = ((Code) iteration).getName();
+                RenderContext.of(scopes).ifPresent(context -> {
+                    context.missingEntries.remove(name);
+                    context.defaultedEntries.add(name);
+                });
             }
             return super.falsey(iteration, writer, object, scopes);
         }
 
-        public boolean hasMissingEntries() {
-            return this.missingEntries.size() > 0;
+        @Override
+        public Writer iterate(Iteration iteration, Writer writer, Object object, List<Object> scopes) {
+            Optional<RenderContext> context = RenderContext.of(scopes).filter(c -> c.template != null);
+            int index = context.map(c -> c.template.sectionIndex(iteration)).orElse(-1);
+            if (index < 0 || !(object instanceof Iterable) || !(scopes.get(1) instanceof Map)) {
+                Optional<RenderGuard> guard = RenderContext.of(scopes).map(c -> c.guard);
+                if (guard.isPresent()) {
+                    return super.iterate((w, next, s) -> {
+                        guard.get().step();
+                        return iteration.next(w, next, s);
+                    }, writer, object, scopes);
+                }
+                return super.iterate(iteration, writer, object, scopes);
+            }
+            CompiledTemplate template = context.get().template;
+            Map<?, ?> root = (Map<?, ?>) scopes.get(1);
+            Map<String, Object> rootValues = new HashMap<>();
+            for (String name : template.rootNames(index)) {
+                rootValues.put(name, root.get(name));
+            }
+            RenderGuard guard = context.get().guard;
+            for (Object element : (Iterable<?>) object) {
+                if (guard != null) {
+                    guard.step();
+                }
+                FragmentKey key = new FragmentKey(template.getHash(), index, coerce(element), rootValues);
+                RenderedFragment fragment = renderedFragments.getIfPresent(key);
+                if (fragment == null) {
+                    fragmentMisses.inc();
+                    fragment = render(iteration, key.element, scopes, guard);
+                    renderedFragments.put(key, fragment);
+                } else {
+                    fragmentHits.inc();
+                }
+                context.get().merge(fragment);
+                try {
+                    writer.write(fragment.output);
+                } catch (IOException e) {
+                    throw new MustacheException("can't write iteration of " + iteration, e);
+                }
+            }
+            return writer;
+        }
+
+        /**
+         * Renders an iteration apart, with its own context to collect the entries it reports.
+         */
+        private RenderedFragment render(Iteration iteration, Object element, List<Object> scopes, RenderGuard guard) {
+            RenderContext fragmentContext = new RenderContext(null, guard);
+            List<Object> fragmentScopes = new ArrayList<>(scopes);
+            fragmentScopes.set(0, fragmentContext);
+            StringWriter fragmentWriter = new StringWriter();
+            iteration.next(guard == null ? fragmentWriter : guard.writer(fragmentWriter), element, fragmentScopes);
+            return new RenderedFragment(fragmentWriter.toString(), fragmentContext.missingEntries, fragmentContext.defaultedEntries);
+        }
+    }
+
+    private static class RecordingMissingWrapper implements Wrapper {
+
+        private final String name;
+        private final Wrapper missingWrapper;
+
+        private RecordingMissingWrapper(String name, Wrapper missingWrapper) {
+            this.name = name;
+            this.missingWrapper = missingWrapper;
         }
 
-        public Set<String> getMissingEntries() {
-            return missingEntries;
+        @Override
+        public Object call(List<Object> scopes) throws GuardException {
+            Object result = missingWrapper.call(scopes);
+            RenderContext.of(scopes).ifPresent(context -> context.missingEntries.add(name));
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RecordingMissingWrapper && missingWrapper.equals(((RecordingMissingWrapper) o).missingWrapper);
+        }
+
+        @Override
+        public int hashCode() {
+            return missingWrapper.hashCode();
+        }
+    }
+
+    /**
+     * Identifies the output of an iteration of a top-level section by its inputs.
+     */
+    private static final class FragmentKey {
+
+        private final HashCode templateHash;
+        private final int index;
+        private final Object element;
+        private final Map<String, Object> rootValues;
+        private final int hashCode;
+
+        private FragmentKey(HashCode templateHash, int index, Object element, Map<String, Object> rootValues) {
+            this.templateHash = templateHash;
+            this.index = index;
+            this.element = element;
+            this.rootValues = rootValues;
+            this.hashCode = Objects.hash(templateHash, index, element, rootValues);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            FragmentKey that = (FragmentKey) o;
+            return hashCode == that.hashCode
+                    && index == that.index
+                    && templateHash.equals(that.templateHash)
+                    && Objects.equals(element, that.element)
+                    && rootValues.equals(that.rootValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class RenderedFragment {
+
+        private final String output;
+        private final Set<String> missingEntries;
+        private final Set<String> defaultedEntries;
+
+        private RenderedFragment(String output, Set<String> missingEntries, Set<String> defaultedEntries) {
+            this.output = output;
+            this.missingEntries = missingEntries;
+            this.defaultedEntries = defaultedEntries;
         }
     }
 
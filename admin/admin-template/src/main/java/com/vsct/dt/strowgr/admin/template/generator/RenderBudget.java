@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.generator;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits of a single execution of a template: the CPU time spent rendering it and the number of characters of its
+ * output. A template exceeding its budget fails with a {@link RenderBudgetExceededException} instead of holding its
+ * thread, and the lock of its entrypoint, for as long as it renders.
+ */
+public final class RenderBudget {
+
+    public static final RenderBudget UNLIMITED = new RenderBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long maxRenderNanos;
+    private final long maxOutputSize;
+
+    /**
+     * @param maxRenderTime in milliseconds of CPU time, or wall clock time if the JVM does not measure the CPU time of
+     *                      threads
+     * @param maxOutputSize in characters
+     */
+    public RenderBudget(long maxRenderTime, long maxOutputSize) {
+        checkArgument(maxRenderTime > 0, "render time budget should be positive");
+        checkArgument(maxOutputSize > 0, "output size budget should be positive");
+        this.maxRenderNanos = maxRenderTime == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(maxRenderTime);
+        this.maxOutputSize = maxOutputSize;
+    }
+
+    long getMaxRenderNanos() {
+        return maxRenderNanos;
+    }
+
+    long getMaxOutputSize() {
+        return maxOutputSize;
+    }
+
+    boolean isUnlimited() {
+        return maxRenderNanos == Long.MAX_VALUE && maxOutputSize == Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderBudget{" +
+                "maxRenderNanos=" + maxRenderNanos +
+                ", maxOutputSize=" + maxOutputSize +
+                '}';
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.generator;
+
+/**
+ * Thrown when the execution of a template exceeds its {@link RenderBudget}.
+ */
+public class RenderBudgetExceededException extends RuntimeException {
+
+    public enum Limit {
+        RENDER_TIME, OUTPUT_SIZE
+    }
+
+    private final Limit limit;
+
+    RenderBudgetExceededException(Limit limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.generator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Enforces a {@link RenderBudget} on a single execution of a template, on the thread rendering it.
+ * <p>
+ * The output size is checked on each write and the render time every {@value #TIME_CHECK_INTERVAL} steps, reading the
+ * CPU time of the thread being costlier than rendering a few values. Engines call {@link #step()} on each iteration of a
+ * section so that a template iterating without writing is stopped too.
+ */
+final class RenderGuard {
+
+    private static final int TIME_CHECK_INTERVAL = 256;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final RenderBudget budget;
+    private final boolean cpuTime;
+    private final long start;
+    private int checks = 0;
+
+    RenderGuard(RenderBudget budget) {
+        this.budget = budget;
+        this.cpuTime = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+        this.start = now();
+    }
+
+    /**
+     * @param outputSize written so far, in characters
+     * @throws RenderBudgetExceededException if the budget is exceeded
+     */
+    void check(long outputSize) {
+        if (outputSize > budget.getMaxOutputSize()) {
+            throw new RenderBudgetExceededException(RenderBudgetExceededException.Limit.OUTPUT_SIZE,
+                    "output of template exceeds " + budget.getMaxOutputSize() + " characters");
+        }
+        step();
+    }
+
+    /**
+     * Counts a step of the rendering, such as an iteration of a section, the render time being checked every
+     * {@value #TIME_CHECK_INTERVAL} steps.
+     *
+     * @throws RenderBudgetExceededException if the render time is exceeded
+     */
+    void step() {
+        if (++checks % TIME_CHECK_INTERVAL == 0) {
+            checkTime();
+        }
+    }
+
+    /**
+     * @throws RenderBudgetExceededException if the render time is exceeded
+     */
+    void checkTime() {
+        long elapsed = now() - start;
+        if (elapsed > budget.getMaxRenderNanos()) {
+            throw new RenderBudgetExceededException(RenderBudgetExceededException.Limit.RENDER_TIME,
+                    "rendering of template exceeds " + budget.getMaxRenderNanos() / 1_000_000 + " ms, aborted after " + elapsed / 1_000_000 + " ms");
+        }
+    }
+
+    /**
+     * @param delegate to write to
+     * @return a writer checking the budget on each write, on the characters written to it only
+     */
+    Writer writer(Writer delegate) {
+        return new GuardedWriter(delegate);
+    }
+
+    private long now() {
+        return cpuTime ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private final class GuardedWriter extends Writer {
+
+        private final Writer delegate;
+        private long size = 0;
+
+        private GuardedWriter(Writer delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            check(++size);
+            delegate.write(c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            size += length;
+            check(size);
+            delegate.write(chars, offset, length);
+        }
+
+        @Override
+        public void write(String s, int offset, int length) throws IOException {
+            size += length;
+            check(size);
+            delegate.write(s, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
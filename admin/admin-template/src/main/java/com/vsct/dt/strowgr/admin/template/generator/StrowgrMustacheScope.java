@@ -15,83 +15,340 @@
  */
 package com.vsct.dt.strowgr.admin.template.generator;
 
+import com.google.common.collect.Lists;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackend;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackendServer;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPointFrontend;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Transform an haproxy configuration into a mustache scope.
  * Look at test to see examples.
  * frontends, backends and servers are ordered by id when available as list.
+ * <p>
+ * Values are resolved on demand from the immutable configuration: mustache only calls {@link #containsKey(Object)}
+ * and {@link #get(Object)} on map scopes, so nothing is copied for the entries the template does not use. The scopes of
+ * frontends, backends and servers are equal when they are built from equal elements, which keys the cache of rendered
+ * sections.
  */
-public class StrowgrMustacheScope extends HashMap<String, Object> {
+public class StrowgrMustacheScope extends AbstractMap<String, Object> {
 
+    private final EntryPoint configuration;
     private final Map<String, Integer> portsMapping;
+    private volatile ById<Map<String, Object>> frontendsById;
+    private volatile ById<Map<String, Object>> backendsById;
 
     public StrowgrMustacheScope(EntryPoint configuration, Map<String, Integer> portsMapping) {
-        super();
+        this.configuration = configuration;
         this.portsMapping = portsMapping;
+    }
+
+    @Override
+    public Object get(Object key) {
+        /* Essential properties of a configuration are not overridden by its context */
+        if ("hap_user".equals(key)) {
+            return configuration.getHapUser();
+        } else if ("syslog_port".equals(key) && portsMapping.containsKey(configuration.syslogPortId())) {
+            return portsMapping.get(configuration.syslogPortId());
+        } else if ("frontend".equals(key)) {
+            return frontendsById();
+        } else if ("frontends".equals(key)) {
+            return Lists.transform(configuration.sortedFrontends(), this::toMustacheScope);
+        } else if ("backend".equals(key)) {
+            return backendsById();
+        } else if ("backends".equals(key)) {
+            return Lists.transform(configuration.sortedBackends(), this::toMustacheScope);
+        }
+        return configuration.contextView().get(key);
+    }
 
-        /* Put all context first which guaranties essential properties of a configuration are not overridden */
-        this.putAll(configuration.getContext());
-        this.put("hap_user", configuration.getHapUser());
-        getPort(configuration.syslogPortId()).ifPresent(p -> this.put("syslog_port", p));
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null || configuration.contextView().containsKey(key);
+    }
 
-        Map<String, Object> frontend = configuration.getFrontends().stream().sorted((f1, f2) -> f1.getId().compareTo(f2.getId())).collect(Collectors.toMap(EntryPointFrontend::getId, this::toMustacheScope));
-        this.put("frontend", frontend);
-        this.put("frontends", frontend.values());
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        Map<String, Object> entries = new HashMap<>(configuration.contextView());
+        for (String key : Arrays.asList("hap_user", "syslog_port", "frontend", "frontends", "backend", "backends")) {
+            if (containsKey(key)) {
+                entries.put(key, get(key));
+            }
+        }
+        return entries.entrySet();
+    }
 
-        Map<String, Object> backend = configuration.getBackends().stream().sorted((b1, b2) -> b1.getId().compareTo(b2.getId())).collect(Collectors.toMap(EntryPointBackend::getId, this::toMustacheScope));
-        this.put("backend", backend);
-        this.put("backends", backend.values());
+    /**
+     * @return scopes of frontends by id, identified by the frontends and the ports they are rendered with
+     */
+    private ById<Map<String, Object>> frontendsById() {
+        ById<Map<String, Object>> byId = frontendsById;
+        if (byId == null) {
+            byId = new ById<>(Arrays.asList(configuration.sortedFrontends(), portsMapping),
+                    id -> configuration.getFrontend(id).map(this::toMustacheScope).orElse(null),
+                    () -> configuration.sortedFrontends().stream().map(EntryPointFrontend::getId));
+            frontendsById = byId;
+        }
+        return byId;
     }
 
-    public Map<String, Object> toMustacheScope(EntryPointFrontend frontend) {
-        HashMap<String, Object> scope = new HashMap<>();
-        /* Put all context first which guaranties essential properties of a frontend are not overridden */
-        scope.putAll(frontend.getContext());
-        scope.put("id", frontend.getId());
-        getPort(frontend.portId()).ifPresent(p -> scope.put("port", p));
+    /**
+     * @return scopes of backends by id, identified by the backends
+     */
+    private ById<Map<String, Object>> backendsById() {
+        ById<Map<String, Object>> byId = backendsById;
+        if (byId == null) {
+            byId = new ById<>(configuration.sortedBackends(),
+                    id -> configuration.getBackend(id).map(this::toMustacheScope).orElse(null),
+                    () -> configuration.sortedBackends().stream().map(EntryPointBackend::getId));
+            backendsById = byId;
+        }
+        return byId;
+    }
 
-        return scope;
+    public Map<String, Object> toMustacheScope(EntryPointFrontend frontend) {
+        return new FrontendScope(frontend, portsMapping.get(frontend.portId()));
     }
 
     public Map<String, Object> toMustacheScope(EntryPointBackend backend) {
-        HashMap<String, Object> scope = new HashMap<>();
+        return new BackendScope(backend);
+    }
+
+    public static Map<String, Object> toMustacheScope(EntryPointBackendServer server) {
+        return new ServerScope(server);
+    }
+
+    /**
+     * Scope of an element resolving its fields first, then its context.
+     */
+    private static abstract class ElementScope<T> extends AbstractMap<String, Object> {
 
-        /* Put all context first which guaranties essential properties of a backend are not overridden */
-        scope.putAll(backend.getContext());
+        protected final T element;
 
-        scope.put("id", backend.getId());
+        private ElementScope(T element) {
+            this.element = element;
+        }
 
-        Set<Object> servers = backend.getServers().stream().sorted((s1, s2) -> s1.getId().compareTo(s2.getId())).map(this::toMustacheScope).collect(Collectors.toCollection(LinkedHashSet::new));
-        scope.put("servers", servers);
+        /**
+         * @return the value of a field of the element, or null if the key is not a field or the field has no value
+         */
+        protected abstract Object field(Object key);
 
-        return scope;
+        protected abstract List<String> fields();
+
+        protected abstract Map<String, String> context();
+
+        @Override
+        public Object get(Object key) {
+            Object value = field(key);
+            return value != null ? value : context().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return field(key) != null || context().containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            Map<String, Object> entries = new HashMap<>(context());
+            for (String field : fields()) {
+                Object value = field(field);
+                if (value != null) {
+                    entries.put(field, value);
+                }
+            }
+            return entries.entrySet();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return element.equals(((ElementScope<?>) o).element);
+        }
+
+        @Override
+        public int hashCode() {
+            return element.hashCode();
+        }
     }
 
-    public Map<String, Object> toMustacheScope(EntryPointBackendServer server) {
-        HashMap<String, Object> scope = new HashMap<>();
+    private static final class FrontendScope extends ElementScope<EntryPointFrontend> {
+
+        private static final List<String> FIELDS = Arrays.asList("id", "port");
+
+        private final Integer port;
+
+        private FrontendScope(EntryPointFrontend frontend, Integer port) {
+            super(frontend);
+            this.port = port;
+        }
+
+        @Override
+        protected Object field(Object key) {
+            if ("id".equals(key)) {
+                return element.getId();
+            } else if ("port".equals(key)) {
+                return port;
+            }
+            return null;
+        }
+
+        @Override
+        protected List<String> fields() {
+            return FIELDS;
+        }
 
-        /* Put all context first which guaranties essential properties of a server are not overridden */
-        scope.putAll(server.getContext());
-        /* Put all user provided context, ensuring overrides of the user provided values */
-        scope.putAll(server.getContextOverride());
+        @Override
+        protected Map<String, String> context() {
+            return element.contextView();
+        }
 
-        scope.put("id", server.getId());
-        scope.put("hostname", server.getHostname());
-        scope.put("ip", server.getIp());
-        scope.put("port", server.getPort());
+        @Override
+        public boolean equals(Object o) {
+            return super.equals(o) && Objects.equals(port, ((FrontendScope) o).port);
+        }
 
-        return scope;
+        @Override
+        public int hashCode() {
+            return 31 * super.hashCode() + Objects.hashCode(port);
+        }
     }
 
-    private Optional<Integer> getPort(String id) {
-        return Optional.ofNullable(portsMapping.get(id));
+    private static final class BackendScope extends ElementScope<EntryPointBackend> {
+
+        private static final List<String> FIELDS = Arrays.asList("id", "servers");
+
+        private BackendScope(EntryPointBackend backend) {
+            super(backend);
+        }
+
+        @Override
+        protected Object field(Object key) {
+            if ("id".equals(key)) {
+                return element.getId();
+            } else if ("servers".equals(key)) {
+                return Lists.transform(element.sortedServers(), StrowgrMustacheScope::toMustacheScope);
+            }
+            return null;
+        }
+
+        @Override
+        protected List<String> fields() {
+            return FIELDS;
+        }
+
+        @Override
+        protected Map<String, String> context() {
+            return element.contextView();
+        }
+    }
+
+    private static final class ServerScope extends ElementScope<EntryPointBackendServer> {
+
+        private static final List<String> FIELDS = Arrays.asList("id", "hostname", "ip", "port");
+
+        private ServerScope(EntryPointBackendServer server) {
+            super(server);
+        }
+
+        @Override
+        protected Object field(Object key) {
+            if ("id".equals(key)) {
+                return element.getId();
+            } else if ("hostname".equals(key)) {
+                return element.getHostname();
+            } else if ("ip".equals(key)) {
+                return element.getIp();
+            } else if ("port".equals(key)) {
+                return element.getPort();
+            }
+            return null;
+        }
+
+        @Override
+        protected List<String> fields() {
+            return FIELDS;
+        }
+
+        /* User provided context overrides the context of the server */
+        @Override
+        public Object get(Object key) {
+            Object value = field(key);
+            if (value != null) {
+                return value;
+            }
+            Map<String, String> contextOverride = element.contextOverrideView();
+            return contextOverride.containsKey(key) ? contextOverride.get(key) : element.contextView().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return field(key) != null || element.contextOverrideView().containsKey(key) || element.contextView().containsKey(key);
+        }
+
+        @Override
+        protected Map<String, String> context() {
+            Map<String, String> context = new HashMap<>(element.contextView());
+            context.putAll(element.contextOverrideView());
+            return context;
+        }
     }
 
+    /**
+     * Scopes of frontends or backends by id.
+     * <p>
+     * Two instances are equal when they are built from equal elements, as their scopes would be: comparing the
+     * elements spares building every scope of the entrySet each time a cached section is looked up.
+     */
+    private static final class ById<T> extends AbstractMap<String, T> {
+
+        private final Object elements;
+        private final int hash;
+        private final Function<String, T> lookup;
+        private final Supplier<Stream<String>> ids;
+
+        private ById(Object elements, Function<String, T> lookup, Supplier<Stream<String>> ids) {
+            this.elements = elements;
+            this.hash = elements.hashCode();
+            this.lookup = lookup;
+            this.ids = ids;
+        }
+
+        @Override
+        public T get(Object key) {
+            return key instanceof String ? lookup.apply((String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, T>> entrySet() {
+            Map<String, T> entries = new LinkedHashMap<>();
+            ids.get().forEach(id -> entries.put(id, lookup.apply(id)));
+            return entries.entrySet();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ById)) return false;
+            ById<?> other = (ById<?>) o;
+            return hash == other.hash && elements.equals(other.elements);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
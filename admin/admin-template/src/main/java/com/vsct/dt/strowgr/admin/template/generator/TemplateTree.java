@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.generator;
+
+import com.google.common.hash.HashCode;
+import com.vsct.dt.strowgr.admin.core.TemplateDependencies;
+import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
+
+import java.util.*;
+
+/**
+ * A template compiled into a tree of nodes, rendered by the {@link TreeTemplateGenerator}.
+ * <p>
+ * The syntax is the subset of mustache used by haproxy templates: variables, dotted names, sections, inverted sections
+ * and comments, with the whitespace handling of mustache.java so that both engines render the same configurations.
+ * Output is never escaped, '{{{name}}}' and '{{&amp;name}}' are plain variables. Partials and delimiter changes are not
+ * supported.
+ * <p>
+ * Names are split once at compile time and looked up on the map scopes with {@link Map#get(Object)}, falling back to
+ * {@link Map#containsKey(Object)} only for null values, as mustache does. A tree is immutable and can be rendered
+ * concurrently.
+ */
+final class TemplateTree {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    private static final Object MISSING = new Object();
+
+    private final HashCode hash;
+    private final Node[] nodes;
+    private final TemplateDependencies dependencies;
+
+    /* length of the last output, to size the next one */
+    private volatile int lastLength = 4096;
+
+    private TemplateTree(HashCode hash, Node[] nodes) {
+        this.hash = hash;
+        this.nodes = nodes;
+        Set<String> names = new HashSet<>();
+        Set<String> frontends = new HashSet<>();
+        Set<String> backends = new HashSet<>();
+        collectDependencies(nodes, names, frontends, backends);
+        names.add(UriTemplateLocator.URI_FIELD);
+        this.dependencies = new TemplateDependencies(names, frontends, backends);
+    }
+
+    HashCode getHash() {
+        return hash;
+    }
+
+    TemplateDependencies getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @param root           scope of the template
+     * @param missingEntries receives the names missing without a default behavior
+     * @param guard          checked on each iteration of a section, null for no budget
+     * @return the output
+     * @throws RenderBudgetExceededException if the budget of the guard is exceeded
+     */
+    StringBuilder render(Map<String, Object> root, Set<String> missingEntries, RenderGuard guard) {
+        StringBuilder output = new StringBuilder(lastLength + lastLength / 8);
+        RenderState state = new RenderState(output, missingEntries, guard);
+        state.push(root);
+        renderAll(nodes, state);
+        if (guard != null) {
+            guard.check(output.length());
+        }
+        lastLength = output.length();
+        return output;
+    }
+
+    private static void renderAll(Node[] nodes, RenderState state) {
+        for (Node node : nodes) {
+            node.render(state);
+        }
+    }
+
+    private static void collectDependencies(Node[] nodes, Set<String> names, Set<String> frontends, Set<String> backends) {
+        for (Node node : nodes) {
+            if (node instanceof NamedNode) {
+                String[] path = ((NamedNode) node).path;
+                if (path.length > 0) {
+                    names.addAll(Arrays.asList(path));
+                    if (path.length > 1 && path[0].equals("frontend")) {
+                        frontends.add(path[1]);
+                    } else if (path.length > 1 && path[0].equals("backend")) {
+                        backends.add(path[1]);
+                    }
+                }
+            }
+            if (node instanceof SectionNode) {
+                collectDependencies(((SectionNode) node).children, names, frontends, backends);
+            }
+        }
+    }
+
+    /**
+     * Parses a template.
+     *
+     * @param hash     of the template content
+     * @param template content
+     * @return the compiled template
+     * @throws IllegalArgumentException if the template is malformed or uses an unsupported tag
+     */
+    static TemplateTree parse(HashCode hash, String template) {
+        Parser parser = new Parser(template);
+        Node[] nodes = parser.body(null, true);
+        return new TemplateTree(hash, nodes);
+    }
+
+    /**
+     * Looks up a name in the scopes, from the innermost one. The first segment of a dotted name is looked up in all the
+     * scopes, the following ones in the value of the previous segment only.
+     *
+     * @return the value, or {@link #MISSING}
+     */
+    private static Object lookup(String[] path, RenderState state) {
+        if (path.length == 0) {
+            return state.scopes[state.depth - 1];
+        }
+        for (int i = state.depth - 1; i >= 0; i--) {
+            Object value = get(state.scopes[i], path[0]);
+            if (value != MISSING) {
+                for (int segment = 1; segment < path.length && value != MISSING; segment++) {
+                    value = get(value, path[segment]);
+                }
+                return value;
+            }
+        }
+        return MISSING;
+    }
+
+    private static Object get(Object scope, String key) {
+        if (!(scope instanceof Map)) {
+            return MISSING;
+        }
+        Map<?, ?> map = (Map<?, ?>) scope;
+        Object value = map.get(key);
+        return value != null || map.containsKey(key) ? value : MISSING;
+    }
+
+    private static boolean isFalsey(Object value) {
+        if (value == null || value == MISSING || Boolean.FALSE.equals(value)) {
+            return true;
+        } else if (value instanceof String) {
+            return ((String) value).isEmpty();
+        } else if (value instanceof Collection) {
+            return ((Collection<?>) value).isEmpty();
+        } else if (value instanceof Iterable) {
+            return !((Iterable<?>) value).iterator().hasNext();
+        }
+        return false;
+    }
+
+    private static final class RenderState {
+
+        private final StringBuilder output;
+        private final Set<String> missingEntries;
+        private final RenderGuard guard;
+        private Object[] scopes = new Object[8];
+        private int depth = 0;
+
+        private RenderState(StringBuilder output, Set<String> missingEntries, RenderGuard guard) {
+            this.output = output;
+            this.missingEntries = missingEntries;
+            this.guard = guard;
+        }
+
+        private void push(Object scope) {
+            if (guard != null) {
+                guard.check(output.length());
+            }
+            pushScope(scope);
+        }
+
+        private void pushScope(Object scope) {
+            if (depth == scopes.length) {
+                scopes = Arrays.copyOf(scopes, depth * 2);
+            }
+            scopes[depth++] = scope;
+        }
+
+        private void pop() {
+            scopes[--depth] = null;
+        }
+    }
+
+    /**
+     * Parser reproducing the handling of whitespace by mustache.java, which differs from the standalone lines of the
+     * mustache specification:
+     * <ul>
+     * <li>the line feed ending the line of an opening tag, or the line of the closing tag of a section spanning several
+     * lines, is dropped if the line has no other text than whitespace. The whitespace is kept</li>
+     * <li>the whitespace before a section spanning several lines, and before a closing tag starting a line, is
+     * dropped</li>
+     * <li>carriage returns are only written before line feeds</li>
+     * </ul>
+     */
+    private static final class Parser {
+
+        private final String template;
+        private int position = 0;
+        private int line = 0;
+
+        private Parser(String template) {
+            this.template = template;
+        }
+
+        /**
+         * Parses until the closing tag of the section, or the end of the template.
+         *
+         * @param section     name of the section being parsed, null for the template itself
+         * @param startOfLine true if the section starts a line
+         */
+        private Node[] body(String section, boolean startOfLine) {
+            int sectionLine = line;
+            List<Node> nodes = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            boolean onlyWhitespace = true;
+            boolean dropNewline = section != null;
+            boolean sawCR = false;
+            while (position < template.length()) {
+                char c = template.charAt(position++);
+                if (c == '\r') {
+                    sawCR = true;
+                    continue;
+                }
+                if (c == '\n') {
+                    line++;
+                    if (!dropNewline || !onlyWhitespace) {
+                        text.append(sawCR ? "\r\n" : "\n");
+                    }
+                    flush(text, nodes);
+                    dropNewline = false;
+                    onlyWhitespace = true;
+                    startOfLine = true;
+                    continue;
+                }
+                sawCR = false;
+                if (c != '{' || !template.startsWith(OPEN, position - 1)) {
+                    onlyWhitespace = (c == ' ' || c == '\t') && onlyWhitespace;
+                    text.append(c);
+                    continue;
+                }
+
+                int open = position - 1;
+                boolean triple = template.startsWith("{{{", open);
+                int close = template.indexOf(triple ? "}}}" : CLOSE, open + (triple ? 3 : 2));
+                if (close < 0) {
+                    throw new IllegalArgumentException("unclosed tag at line " + (line + 1));
+                }
+                String tag = template.substring(open + (triple ? 3 : 2), close).trim();
+                position = close + (triple ? 3 : 2);
+                if (tag.isEmpty()) {
+                    throw new IllegalArgumentException("empty tag at line " + (line + 1));
+                }
+                char type = triple ? '&' : tag.charAt(0);
+                String name = triple ? tag : tag.substring(1).trim();
+                switch (type) {
+                    case '#':
+                    case '^':
+                        int before = line;
+                        Node[] children = body(name, startOfLine && onlyWhitespace);
+                        boolean multiline = line != before;
+                        if (!onlyWhitespace || !multiline) {
+                            flush(text, nodes);
+                        } else {
+                            text.setLength(0);
+                        }
+                        nodes.add(new SectionNode(name, type == '^', children));
+                        dropNewline = multiline;
+                        break;
+                    case '/':
+                        if (!startOfLine || !onlyWhitespace) {
+                            flush(text, nodes);
+                        }
+                        if (!name.equals(section)) {
+                            throw new IllegalArgumentException("unexpected closing tag '" + name + "' at line " + (line + 1)
+                                    + (section == null ? "" : ", '" + section + "' is open"));
+                        }
+                        return nodes.toArray(new Node[0]);
+                    case '!':
+                        flush(text, nodes);
+                        break;
+                    case '>':
+                    case '=':
+                        throw new IllegalArgumentException("unsupported tag '" + tag + "' at line " + (line + 1));
+                    default:
+                        flush(text, nodes);
+                        nodes.add(new VariableNode(type == '&' ? name : tag));
+                }
+                startOfLine = false;
+            }
+            if (section != null) {
+                throw new IllegalArgumentException("section '" + section + "' opened at line " + (sectionLine + 1) + " is not closed");
+            }
+            flush(text, nodes);
+            return nodes.toArray(new Node[0]);
+        }
+
+        private static void flush(StringBuilder text, List<Node> nodes) {
+            if (text.length() > 0) {
+                nodes.add(new TextNode(text.toString()));
+                text.setLength(0);
+            }
+        }
+    }
+
+    private static abstract class Node {
+
+        abstract void render(RenderState state);
+    }
+
+    private static final class TextNode extends Node {
+
+        private final String text;
+
+        private TextNode(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void render(RenderState state) {
+            state.output.append(text);
+        }
+    }
+
+    private static abstract class NamedNode extends Node {
+
+        protected final String name;
+        protected final String[] path;
+
+        private NamedNode(String name) {
+            this.name = name;
+            this.path = name.equals(".") ? new String[0] : name.split("\\.");
+        }
+    }
+
+    private static final class VariableNode extends NamedNode {
+
+        private VariableNode(String name) {
+            super(name);
+        }
+
+        @Override
+        void render(RenderState state) {
+            Object value = lookup(path, state);
+            if (value == MISSING) {
+                state.missingEntries.add(name);
+            } else if (value != null) {
+                state.output.append(value);
+            }
+        }
+    }
+
+    private static final class SectionNode extends NamedNode {
+
+        private final boolean inverted;
+        private final Node[] children;
+
+        private SectionNode(String name, boolean inverted, Node[] children) {
+            super(name);
+            this.inverted = inverted;
+            this.children = children;
+        }
+
+        @Override
+        void render(RenderState state) {
+            Object value = lookup(path, state);
+            if (inverted) {
+                // there is a default behavior associated with the missing value, it is not an error
+                state.missingEntries.remove(name);
+                if (isFalsey(value)) {
+                    renderAll(children, state);
+                }
+                return;
+            }
+            if (value == MISSING) {
+                state.missingEntries.add(name);
+            } else if (value instanceof Iterable) {
+                for (Object element : (Iterable<?>) value) {
+                    state.push(element);
+                    renderAll(children, state);
+                    state.pop();
+                }
+            } else if (!isFalsey(value)) {
+                state.push(value);
+                renderAll(children, state);
+                state.pop();
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.generator;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.vsct.dt.strowgr.admin.core.IncompleteConfigurationException;
+import com.vsct.dt.strowgr.admin.core.TemplateDependencies;
+import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.template.locator.UriTemplateLocator;
+import com.vsct.dt.strowgr.admin.template.template.DefaultTemplates;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Generates haproxy configurations from templates compiled into a {@link TemplateTree}, an alternative to the
+ * {@link MustacheTemplateGenerator} for the mustache syntax used by haproxy templates.
+ * <p>
+ * Values are read from the same {@link StrowgrMustacheScope} and missing entries are reported the same way, but names
+ * are resolved by plain map lookups on each render, without the reflection, guards and wrappers of mustache.java.
+ * Compiled templates are kept in a bounded cache keyed by the SHA-256 of the template content, hits and misses are
+ * counted in 'cache.hits' and 'cache.misses' counters. Each execution is bounded by a {@link RenderBudget}, checked on
+ * each iteration of a section, as the {@link MustacheTemplateGenerator} does.
+ */
+public class TreeTemplateGenerator implements TemplateGenerator {
+
+    private static final int DEFAULT_CACHE_SIZE = 100;
+
+    private final Cache<HashCode, TemplateTree> compiledTemplates;
+
+    private final TemplateTree syslogTemplate;
+
+    private final RenderBudget renderBudget;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter renderTimeExceeded;
+    private final Counter outputSizeExceeded;
+
+    public TreeTemplateGenerator() {
+        this(DEFAULT_CACHE_SIZE, new MetricRegistry());
+    }
+
+    /**
+     * @param cacheSize      maximum number of compiled templates kept
+     * @param metricRegistry where cache metrics are registered
+     */
+    public TreeTemplateGenerator(int cacheSize, MetricRegistry metricRegistry) {
+        this(cacheSize, RenderBudget.UNLIMITED, metricRegistry);
+    }
+
+    /**
+     * @param cacheSize      maximum number of compiled templates kept
+     * @param renderBudget   of each execution of a template
+     * @param metricRegistry where cache and budget metrics are registered
+     */
+    public TreeTemplateGenerator(int cacheSize, RenderBudget renderBudget, MetricRegistry metricRegistry) {
+        this.renderBudget = renderBudget;
+        this.compiledTemplates = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        String syslog = DefaultTemplates.SYSLOG_DEFAULT_TEMPLATE;
+        this.syslogTemplate = TemplateTree.parse(Hashing.sha256().hashString(syslog, StandardCharsets.UTF_8), syslog);
+        this.hits = metricRegistry.counter(MetricRegistry.name(TreeTemplateGenerator.class, "cache", "hits"));
+        this.misses = metricRegistry.counter(MetricRegistry.name(TreeTemplateGenerator.class, "cache", "misses"));
+        this.renderTimeExceeded = metricRegistry.counter(MetricRegistry.name(TreeTemplateGenerator.class, "budget", "render-time", "exceeded"));
+        this.outputSizeExceeded = metricRegistry.counter(MetricRegistry.name(TreeTemplateGenerator.class, "budget", "output-size", "exceeded"));
+    }
+
+    @Override
+    public String generate(String template, EntryPoint configuration, Map<String, Integer> portsMapping) throws IncompleteConfigurationException {
+        return render(template, configuration, portsMapping).toString();
+    }
+
+    @Override
+    public byte[] generateBytes(String template, EntryPoint configuration, Map<String, Integer> portsMapping) throws IncompleteConfigurationException {
+        return render(template, configuration, portsMapping).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private StringBuilder render(String template, EntryPoint configuration, Map<String, Integer> portsMapping) throws IncompleteConfigurationException {
+        Preconditions.checkNotNull(template, "template should not be null. Check uriTemplate %s is correct.", configuration.getContext().get(UriTemplateLocator.URI_FIELD));
+
+        TemplateTree compiled = compile(template);
+        Set<String> missingEntries = new HashSet<>();
+        StringBuilder output;
+        try {
+            RenderGuard guard = renderBudget.isUnlimited() ? null : new RenderGuard(renderBudget);
+            output = compiled.render(new StrowgrMustacheScope(configuration, portsMapping), missingEntries, guard);
+        } catch (RenderBudgetExceededException e) {
+            (e.getLimit() == RenderBudgetExceededException.Limit.RENDER_TIME ? renderTimeExceeded : outputSizeExceeded).inc();
+            throw e;
+        }
+        if (!missingEntries.isEmpty()) {
+            throw new IncompleteConfigurationException(missingEntries);
+        }
+        return output;
+    }
+
+    @Override
+    public String generateSyslogFragment(EntryPoint configuration, Map<String, Integer> portsMapping) {
+        return syslogTemplate.render(new StrowgrMustacheScope(configuration, portsMapping), new HashSet<>(), null).toString();
+    }
+
+    @Override
+    public Map<String, Set<String>> generateFrontAndBackends(String template) {
+        TemplateDependencies dependencies = dependencies(template);
+        HashMap<String, Set<String>> result = new HashMap<>();
+        result.put("frontends", new HashSet<>(dependencies.getFrontends()));
+        result.put("backends", new HashSet<>(dependencies.getBackends()));
+        return result;
+    }
+
+    @Override
+    public TemplateDependencies dependencies(String template) {
+        return compile(template).getDependencies();
+    }
+
+    private TemplateTree compile(String template) {
+        HashCode hash = Hashing.sha256().hashString(template, StandardCharsets.UTF_8);
+        TemplateTree compiled = compiledTemplates.getIfPresent(hash);
+        if (compiled != null) {
+            hits.inc();
+            return compiled;
+        }
+        try {
+            return compiledTemplates.get(hash, () -> {
+                misses.inc();
+                return TemplateTree.parse(hash, template);
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("can't compile template", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.locator;
+
+import com.google.common.io.Resources;
+import com.vsct.dt.strowgr.admin.core.TemplateLocator;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Reads templates from the local filesystem, with 'file:' uris, or from the classpath, with 'classpath:' uris.
+ * Only the files under the given root directories and the resources under the given prefixes are read, since the uri
+ * of a template comes from the api: any other local uri is considered as not found.
+ * <p>
+ * Template files are memory-mapped and decoded once, then kept in memory while their directory is watched: a template
+ * is read again after its file is modified, created or deleted. Since compiled templates are keyed by their content, a
+ * modified template is compiled again on its next use. Classpath resources can't change and are read once.
+ * The number of watched directories is limited, templates of the directories beyond are read on each use.
+ */
+public class LocalTemplateLocator implements TemplateLocator, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalTemplateLocator.class);
+
+    public static final String FILE_SCHEME = "file:";
+    public static final String CLASSPATH_SCHEME = "classpath:";
+
+    private final ConcurrentMap<Path, String> files = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Optional<String>> resources = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    /* incremented on each invalidation, a template read meanwhile may be outdated and is not kept */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final List<Path> rootDirectories;
+    private final List<String> resourcePrefixes;
+    private final int maxWatchedDirectories;
+
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    /**
+     * @param rootDirectories       under which template files are read
+     * @param resourcePrefixes      of the classpath resources which are read
+     * @param maxWatchedDirectories number of directories watched at most
+     */
+    public LocalTemplateLocator(List<Path> rootDirectories, List<String> resourcePrefixes, int maxWatchedDirectories) {
+        this.rootDirectories = rootDirectories.stream().map(LocalTemplateLocator::realPath).collect(Collectors.toList());
+        this.resourcePrefixes = resourcePrefixes.stream().map(prefix -> prefix.replaceFirst("^/+", "")).collect(Collectors.toList());
+        this.maxWatchedDirectories = maxWatchedDirectories;
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't watch template files", e);
+        }
+        this.watcher = new Thread(this::watch, "template-file-watcher");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /**
+     * @param uri of a template
+     * @return true if the template is read by this locator
+     */
+    public boolean supports(String uri) {
+        return uri != null && (uri.startsWith(FILE_SCHEME) || uri.startsWith(CLASSPATH_SCHEME));
+    }
+
+    @Override
+    public Optional<String> readTemplate(EntryPoint configuration) {
+        return readTemplate(configuration.getContext().get(UriTemplateLocator.URI_FIELD));
+    }
+
+    public Optional<String> readTemplate(String uri) {
+        if (uri.startsWith(CLASSPATH_SCHEME)) {
+            String name = uri.substring(CLASSPATH_SCHEME.length()).replaceFirst("^/+", "");
+            if (name.contains("..") || resourcePrefixes.stream().noneMatch(name::startsWith)) {
+                LOGGER.warn("template resource {} is not under the template resource prefixes, it is not read", name);
+                return Optional.empty();
+            }
+            return resources.computeIfAbsent(name, LocalTemplateLocator::readResource);
+        }
+
+        Path path = Paths.get(URI.create(uri)).toAbsolutePath().normalize();
+        String template = files.get(path);
+        if (template != null) {
+            return Optional.of(template);
+        }
+        if (!isUnderRootDirectory(path)) {
+            LOGGER.warn("template file {} is not under the template directories, it is not read", path);
+            return Optional.empty();
+        }
+        // watch before reading, so that a modification following the read is not missed
+        boolean watched = watch(path.getParent());
+        long version = invalidations.get();
+        Optional<String> read = readFile(path);
+        if (watched && read.isPresent()) {
+            files.put(path, read.get());
+            if (invalidations.get() != version) {
+                // the file may have changed since it was read
+                files.remove(path, read.get());
+            }
+        }
+        return read;
+    }
+
+    /**
+     * @return number of directories whose templates are watched
+     */
+    int watchedDirectoryCount() {
+        return watchedDirectories.size();
+    }
+
+    /**
+     * Links are followed: a link under a root directory to a file outside of it is not read.
+     */
+    private boolean isUnderRootDirectory(Path path) {
+        Path realPath = realPath(path);
+        return rootDirectories.stream().anyMatch(realPath::startsWith);
+    }
+
+    private static Path realPath(Path path) {
+        try {
+            return path.toRealPath();
+        } catch (IOException e) {
+            // not existing yet
+            return path.toAbsolutePath().normalize();
+        }
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        watchService.close();
+        watcher.join();
+    }
+
+    private synchronized boolean watch(Path directory) {
+        if (watchedDirectories.contains(directory)) {
+            return true;
+        }
+        if (watchedDirectories.size() >= maxWatchedDirectories) {
+            LOGGER.debug("already {} watched template directories, templates of {} will be read on each use", maxWatchedDirectories, directory);
+            return false;
+        }
+        try {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            watchedDirectories.add(directory);
+            LOGGER.info("watch template files of {}", directory);
+            return true;
+        } catch (IOException | ClosedWatchServiceException e) {
+            LOGGER.warn("can't watch template files of {}, templates will be read on each use", directory, e);
+            return false;
+        }
+    }
+
+    /**
+     * Loop of the watcher thread: forgets the templates of the files which have changed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    invalidations.incrementAndGet();
+                    if (event.kind() == OVERFLOW) {
+                        files.keySet().removeIf(path -> path.startsWith(directory));
+                    } else {
+                        Path path = directory.resolve((Path) event.context());
+                        if (files.remove(path) != null) {
+                            LOGGER.info("template file {} has changed", path);
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    invalidations.incrementAndGet();
+                    watchedDirectories.remove(directory);
+                    files.keySet().removeIf(path -> path.startsWith(directory));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            LOGGER.debug("template file watcher is closed");
+        }
+    }
+
+    private static Optional<String> readFile(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return Optional.of(StandardCharsets.UTF_8.decode(buffer).toString());
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't read template file " + path, e);
+        }
+    }
+
+    private static Optional<String> readResource(String name) {
+        URL resource = LocalTemplateLocator.class.getClassLoader().getResource(name);
+        if (resource == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Resources.toString(resource, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't read template resource " + name, e);
+        }
+    }
+}
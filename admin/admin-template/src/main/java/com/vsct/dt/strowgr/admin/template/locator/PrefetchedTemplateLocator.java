@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.locator;
+
+import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
+import com.vsct.dt.strowgr.admin.core.TemplateLocator;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Locator of the commit path, reading templates from a local store which is kept up to date in background, so that no
+ * template is fetched while an entrypoint is locked.
+ * <p>
+ * Templates are fetched through the {@link UriTemplateLocator} and compiled before being stored, by
+ * {@link #refresh(Collection)} for all the uris known to be used, or in background for a uri read before being
+ * stored: such a read fails, the commit being tried again later.
+ * <p>
+ * Each refresh also fetches again the uris read since the previous one, for instance by pending configurations, and
+ * evicts the stored templates which are neither given nor read.
+ */
+public class PrefetchedTemplateLocator implements TemplateLocator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrefetchedTemplateLocator.class);
+
+    private final UriTemplateLocator uriTemplateLocator;
+    private final TemplateGenerator templateGenerator;
+    private final Executor fetchExecutor;
+
+    private final ConcurrentMap<String, String> templates = new ConcurrentHashMap<>();
+    private final Set<String> fetching = ConcurrentHashMap.newKeySet();
+    private final Set<String> readSinceRefresh = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param uriTemplateLocator fetching the templates
+     * @param templateGenerator  compiling the templates
+     * @param fetchExecutor      of the templates read before being stored
+     */
+    public PrefetchedTemplateLocator(UriTemplateLocator uriTemplateLocator, TemplateGenerator templateGenerator, Executor fetchExecutor) {
+        this.uriTemplateLocator = uriTemplateLocator;
+        this.templateGenerator = templateGenerator;
+        this.fetchExecutor = fetchExecutor;
+    }
+
+    /**
+     * @param configuration of the entrypoint
+     * @return the stored template, empty if the entrypoint has no template uri or if the template has not been found
+     * @throws IllegalStateException if the template has not been fetched yet, it is then fetched in background
+     */
+    @Override
+    public Optional<String> readTemplate(EntryPoint configuration) {
+        String uri = configuration.getContext().get(UriTemplateLocator.URI_FIELD);
+        if (uri == null) {
+            return Optional.empty();
+        }
+        readSinceRefresh.add(uri);
+        String template = templates.get(uri);
+        if (template != null) {
+            return Optional.of(template);
+        }
+        if (fetching.add(uri)) {
+            fetchExecutor.execute(() -> {
+                try {
+                    refresh(uri);
+                } finally {
+                    fetching.remove(uri);
+                }
+            });
+        }
+        throw new IllegalStateException("template " + uri + " has not been fetched yet, it is being fetched in background");
+    }
+
+    /**
+     * @param configuration of the entrypoint
+     * @return the stored template, empty if it is not stored
+     */
+    public Optional<String> getStoredTemplate(EntryPoint configuration) {
+        String uri = configuration.getContext().get(UriTemplateLocator.URI_FIELD);
+        return uri == null ? Optional.empty() : Optional.ofNullable(templates.get(uri));
+    }
+
+    /**
+     * Fetches and compiles the templates, and the ones read since the previous refresh, replacing the stored ones.
+     * A template which can't be fetched is kept. Other stored templates are evicted.
+     *
+     * @param uris of the templates
+     * @return number of templates stored
+     */
+    public int refresh(Collection<String> uris) {
+        Set<String> refreshed = new HashSet<>(uris);
+        for (Iterator<String> read = readSinceRefresh.iterator(); read.hasNext(); ) {
+            refreshed.add(read.next());
+            read.remove();
+        }
+        templates.keySet().removeIf(uri -> !refreshed.contains(uri) && !fetching.contains(uri));
+        refreshed.forEach(this::refresh);
+        return templates.size();
+    }
+
+    private void refresh(String uri) {
+        try {
+            Optional<String> template = uriTemplateLocator.readTemplate(uri);
+            if (template.isPresent()) {
+                templateGenerator.dependencies(template.get());
+                templates.put(uri, template.get());
+            } else {
+                LOGGER.warn("template {} has not been found", uri);
+                templates.remove(uri);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("can't refresh template {}, previous one is kept", uri, e);
+        }
+    }
+}
@@ -15,9 +15,16 @@
  */
 package com.vsct.dt.strowgr.admin.template.locator;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.vsct.dt.strowgr.admin.core.TemplateLocator;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
@@ -27,16 +34,115 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Reads templates from the uri given by the 'templateUri' entry of the entrypoint context.
+ * <p>
+ * Templates with a 'file:' or 'classpath:' uri are read by the {@link LocalTemplateLocator} if one is given, the other
+ * ones are requested over http.
+ * <p>
+ * Templates are cached in memory by uri, many entrypoints sharing the same few templates:
+ * <ul>
+ * <li>during the ttl, the cached template is returned without any request</li>
+ * <li>then during the stale-while-revalidate period, the cached template is still returned while it is revalidated in
+ * the background, one revalidation at a time by uri</li>
+ * <li>afterwards, the template is revalidated before being returned</li>
+ * </ul>
+ * Revalidation is a conditional request with 'If-None-Match' and 'If-Modified-Since' when the server gave an 'ETag' or
+ * a 'Last-Modified', so that an unchanged template is not transferred again. If a request fails, the cached template is
+ * returned during the stale-if-error period following its ttl.
+ * <p>
+ * Concurrent reads of a uri which is not cached share a single request: the first read performs it and the other ones
+ * wait for its result, at most for the fetch timeout. Requests to a same host are limited too, a request waiting at
+ * most for the fetch timeout to be allowed. The request itself is bounded by the timeouts of the http client.
+ * <p>
+ * 'hits', 'stale', 'misses' and 'coalesced' counters are registered along with a 'fetch' timer of the requests.
+ * Failures served with a stale template are counted in 'staleIfError'. They are shared by all uris: the uris come from
+ * the entrypoint contexts, so metrics named after them would grow without bound.
+ */
 public class UriTemplateLocator implements TemplateLocator {
     private static final Logger LOGGER = LoggerFactory.getLogger(UriTemplateLocator.class);
 
     public static final String URI_FIELD = "templateUri";
     private final CloseableHttpClient client;
 
+    private static final long DEFAULT_FETCH_TIMEOUT = 10_000;
+    private static final int DEFAULT_MAX_CONCURRENT_FETCHES_PER_HOST = 4;
+
+    private final long ttl;
+    private final long staleWhileRevalidate;
+    private final long staleIfError;
+    private final Executor revalidationExecutor;
+    private final long fetchTimeout;
+    private final int maxConcurrentFetchesPerHost;
+    private final Optional<LocalTemplateLocator> localTemplateLocator;
+    private final Counter hits;
+    private final Counter stale;
+    private final Counter misses;
+    private final Counter coalesced;
+    private final Counter staleIfErrors;
+    private final Timer fetchTimer;
+
+    private final ConcurrentMap<String, CachedTemplate> templates = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Optional<String>>> fetches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    /**
+     * Locator without cache: templates are revalidated on each read.
+     */
     public UriTemplateLocator() {
-        this.client = HttpClients.createDefault();
+        this(HttpClients.createDefault(), 0, 0, 0, MoreExecutors.directExecutor(), new MetricRegistry());
+    }
+
+    /**
+     * @param client                 used to request the templates
+     * @param ttl                    in milliseconds during which a template is returned without any request
+     * @param staleWhileRevalidate   in milliseconds after the ttl during which a template is returned while revalidated
+     * @param staleIfError           in milliseconds after the ttl during which a template is returned if it can't be
+     *                               revalidated
+     * @param revalidationExecutor   of the background revalidations
+     * @param metricRegistry         registry of the cache and request metrics
+     */
+    public UriTemplateLocator(CloseableHttpClient client, long ttl, long staleWhileRevalidate, long staleIfError,
+                              Executor revalidationExecutor, MetricRegistry metricRegistry) {
+        this(client, ttl, staleWhileRevalidate, staleIfError, revalidationExecutor, DEFAULT_FETCH_TIMEOUT, DEFAULT_MAX_CONCURRENT_FETCHES_PER_HOST, Optional.empty(), metricRegistry);
+    }
+
+    /**
+     * @param client                      used to request the templates
+     * @param ttl                         in milliseconds during which a template is returned without any request
+     * @param staleWhileRevalidate        in milliseconds after the ttl during which a template is returned while
+     *                                    revalidated
+     * @param staleIfError                in milliseconds after the ttl during which a template is returned if it can't
+     *                                    be revalidated
+     * @param revalidationExecutor        of the background revalidations
+     * @param fetchTimeout                in milliseconds to wait for a request performed by another read, or for a
+     *                                    request to a host to be allowed
+     * @param maxConcurrentFetchesPerHost maximum number of requests at the same time to a host
+     * @param localTemplateLocator        reading the 'file:' and 'classpath:' uris, if any
+     * @param metricRegistry              registry of the cache and request metrics
+     */
+    public UriTemplateLocator(CloseableHttpClient client, long ttl, long staleWhileRevalidate, long staleIfError,
+                              Executor revalidationExecutor, long fetchTimeout, int maxConcurrentFetchesPerHost,
+                              Optional<LocalTemplateLocator> localTemplateLocator, MetricRegistry metricRegistry) {
+        this.client = client;
+        this.ttl = ttl;
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleIfError = staleIfError;
+        this.revalidationExecutor = revalidationExecutor;
+        this.fetchTimeout = fetchTimeout;
+        this.maxConcurrentFetchesPerHost = maxConcurrentFetchesPerHost;
+        this.localTemplateLocator = localTemplateLocator;
+        this.hits = metricRegistry.counter(MetricRegistry.name(UriTemplateLocator.class, "hits"));
+        this.stale = metricRegistry.counter(MetricRegistry.name(UriTemplateLocator.class, "stale"));
+        this.misses = metricRegistry.counter(MetricRegistry.name(UriTemplateLocator.class, "misses"));
+        this.coalesced = metricRegistry.counter(MetricRegistry.name(UriTemplateLocator.class, "coalesced"));
+        this.staleIfErrors = metricRegistry.counter(MetricRegistry.name(UriTemplateLocator.class, "staleIfError"));
+        this.fetchTimer = metricRegistry.timer(MetricRegistry.name(UriTemplateLocator.class, "fetch"));
     }
 
     @Override
@@ -45,14 +151,129 @@ public class UriTemplateLocator implements TemplateLocator {
     }
 
     public Optional<String> readTemplate(String uri) {
+        if (localTemplateLocator.isPresent() && localTemplateLocator.get().supports(uri)) {
+            return localTemplateLocator.get().readTemplate(uri);
+        }
+        CachedTemplate cached = uri == null ? null : templates.get(uri);
+        if (cached != null) {
+            long age = System.currentTimeMillis() - cached.fetchedAt;
+            if (age < ttl) {
+                hits.inc();
+                return Optional.of(cached.template);
+            }
+            if (age < ttl + staleWhileRevalidate) {
+                stale.inc();
+                if (cached.revalidating.compareAndSet(false, true)) {
+                    revalidationExecutor.execute(() -> {
+                        try {
+                            coalescedFetch(uri, cached);
+                        } catch (RuntimeException e) {
+                            LOGGER.warn("can't revalidate template {}, cached one is kept", uri, e);
+                        } finally {
+                            cached.revalidating.set(false);
+                        }
+                    });
+                }
+                return Optional.of(cached.template);
+            }
+        }
+
+        misses.inc();
+        try {
+            return coalescedFetch(uri, cached);
+        } catch (RuntimeException e) {
+            if (cached != null && System.currentTimeMillis() - cached.fetchedAt < ttl + staleIfError) {
+                LOGGER.warn("can't revalidate template {}, cached one is used", uri, e);
+                staleIfErrors.inc();
+                return Optional.of(cached.template);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Requests the template, or waits for the request already performed for the uri.
+     */
+    private Optional<String> coalescedFetch(String uri, CachedTemplate cached) {
+        if (uri == null) {
+            return limitedFetch(null, cached);
+        }
+        CompletableFuture<Optional<String>> fetch = new CompletableFuture<>();
+        CompletableFuture<Optional<String>> pending = fetches.putIfAbsent(uri, fetch);
+        if (pending != null) {
+            coalesced.inc();
+            try {
+                return pending.get(fetchTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while waiting for template " + uri, e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("can't retrieve template from " + uri, e.getCause());
+            } catch (TimeoutException e) {
+                throw new RuntimeException("template " + uri + " has not been retrieved within " + fetchTimeout + " ms", e);
+            }
+        }
         try {
+            Optional<String> template = limitedFetch(uri, cached);
+            fetch.complete(template);
+            return template;
+        } catch (RuntimeException e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            fetches.remove(uri, fetch);
+        }
+    }
+
+    /**
+     * Requests the template once allowed by the limit of concurrent requests to its host.
+     */
+    private Optional<String> limitedFetch(String uri, CachedTemplate cached) {
+        String host = uri == null ? "" : String.valueOf(URI.create(uri).getAuthority());
+        Semaphore permits = hostPermits.computeIfAbsent(host, h -> new Semaphore(maxConcurrentFetchesPerHost));
+        try {
+            if (!permits.tryAcquire(fetchTimeout, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("too many concurrent template requests to " + host + ", " + uri + " has not been requested within " + fetchTimeout + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting to request template " + uri, e);
+        }
+        try {
+            return fetch(uri, cached);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Requests the template, conditionally if it is cached, and updates the cache with the response.
+     *
+     * @param uri    of the template
+     * @param cached template, or null
+     * @return the template, empty if it has not been found
+     */
+    private Optional<String> fetch(String uri, CachedTemplate cached) {
+        try (Timer.Context ignored = fetchTimer.time()) {
             HttpGet getTemplate = new HttpGet(uri);
             getTemplate.addHeader("Content-Type", "text/plain; charset=utf-8");
+            if (cached != null && cached.etag != null) {
+                getTemplate.addHeader(HttpHeaders.IF_NONE_MATCH, cached.etag);
+            }
+            if (cached != null && cached.lastModified != null) {
+                getTemplate.addHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+            }
             LOGGER.trace("get template {}", uri);
             return client.execute(getTemplate, (response) -> {
                 Optional<String> result = Optional.empty();
                 int status = response.getStatusLine().getStatusCode();
-                if (status >= 200 && status < 300) {
+                if (status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                    LOGGER.debug("template from {} not modified", uri);
+                    templates.put(uri, new CachedTemplate(cached.template,
+                            headerValue(response.getFirstHeader(HttpHeaders.ETAG), cached.etag),
+                            headerValue(response.getFirstHeader(HttpHeaders.LAST_MODIFIED), cached.lastModified)));
+                    result = Optional.of(cached.template);
+                } else if (status >= 200 && status < 300) {
                     HttpEntity entity = response.getEntity();
                     String entitySer = EntityUtils.toString(entity, "UTF-8");
                     if (entitySer == null) {
@@ -64,8 +285,13 @@ public class UriTemplateLocator implements TemplateLocator {
                             LOGGER.debug("success on " + uri);
                         }
                     }
+                    templates.put(uri, new CachedTemplate(entitySer,
+                            headerValue(response.getFirstHeader(HttpHeaders.ETAG), null),
+                            headerValue(response.getFirstHeader(HttpHeaders.LAST_MODIFIED), null)));
                     result = Optional.of(entitySer);
-                } else if (status != 404) {
+                } else if (status == HttpStatus.SC_NOT_FOUND) {
+                    templates.remove(uri);
+                } else {
                     throw new ClientProtocolException("Unexpected response status: " + status);
                 }
                 return result;
@@ -75,4 +301,25 @@ public class UriTemplateLocator implements TemplateLocator {
             throw new RuntimeException(e);
         }
     }
+
+    private static String headerValue(Header header, String defaultValue) {
+        return header == null ? defaultValue : header.getValue();
+    }
+
+    /**
+     * A template with the validators given by the server and the time it has been fetched or revalidated.
+     */
+    private static final class CachedTemplate {
+        private final String template;
+        private final String etag;
+        private final String lastModified;
+        private final long fetchedAt = System.currentTimeMillis();
+        private final AtomicBoolean revalidating = new AtomicBoolean(false);
+
+        private CachedTemplate(String template, String etag, String lastModified) {
+            this.template = template;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
 }
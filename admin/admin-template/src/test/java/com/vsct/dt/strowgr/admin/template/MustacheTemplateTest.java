@@ -15,25 +15,38 @@
  */
 package com.vsct.dt.strowgr.admin.template;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.CharStreams;
 import com.vsct.dt.strowgr.admin.core.IncompleteConfigurationException;
+import com.vsct.dt.strowgr.admin.core.TemplateDependencies;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackend;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackendServer;
 import com.vsct.dt.strowgr.admin.core.configuration.EntryPointFrontend;
 import com.vsct.dt.strowgr.admin.template.generator.MustacheTemplateGenerator;
+import com.vsct.dt.strowgr.admin.template.generator.RenderBudget;
+import com.vsct.dt.strowgr.admin.template.generator.RenderBudgetExceededException;
 import org.fest.assertions.Assertions;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class MustacheTemplateTest {
 
@@ -296,4 +309,173 @@ public class MustacheTemplateTest {
 
         templateGenerator.generate(CharStreams.toString(reader), configuration, portsMapping);
     }
+
+    @Test
+    public void should_compile_template_once_and_keep_reporting_missing_entries() throws IOException {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        MustacheTemplateGenerator cachingGenerator = new MustacheTemplateGenerator(10, metricRegistry);
+        Map<String, String> epContext = new HashMap<>();
+        epContext.put("application", "OCE");
+        EntryPoint configuration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(), epContext);
+        String template = "{{application}} {{platform}}";
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cachingGenerator.generate(template, configuration, new HashMap<>());
+                fail("missing entry should be reported");
+            } catch (IncompleteConfigurationException e) {
+                assertThat(e.getMissingEntries()).containsOnly("platform");
+            }
+        }
+
+        assertThat(metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "cache", "misses")).getCount()).isEqualTo(1L);
+        assertThat(metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "cache", "hits")).getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void should_report_missing_entries_of_each_render_when_rendering_concurrently() throws Exception {
+        String template = "{{application}} {{platform}}";
+        Map<String, String> completeContext = new HashMap<>();
+        completeContext.put("application", "OCE");
+        completeContext.put("platform", "REC1");
+        EntryPoint complete = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(), completeContext);
+        Map<String, String> incompleteContext = new HashMap<>();
+        incompleteContext.put("application", "OCE");
+        EntryPoint incomplete = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(), incompleteContext);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            EntryPoint configuration = i % 2 == 0 ? complete : incomplete;
+            results.add(executor.submit(() -> {
+                try {
+                    return templateGenerator.generate(template, configuration, new HashMap<>());
+                } catch (IncompleteConfigurationException e) {
+                    return "missing " + e.getMissingEntries();
+                }
+            }));
+        }
+        executor.shutdown();
+
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i).get()).isEqualTo(i % 2 == 0 ? "OCE REC1" : "missing [platform]");
+        }
+    }
+
+    @Test
+    public void should_only_render_again_iterations_of_changed_backend() throws IOException, IncompleteConfigurationException {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        MustacheTemplateGenerator cachingGenerator = new MustacheTemplateGenerator(10, metricRegistry);
+        EntryPointFrontend frontend = new EntryPointFrontend("OCEREC1WS1", Maps.newHashMap());
+        EntryPointBackend backend1 = new EntryPointBackend("OCEREC1WS1", Sets.newHashSet(new EntryPointBackendServer("instance_name1_ws1", "10.98.81.74", "9090", new HashMap<>(), new HashMap<>())), Maps.newHashMap());
+        EntryPointBackend backend2 = new EntryPointBackend("OCEREC1WS2", Sets.newHashSet(new EntryPointBackendServer("instance_name1_ws2", "10.98.81.75", "9090", new HashMap<>(), new HashMap<>())), Maps.newHashMap());
+        EntryPointBackend changedBackend2 = new EntryPointBackend("OCEREC1WS2", Sets.newHashSet(new EntryPointBackendServer("instance_name1_ws2", "10.98.81.75", "9091", new HashMap<>(), new HashMap<>())), Maps.newHashMap());
+        Map<String, String> epContext = new HashMap<>();
+        epContext.put("application", "OCE");
+        epContext.put("platform", "REC1");
+        EntryPoint configuration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(frontend), Sets.newHashSet(backend1, backend2), epContext);
+        EntryPoint changedConfiguration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(frontend), Sets.newHashSet(backend1, changedBackend2), epContext);
+        Map<String, Integer> portsMapping = new HashMap<>();
+        portsMapping.put(configuration.syslogPortId(), 54250);
+        portsMapping.put("OCEREC1WS1", 50200);
+        FileReader reader = new FileReader(new File(getClass().getClassLoader().getResource("template.iterate.servers.context.mustache").getFile()));
+        String template = CharStreams.toString(reader);
+        reader.close();
+
+        cachingGenerator.generate(template, configuration, portsMapping);
+        String result = cachingGenerator.generate(template, changedConfiguration, portsMapping);
+
+        assertThat(result).isEqualTo(new MustacheTemplateGenerator().generate(template, changedConfiguration, portsMapping));
+        assertThat(result).contains("10.98.81.75:9091");
+        // frontend and both backends on first render, then the changed backend only
+        assertThat(metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "fragments", "misses")).getCount()).isEqualTo(4L);
+        assertThat(metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "fragments", "hits")).getCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void should_render_again_iterations_looking_up_changed_backend_by_id() throws IncompleteConfigurationException {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        MustacheTemplateGenerator cachingGenerator = new MustacheTemplateGenerator(10, metricRegistry);
+        String template = "{{#frontends}}{{id}}->{{#backend.BACK}}{{#servers}}{{ip}}:{{port}}{{/servers}}{{/backend.BACK}}\n{{/frontends}}";
+        EntryPointFrontend frontend = new EntryPointFrontend("FRONT", Maps.newHashMap());
+        EntryPointBackend backend = new EntryPointBackend("BACK", Sets.newHashSet(new EntryPointBackendServer("server1", "10.98.81.74", "9090", new HashMap<>(), new HashMap<>())), Maps.newHashMap());
+        EntryPointBackend changedBackend = new EntryPointBackend("BACK", Sets.newHashSet(new EntryPointBackendServer("server1", "10.98.81.74", "9091", new HashMap<>(), new HashMap<>())), Maps.newHashMap());
+        EntryPoint configuration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(frontend), Sets.newHashSet(backend), new HashMap<>());
+        EntryPoint sameConfiguration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(frontend), Sets.newHashSet(backend), new HashMap<>());
+        EntryPoint changedConfiguration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(frontend), Sets.newHashSet(changedBackend), new HashMap<>());
+        Map<String, Integer> portsMapping = new HashMap<>();
+        portsMapping.put("FRONT", 50200);
+
+        assertThat(cachingGenerator.generate(template, configuration, portsMapping)).isEqualTo("FRONT->10.98.81.74:9090\n");
+        assertThat(cachingGenerator.generate(template, sameConfiguration, portsMapping)).isEqualTo("FRONT->10.98.81.74:9090\n");
+        assertThat(cachingGenerator.generate(template, changedConfiguration, portsMapping)).isEqualTo("FRONT->10.98.81.74:9091\n");
+
+        assertThat(metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "fragments", "misses")).getCount()).isEqualTo(2L);
+        assertThat(metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "fragments", "hits")).getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void should_iterate_over_frontends_backends_and_servers_ordered_by_id() throws IncompleteConfigurationException {
+        EntryPointBackendServer server1 = new EntryPointBackendServer("server1", "10.98.81.74", "9090", new HashMap<>(), new HashMap<>());
+        EntryPointBackendServer server2 = new EntryPointBackendServer("server2", "10.98.81.75", "9090", new HashMap<>(), new HashMap<>());
+        Set<EntryPointBackend> backends = new HashSet<>();
+        for (String id : Arrays.asList("c", "a", "d", "b")) {
+            backends.add(new EntryPointBackend(id, Sets.newHashSet(server2, server1), Maps.newHashMap()));
+        }
+        Set<EntryPointFrontend> frontends = Sets.newHashSet(new EntryPointFrontend("y", Maps.newHashMap()), new EntryPointFrontend("x", Maps.newHashMap()));
+        EntryPoint configuration = new EntryPoint("default-name", "hapocer1", "hapVersion", 0, frontends, backends, new HashMap<>());
+
+        String result = templateGenerator.generate("{{#frontends}}{{id}} {{/frontends}}{{#backends}}{{id}}[{{#servers}}{{id}} {{/servers}}] {{/backends}}", configuration, new HashMap<>());
+
+        assertThat(result).isEqualTo("x y a[server1 server2 ] b[server1 server2 ] c[server1 server2 ] d[server1 server2 ] ");
+    }
+
+    @Test
+    public void should_compute_variables_read_by_template() {
+        TemplateDependencies dependencies = templateGenerator.dependencies("{{application}}{{#backends}}{{#servers}}{{ip}}{{/servers}}{{/backends}}{{frontend.FRONT.port}}");
+
+        assertThat(dependencies.getNames()).containsOnly("application", "backends", "servers", "ip", "frontend", "FRONT", "port", "templateUri");
+        assertThat(dependencies.getFrontends()).containsOnly("FRONT");
+        assertThat(dependencies.getBackends()).isEmpty();
+    }
+
+    private static EntryPoint configurationWithServers(int servers) {
+        Set<EntryPointBackendServer> serverSet = new HashSet<>();
+        for (int i = 0; i < servers; i++) {
+            serverSet.add(new EntryPointBackendServer("server" + i, "10.98.81." + (i % 250), "9090", new HashMap<>(), new HashMap<>()));
+        }
+        return new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(new EntryPointBackend("BACKEND", serverSet, Maps.newHashMap())), new HashMap<>());
+    }
+
+    @Test
+    public void should_fail_when_output_exceeds_budget() throws IncompleteConfigurationException {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        MustacheTemplateGenerator budgetedGenerator = new MustacheTemplateGenerator(10, 0, new RenderBudget(60_000, 1000), metricRegistry);
+        String template = "{{#backends}}{{#servers}}server {{id}} {{ip}}:{{port}}\n{{/servers}}{{/backends}}";
+
+        assertThat(budgetedGenerator.generate(template, configurationWithServers(10), new HashMap<>())).contains("server server9");
+        try {
+            budgetedGenerator.generate(template, configurationWithServers(100), new HashMap<>());
+            fail("output of 100 servers should exceed the budget");
+        } catch (RenderBudgetExceededException e) {
+            assertThat(e.getLimit()).isEqualTo(RenderBudgetExceededException.Limit.OUTPUT_SIZE);
+        }
+        assertThat(metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "budget", "output-size", "exceeded")).getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void should_fail_when_render_time_exceeds_budget() throws IncompleteConfigurationException {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        MustacheTemplateGenerator budgetedGenerator = new MustacheTemplateGenerator(10, 0, new RenderBudget(1, Long.MAX_VALUE), metricRegistry);
+        // a million iterations writing nothing
+        String template = "{{#backends}}{{#servers}}{{#backends}}{{#servers}}{{/servers}}{{/backends}}{{/servers}}{{/backends}}";
+
+        try {
+            budgetedGenerator.generate(template, configurationWithServers(1000), new HashMap<>());
+            fail("a million iterations should exceed the budget");
+        } catch (RenderBudgetExceededException e) {
+            assertThat(e.getLimit()).isEqualTo(RenderBudgetExceededException.Limit.RENDER_TIME);
+        }
+        assertThat(metricRegistry.counter(MetricRegistry.name(MustacheTemplateGenerator.class, "budget", "render-time", "exceeded")).getCount()).isEqualTo(1L);
+    }
 }
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Resources;
+import com.vsct.dt.strowgr.admin.core.IncompleteConfigurationException;
+import com.vsct.dt.strowgr.admin.core.TemplateDependencies;
+import com.vsct.dt.strowgr.admin.core.TemplateGenerator;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackend;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPointBackendServer;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPointFrontend;
+import com.vsct.dt.strowgr.admin.template.generator.MustacheTemplateGenerator;
+import com.vsct.dt.strowgr.admin.template.generator.RenderBudget;
+import com.vsct.dt.strowgr.admin.template.generator.RenderBudgetExceededException;
+import com.vsct.dt.strowgr.admin.template.generator.TreeTemplateGenerator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * The tree engine is checked against mustache.java on the same templates and configurations.
+ */
+public class TreeTemplateTest {
+
+    private final TemplateGenerator mustache = new MustacheTemplateGenerator();
+    private final TreeTemplateGenerator tree = new TreeTemplateGenerator();
+
+    private static final List<String> RESOURCES = Arrays.asList(
+            "template.standard.context.mustache",
+            "template.iterate.servers.context.mustache",
+            "template.user.context.on.server.mustache",
+            "template.missing.property.1.context.mustache",
+            "template.missing.property.2.context.mustache",
+            "template.missing.property.3.context.mustache",
+            "template.missing.property.with.default.mustache");
+
+    private static final String SYNTAX = "{{! a comment }}\n"
+            + "global {{hap_user}}\n"
+            + "  {{#frontends}}\n"
+            + "frontend {{id}} :{{port}} {{{application}}} {{& platform}}\n"
+            + "  {{/frontends}}\n"
+            + "{{#backends}}\n"
+            + "backend {{id}}{{#servers}} {{.}}{{/servers}}\n"
+            + "  {{#servers}}\n"
+            + "    server {{id}} {{ip}}:{{port}} {{key1}}{{^key1}}none{{/key1}} weight {{#weight}}{{weight}}{{/weight}}{{^weight}}1{{/weight}}\n"
+            + "  {{/servers}}\n"
+            + "{{^servers}}\n"
+            + "    # no server\n"
+            + "{{/servers}}\n"
+            + "{{/backends}}\n"
+            + "{{#frontend.OCEREC1WS}}bind {{port}}{{/frontend.OCEREC1WS}}\r\n"
+            + "{{#application}}app {{application}}{{/application}}\n"
+            + "{{^unknown}}no unknown{{/unknown}}  {{! trailing comment }}\n"
+            + "end {{syslog_port}}";
+
+    private static EntryPoint configuration(int backends, int servers) {
+        Set<EntryPointFrontend> frontendSet = new HashSet<>();
+        Set<EntryPointBackend> backendSet = new HashSet<>();
+        for (int b = 0; b < backends; b++) {
+            String id = b == 0 ? "OCEREC1WS" : "OCEREC1WS" + b;
+            frontendSet.add(new EntryPointFrontend(id, Maps.newHashMap()));
+            Set<EntryPointBackendServer> serverSet = new HashSet<>();
+            for (int s = 0; s < servers; s++) {
+                Map<String, String> context = new HashMap<>();
+                if (s % 2 == 0) {
+                    context.put("key1", "value" + s);
+                    context.put("maxconn", "200");
+                }
+                Map<String, String> override = new HashMap<>();
+                if (s % 3 == 0) {
+                    override.put("weight", String.valueOf(s));
+                }
+                serverSet.add(new EntryPointBackendServer("instance_" + b + "_" + s, "10.98.81." + s, "90" + s, context, override));
+            }
+            backendSet.add(new EntryPointBackend(id, serverSet, Maps.newHashMap()));
+        }
+        Map<String, String> epContext = new HashMap<>();
+        epContext.put("application", "OCE");
+        epContext.put("platform", "REC1");
+        return new EntryPoint("default-name", "hapocer1", "hapVersion", 0, frontendSet, backendSet, epContext);
+    }
+
+    private static Map<String, Integer> portsMapping(EntryPoint configuration) {
+        Map<String, Integer> portsMapping = new HashMap<>();
+        portsMapping.put(configuration.syslogPortId(), 54250);
+        int port = 50200;
+        for (EntryPointFrontend frontend : configuration.getFrontends()) {
+            portsMapping.put(frontend.getId(), port++);
+        }
+        return portsMapping;
+    }
+
+    private void assertRendersLikeMustache(String template) {
+        for (EntryPoint configuration : Arrays.asList(configuration(0, 0), configuration(1, 0), configuration(1, 1), configuration(3, 4))) {
+            Map<String, Integer> portsMapping = portsMapping(configuration);
+            String expected;
+            try {
+                expected = mustache.generate(template, configuration, portsMapping);
+            } catch (IncompleteConfigurationException e) {
+                try {
+                    tree.generate(template, configuration, portsMapping);
+                    fail("missing entries " + e.getMissingEntries() + " should be reported");
+                } catch (IncompleteConfigurationException treeException) {
+                    assertThat(treeException.getMissingEntries()).isEqualTo(e.getMissingEntries());
+                }
+                continue;
+            }
+            try {
+                assertThat(tree.generate(template, configuration, portsMapping)).isEqualTo(expected);
+                assertThat(new String(tree.generateBytes(template, configuration, portsMapping), StandardCharsets.UTF_8)).isEqualTo(expected);
+            } catch (IncompleteConfigurationException e) {
+                fail("no missing entry should be reported, got " + e.getMissingEntries());
+            }
+        }
+        TemplateDependencies expected = mustache.dependencies(template);
+        TemplateDependencies actual = tree.dependencies(template);
+        // mustache.java also names its comments after their text
+        assertThat(expected.getNames().containsAll(actual.getNames())).isTrue();
+        assertThat(actual.getFrontends()).isEqualTo(expected.getFrontends());
+        assertThat(actual.getBackends()).isEqualTo(expected.getBackends());
+    }
+
+    /**
+     * Builds a random template of text, whitespace, line breaks, variables, comments and nested sections.
+     */
+    private static String randomTemplate(Random random, int depth) {
+        StringBuilder template = new StringBuilder();
+        int parts = random.nextInt(8);
+        for (int i = 0; i < parts; i++) {
+            switch (random.nextInt(depth < 3 ? 9 : 7)) {
+                case 0:
+                    template.append('\n');
+                    break;
+                case 1:
+                    template.append(random.nextBoolean() ? "  " : "\t");
+                    break;
+                case 2:
+                    template.append("text");
+                    break;
+                case 3:
+                    template.append(random.nextBoolean() ? "{{id}}" : "{{application}}");
+                    break;
+                case 4:
+                    template.append("{{! comment }}");
+                    break;
+                case 5:
+                    template.append("\r\n");
+                    break;
+                case 6:
+                    String tag = random.nextBoolean() ? "^unknown" : "#application";
+                    template.append("{{").append(tag).append("}}")
+                            .append(randomTemplate(random, depth + 1))
+                            .append("{{/").append(tag.substring(1)).append("}}");
+                    break;
+                default:
+                    String name = random.nextBoolean() ? "backends" : "frontends";
+                    template.append("{{#").append(name).append("}}")
+                            .append(randomTemplate(random, depth + 1))
+                            .append("{{/").append(name).append("}}");
+            }
+        }
+        return template.toString();
+    }
+
+    @Test
+    public void should_render_random_templates_like_mustache() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            assertRendersLikeMustache(randomTemplate(random, 0));
+        }
+    }
+
+    @Test
+    public void should_render_test_templates_like_mustache() throws IOException {
+        for (String resource : RESOURCES) {
+            assertRendersLikeMustache(Resources.toString(Resources.getResource(resource), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void should_render_static_templates_like_mustache() throws IOException {
+        for (String name : Arrays.asList("template_haproxy.conf", "template_haproxy_extended.conf")) {
+            assertRendersLikeMustache(new String(Files.readAllBytes(Paths.get("../../static", name)), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void should_render_sections_comments_and_standalone_lines_like_mustache() {
+        assertRendersLikeMustache(SYNTAX);
+    }
+
+    @Test
+    public void should_render_syslog_fragment_like_mustache() {
+        EntryPoint configuration = configuration(2, 2);
+        assertThat(tree.generateSyslogFragment(configuration, portsMapping(configuration)))
+                .isEqualTo(mustache.generateSyslogFragment(configuration, portsMapping(configuration)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_unclosed_section() {
+        tree.dependencies("{{#backends}}backend {{id}}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_partials() {
+        tree.dependencies("{{> other}}");
+    }
+
+    @Test
+    public void should_fail_when_budget_is_exceeded() throws IncompleteConfigurationException {
+        EntryPoint configuration = configuration(1, 1000);
+        TreeTemplateGenerator sizeBudgeted = new TreeTemplateGenerator(10, new RenderBudget(60_000, 1000), new MetricRegistry());
+        TreeTemplateGenerator timeBudgeted = new TreeTemplateGenerator(10, new RenderBudget(1, Long.MAX_VALUE), new MetricRegistry());
+
+        try {
+            sizeBudgeted.generate("{{#backends}}{{#servers}}server {{id}} {{ip}}:{{port}}\n{{/servers}}{{/backends}}", configuration, portsMapping(configuration));
+            fail("output of 1000 servers should exceed the budget");
+        } catch (RenderBudgetExceededException e) {
+            assertThat(e.getLimit()).isEqualTo(RenderBudgetExceededException.Limit.OUTPUT_SIZE);
+        }
+        try {
+            timeBudgeted.generate("{{#backends}}{{#servers}}{{#backends}}{{#servers}}{{/servers}}{{/backends}}{{/servers}}{{/backends}}", configuration, portsMapping(configuration));
+            fail("a million iterations should exceed the budget");
+        } catch (RenderBudgetExceededException e) {
+            assertThat(e.getLimit()).isEqualTo(RenderBudgetExceededException.Limit.RENDER_TIME);
+        }
+    }
+}
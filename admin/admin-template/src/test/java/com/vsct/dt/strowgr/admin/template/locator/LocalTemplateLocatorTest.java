@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.locator;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Resources;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class LocalTemplateLocatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalTemplateLocator locator;
+
+    @Before
+    public void setUp() {
+        locator = new LocalTemplateLocator(ImmutableList.of(folder.getRoot().toPath()), ImmutableList.of("template."), 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        locator.close();
+    }
+
+    @Test
+    public void should_support_file_and_classpath_uris_only() {
+        assertThat(locator.supports("file:///templates/haproxy.conf")).isTrue();
+        assertThat(locator.supports("classpath:haproxy.conf")).isTrue();
+        assertThat(locator.supports("http://templates/haproxy.conf")).isFalse();
+        assertThat(locator.supports(null)).isFalse();
+    }
+
+    @Test
+    public void should_read_template_from_classpath() throws Exception {
+        String expected = Resources.toString(Resources.getResource("template.standard.context.mustache"), StandardCharsets.UTF_8);
+
+        assertThat(locator.readTemplate("classpath:template.standard.context.mustache")).isEqualTo(Optional.of(expected));
+        assertThat(locator.readTemplate("classpath:/template.standard.context.mustache")).isEqualTo(Optional.of(expected));
+        assertThat(locator.readTemplate("classpath:unknown.mustache")).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void should_read_template_again_once_its_file_has_changed() throws Exception {
+        Path file = folder.newFile("haproxy.conf").toPath();
+        Files.write(file, "a template".getBytes(StandardCharsets.UTF_8));
+        String uri = file.toUri().toString();
+
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+
+        Files.write(file, "another template".getBytes(StandardCharsets.UTF_8));
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!locator.readTemplate(uri).equals(Optional.of("another template")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("another template"));
+
+        Files.delete(file);
+        deadline = System.currentTimeMillis() + 30_000;
+        while (locator.readTemplate(uri).isPresent() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void should_not_read_files_outside_of_root_directories() throws Exception {
+        Path outside = Files.createTempFile("haproxy", ".conf");
+        try {
+            Files.write(outside, "a template".getBytes(StandardCharsets.UTF_8));
+            Path link = folder.getRoot().toPath().resolve("link.conf");
+            Files.createSymbolicLink(link, outside);
+
+            assertThat(locator.readTemplate(outside.toUri().toString())).isEqualTo(Optional.empty());
+            assertThat(locator.readTemplate(folder.getRoot().toURI() + "../" + outside.getFileName())).isEqualTo(Optional.empty());
+            assertThat(locator.readTemplate(link.toUri().toString())).isEqualTo(Optional.empty());
+        } finally {
+            Files.delete(outside);
+        }
+    }
+
+    @Test
+    public void should_not_read_resources_outside_of_prefixes() {
+        String resource = "com/vsct/dt/strowgr/admin/template/locator/LocalTemplateLocator.class";
+
+        assertThat(locator.readTemplate("classpath:" + resource)).isEqualTo(Optional.empty());
+        assertThat(locator.readTemplate("classpath:template./../" + resource)).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void should_read_templates_beyond_the_watched_directories_limit() throws Exception {
+        for (String directory : new String[]{"a", "b", "c"}) {
+            Path file = folder.newFolder(directory).toPath().resolve("haproxy.conf");
+            Files.write(file, directory.getBytes(StandardCharsets.UTF_8));
+
+            assertThat(locator.readTemplate(file.toUri().toString())).isEqualTo(Optional.of(directory));
+        }
+
+        assertThat(locator.watchedDirectoryCount()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.locator;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.vsct.dt.strowgr.admin.core.configuration.EntryPoint;
+import com.vsct.dt.strowgr.admin.template.generator.MustacheTemplateGenerator;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class PrefetchedTemplateLocatorTest {
+
+    private static final String URI = "classpath:template.standard.context.mustache";
+
+    private LocalTemplateLocator localTemplateLocator;
+    private PrefetchedTemplateLocator locator;
+
+    @Before
+    public void setUp() {
+        localTemplateLocator = new LocalTemplateLocator(ImmutableList.of(), ImmutableList.of("template."), 1);
+        UriTemplateLocator uriTemplateLocator = new UriTemplateLocator(HttpClients.createDefault(), 0, 0, 0, MoreExecutors.directExecutor(),
+                1000, 1, Optional.of(localTemplateLocator), new MetricRegistry());
+        locator = new PrefetchedTemplateLocator(uriTemplateLocator, new MustacheTemplateGenerator(), MoreExecutors.directExecutor());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        localTemplateLocator.close();
+    }
+
+    private static EntryPoint entryPoint(String templateUri) {
+        Map<String, String> context = new HashMap<>();
+        context.put(UriTemplateLocator.URI_FIELD, templateUri);
+        return new EntryPoint("default-name", "hapocer1", "hapVersion", 0, Sets.newHashSet(), Sets.newHashSet(), context);
+    }
+
+    @Test
+    public void should_read_refreshed_templates_only() throws Exception {
+        String expected = Resources.toString(Resources.getResource("template.standard.context.mustache"), StandardCharsets.UTF_8);
+
+        assertThat(locator.getStoredTemplate(entryPoint(URI))).isEqualTo(Optional.empty());
+        assertThat(locator.refresh(Collections.singleton(URI))).isEqualTo(1);
+
+        assertThat(locator.readTemplate(entryPoint(URI))).isEqualTo(Optional.of(expected));
+        assertThat(locator.getStoredTemplate(entryPoint(URI))).isEqualTo(Optional.of(expected));
+    }
+
+    @Test
+    public void should_fetch_in_background_a_template_read_before_being_stored() throws Exception {
+        try {
+            locator.readTemplate(entryPoint(URI));
+            fail("template should not be read before being fetched");
+        } catch (IllegalStateException e) {
+            // fetched in background, synchronously with a direct executor
+        }
+
+        assertThat(locator.readTemplate(entryPoint(URI)).isPresent()).isTrue();
+    }
+
+    @Test
+    public void should_not_store_unknown_template() {
+        assertThat(locator.refresh(Collections.singleton("classpath:unknown.mustache"))).isEqualTo(0);
+        assertThat(locator.getStoredTemplate(entryPoint("classpath:unknown.mustache"))).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void should_refresh_templates_read_since_previous_refresh_and_evict_unused_ones() throws Exception {
+        String other = "classpath:template.user.context.on.server.mustache";
+        locator.refresh(Collections.singleton(URI));
+        // fetched in background, synchronously with a direct executor, then read by a pending configuration
+        try {
+            locator.readTemplate(entryPoint(other));
+        } catch (IllegalStateException e) {
+            // not fetched yet
+        }
+        locator.readTemplate(entryPoint(other));
+
+        assertThat(locator.refresh(Collections.singleton(URI))).isEqualTo(2);
+        assertThat(locator.refresh(Collections.singleton(URI))).isEqualTo(1);
+        assertThat(locator.getStoredTemplate(entryPoint(other))).isEqualTo(Optional.empty());
+    }
+}
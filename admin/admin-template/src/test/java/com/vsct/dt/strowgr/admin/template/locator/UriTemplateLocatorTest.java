@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 VSCT
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vsct.dt.strowgr.admin.template.locator;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class UriTemplateLocatorTest {
+
+    private HttpServer server;
+    private String uri;
+
+    private volatile String template = "a template";
+    private volatile int status = 200;
+    private volatile CountDownLatch responseAllowed = new CountDownLatch(0);
+    private final List<String> ifNoneMatchHeaders = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/template", this::handle);
+        server.start();
+        uri = "http://localhost:" + server.getAddress().getPort() + "/template";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        ifNoneMatchHeaders.add(ifNoneMatch);
+        try {
+            responseAllowed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String etag = "\"" + template.hashCode() + "\"";
+        if (status != 200) {
+            exchange.sendResponseHeaders(status, -1);
+        } else if (etag.equals(ifNoneMatch)) {
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            byte[] body = template.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private UriTemplateLocator locator(long ttl, long staleWhileRevalidate, long staleIfError, MetricRegistry metricRegistry) {
+        return new UriTemplateLocator(HttpClients.createDefault(), ttl, staleWhileRevalidate, staleIfError, MoreExecutors.directExecutor(), metricRegistry);
+    }
+
+    @Test
+    public void should_not_request_template_again_within_ttl() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        UriTemplateLocator locator = locator(60_000, 0, 0, metricRegistry);
+
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+
+        assertThat(ifNoneMatchHeaders).hasSize(1);
+        assertThat(metricRegistry.counter(MetricRegistry.name(UriTemplateLocator.class, "hits")).getCount()).isEqualTo(1);
+        assertThat(metricRegistry.counter(MetricRegistry.name(UriTemplateLocator.class, "misses")).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_not_register_metrics_by_uri() {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        UriTemplateLocator locator = locator(60_000, 0, 0, metricRegistry);
+        int registered = metricRegistry.getNames().size();
+
+        locator.readTemplate(uri);
+        locator.readTemplate(uri + "?version=1");
+        locator.readTemplate(uri + "?version=2");
+
+        assertThat(metricRegistry.getNames()).hasSize(registered);
+        assertThat(metricRegistry.counter(MetricRegistry.name(UriTemplateLocator.class, "misses")).getCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void should_revalidate_template_with_its_etag_after_ttl() {
+        UriTemplateLocator locator = locator(0, 0, 0, new MetricRegistry());
+
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+        template = "another template";
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("another template"));
+
+        String etag = "\"" + "a template".hashCode() + "\"";
+        assertThat(ifNoneMatchHeaders).containsExactly(null, etag, etag);
+    }
+
+    @Test
+    public void should_return_stale_template_while_revalidating_it() {
+        UriTemplateLocator locator = locator(0, 60_000, 0, new MetricRegistry());
+
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+        template = "another template";
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("another template"));
+    }
+
+    @Test
+    public void should_return_stale_template_if_it_can_not_be_revalidated() {
+        UriTemplateLocator locator = locator(0, 0, 60_000, new MetricRegistry());
+
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+        status = 503;
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+    }
+
+    @Test
+    public void should_forget_template_not_found_anymore() {
+        UriTemplateLocator locator = locator(0, 0, 60_000, new MetricRegistry());
+
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.of("a template"));
+        status = 404;
+        assertThat(locator.readTemplate(uri)).isEqualTo(Optional.empty());
+    }
+
+    @Test
+    public void should_share_one_request_between_concurrent_reads() throws Exception {
+        MetricRegistry metricRegistry = new MetricRegistry();
+        UriTemplateLocator locator = locator(60_000, 0, 0, metricRegistry);
+        responseAllowed = new CountDownLatch(1);
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Optional<String>>> reads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                reads.add(readers.submit(() -> locator.readTemplate(uri)));
+            }
+            while (metricRegistry.counter(MetricRegistry.name(UriTemplateLocator.class, "coalesced")).getCount() < 7) {
+                Thread.sleep(10);
+            }
+            responseAllowed.countDown();
+
+            for (Future<Optional<String>> read : reads) {
+                assertThat(read.get(10, TimeUnit.SECONDS)).isEqualTo(Optional.of("a template"));
+            }
+            assertThat(ifNoneMatchHeaders).hasSize(1);
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+}